@@ -0,0 +1,86 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.novell.ldap.util.Base64;
+
+/**
+ * Base64 encoding and decoding of binary values, and the LDIF safe string
+ * check LDIFWriter makes on every value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark
+{
+    @Param({"32", "1200", "65536"})
+    public int size;
+
+    private byte[] binary;
+    private String encoded;
+    private String text;
+
+    @Setup
+    public void setup()
+    {
+        binary = new byte[size];
+        for( int i = 0; i < size; i++) {
+            binary[i] = (byte)(i * 31);
+        }
+        encoded = Base64.encode(binary);
+        StringBuffer buf = new StringBuffer(size);
+        for( int i = 0; i < size; i++) {
+            buf.append((char)('a' + i % 26));
+        }
+        text = buf.toString();
+        return;
+    }
+
+    @Benchmark
+    public String encode()
+    {
+        return Base64.encode(binary);
+    }
+
+    @Benchmark
+    public byte[] decode()
+    {
+        return Base64.decode(encoded);
+    }
+
+    @Benchmark
+    public boolean isLDIFSafe()
+    {
+        return Base64.isLDIFSafe(text);
+    }
+}
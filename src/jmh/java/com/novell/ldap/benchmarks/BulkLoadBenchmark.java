@@ -0,0 +1,130 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.util.BulkLoader;
+import com.novell.ldap.util.LDIFReader;
+import com.novell.ldap.util.LDIFWriter;
+
+/**
+ * Loading LDIF content records into an in-process loopback server with
+ * BulkLoader, and one add at a time for comparison.
+ *
+ * <p>Times are per entry.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkLoadBenchmark
+{
+    private static final int BATCH = 1000;
+
+    @Param({"1", "4"})
+    public int connections;
+
+    @Param({"1", "32"})
+    public int window;
+
+    private LoopbackServer server;
+    private LDAPConnection[] conns;
+    private byte[] data;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        server = new LoopbackServer(0);
+        conns = new LDAPConnection[connections];
+        for( int i = 0; i < connections; i++) {
+            conns[i] = new LDAPConnection();
+            conns[i].connect("127.0.0.1", server.getPort());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+        LDIFWriter writer = new LDIFWriter(out, "1", false);
+        for( int i = 0; i < BATCH; i++) {
+            writer.writeMessage(new LDAPSearchResult(Messages.entry(i), null));
+        }
+        writer.finish();
+        data = out.toByteArray();
+        return;
+    }
+
+    @TearDown
+    public void tearDown()
+            throws Exception
+    {
+        for( int i = 0; i < connections; i++) {
+            conns[i].disconnect();
+        }
+        server.close();
+        return;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long load()
+            throws Exception
+    {
+        BulkLoader loader = new BulkLoader(conns, window);
+        loader.load(new LDIFReader(new ByteArrayInputStream(data)));
+        if( loader.getCompleted() != BATCH) {
+            throw new IllegalStateException(
+                                "loaded " + loader.getCompleted() + " entries");
+        }
+        return loader.getFailed();
+    }
+
+    /**
+     * Adds each entry in turn, waiting for its result, on the first
+     * connection.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void addEach()
+            throws Exception
+    {
+        LDIFReader reader = new LDIFReader(new ByteArrayInputStream(data));
+        LDAPMessage msg;
+        while( (msg = reader.readMessage()) != null) {
+            conns[0].add(((LDAPSearchResult)msg).getEntry());
+        }
+        return;
+    }
+}
@@ -0,0 +1,169 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.asn1.ASN1Identifier;
+import com.novell.ldap.asn1.ASN1Length;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+import com.novell.ldap.asn1.LBERFrameReader;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+
+/**
+ * Encoding and decoding of LDAPMessages with LBEREncoder and LBERDecoder.
+ *
+ * <p>Decoding is measured over a batch of search result entries, read
+ * either whole frame at a time through LBERFrameReader, as the connection
+ * reader does, or with legacy set, straight off the stream a few octets
+ * at a time as the reader used to.  Decoding times are per batch.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark
+{
+    /* Members added by the modify request */
+    private static final int MEMBERS = 1000;
+
+    private final LBEREncoder encoder = new LBEREncoder();
+    private RfcLDAPMessage request;
+    private RfcLDAPMessage add;
+    private RfcLDAPMessage modify;
+    private RfcLDAPMessage entry;
+
+    /**
+     * A batch of encoded search result entries.
+     */
+    @State(Scope.Benchmark)
+    public static class Batch
+    {
+        @Param({"100", "10000"})
+        public int entries;
+
+        @Param({"false", "true"})
+        public boolean legacy;
+
+        private final LBERDecoder decoder = new LBERDecoder();
+        private byte[] encoded;
+
+        @Setup
+        public void setup()
+        {
+            LBEREncoder encoder = new LBEREncoder();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for( int i = 0; i < entries; i++) {
+                byte[] e = encoder.getEncoding(Messages.searchResultEntry(i));
+                out.write(e, 0, e.length);
+            }
+            encoded = out.toByteArray();
+            return;
+        }
+    }
+
+    @Setup
+    public void setup()
+            throws LDAPException
+    {
+        request = Messages.searchRequest();
+        add = Messages.addRequest(1);
+        modify = Messages.modifyRequest(MEMBERS);
+        entry = Messages.searchResultEntry(1);
+        return;
+    }
+
+    @Benchmark
+    public byte[] encodeSearchRequest()
+    {
+        return encoder.getEncoding(request);
+    }
+
+    @Benchmark
+    public byte[] encodeAddRequest()
+    {
+        return encoder.getEncoding(add);
+    }
+
+    /**
+     * A modify adding a thousand members to a group.
+     */
+    @Benchmark
+    public byte[] encodeModifyRequest()
+    {
+        return encoder.getEncoding(modify);
+    }
+
+    @Benchmark
+    public byte[] encodeSearchResultEntry()
+    {
+        return encoder.getEncoding(entry);
+    }
+
+    @Benchmark
+    public void decodeSearchResultEntry(Batch batch, Blackhole bh)
+            throws IOException
+    {
+        LBERDecoder decoder = batch.decoder;
+        InputStream in = new ByteArrayInputStream(batch.encoded);
+        if( batch.legacy) {
+            for( int i = 0; i < batch.entries; i++) {
+                new ASN1Identifier(in);
+                ASN1Length length = new ASN1Length(in);
+                bh.consume(new RfcLDAPMessage(decoder, in, length.getLength()));
+            }
+            return;
+        }
+        LBERFrameReader framer = new LBERFrameReader(in);
+        for( int i = 0; i < batch.entries; i++) {
+            InputStream frame = framer.readFrame();
+            bh.consume(new RfcLDAPMessage(decoder, frame, framer.getLength()));
+        }
+        return;
+    }
+
+    @Benchmark
+    public void decodeGeneric(Batch batch, Blackhole bh)
+            throws IOException
+    {
+        InputStream in = new ByteArrayInputStream(batch.encoded);
+        for( int i = 0; i < batch.entries; i++) {
+            bh.consume(batch.decoder.decode(in));
+        }
+        return;
+    }
+}
@@ -0,0 +1,135 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.novell.ldap.LDAPDN;
+import com.novell.ldap.util.CanonicalDN;
+import com.novell.ldap.util.DN;
+import com.novell.ldap.util.DNPool;
+
+/**
+ * Parsing, normalizing and comparing distinguished names with util.DN,
+ * LDAPDN and CanonicalDN.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DNBenchmark
+{
+    private DN dn;
+    private DN variant;
+    private DN base;
+    private CanonicalDN canonical;
+    private CanonicalDN canonicalVariant;
+    private CanonicalDN canonicalBase;
+    private DNPool pool;
+
+    @Setup
+    public void setup()
+    {
+        dn = new DN(Messages.DN);
+        variant = new DN(Messages.DN_VARIANT);
+        base = new DN("dc=example,dc=com");
+        canonical = CanonicalDN.valueOf(Messages.DN);
+        canonicalVariant = CanonicalDN.valueOf(Messages.DN_VARIANT);
+        canonicalBase = CanonicalDN.valueOf("dc=example,dc=com");
+        pool = new DNPool();
+        pool.valueOf(Messages.DN);
+        return;
+    }
+
+    @Benchmark
+    public DN parse()
+    {
+        return new DN(Messages.DN);
+    }
+
+    @Benchmark
+    public DN parseEscaped()
+    {
+        return new DN(Messages.ESCAPED_DN);
+    }
+
+    @Benchmark
+    public String normalize()
+    {
+        return LDAPDN.normalize(Messages.DN_VARIANT);
+    }
+
+    @Benchmark
+    public boolean equalsParsed()
+    {
+        return dn.equals(variant);
+    }
+
+    @Benchmark
+    public boolean equalsStrings()
+    {
+        return LDAPDN.equals(Messages.DN, Messages.DN_VARIANT);
+    }
+
+    @Benchmark
+    public String[] explode()
+    {
+        return LDAPDN.explodeDN(Messages.ESCAPED_DN, false);
+    }
+
+    @Benchmark
+    public CanonicalDN canonicalize()
+    {
+        return CanonicalDN.valueOf(Messages.DN);
+    }
+
+    @Benchmark
+    public CanonicalDN canonicalizePooled()
+    {
+        return pool.valueOf(Messages.DN_VARIANT);
+    }
+
+    @Benchmark
+    public boolean equalsCanonical()
+    {
+        return canonical.equals(canonicalVariant);
+    }
+
+    @Benchmark
+    public boolean isDescendantOf()
+    {
+        return dn.isDescendantOf(base);
+    }
+
+    @Benchmark
+    public boolean isDescendantOfCanonical()
+    {
+        return canonical.isDescendantOf(canonicalBase);
+    }
+}
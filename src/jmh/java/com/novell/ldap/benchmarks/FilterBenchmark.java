@@ -0,0 +1,119 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.asn1.LBEREncoder;
+import com.novell.ldap.rfc2251.RfcFilter;
+import com.novell.ldap.util.CompiledFilter;
+
+/**
+ * Parsing RFC 2254 filter strings with RfcFilter, and converting them back,
+ * and evaluating compiled filters against an entry with CompiledFilter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark
+{
+    private final LBEREncoder encoder = new LBEREncoder();
+    private RfcFilter complex;
+    private LDAPEntry entry;
+    private CompiledFilter simpleCompiled;
+    private CompiledFilter complexCompiled;
+    private CompiledFilter substrings;
+
+    @Setup
+    public void setup()
+            throws LDAPException
+    {
+        complex = new RfcFilter(Messages.COMPLEX_FILTER);
+        entry = Messages.entry(1);
+        simpleCompiled = new CompiledFilter("(uid=user1)");
+        complexCompiled = new CompiledFilter(Messages.COMPLEX_FILTER);
+        substrings = new CompiledFilter("(mail=*@example.com)");
+        return;
+    }
+
+    @Benchmark
+    public RfcFilter parseSimple()
+            throws LDAPException
+    {
+        return new RfcFilter(Messages.SIMPLE_FILTER);
+    }
+
+    @Benchmark
+    public RfcFilter parseComplex()
+            throws LDAPException
+    {
+        return new RfcFilter(Messages.COMPLEX_FILTER);
+    }
+
+    @Benchmark
+    public byte[] parseAndEncodeComplex()
+            throws LDAPException
+    {
+        return encoder.getEncoding(new RfcFilter(Messages.COMPLEX_FILTER));
+    }
+
+    @Benchmark
+    public String filterToString()
+    {
+        return complex.filterToString();
+    }
+
+    @Benchmark
+    public CompiledFilter compileComplex()
+            throws LDAPException
+    {
+        return new CompiledFilter(Messages.COMPLEX_FILTER);
+    }
+
+    @Benchmark
+    public boolean evaluateSimple()
+    {
+        return simpleCompiled.matches(entry);
+    }
+
+    @Benchmark
+    public boolean evaluateSubstrings()
+    {
+        return substrings.matches(entry);
+    }
+
+    @Benchmark
+    public boolean evaluateComplex()
+    {
+        return complexCompiled.matches(entry);
+    }
+}
@@ -0,0 +1,192 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.util.LDIFReader;
+import com.novell.ldap.util.LDIFWriter;
+
+/**
+ * Writing and reading LDIF content records with LDIFWriter and LDIFReader.
+ *
+ * <p>Times are per entry.  The read benchmarks taking a Large state read
+ * enough entries to be split into many batches, sequentially or by a
+ * parallel reader from a stream or a mapped file.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LDIFBenchmark
+{
+    private static final int BATCH = 100;
+    private static final int LARGE = 20000;
+
+    private LDAPSearchResult[] results;
+    private byte[] data;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        results = new LDAPSearchResult[BATCH];
+        for( int i = 0; i < BATCH; i++) {
+            results[i] = new LDAPSearchResult(Messages.entry(i), null);
+        }
+        data = write().toByteArray();
+        return;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public ByteArrayOutputStream write()
+            throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        LDIFWriter writer = new LDIFWriter(out, "1", false);
+        for( int i = 0; i < BATCH; i++) {
+            writer.writeMessage(results[i]);
+        }
+        writer.finish();
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void read(Blackhole bh)
+            throws Exception
+    {
+        LDIFReader reader = new LDIFReader(new ByteArrayInputStream(data));
+        LDAPMessage msg;
+        int count = 0;
+        while( (msg = reader.readMessage()) != null) {
+            bh.consume(msg);
+            count++;
+        }
+        if( count != BATCH) {
+            throw new IllegalStateException("read " + count + " entries");
+        }
+        return;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LARGE)
+    public void readLarge(Large large, Blackhole bh)
+            throws Exception
+    {
+        read(new LDIFReader(new ByteArrayInputStream(large.data)), LARGE, bh);
+        return;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LARGE)
+    public void readParallel(Large large, Blackhole bh)
+            throws Exception
+    {
+        read(LDIFReader.newParallelReader(
+                    new ByteArrayInputStream(large.data), large.threads),
+             LARGE, bh);
+        return;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LARGE)
+    public void readMapped(Large large, Blackhole bh)
+            throws Exception
+    {
+        read(LDIFReader.newParallelReader(large.file, large.threads),
+             LARGE, bh);
+        return;
+    }
+
+    private static void read(LDIFReader reader, int expected, Blackhole bh)
+            throws Exception
+    {
+        LDAPMessage msg;
+        int count = 0;
+        while( (msg = reader.readMessage()) != null) {
+            bh.consume(msg);
+            count++;
+        }
+        if( count != expected) {
+            throw new IllegalStateException("read " + count + " entries");
+        }
+        return;
+    }
+
+    /**
+     * LARGE entries, in memory and in a file.
+     */
+    @State(Scope.Benchmark)
+    public static class Large
+    {
+        @Param({"1", "4"})
+        public int threads;
+
+        private byte[] data;
+        private File file;
+
+        @Setup
+        public void setup()
+                throws Exception
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            LDIFWriter writer = new LDIFWriter(out, "1", false);
+            for( int i = 0; i < LARGE; i++) {
+                writer.writeMessage(new LDAPSearchResult(Messages.entry(i),
+                                                         null));
+            }
+            writer.finish();
+            data = out.toByteArray();
+            file = File.createTempFile("LDIFBenchmark", ".ldif");
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(data);
+            fos.close();
+            return;
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            file.delete();
+            return;
+        }
+    }
+}
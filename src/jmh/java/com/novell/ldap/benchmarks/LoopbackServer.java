@@ -0,0 +1,205 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+
+/**
+ * A minimal in-process LDAP server for end to end benchmarks.
+ *
+ * <p>Binds, searches, updates and unbinds are understood.  Every bind and
+ * update succeeds and every search returns the same pre-encoded entries,
+ * whatever the attributes requested.
+ * Other requests get no reply.</p>
+ */
+final class LoopbackServer implements Runnable
+{
+    private final ServerSocket listener;
+    private final byte[][] entries;
+    private volatile boolean closed = false;
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     *
+     * @param count The number of entries each search returns.
+     */
+    LoopbackServer(int count)
+            throws IOException
+    {
+        this(new LDAPEntry[count]);
+        return;
+    }
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     *
+     * @param entries The entries each search returns, with
+     *                Messages.entry(i) in place of a null entry.
+     */
+    LoopbackServer(LDAPEntry[] entries)
+            throws IOException
+    {
+        LBEREncoder encoder = new LBEREncoder();
+        this.entries = new byte[entries.length][];
+        for( int i = 0; i < entries.length; i++) {
+            // The protocolOp only, the message ID is added per request
+            this.entries[i] = encoder.getEncoding(((entries[i] == null) ?
+                    Messages.searchResultEntry(i) :
+                    Messages.searchResultEntry(entries[i])).get(1));
+        }
+        listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread t = new Thread(this, "LoopbackServer");
+        t.setDaemon(true);
+        t.start();
+        return;
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    int getPort()
+    {
+        return listener.getLocalPort();
+    }
+
+    void close()
+            throws IOException
+    {
+        closed = true;
+        listener.close();
+        return;
+    }
+
+    public void run()
+    {
+        while( ! closed) {
+            try {
+                final Socket s = listener.accept();
+                Thread t = new Thread("LoopbackServer connection") {
+                    public void run()
+                    {
+                        serve(s);
+                        return;
+                    }
+                };
+                t.setDaemon(true);
+                t.start();
+            } catch( IOException ioe) {
+                // Closed
+            }
+        }
+        return;
+    }
+
+    private void serve(Socket s)
+    {
+        try {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out =
+                    new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+            LBERDecoder decoder = new LBERDecoder();
+            for(;;) {
+                ASN1Sequence request = (ASN1Sequence)decoder.decode(in);
+                if( request == null) {
+                    break;
+                }
+                int id = ((ASN1Integer)request.get(0)).intValue();
+                switch( request.get(1).getIdentifier().getTag()) {
+                    case LDAPMessage.BIND_REQUEST:
+                        writeMessage(out, id, result(LDAPMessage.BIND_RESPONSE));
+                        break;
+                    case LDAPMessage.SEARCH_REQUEST:
+                        for( int i = 0; i < entries.length; i++) {
+                            writeMessage(out, id, entries[i]);
+                        }
+                        writeMessage(out, id, result(LDAPMessage.SEARCH_RESULT));
+                        break;
+                    case LDAPMessage.ADD_REQUEST:
+                    case LDAPMessage.DEL_REQUEST:
+                    case LDAPMessage.MODIFY_REQUEST:
+                    case LDAPMessage.MODIFY_RDN_REQUEST:
+                        // Each response tag is one more than its request's
+                        writeMessage(out, id, result(request.get(1)
+                                        .getIdentifier().getTag() + 1));
+                        break;
+                    case LDAPMessage.UNBIND_REQUEST:
+                        s.close();
+                        return;
+                    default:
+                        break;
+                }
+                out.flush();
+            }
+        } catch( IOException ioe) {
+            // Client went away
+        }
+        try {
+            s.close();
+        } catch( IOException ioe) {
+            // Ignore
+        }
+        return;
+    }
+
+    /**
+     * Returns a successful LDAPResult with the specified application tag.
+     */
+    private static byte[] result(int tag)
+    {
+        return new byte[] {
+            (byte)(0x60 | tag), 7,
+            0x0a, 1, 0,         // resultCode success
+            0x04, 0,            // matchedDN
+            0x04, 0 };          // errorMessage
+    }
+
+    private static void writeMessage(OutputStream out, int id, byte[] op)
+            throws IOException
+    {
+        byte[] msgId = new byte[] {
+            0x02, 4, (byte)(id >> 24), (byte)(id >> 16), (byte)(id >> 8),
+            (byte)id };
+        int len = msgId.length + op.length;
+        out.write(0x30);
+        if( len < 0x80) {
+            out.write(len);
+        } else {
+            out.write(0x84);
+            out.write(len >> 24);
+            out.write(len >> 16);
+            out.write(len >> 8);
+            out.write(len);
+        }
+        out.write(msgId);
+        out.write(op);
+        return;
+    }
+}
@@ -0,0 +1,280 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.util.Iterator;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPModification;
+import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.asn1.ASN1Boolean;
+import com.novell.ldap.asn1.ASN1Enumerated;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1SequenceOf;
+import com.novell.ldap.asn1.ASN1Set;
+import com.novell.ldap.asn1.ASN1SetOf;
+import com.novell.ldap.rfc2251.RfcAddRequest;
+import com.novell.ldap.rfc2251.RfcAttributeDescription;
+import com.novell.ldap.rfc2251.RfcAttributeDescriptionList;
+import com.novell.ldap.rfc2251.RfcAttributeList;
+import com.novell.ldap.rfc2251.RfcAttributeTypeAndValues;
+import com.novell.ldap.rfc2251.RfcAttributeValue;
+import com.novell.ldap.rfc2251.RfcFilter;
+import com.novell.ldap.rfc2251.RfcLDAPDN;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+import com.novell.ldap.rfc2251.RfcModifyRequest;
+import com.novell.ldap.rfc2251.RfcRequest;
+import com.novell.ldap.rfc2251.RfcSearchRequest;
+import com.novell.ldap.rfc2251.RfcSearchResultEntry;
+
+/**
+ * Realistic entries, filters and distinguished names shared by the
+ * benchmarks.
+ */
+final class Messages
+{
+    /** A filter of the kind an application sends to look up one user */
+    static final String SIMPLE_FILTER = "(uid=jdoe)";
+
+    /** A filter using every filter type and an escaped value */
+    static final String COMPLEX_FILTER =
+        "(&(objectClass=inetOrgPerson)" +
+          "(|(cn=John*)(sn=*oe)(mail=*@example.com)(cn~=jon))" +
+          "(!(employeeType=contractor))" +
+          "(createTimestamp>=20240101000000Z)" +
+          "(modifyTimestamp<=20251231235959Z)" +
+          "(description=*a\\2ab*c\\28d\\29*)" +
+          "(cn:caseExactMatch:=John Doe))";
+
+    /** A DN with a multi-valued RDN */
+    static final String DN =
+        "cn=John Doe+uid=jdoe,ou=Engineering,ou=People,dc=example,dc=com";
+
+    /** The DN above as another client might spell it */
+    static final String DN_VARIANT =
+        "UID=jdoe + CN=john doe, OU=engineering, OU=people, DC=Example, DC=COM";
+
+    /** A DN with escaped characters */
+    static final String ESCAPED_DN =
+        "CN=Doe\\, John \\28Contractor\\29,OU=People,DC=Example,DC=COM";
+
+    private Messages()
+    {
+    }
+
+    /**
+     * Returns the attributes of a typical inetOrgPerson entry, including a
+     * binary certificate.
+     */
+    static LDAPAttributeSet person(int i)
+    {
+        LDAPAttributeSet attrs = new LDAPAttributeSet();
+        attrs.add(new LDAPAttribute("objectClass", new String[] {
+            "top", "person", "organizationalPerson", "inetOrgPerson"}));
+        attrs.add(new LDAPAttribute("cn", "User " + i));
+        attrs.add(new LDAPAttribute("sn", "User"));
+        attrs.add(new LDAPAttribute("givenName", "Number " + i));
+        attrs.add(new LDAPAttribute("uid", "user" + i));
+        attrs.add(new LDAPAttribute("mail", "user" + i + "@example.com"));
+        attrs.add(new LDAPAttribute("telephoneNumber", new String[] {
+            "+1 801 555 " + (1000 + i % 9000), "+1 801 555 0100"}));
+        attrs.add(new LDAPAttribute("title", "Senior Engineer"));
+        attrs.add(new LDAPAttribute("ou", "Engineering"));
+        attrs.add(new LDAPAttribute("l", "Provo"));
+        attrs.add(new LDAPAttribute("employeeNumber", Integer.toString(i)));
+        attrs.add(new LDAPAttribute("description",
+            "A fairly ordinary description of entry number " + i +
+            ", long enough to need a two octet length."));
+        attrs.add(new LDAPAttribute("memberOf", new String[] {
+            "cn=engineering,ou=groups,dc=example,dc=com",
+            "cn=all staff,ou=groups,dc=example,dc=com",
+            "cn=vpn users,ou=groups,dc=example,dc=com"}));
+        byte[] cert = new byte[1200];
+        for( int j = 0; j < cert.length; j++) {
+            cert[j] = (byte)(j * 31 + i);
+        }
+        attrs.add(new LDAPAttribute("userCertificate;binary", cert));
+        return attrs;
+    }
+
+    /**
+     * Returns the DN of entry i.
+     */
+    static String dn(int i)
+    {
+        return "uid=user" + i + ",ou=People,dc=example,dc=com";
+    }
+
+    /**
+     * Returns entry i.
+     */
+    static LDAPEntry entry(int i)
+    {
+        return new LDAPEntry(dn(i), person(i));
+    }
+
+    /**
+     * Returns a subschema entry in the style of eDirectory, defining count
+     * attribute types and an object class for every four of them.
+     */
+    static LDAPEntry schema(int count)
+    {
+        LDAPAttribute types = new LDAPAttribute("attributeTypes");
+        LDAPAttribute classes = new LDAPAttribute("objectClasses");
+        for( int i = 0; i < count; i++) {
+            types.addValue("( 2.16.840.1.113719.1.1.4.1." + i +
+                    " NAME 'attribute" + i + "' DESC 'Attribute number " + i +
+                    "' EQUALITY caseIgnoreMatch SUBSTR" +
+                    " caseIgnoreSubstringsMatch" +
+                    " SYNTAX 1.3.6.1.4.1.1466.115.121.1.15{64512}" +
+                    " SINGLE-VALUE X-NDS_PUBLIC_READ '1'" +
+                    " X-NDS_LOWER_BOUND '1' X-NDS_UPPER_BOUND '64512' )");
+            if( i % 4 == 3) {
+                classes.addValue("( 2.16.840.1.113719.1.1.6.1." + i +
+                        " NAME 'class" + i + "' SUP top STRUCTURAL" +
+                        " MUST ( cn $ attribute" + i + " )" +
+                        " MAY ( attribute" + (i - 1) + " $ attribute" +
+                        (i - 2) + " $ attribute" + (i - 3) + " $ description" +
+                        " $ seeAlso ) X-NDS_NAMING 'cn'" +
+                        " X-NDS_CONTAINMENT ( 'Organization' )" +
+                        " X-NDS_NOT_CONTAINER '1' )");
+            }
+        }
+        LDAPAttributeSet attrs = new LDAPAttributeSet();
+        attrs.add(types);
+        attrs.add(classes);
+        attrs.add(new LDAPAttribute("modifyTimestamp", "20250101000000Z"));
+        return new LDAPEntry("cn=schema", attrs);
+    }
+
+    /**
+     * Returns a subtree search request for a handful of attributes.
+     */
+    static RfcLDAPMessage searchRequest()
+            throws LDAPException
+    {
+        return new RfcLDAPMessage((RfcRequest)new RfcSearchRequest(
+                new RfcLDAPDN("ou=People,dc=example,dc=com"),
+                new ASN1Enumerated(LDAPConnection.SCOPE_SUB),
+                new ASN1Enumerated(LDAPSearchConstraints.DEREF_NEVER),
+                new ASN1Integer(1000),
+                new ASN1Integer(0),
+                new ASN1Boolean(false),
+                new RfcFilter(COMPLEX_FILTER),
+                new RfcAttributeDescriptionList(new String[] {
+                    "cn", "sn", "mail", "telephoneNumber", "memberOf"})));
+    }
+
+    /**
+     * Returns the request adding entry i.
+     */
+    static RfcLDAPMessage addRequest(int i)
+            throws LDAPException
+    {
+        LDAPAttributeSet attrs = person(i);
+        RfcAttributeList list = new RfcAttributeList(attrs.size());
+        Iterator iter = attrs.iterator();
+        while( iter.hasNext()) {
+            LDAPAttribute attr = (LDAPAttribute)iter.next();
+            list.add(new RfcAttributeTypeAndValues(
+                    new RfcAttributeDescription(attr.getName()),
+                    values(attr.getByteValueArray())));
+        }
+        return new RfcLDAPMessage((RfcRequest)new RfcAddRequest(
+                new RfcLDAPDN(dn(i)), list));
+    }
+
+    /**
+     * Returns a request adding count members to a group, and replacing its
+     * description, as a bulk group update does.
+     */
+    static RfcLDAPMessage modifyRequest(int count)
+            throws LDAPException
+    {
+        ASN1SetOf members = new ASN1SetOf(count);
+        for( int i = 0; i < count; i++) {
+            members.add(new RfcAttributeValue(dn(i)));
+        }
+        ASN1SetOf description = new ASN1SetOf(1);
+        description.add(new RfcAttributeValue("Everyone in engineering"));
+        ASN1SequenceOf mods = new ASN1SequenceOf(2);
+        mods.add(modification(LDAPModification.ADD, "member", members));
+        mods.add(modification(LDAPModification.REPLACE, "description",
+                              description));
+        return new RfcLDAPMessage((RfcRequest)new RfcModifyRequest(
+                new RfcLDAPDN("cn=engineering,ou=groups,dc=example,dc=com"),
+                mods));
+    }
+
+    private static ASN1Sequence modification(int op, String name,
+                                             ASN1SetOf values)
+    {
+        ASN1Sequence change = new ASN1Sequence(2);
+        change.add(new RfcAttributeDescription(name));
+        change.add(values);
+        ASN1Sequence mod = new ASN1Sequence(2);
+        mod.add(new ASN1Enumerated(op));
+        mod.add(change);
+        return mod;
+    }
+
+    private static ASN1SetOf values(byte[][] values)
+    {
+        ASN1SetOf vals = new ASN1SetOf(values.length);
+        for( int j = 0; j < values.length; j++) {
+            vals.add(new RfcAttributeValue(values[j]));
+        }
+        return vals;
+    }
+
+    /**
+     * Returns the search result entry message for entry i.
+     */
+    static RfcLDAPMessage searchResultEntry(int i)
+    {
+        return searchResultEntry(entry(i));
+    }
+
+    /**
+     * Returns the search result entry message for an entry.
+     */
+    static RfcLDAPMessage searchResultEntry(LDAPEntry entry)
+    {
+        ASN1Sequence list = new ASN1Sequence();
+        Iterator attrs = entry.getAttributeSet().iterator();
+        while( attrs.hasNext()) {
+            LDAPAttribute attr = (LDAPAttribute)attrs.next();
+            ASN1Set vals = new ASN1Set();
+            byte[][] values = attr.getByteValueArray();
+            for( int j = 0; j < values.length; j++) {
+                vals.add(new ASN1OctetString(values[j]));
+            }
+            ASN1Sequence seq = new ASN1Sequence(2);
+            seq.add(new ASN1OctetString(attr.getName()));
+            seq.add(vals);
+            list.add(seq);
+        }
+        return new RfcLDAPMessage(
+                new RfcSearchResultEntry(new ASN1OctetString(entry.getDN()),
+                                         list));
+    }
+}
@@ -0,0 +1,108 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPConstraints;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPSchema;
+import com.novell.ldap.LDAPSchemaCache;
+
+/**
+ * Parsing a subschema entry, and fetching it from an in-process loopback
+ * server with and without an LDAPSchemaCache.
+ *
+ * <p>Times are per schema.  The cached fetch is within the validation
+ * interval, so it does not contact the server.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaBenchmark
+{
+    @Param({"1000", "4000"})
+    public int definitions;
+
+    private LDAPEntry entry;
+    private LoopbackServer server;
+    private LDAPConnection conn;
+    private LDAPConnection cachedConn;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        entry = Messages.schema(definitions);
+        server = new LoopbackServer(new LDAPEntry[] { entry });
+        conn = new LDAPConnection();
+        conn.connect("127.0.0.1", server.getPort());
+        cachedConn = new LDAPConnection();
+        cachedConn.connect("127.0.0.1", server.getPort());
+        LDAPConstraints cons = cachedConn.getConstraints();
+        cons.setProperty(LDAPConnection.LDAP_PROPERTY_SCHEMA_CACHE,
+                         new LDAPSchemaCache());
+        cachedConn.setConstraints(cons);
+        return;
+    }
+
+    @TearDown
+    public void tearDown()
+            throws Exception
+    {
+        conn.disconnect();
+        cachedConn.disconnect();
+        server.close();
+        return;
+    }
+
+    @Benchmark
+    public LDAPSchema parse()
+    {
+        return new LDAPSchema(entry);
+    }
+
+    @Benchmark
+    public LDAPSchema fetch()
+            throws Exception
+    {
+        return conn.fetchSchema("cn=schema");
+    }
+
+    @Benchmark
+    public LDAPSchema fetchCached()
+            throws Exception
+    {
+        return cachedConn.fetchSchema("cn=schema");
+    }
+}
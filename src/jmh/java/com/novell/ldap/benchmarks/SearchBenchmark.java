@@ -0,0 +1,118 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPSearchResults;
+
+/**
+ * End to end subtree searches against an in-process loopback server,
+ * covering the request write, the reader thread, framing, decoding, the
+ * reply queue and entry creation.
+ *
+ * <p>Times are per search.  The framed and unframed decoding of the
+ * replies is compared on its own in CodecBenchmark.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark
+{
+    @Param({"1", "1000", "10000"})
+    public int entries;
+
+    private LoopbackServer server;
+    private LDAPConnection conn;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        server = new LoopbackServer(entries);
+        conn = new LDAPConnection();
+        conn.connect("127.0.0.1", server.getPort());
+        conn.bind(LDAPConnection.LDAP_V3, "cn=admin,dc=example,dc=com",
+                  "secret".getBytes("UTF-8"));
+        return;
+    }
+
+    @TearDown
+    public void tearDown()
+            throws Exception
+    {
+        conn.disconnect();
+        server.close();
+        return;
+    }
+
+    /**
+     * Reads one attribute of every entry, as most applications do.
+     */
+    @Benchmark
+    public void searchReadOneAttribute(Blackhole bh)
+            throws Exception
+    {
+        LDAPSearchResults results = conn.search("ou=People,dc=example,dc=com",
+                LDAPConnection.SCOPE_SUB, Messages.COMPLEX_FILTER,
+                new String[] {"mail"}, false);
+        while( results.hasMore()) {
+            bh.consume(results.next().getAttribute("mail").getStringValue());
+        }
+        return;
+    }
+
+    /**
+     * Reads every value of every attribute of every entry.
+     */
+    @Benchmark
+    public void searchReadAllAttributes(Blackhole bh)
+            throws Exception
+    {
+        LDAPSearchResults results = conn.search("ou=People,dc=example,dc=com",
+                LDAPConnection.SCOPE_SUB, Messages.COMPLEX_FILTER,
+                null, false);
+        while( results.hasMore()) {
+            LDAPEntry entry = results.next();
+            Iterator attrs = entry.getAttributeSet().iterator();
+            while( attrs.hasNext()) {
+                bh.consume(((LDAPAttribute)attrs.next()).getByteValueArray());
+            }
+        }
+        return;
+    }
+}
@@ -0,0 +1,121 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPExternalForm;
+import com.novell.ldap.LDAPSearchResult;
+
+/**
+ * Java serialization of LDAPEntry and LDAPSearchResult objects, in the XML
+ * and the binary external forms.
+ *
+ * <p>The entry has no binary attribute, as the XML form cannot hold one.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark
+{
+    @Param({"XML", "BINARY"})
+    public String form;
+
+    private LDAPEntry entry;
+    private LDAPSearchResult result;
+    private byte[] entryData;
+    private byte[] resultData;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        LDAPExternalForm.setDefault(form.equals("XML") ?
+                            LDAPExternalForm.XML : LDAPExternalForm.BINARY);
+        entry = Messages.entry(1);
+        entry.getAttributeSet().remove("userCertificate;binary");
+        result = new LDAPSearchResult(entry, null);
+        entryData = write(entry);
+        resultData = write(result);
+        return;
+    }
+
+    @Benchmark
+    public byte[] writeEntry()
+            throws IOException
+    {
+        return write(entry);
+    }
+
+    @Benchmark
+    public Object readEntry()
+            throws IOException, ClassNotFoundException
+    {
+        return read(entryData);
+    }
+
+    @Benchmark
+    public byte[] writeSearchResult()
+            throws IOException
+    {
+        return write(result);
+    }
+
+    @Benchmark
+    public Object readSearchResult()
+            throws IOException, ClassNotFoundException
+    {
+        return read(resultData);
+    }
+
+    private static byte[] write(Object o)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object read(byte[] data)
+            throws IOException, ClassNotFoundException
+    {
+        return new ObjectInputStream(new ByteArrayInputStream(data))
+                                                            .readObject();
+    }
+}
@@ -18,9 +18,13 @@ package com.novell.ldap;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
 
 
 import com.novell.ldap.asn1.*;
@@ -64,8 +68,9 @@ final class Connection
     private BindProperties bindProperties = null;
     private int bindSemaphoreId = 0; // 0 is never used by to lock a semaphore
 
-    private Thread reader = null; // New thread that reads data from the server.
-    private Thread deadReader = null; // Identity of last reader thread
+    // Reads data from the server, a Thread or a SelectorReader.Registration
+    private Object reader = null;
+    private Object deadReader = null; // Identity of last reader
     private IOException deadReaderException = null; // Last exception of reader
 
     private LBEREncoder encoder = new LBEREncoder();
@@ -82,6 +87,15 @@ final class Connection
 
     private InputStream in = null;
     private OutputStream out = null;
+
+    // All writes to out go through the pipeline, in the order queued
+    private WritePipeline pipeline = new WritePipeline();
+    // When true, writers queue requests and return once a batch containing
+    // them has been written, so concurrent requests share a write and flush
+    private boolean pipelinedWrites = false;
+    // When true, replies are read by the shared selector threads rather
+    // than a reader thread of this connection
+    private boolean selectorTransport = false;
     // When set to true the client connection is up and running
     private boolean clientActive = true;
 
@@ -100,7 +114,23 @@ final class Connection
 
 
     // Place to save message information classes
-    private MessageVector messages = new MessageVector(5,5);
+    private MessageMap messages = new MessageMap();
+
+    // Default limit on the octets of replies spilled on a connection
+    /* package */
+    static final int DEFAULT_MAX_SPILL_SIZE = 32 * 1024 * 1024;
+
+    // Number of messages whose replies are being spilled, when non zero
+    // the reader checks each reply's message ID before decoding it
+    private final java.util.concurrent.atomic.AtomicInteger spillingCount =
+                    new java.util.concurrent.atomic.AtomicInteger(0);
+
+    // Octets of replies spilled by all messages, limited to maxSpillSize
+    private final java.util.concurrent.atomic.AtomicLong spilledSize =
+                    new java.util.concurrent.atomic.AtomicLong(0);
+
+    // Message whose full reply queue the reader thread is waiting on
+    private volatile Message readerBlockedOn = null;
 
     // Connection created to follow referral
     private ReferralInfo activeReferral = null;
@@ -113,7 +143,22 @@ final class Connection
     // The LDAPSocketFactory used for this connection
     private LDAPSocketFactory mySocketFactory = null;
 
+    // The ThreadFactory to be used as the default for new connections
+    static private ThreadFactory defaultThreadFactory = null;
+    // Creates the threads of this connection, null for plain threads
+    private ThreadFactory threadFactory = defaultThreadFactory;
+
     private int myTimeOut = 0;
+    // Time allowed to connect to each host, 0 for the system limit
+    private int connectTimeout = 0;
+    // Delay before the next host in a list is tried in parallel
+    private int connectStagger = HostConnector.DEFAULT_STAGGER;
+    // Time a host that failed to connect is tried after the others
+    private int hostCooldown = HostConnector.DEFAULT_COOLDOWN;
+    // Largest reply accepted, in octets, 0 for no limit
+    private int maxPduSize = 0;
+    // Most octets of replies spilled at once, 0 for no limit
+    private int maxSpillSize = DEFAULT_MAX_SPILL_SIZE;
     private String host = null;
     private int port = 0;
     // Number of clones in addition to original LDAPConnection using this
@@ -183,6 +228,14 @@ final class Connection
         c.host = this.host;
         c.port = this.port;
         c.protocol = this.protocol;
+        c.pipelinedWrites = this.pipelinedWrites;
+        c.selectorTransport = this.selectorTransport;
+        c.threadFactory = this.threadFactory;
+        c.connectTimeout = this.connectTimeout;
+        c.connectStagger = this.connectStagger;
+        c.hostCooldown = this.hostCooldown;
+        c.maxPduSize = this.maxPduSize;
+        c.maxSpillSize = this.maxSpillSize;
         return c;
     }
 
@@ -225,6 +278,14 @@ final class Connection
         c.host = this.host;
         c.port = this.port;
         c.protocol = this.protocol;
+        c.pipelinedWrites = this.pipelinedWrites;
+        c.selectorTransport = this.selectorTransport;
+        c.threadFactory = this.threadFactory;
+        c.connectTimeout = this.connectTimeout;
+        c.connectStagger = this.connectStagger;
+        c.hostCooldown = this.hostCooldown;
+        c.maxPduSize = this.maxPduSize;
+        c.maxSpillSize = this.maxSpillSize;
         return c;
     }
 
@@ -342,9 +403,9 @@ final class Connection
      * Non Null = wait for the reader to start
      * Returns when the ID matches, i.e. reader stopped, or reader started.
      *
-     * @param the thread id to match
+     * @param the thread id, or selector registration, to match
      */
-    private void waitForReader( Thread thread)
+    private void waitForReader( Object thread)
         throws LDAPException
     {
         // wait for previous reader thread to terminate
@@ -405,21 +466,39 @@ final class Connection
     void connect(String host, int port)
       throws LDAPException
     {
-        connect( host, port, 0);
+        connect( new String[] { host }, new int[] { port }, 0);
         return;
     }
 
     /**
-    * Constructs a TCP/IP connection to a server specified in host and port.
-    * Starts the reader thread.
+    * Constructs a TCP/IP connection to the first of a list of servers to
+    * accept it.
     *
-    * @param host The host to connect to.
+    * @param hosts The hosts to connect to, in order of preference.
     *<br><br>
-    * @param port The port on the host to connect to.
+    * @param ports The port on each host to connect to.
+    *
+    * @see HostConnector
+    */
+    /* package */
+    void connect(String[] hosts, int[] ports)
+      throws LDAPException
+    {
+        connect( hosts, ports, 0);
+        return;
+    }
+
+    /**
+    * Constructs a TCP/IP connection to one of the servers specified in
+    * hosts and ports.  Starts the reader thread.
+    *
+    * @param hosts The hosts to connect to.
+    *<br><br>
+    * @param ports The port on each host to connect to.
     *<br><br>
     * @param semaphoreId The write semaphore ID to use for the connect
     */
-    private void connect(String host, int port, int semaphoreId)
+    private void connect(String[] hosts, int[] ports, int semaphoreId)
       throws LDAPException
     {
         /* Synchronized so all variables are in a consistant state and
@@ -428,7 +507,9 @@ final class Connection
          */
         if( Debug.LDAP_DEBUG) {
             Debug.trace( Debug.messages, name +
-                "connect(" + host + "," + port + ")");
+                "connect(" + hosts[0] + "," + ports[0] + ")" +
+                ((hosts.length > 1) ? (" and " + (hosts.length - 1) +
+                                       " other hosts") : ""));
         }
         // Wait for active reader to terminate
         waitForReader(null);
@@ -441,26 +522,42 @@ final class Connection
         int semId = acquireWriteSemaphore( semaphoreId);
 
         // Make socket connection to specified host and port
-        if( port == 0) {
-            port = LDAPConnection.DEFAULT_PORT;
+        for( int i = 0; i < ports.length; i++) {
+            if( ports[i] == 0) {
+                ports[i] = LDAPConnection.DEFAULT_PORT;
+            }
         }
+        String host = hosts[0];
+        int port = ports[0];
 
         try {
             if( (in == null) || (out == null) ) {
-                if(mySocketFactory != null) {
-                    if( Debug.LDAP_DEBUG) {
-                        Debug.trace( Debug.messages, name +
-                            "connect(socketFactory specified)");
-                    }
-                    socket = mySocketFactory.createSocket(host, port);
-                } else {
-                	socket = new Socket(host, port);
-                	if(myTimeOut > 0)
-                	{
-                		socket.setSoTimeout(myTimeOut);
-                	}
-                }
+                HostConnector connector = new HostConnector( hosts, ports,
+                                connectTimeout, connectStagger, hostCooldown);
+                try {
+                    socket = connector.connect( new HostConnector.Opener() {
+                        public Socket open(String host, int port)
+                                throws IOException
+                        {
+                            return openSocket( host, port);
+                        }
 
+                        public boolean isTimed()
+                        {
+                            return (mySocketFactory == null) ||
+                                (mySocketFactory instanceof
+                                                LDAPSelectorSocketFactory);
+                        }
+
+                        public Thread newThread(Runnable r)
+                        {
+                            return Connection.this.newThread( r);
+                        }
+                    });
+                } finally {
+                    host = connector.getHost();
+                    port = connector.getPort();
+                }
 
                 in = socket.getInputStream();
                 out = socket.getOutputStream();
@@ -492,6 +589,47 @@ final class Connection
         return;
     }
 
+    /*
+     * Opens a socket to host and port, within the connect time limit
+     * unless made by a socket factory other than LDAPSelectorSocketFactory.
+     * May be called on several threads at once when racing a list of hosts.
+     */
+    private Socket openSocket(String host, int port)
+            throws IOException
+    {
+        if(mySocketFactory != null) {
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, name +
+                    "connect(socketFactory specified)");
+            }
+            if( mySocketFactory instanceof LDAPSelectorSocketFactory) {
+                return ((LDAPSelectorSocketFactory)mySocketFactory)
+                                .createSocket(host, port, connectTimeout);
+            }
+            return mySocketFactory.createSocket(host, port);
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if( address.isUnresolved()) {
+            throw new UnknownHostException(host);
+        }
+        Socket s;
+        if( selectorTransport) {
+            s = SocketChannel.open().socket();
+        } else {
+            s = new Socket();
+        }
+        try {
+            s.connect(address, connectTimeout);
+        } catch( IOException ioe) {
+            s.close();
+            throw ioe;
+        }
+        if( ! selectorTransport && (myTimeOut > 0)) {
+            s.setSoTimeout(myTimeOut);
+        }
+        return s;
+    }
+
     /**
      *  Indicates whether clones exist for LDAPConnection
      *
@@ -611,6 +749,63 @@ final class Connection
         return;
     }
 
+    /**
+     * sets the default thread factory
+     *
+     * @param factory the default factory to set, or null for plain threads
+     */
+    /* package */
+    final static void setDefaultThreadFactory( ThreadFactory factory)
+    {
+        defaultThreadFactory = factory;
+        TimeoutScheduler.setThreadFactory( factory);
+        return;
+    }
+
+    /**
+     * gets the default thread factory
+     */
+    /* package */
+    final static ThreadFactory getDefaultThreadFactory()
+    {
+        return defaultThreadFactory;
+    }
+
+    /**
+     * sets the thread factory used for threads started by this connection
+     *
+     * @param factory the factory, or null for plain threads
+     */
+    /* package */
+    final void setThreadFactory( ThreadFactory factory)
+    {
+        threadFactory = factory;
+        return;
+    }
+
+    /**
+     * gets the thread factory used for threads started by this connection
+     *
+     * @return the factory, or null if plain threads are used
+     */
+    /* package */
+    final ThreadFactory getThreadFactory()
+    {
+        return threadFactory;
+    }
+
+    /*
+     * Creates a thread, not started, with the factory of this connection.
+     */
+    private Thread newThread( Runnable r)
+    {
+        ThreadFactory factory = threadFactory;
+        if( factory == null) {
+            return new Thread(r);
+        }
+        return factory.newThread(r);
+    }
+
     /**
      * gets the socket factory used for this connection
      *
@@ -698,6 +893,271 @@ final class Connection
     }
 
 
+    /**
+     * Gets the time allowed to connect to each host, in milliseconds.
+     */
+    /* package */
+    final int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the time allowed to connect to each host, in milliseconds, or
+     * 0 for no limit other than the system's.
+     */
+    /* package */
+    final void setConnectTimeout(int timeout)
+    {
+        connectTimeout = timeout;
+        return;
+    }
+
+    /**
+     * Gets the delay, in milliseconds, before the next host in a list is
+     * tried while an attempt to connect is pending.
+     */
+    /* package */
+    final int getConnectStagger()
+    {
+        return connectStagger;
+    }
+
+    /**
+     * Sets the delay, in milliseconds, before the next host in a list is
+     * tried while an attempt to connect is pending, or 0 to try each host
+     * only once the previous one has failed.
+     */
+    /* package */
+    final void setConnectStagger(int stagger)
+    {
+        connectStagger = stagger;
+        return;
+    }
+
+    /**
+     * Gets the time, in milliseconds, a host that failed to connect is
+     * tried after the other hosts in a list.
+     */
+    /* package */
+    final int getHostCooldown()
+    {
+        return hostCooldown;
+    }
+
+    /**
+     * Sets the time, in milliseconds, a host that failed to connect is
+     * tried after the other hosts in a list, or 0 to always try the hosts
+     * in the order listed.
+     */
+    /* package */
+    final void setHostCooldown(int cooldown)
+    {
+        hostCooldown = cooldown;
+        return;
+    }
+
+    /**
+     * Gets the largest reply accepted, in octets, or 0 if there is no
+     * limit.
+     */
+    /* package */
+    final int getMaxPduSize()
+    {
+        return maxPduSize;
+    }
+
+    /**
+     * Sets the largest reply accepted, in octets, or 0 for no limit.  A
+     * larger reply fails the connection before its content is read.  The
+     * limit applies from when the connection is next opened.
+     */
+    /* package */
+    final void setMaxPduSize(int size)
+    {
+        maxPduSize = size;
+        return;
+    }
+
+    /**
+     * Indicates whether requests are written through the batching
+     * write pipeline.
+     */
+    /* package */
+    final boolean isPipelinedWrites()
+    {
+        return pipelinedWrites;
+    }
+
+    /**
+     * Sets whether requests are written through the batching write
+     * pipeline.  May be changed while the connection is in use, requests
+     * are still written in the order they were queued.
+     */
+    /* package */
+    final void setPipelinedWrites(boolean pipelined)
+    {
+        pipelinedWrites = pipelined;
+        return;
+    }
+
+    /**
+     * Indicates whether new connections made by this object read replies
+     * on the shared selector threads.
+     */
+    /* package */
+    final boolean isSelectorTransport()
+    {
+        return selectorTransport;
+    }
+
+    /**
+     * Sets whether new connections made by this object read replies on
+     * the shared selector threads.  An open connection keeps its transport
+     * until it is reconnected.
+     */
+    /* package */
+    final void setSelectorTransport(boolean selector)
+    {
+        selectorTransport = selector;
+        return;
+    }
+
+    /**
+     * Indicates whether replies are currently being read by a selector
+     * thread, which must never wait for the application.
+     */
+    /* package */
+    final boolean isSelectorReader()
+    {
+        return reader instanceof SelectorReader.Registration;
+    }
+
+    /**
+     * Stops reading from the server until resumeReader is called for
+     * info.  Called by the selector thread when info's reply queue is full.
+     */
+    /* package */
+    final void pauseReader(Message info)
+    {
+        Object r = reader;
+        if( r instanceof SelectorReader.Registration) {
+            readerBlockedOn = info;
+            ((SelectorReader.Registration)r).pause();
+        }
+        return;
+    }
+
+    /**
+     * Resumes reading from the server if it was paused for info.
+     */
+    /* package */
+    final void resumeReader(Message info)
+    {
+        Object r = reader;
+        if( (readerBlockedOn == info) &&
+            (r instanceof SelectorReader.Registration)) {
+            readerBlockedOn = null;
+            ((SelectorReader.Registration)r).resume();
+        }
+        return;
+    }
+
+    /**
+     * Returns the number of messages outstanding on this connection.
+     */
+    /* package */
+    final int getMessageCount()
+    {
+        return messages.size();
+    }
+
+    /**
+     * Records the message whose full reply queue the reader thread is
+     * waiting on, or null when it is no longer waiting.
+     */
+    /* package */
+    final void setReaderBlockedOn(Message info)
+    {
+        readerBlockedOn = info;
+        return;
+    }
+
+    /**
+     * Called when a message starts spilling its replies.
+     */
+    /* package */
+    final void spillingStarted()
+    {
+        spillingCount.incrementAndGet();
+        return;
+    }
+
+    /**
+     * Called when a message stops spilling its replies.
+     */
+    /* package */
+    final void spillingStopped()
+    {
+        spillingCount.decrementAndGet();
+        return;
+    }
+
+    /**
+     * Reserves room for a spilled reply.
+     *
+     * @param size the number of octets spilled.
+     *
+     * @return false if spilling the reply would take the octets spilled
+     * on this connection over the limit, in which case nothing is
+     * reserved.
+     */
+    /* package */
+    final boolean reserveSpill( int size)
+    {
+        long total = spilledSize.addAndGet( size);
+        if( (maxSpillSize > 0) && (total > maxSpillSize)) {
+            spilledSize.addAndGet( -size);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the room reserved for spilled replies that have been
+     * decoded or discarded.
+     *
+     * @param size the number of octets released.
+     */
+    /* package */
+    final void releaseSpill( long size)
+    {
+        spilledSize.addAndGet( -size);
+        return;
+    }
+
+    /**
+     * Gets the most octets of replies spilled on this connection at once,
+     * or 0 if there is no limit.
+     */
+    /* package */
+    final int getMaxSpillSize()
+    {
+        return maxSpillSize;
+    }
+
+    /**
+     * Sets the most octets of replies spilled on this connection at once,
+     * or 0 for no limit.  A request whose reply would take the total over
+     * the limit fails with an LDAPException.
+     */
+    /* package */
+    final void setMaxSpillSize( int size)
+    {
+        maxSpillSize = size;
+        return;
+    }
+
     /**
      * checks if the writeSemaphore id used for active bind operation is clear
      */
@@ -720,9 +1180,15 @@ final class Connection
         throws LDAPException
     {
     	messages.addElement( info);
+        // A reader waiting on a full reply queue must not hold up this one
+        Message blocked = readerBlockedOn;
+        if( blocked != null) {
+            blocked.wakeReader();
+        }
         // For bind requests, if not connected, attempt to reconnect
         if( info.isBindRequest() && (isConnected() == false) && (host != null)){
-            connect( host, port, info.getMessageID());
+            connect( new String[] { host }, new int[] { port },
+                     info.getMessageID());
         }
         if(isConnected())
         {
@@ -762,45 +1228,72 @@ final class Connection
             Debug.trace( Debug.rawInput, name + "RawWrite: " +
                     msg.getASN1Object().toString());
         }
+        boolean pipelined = pipelinedWrites;
+        WritePipeline.Entry queued = null;
         acquireWriteSemaphore(id);
         try {
             if( myOut == null) {
                 throw new IOException("Output stream not initialized");
             }
             byte[] ber = msg.getASN1Object().getEncoding(encoder);
-            myOut.write(ber, 0, ber.length);
-            myOut.flush();
+            queued = pipeline.enqueue(myOut, ber);
+            if( ! pipelined) {
+                // Written before the semaphore is released
+                pipeline.await(queued);
+            }
         } catch( IOException ioe) {
-            if( Debug.LDAP_DEBUG ) {
-                Debug.trace( Debug.messages, name +
-                    "I/O Exception on host" + host + ":" + port +
-                    " " + ioe.toString());
+            queued = null;
+            writeFailed( ioe);
+        } finally {
+            freeWriteSemaphore(id);
+        }
+        if( pipelined && (queued != null)) {
+            // Wait for the batch containing this request to be written,
+            // other threads can queue requests in the meantime
+            try {
+                pipeline.await(queued);
+            } catch( IOException ioe) {
+                writeFailed( ioe);
             }
+        }
+        return;
+    }
 
-            /*
-             * IOException could be due to a server shutdown notification which
-             * caused our Connection to quit.  If so we send back a slightly
-             * different error message.  We could have checked this a little
-             * earlier in the method but that would be an expensive check each
-             * time we send out a message.  Since this shutdown request is
-             * going to be an infrequent occurence we check for it only when
-             * we get an IOException.  shutdown() will do the cleanup.
-             */
-            if( clientActive) { // We beliefe the connection was alive
-                if (unsolSvrShutDnNotification) { // got server shutdown
-                    throw new LDAPException( ExceptionMessages.SERVER_SHUTDOWN_REQ,
-                        new Object[] { host, new Integer(port)},
-                        LDAPException.CONNECT_ERROR, null,
-                        ioe);
-                }
+    /**
+     * Reports an I/O error while writing a request to the server.
+     *
+     * @param ioe the exception raised by the write.
+     */
+    private void writeFailed(IOException ioe)
+        throws LDAPException
+    {
+        if( Debug.LDAP_DEBUG ) {
+            Debug.trace( Debug.messages, name +
+                "I/O Exception on host" + host + ":" + port +
+                " " + ioe.toString());
+        }
 
-                // Other I/O Exceptions on host:port are reported as is
-                throw new LDAPException(ExceptionMessages.IO_EXCEPTION,
-                    new Object[] {host, new Integer(port)},
-                LDAPException.CONNECT_ERROR, null, ioe);
+        /*
+         * IOException could be due to a server shutdown notification which
+         * caused our Connection to quit.  If so we send back a slightly
+         * different error message.  We could have checked this a little
+         * earlier in the method but that would be an expensive check each
+         * time we send out a message.  Since this shutdown request is
+         * going to be an infrequent occurence we check for it only when
+         * we get an IOException.  shutdown() will do the cleanup.
+         */
+        if( clientActive) { // We beliefe the connection was alive
+            if (unsolSvrShutDnNotification) { // got server shutdown
+                throw new LDAPException( ExceptionMessages.SERVER_SHUTDOWN_REQ,
+                    new Object[] { host, new Integer(port)},
+                    LDAPException.CONNECT_ERROR, null,
+                    ioe);
             }
-        } finally {
-            freeWriteSemaphore(id);
+
+            // Other I/O Exceptions on host:port are reported as is
+            throw new LDAPException(ExceptionMessages.IO_EXCEPTION,
+                new Object[] {host, new Integer(port)},
+            LDAPException.CONNECT_ERROR, null, ioe);
         }
         return;
     }
@@ -866,8 +1359,7 @@ final class Connection
                    throw new IOException("Output stream not initialized");
                }
                byte[] ber = msg.getASN1Object().getEncoding(encoder);
-               myOut.write(ber, 0, ber.length);
-               myOut.flush();
+               pipeline.await( pipeline.enqueue(myOut, ber));
                } catch( IOException ioe) {
                    isConn=false;
                }
@@ -888,6 +1380,8 @@ final class Connection
     final void removeMessage( Message info)
     {
         boolean done = messages.removeElement(info);
+        // Replies for a removed message no longer hold up the reader
+        resumeReader(info);
         if( Debug.LDAP_DEBUG) {
             if( done) {
                 Debug.trace( Debug.messages, name +
@@ -936,13 +1430,8 @@ final class Connection
         clientActive = false;
         while( true ) {
             // remove messages from connection list and send abandon
-            try {
-                info = (Message)messages.remove(0);
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, name +
-                       "Shutdown removed message(" + info.getMessageID() + ")");
-                }
-            } catch( ArrayIndexOutOfBoundsException ex) {
+            info = messages.removeAny();
+            if( info == null) {
                 // No more messages
                 if( Debug.LDAP_DEBUG) {
                     Debug.trace( Debug.messages, name +
@@ -950,6 +1439,10 @@ final class Connection
                 }
                 break;
             }
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, name +
+                   "Shutdown removed message(" + info.getMessageID() + ")");
+            }
             info.abandon( null, notifyUser); // also notifies the application
         }
 
@@ -968,8 +1461,7 @@ final class Connection
                             msg.getASN1Object().toString());
                 }
                 byte[] ber = msg.getASN1Object().getEncoding(encoder);
-                out.write(ber, 0, ber.length);
-                out.flush();
+                pipeline.await( pipeline.enqueue(out, ber));
             } catch( Exception ex) {
                 ;  // don't worry about error
             }
@@ -989,18 +1481,24 @@ final class Connection
         }
 
         // wait until reader threads stops completely
-        try {
-        	if (reader!= Thread.currentThread())
-        	     reader.join();
+        Object r = reader;
+        if( r instanceof SelectorReader.Registration) {
+            // Returns once the selector thread has let go of the connection
+            ((SelectorReader.Registration)r).close();
+        } else {
+            try {
+            	if (reader!= Thread.currentThread())
+            	     ((Thread)reader).join();
 
-//      	reader.join();
-            reader=null;
-        }
-        catch(InterruptedException iex) {
-        	;
-        }
-        catch(NullPointerException npe) {
-        	;
+//          	reader.join();
+                reader=null;
+            }
+            catch(InterruptedException iex) {
+            	;
+            }
+            catch(NullPointerException npe) {
+            	;
+            }
         }
 
         freeWriteSemaphore( semId);
@@ -1053,7 +1551,7 @@ final class Connection
 
         if( Debug.LDAP_DEBUG) {
             Debug.trace( Debug.TLS, "startTLS: areMessagesComplete? " +
-                    "MessageVector size = " + length +
+                    "MessageMap size = " + length +
                     ", bindSemaphoreId=" + bindSemaphoreId);
         }
         // Check if SASL bind in progress
@@ -1100,14 +1598,55 @@ final class Connection
      */
     /* package */
     final void startReader() throws LDAPException {
+        SocketChannel channel = getSelectorChannel();
+        if( channel != null) {
+            // Register with a selector thread
+            ChannelReader handler = new ChannelReader();
+            try {
+                SelectorReader.Registration r =
+                            SelectorReader.register(channel, handler);
+                handler.registration = r;
+                reader = r;
+                r.setMaxFrameSize(maxPduSize);
+                r.start();
+                // Writes must not block, the channel is now non-blocking
+                out = new SelectorReader.ChannelOutputStream(channel);
+                waitForReader(r);
+            } catch( IOException ioe) {
+                reader = null;
+                throw new LDAPException(
+                        ExceptionMessages.CONNECTION_READER,
+                        LDAPException.CONNECT_ERROR, null, ioe);
+            }
+            return;
+        }
         // Start Reader Thread
-        Thread r = new Thread(new ReaderThread());
-        r.setDaemon(true); // If the last thread running, allow exit.
+        Thread r = newThread(new ReaderThread());
+        if( ! r.isDaemon()) {
+            r.setDaemon(true); // If the last thread running, allow exit.
+        }
         r.start();
         waitForReader(r);
         return;
     }
 
+    /*
+     * Returns the channel to register with a selector thread, or null if
+     * replies are to be read by a reader thread.  TLS connections always
+     * use a reader thread.
+     */
+    private SocketChannel getSelectorChannel()
+    {
+        if( (socket == null) || isTLS()) {
+            return null;
+        }
+        if( ! selectorTransport &&
+            ! (mySocketFactory instanceof LDAPSelectorSocketFactory)) {
+            return null;
+        }
+        return socket.getChannel();
+    }
+
     /**
      * Indicates if the connection is using TLS protection.
      *
@@ -1223,7 +1762,371 @@ final class Connection
         return;
     }
 
-    public class ReaderThread implements Runnable
+    /**
+     * Writes encoded requests to the server in the order they are queued.
+     *
+     * <p>A thread that queues a request calls await, which either finds its
+     * request already written, or makes the thread the writer.  The writer
+     * takes everything queued so far, copies it into one buffer and
+     * writes and flushes it once, then hands the writer role to the next
+     * waiting thread.  While one batch is being written the next one
+     * collects, so under load many requests share a single write and
+     * flush.  With one request at a time it behaves like a plain write.</p>
+     */
+    private static final class WritePipeline
+    {
+        /* Largest batch copied into the shared buffer */
+        private static final int BATCH_SIZE = 64 * 1024;
+
+        private final java.util.ArrayList queue = new java.util.ArrayList();
+        private boolean writing = false;
+        private byte[] buffer = null; // used only by the writer
+
+        /**
+         * A request queued for writing
+         */
+        private static final class Entry
+        {
+            private final OutputStream out;
+            private final byte[] ber;
+            private boolean done = false;
+            private IOException error = null;
+
+            private Entry(OutputStream out, byte[] ber)
+            {
+                this.out = out;
+                this.ber = ber;
+                return;
+            }
+        }
+
+        /**
+         * Queues an encoded request for writing to the stream.
+         */
+        private Entry enqueue(OutputStream out, byte[] ber)
+        {
+            Entry e = new Entry(out, ber);
+            synchronized( queue) {
+                queue.add(e);
+            }
+            return e;
+        }
+
+        /**
+         * Returns when the request has been written.
+         *
+         * @throws IOException if writing the batch containing the request
+         * failed.
+         */
+        private void await(Entry e)
+            throws IOException
+        {
+            Object[] batch;
+            boolean interrupted = false;
+            synchronized( queue) {
+                while( ! e.done && writing) {
+                    try {
+                        queue.wait();
+                    } catch( InterruptedException ex) {
+                        // keep waiting, the write is in progress
+                        interrupted = true;
+                    }
+                }
+                if( ! e.done) {
+                    // become the writer, e is in this batch
+                    writing = true;
+                    batch = queue.toArray();
+                    queue.clear();
+                } else {
+                    batch = null;
+                }
+            }
+            if( batch != null) {
+                IOException error = null;
+                try {
+                    write(batch);
+                } catch( IOException ioe) {
+                    error = ioe;
+                }
+                synchronized( queue) {
+                    for( int i = 0; i < batch.length; i++) {
+                        Entry b = (Entry)batch[i];
+                        b.error = error;
+                        b.done = true;
+                    }
+                    writing = false;
+                    queue.notifyAll();
+                }
+            }
+            if( interrupted) {
+                // Restored only now, an interrupted thread writing to a
+                // channel would close it
+                Thread.currentThread().interrupt();
+            }
+            if( e.error != null) {
+                throw e.error;
+            }
+            return;
+        }
+
+        /*
+         * Writes a batch, coalescing consecutive requests for the same
+         * stream into one write followed by one flush.
+         */
+        private void write(Object[] batch)
+            throws IOException
+        {
+            if( batch.length == 1) {
+                Entry e = (Entry)batch[0];
+                e.out.write(e.ber, 0, e.ber.length);
+                e.out.flush();
+                return;
+            }
+            if( buffer == null) {
+                buffer = new byte[BATCH_SIZE];
+            }
+            OutputStream current = null;
+            int count = 0;
+            for( int i = 0; i < batch.length; i++) {
+                Entry e = (Entry)batch[i];
+                if( (e.out != current) ||
+                    (count + e.ber.length > buffer.length)) {
+                    if( count > 0) {
+                        current.write(buffer, 0, count);
+                        count = 0;
+                    }
+                    if( (e.out != current) && (current != null)) {
+                        current.flush();
+                    }
+                    current = e.out;
+                }
+                if( e.ber.length > buffer.length) {
+                    current.write(e.ber, 0, e.ber.length);
+                } else {
+                    System.arraycopy(e.ber, 0, buffer, count, e.ber.length);
+                    count += e.ber.length;
+                }
+            }
+            if( count > 0) {
+                current.write(buffer, 0, count);
+            }
+            current.flush();
+            return;
+        }
+    }
+
+    /*
+     * Hands a copy of the current frame, undecoded, to a message that is
+     * spilling replies.
+     *
+     * @return true if the frame was taken by the message.
+     */
+    private boolean spillFrame( Message info, byte[] raw)
+    {
+        // messageID INTEGER, then the protocolOp
+        if( raw.length < raw[1] + 3) {
+            return false;
+        }
+        int op = raw[2 + raw[1]] & 0x1F;
+        boolean result = (op != LDAPMessage.SEARCH_RESPONSE) &&
+                         (op != LDAPMessage.SEARCH_RESULT_REFERENCE) &&
+                         (op != LDAPMessage.INTERMEDIATE_RESPONSE);
+        return info.spillReply( raw, result);
+    }
+
+    /*
+     * Delivers the replies read from the server to the messages that
+     * requested them.  Extended by the reader thread and by the handler
+     * a selector thread reads for.
+     */
+    private abstract class ReplyReader
+    {
+        /* package */ InterThreadException notify = null;
+        /* package */ Message info = null;
+        // The start of a frame, read by spilling
+        private final byte[] head = new byte[6];
+
+        /*
+         * Returns the message the current frame is a reply to if that
+         * message is spilling replies, otherwise null.  The frame is read
+         * only as far as the message ID, and left where it was.
+         */
+        final Message spilling( InputStream frame)
+                throws IOException
+        {
+            // messageID INTEGER of up to four octets
+            frame.mark( head.length);
+            int n = frame.read( head, 0, head.length);
+            frame.reset();
+            if( (n < 3) || (head[0] != ASN1Integer.TAG) ||
+                (head[1] < 1) || (head[1] > 4) || (n < head[1] + 2)) {
+                return null;
+            }
+            int msgId = 0;
+            for( int i = 0; i < head[1]; i++) {
+                msgId = (msgId << 8) | (head[2 + i] & 0xFF);
+            }
+            Message info;
+            try {
+                info = messages.findMessageById( msgId);
+            } catch( NoSuchFieldException ex) {
+                return null;
+            }
+            return info.isSpilling() ? info : null;
+        }
+
+        /*
+         * Queues a decoded reply on the message which requested it.
+         *
+         * @return true if reading should stop.
+         */
+        final boolean dispatch( RfcLDAPMessage msg)
+        {
+            int msgId = msg.getMessageID();
+
+            // Find the message which requested this response.
+            // It is possible to receive a response for a request which
+            // has been abandoned. If abandoned, throw it away
+            try {
+                info = messages.findMessageById( msgId);
+                if( Debug.LDAP_DEBUG ) {
+                    Debug.trace( Debug.messages, name +
+                        "reader: queue response to message(" + msgId + ")");
+                }
+                info.putReply( msg);   // queue & wake up waiting thread
+            } catch ( NoSuchFieldException ex) {
+
+                /*
+                 * We get the NoSuchFieldException when we could not find
+                 * a matching message id.  First check to see if this is
+                 * an unsolicited notification (msgID == 0). If it is not
+                 * we throw it away. If it is we call any unsolicited
+                 * listeners that might have been registered to listen for these
+                 * messages.
+                 */
+
+
+                /* Note the location of this code.  We could have required
+                 * that message ID 0 be just like other message ID's but
+                 * since message ID 0 has to be treated specially we have
+                 * a separate check for message ID 0.  Also note that
+                 * this test is after the regular message list has been
+                 * checked for.  We could have always checked the list
+                 * of messages after checking if this is an unsolicited
+                 * notification but that would have inefficient as
+                 * message ID 0 is a rare event (as of this time).
+                 */
+                if (msgId == 0) {
+
+                    if( Debug.LDAP_DEBUG ) {
+                        Debug.trace( Debug.messages, name +
+                                "Received message id 0");
+                    }
+
+                    // Notify any listeners that might have been registered
+                    notifyAllUnsolicitedListeners(msg);
+
+                    /*
+                     * Was this a server shutdown unsolicited notification.
+                     * IF so we quit, the reader will then do the necessary
+                     * clean up.
+                     */
+                    if (unsolSvrShutDnNotification) {
+                        notify = new InterThreadException(
+                            ExceptionMessages.SERVER_SHUTDOWN_REQ,
+                            new Object[] {host, new Integer(port)},
+                            LDAPException.CONNECT_ERROR,
+                            null, null);
+
+                        return true;
+                    }
+                } else {
+
+                    if( Debug.LDAP_DEBUG ) {
+                        Debug.trace( Debug.messages, name +
+                            "reader: message(" + msgId +
+                            ") not found, discarding reply");
+                    }
+
+                }
+
+            }
+            if ((stopReaderMessageID == msgId) ||
+                (stopReaderMessageID == STOP_READING)) {
+                // Stop the reader
+                return true;
+            }
+            return false;
+        }
+
+        /*
+         * Records the exception that ended reading.
+         */
+        final void readFailed( IOException ioe)
+        {
+            if( Debug.LDAP_DEBUG ) {
+                Debug.trace( Debug.messages, name +
+                    "Connection lost waiting for results from " +
+                    host + ":" + port + ", clientActive=" +
+                    clientActive + "\n\t" + ioe.toString());
+            }
+
+            if((stopReaderMessageID != STOP_READING ) && clientActive ){
+                // Connection lost waiting for results from host:port
+                notify = new InterThreadException(
+                    ExceptionMessages.CONNECTION_WAIT,
+                            new Object[] { host, new Integer(port)},
+                            LDAPException.CONNECT_ERROR,
+                            ioe, info);
+            }
+            // The connection is no good, don't use it any more
+            in = null;
+            out = null;
+            return;
+        }
+
+        /*
+         * Called when reading has stopped, for whatever reason.
+         */
+        final void readStopped()
+        {
+            if( Debug.LDAP_DEBUG ) {
+                Debug.trace( Debug.messages, name +
+                "reader: connection shutdown");
+            }
+            /*
+             * There can be four states that the reader can be in at this point:
+             *  1) We are starting TLS and will be restarting the reader
+             *     after we have negotiated TLS.
+             *      - Indicated by whether stopReaderMessageID does not
+             *        equal CONTINUE_READING.
+             *      - Don't call Shutdown.
+             *  2) We are stoping TLS and will be restarting after TLS is
+             *     stopped.
+             *      - Indicated by an IOException AND stopReaderMessageID equals
+             *        STOP_READING - in which case notify will be null.
+             *      - Don't call Shutdown
+             *  3) We receive a Server Shutdown notification.
+             *      - Indicated by messageID equal to 0.
+             *      - call Shutdown.
+             *  4) Another error occured
+             *      - Indicated by an IOException AND notify is not NULL
+             *      - call Shutdown.
+             */
+            if( (! clientActive) || (notify != null)) { //#3 & 4
+                shutdown( "reader: thread stopping", 0, notify );
+            } else {
+                stopReaderMessageID = CONTINUE_READING;
+                if( Debug.LDAP_DEBUG ) {       //#1 & #2
+                    Debug.trace( Debug.TLS,
+                        "reader: Stopping thread, retaining the connection");
+                }
+            }
+            return;
+        }
+    }
+
+    public class ReaderThread extends ReplyReader implements Runnable
     {
         private ReaderThread()
         {
@@ -1238,10 +2141,8 @@ final class Connection
         public final void run()
         {
 
-            String reason = "reader: thread stopping";
-            InterThreadException notify = null;
-            Message info = null;
             IOException ioex = null;
+            LBERFrameReader framer = null;
 
             reader = Thread.currentThread();
             if( Debug.LDAP_DEBUG) {
@@ -1251,9 +2152,9 @@ final class Connection
             try {
                 for(;;) {
                     // -------------------------------------------------------
-                    // Decode an RfcLDAPMessage directly from the socket.
+                    // Read a whole RfcLDAPMessage from the socket, then
+                    // decode it from memory.
                     // -------------------------------------------------------
-                    ASN1Identifier asn1ID;
                     InputStream myIn;
                     /* get current value of in, keep value consistant
                      * though the loop, i.e. even during shutdown
@@ -1266,21 +2167,27 @@ final class Connection
                         }
                         break;
                     }
-                    asn1ID = new ASN1Identifier(myIn);
-                    int tag = asn1ID.getTag();
-                    if(asn1ID.getTag() != ASN1Sequence.TAG) {
-                        if( Debug.LDAP_DEBUG) {
-                            Debug.trace( Debug.messages, name +
-                                "reader: discarding message with tag " + tag);
+                    if( (framer == null) || (framer.getInputStream() != myIn)) {
+                        framer = new LBERFrameReader(myIn);
+                        framer.setMaxFrameSize(maxPduSize);
+                    }
+                    // Skips anything that is not an RfcLDAPMessage
+                    // identifier
+                    InputStream frame = framer.readFrame();
+
+                    if( spillingCount.get() > 0) {
+                        Message spiller = spilling( frame);
+                        if( (spiller != null) &&
+                            spillFrame( spiller, framer.copyFrame())) {
+                            // Held undecoded until the application catches
+                            // up
+                            continue;
                         }
-                        continue; // loop looking for an RfcLDAPMessage identifier
                     }
 
                     // Turn the message into an RfcMessage class
-                    ASN1Length asn1Len = new ASN1Length(myIn);
-
-                    RfcLDAPMessage msg =
-                        new RfcLDAPMessage( decoder, myIn, asn1Len.getLength());
+                    RfcLDAPMessage msg = new RfcLDAPMessage( decoder, frame,
+                                                             framer.getLength());
                     if( Debug.LDAP_DEBUG) {
                         Debug.trace( Debug.rawInput, name + "RawRead: " +
                                 msg.toString());
@@ -1289,135 +2196,16 @@ final class Connection
                     // ------------------------------------------------------------
                     // Process the decoded RfcLDAPMessage.
                     // ------------------------------------------------------------
-                    int msgId = msg.getMessageID();
-
-                    // Find the message which requested this response.
-                    // It is possible to receive a response for a request which
-                    // has been abandoned. If abandoned, throw it away
-                    try {
-                        info = messages.findMessageById( msgId);
-                        if( Debug.LDAP_DEBUG ) {
-                            Debug.trace( Debug.messages, name +
-                                "reader: queue response to message(" + msgId + ")");
-                        }
-                        info.putReply( msg);   // queue & wake up waiting thread
-                    } catch ( NoSuchFieldException ex) {
-
-                        /*
-                         * We get the NoSuchFieldException when we could not find
-                         * a matching message id.  First check to see if this is
-                         * an unsolicited notification (msgID == 0). If it is not
-                         * we throw it away. If it is we call any unsolicited
-                         * listeners that might have been registered to listen for these
-                         * messages.
-                         */
-
-
-                        /* Note the location of this code.  We could have required
-                         * that message ID 0 be just like other message ID's but
-                         * since message ID 0 has to be treated specially we have
-                         * a separate check for message ID 0.  Also note that
-                         * this test is after the regular message list has been
-                         * checked for.  We could have always checked the list
-                         * of messages after checking if this is an unsolicited
-                         * notification but that would have inefficient as
-                         * message ID 0 is a rare event (as of this time).
-                         */
-                        if (msgId == 0) {
-
-                            if( Debug.LDAP_DEBUG ) {
-                                Debug.trace( Debug.messages, name +
-                                        "Received message id 0");
-                            }
-
-                            // Notify any listeners that might have been registered
-                            notifyAllUnsolicitedListeners(msg);
-
-                            /*
-                             * Was this a server shutdown unsolicited notification.
-                             * IF so we quit. Actually calling the return will
-                             * first transfer control to the finally clause which
-                             * will do the necessary clean up.
-                             */
-                            if (unsolSvrShutDnNotification) {
-                                notify = new InterThreadException(
-                                    ExceptionMessages.SERVER_SHUTDOWN_REQ,
-                                    new Object[] {host, new Integer(port)},
-                                    LDAPException.CONNECT_ERROR,
-                                    null, null);
-
-                                return;
-                            }
-                        } else {
-
-                            if( Debug.LDAP_DEBUG ) {
-                                Debug.trace( Debug.messages, name +
-                                    "reader: message(" + msgId +
-                                    ") not found, discarding reply");
-                            }
-
-                        }
-
-                    }
-                    if ((stopReaderMessageID == msgId) ||
-                        (stopReaderMessageID == STOP_READING)) {
+                    if( dispatch( msg)) {
                         // Stop the reader Thread.
                         return;
                     }
                 }
             } catch( IOException ioe) {
-                if( Debug.LDAP_DEBUG ) {
-                    Debug.trace( Debug.messages, name +
-                        "Connection lost waiting for results from " +
-                        host + ":" + port + ", clientActive=" +
-                        clientActive + "\n\t" + ioe.toString());
-                }
-
                 ioex = ioe;
-                if((stopReaderMessageID != STOP_READING ) && clientActive ){
-                    // Connection lost waiting for results from host:port
-                    notify = new InterThreadException(
-                        ExceptionMessages.CONNECTION_WAIT,
-                                new Object[] { host, new Integer(port)},
-                                LDAPException.CONNECT_ERROR,
-                                ioe, info);
-                }
-                // The connection is no good, don't use it any more
-                in = null;
-                out = null;
+                readFailed( ioe);
             } finally {
-                if( Debug.LDAP_DEBUG ) {
-                    Debug.trace( Debug.messages, name +
-                    "reader: connection shutdown");
-                }
-                /*
-                 * There can be four states that the reader can be in at this point:
-                 *  1) We are starting TLS and will be restarting the reader
-                 *     after we have negotiated TLS.
-                 *      - Indicated by whether stopReaderMessageID does not
-                 *        equal CONTINUE_READING.
-                 *      - Don't call Shutdown.
-                 *  2) We are stoping TLS and will be restarting after TLS is
-                 *     stopped.
-                 *      - Indicated by an IOException AND stopReaderMessageID equals
-                 *        STOP_READING - in which case notify will be null.
-                 *      - Don't call Shutdown
-                 *  3) We receive a Server Shutdown notification.
-                 *      - Indicated by messageID equal to 0.
-                 *      - call Shutdown.
-                 *  4) Another error occured
-                 *      - Indicated by an IOException AND notify is not NULL
-                 *      - call Shutdown.
-                 */
-                if( (! clientActive) || (notify != null)) { //#3 & 4
-                    shutdown( reason, 0, notify );
-                } else {
-                    stopReaderMessageID = CONTINUE_READING;
-                    if( Debug.LDAP_DEBUG ) {       //#1 & #2
-                        Debug.trace( Debug.TLS,
-                            "reader: Stopping thread, retaining the connection");
-                    }
-                }
+                readStopped();
             }
             deadReaderException = ioex;
             deadReader = reader;
@@ -1428,8 +2216,63 @@ final class Connection
             }
             return;
         }
+
     } // End class ReaderThread
 
+    /*
+     * Processes the replies a selector thread reads for this connection.
+     */
+    private final class ChannelReader extends ReplyReader
+                                      implements SelectorReader.Handler
+    {
+        /* package */ SelectorReader.Registration registration = null;
+
+        public boolean frame( InputStream frame, int length,
+                              LBERFrameBuffer framer)
+                throws IOException
+        {
+            if( in == null) {
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.messages, name +
+                        "reader: selector stopping, connection shut down");
+                }
+                return true;
+            }
+            if( spillingCount.get() > 0) {
+                Message spiller = spilling( frame);
+                if( (spiller != null) &&
+                    spillFrame( spiller, framer.copyFrame())) {
+                    // Held undecoded until the application catches up
+                    return false;
+                }
+            }
+            RfcLDAPMessage msg = new RfcLDAPMessage( decoder, frame, length);
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.rawInput, name + "RawRead: " +
+                        msg.toString());
+            }
+            return dispatch( msg);
+        }
+
+        public void stopped( IOException ioe)
+        {
+            if( ioe != null) {
+                readFailed( ioe);
+            }
+            readStopped();
+            deadReaderException = ioe;
+            deadReader = registration;
+            if( reader == registration) {
+                reader = null;
+            }
+            if( Debug.LDAP_DEBUG ) {
+                Debug.trace( Debug.messages, name +
+                "reader: selector registration ended");
+            }
+            return;
+        }
+    }
+
     /**
      * Sets the current referral active on this connection if created to
      * follow referrals.
@@ -1481,7 +2324,7 @@ final class Connection
      *  notification.  We use this class to spawn off the unsolicited
      *  notification as a separate thread
      */
-    private class UnsolicitedListenerThread extends Thread
+    private class UnsolicitedListenerThread implements Runnable
     {
         private LDAPUnsolicitedNotificationListener listenerObj;
         private LDAPExtendedResponse unsolicitedMsg;
@@ -1548,7 +2391,7 @@ final class Connection
             // the notification listener method to return.
             UnsolicitedListenerThread u =
                     new UnsolicitedListenerThread(listener, tempLDAPMessage);
-            u.start();
+            newThread(u).start();
         }
 
 
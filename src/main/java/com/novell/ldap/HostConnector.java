@@ -0,0 +1,400 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.novell.ldap.client.Debug;
+
+/**
+ * Opens a socket to the first of a list of hosts to accept a connection.
+ *
+ * <p>The hosts are tried in the order listed, except that hosts which
+ * failed to connect within the cooldown period are tried after the
+ * others.  When more than one host is listed, the attempts are staggered
+ * rather than sequential: if an attempt has not completed within the
+ * stagger delay, the next host is tried in parallel, and the first socket
+ * connected is kept.  An attempt that fails starts the next one at once.
+ * Sockets connected after the first are closed.</p>
+ *
+ * <p>Each attempt runs on its own thread, created by the connection's
+ * thread factory.  A single host is connected on the calling thread when
+ * the opener keeps to the time limit itself; otherwise, as for a list,
+ * the attempt is abandoned once the time limit expires.</p>
+ */
+/* package */
+final class HostConnector
+{
+    /* Default delay before the next host is tried, in milliseconds */
+    /* package */
+    static final int DEFAULT_STAGGER = 250;
+
+    /* Default time a failed host is tried last, in milliseconds */
+    /* package */
+    static final int DEFAULT_COOLDOWN = 30000;
+
+    /* Most failed hosts remembered */
+    private static final int MAX_FAILED = 1024;
+
+    // host:port of hosts that failed to connect, and when they failed
+    private static final HashMap failed = new HashMap();
+
+    /**
+     * Opens a socket to a host, for one attempt.
+     */
+    /* package */
+    interface Opener
+    {
+        /**
+         * Returns a socket connected to host and port.  May be called on
+         * several threads at once.
+         */
+        Socket open(String host, int port)
+                throws IOException;
+
+        /**
+         * Returns true if open fails once the time limit has expired, so
+         * a single attempt may be made on the calling thread.
+         */
+        boolean isTimed();
+
+        /**
+         * Creates a thread, not started, to run an attempt.
+         */
+        Thread newThread(Runnable r);
+    }
+
+    private final String[] hosts;
+    private final int[] ports;
+    private final int timeout;
+    private final int stagger;
+    private final int cooldown;
+    private String host = null;         // host connected, or failed last
+    private int port = 0;
+
+    // Attempts completed, taken by the connecting thread
+    private final LinkedBlockingQueue results = new LinkedBlockingQueue();
+    private boolean done = false;       // a socket has been chosen
+
+    /**
+     * Constructs a connector for a list of hosts.
+     *
+     * @param hosts    the host names or addresses, in order of preference.
+     * @param ports    the port of each host.
+     * @param timeout  the time allowed for each attempt, in milliseconds,
+     *                 or 0 for no limit.
+     * @param stagger  the delay before the next host is tried while an
+     *                 attempt is pending, in milliseconds, or 0 to try the
+     *                 hosts one after another.
+     * @param cooldown the time a host that failed is tried after the
+     *                 others, in milliseconds, or 0 to keep the order.
+     */
+    /* package */
+    HostConnector(String[] hosts, int[] ports,
+                  int timeout, int stagger, int cooldown)
+    {
+        this.hosts = hosts;
+        this.ports = ports;
+        this.timeout = timeout;
+        this.stagger = stagger;
+        this.cooldown = cooldown;
+        return;
+    }
+
+    /**
+     * Returns the host connected to, or if none the last that failed.
+     */
+    /* package */
+    String getHost()
+    {
+        return host;
+    }
+
+    /**
+     * Returns the port of the host returned by getHost.
+     */
+    /* package */
+    int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Opens a socket to the first host to accept a connection.
+     *
+     * @return the connected socket.
+     *
+     * @exception IOException the exception of the last attempt if no host
+     * could be connected.
+     */
+    /* package */
+    Socket connect(Opener opener)
+            throws IOException
+    {
+        int[] order = order();
+        if( (order.length == 1) && ((timeout == 0) || opener.isTimed())) {
+            host = hosts[order[0]];
+            port = ports[order[0]];
+            try {
+                Socket s = opener.open(host, port);
+                succeeded(host, port);
+                return s;
+            } catch( IOException ioe) {
+                failed(host, port);
+                throw ioe;
+            }
+        }
+
+        int n = order.length;
+        int started = 0;
+        int live = 0;                   // attempts neither done nor timed out
+        long last = 0;                  // when the last attempt started
+        long[] startedAt = new long[n];
+        boolean[] waiting = new boolean[hosts.length];
+        IOException error = null;
+        try {
+            for(;;) {
+                long now = System.currentTimeMillis();
+                long wait = Long.MAX_VALUE;
+                if( timeout > 0) {
+                    // Also bounds attempts that ignore the time limit,
+                    // such as those made by a socket factory.  One that
+                    // succeeds later is still used.
+                    for( int j = 0; j < started; j++) {
+                        int i = order[j];
+                        if( ! waiting[i]) {
+                            continue;
+                        }
+                        long left = startedAt[j] + timeout - now;
+                        if( left > 0) {
+                            wait = Math.min(wait, left);
+                            continue;
+                        }
+                        waiting[i] = false;
+                        live--;
+                        host = hosts[i];
+                        port = ports[i];
+                        failed(host, port);
+                        error = new SocketTimeoutException(
+                                "HostConnector: " + host + ":" + port +
+                                " not connected within " + timeout +
+                                " milliseconds");
+                    }
+                }
+                if( (started < n) &&
+                    ((live == 0) ||
+                     ((stagger > 0) && (now - last >= stagger)))) {
+                    int i = order[started];
+                    start(opener, i);
+                    waiting[i] = true;
+                    live++;
+                    startedAt[started++] = now;
+                    last = now;
+                    if( timeout > 0) {
+                        wait = Math.min(wait, timeout);
+                    }
+                }
+                if( live == 0) {
+                    throw error;
+                }
+                if( (started < n) && (stagger > 0)) {
+                    wait = Math.min(wait, last + stagger - now);
+                }
+                Attempt a;
+                try {
+                    a = (Attempt)results.poll(Math.max(1, wait),
+                                              TimeUnit.MILLISECONDS);
+                } catch( InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(
+                                    "HostConnector: interrupted connecting");
+                }
+                if( a == null) {
+                    continue;
+                }
+                if( a.socket != null) {
+                    host = hosts[a.index];
+                    port = ports[a.index];
+                    succeeded(host, port);
+                    Socket s = a.socket;
+                    a.socket = null;
+                    return s;
+                }
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.messages, "HostConnector: " +
+                        hosts[a.index] + ":" + ports[a.index] + " failed, " +
+                        a.error);
+                }
+                if( waiting[a.index]) {
+                    waiting[a.index] = false;
+                    live--;
+                    host = hosts[a.index];
+                    port = ports[a.index];
+                    failed(host, port);
+                    error = a.error;
+                }
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    /*
+     * Starts an attempt to connect to host i on its own thread.
+     */
+    private void start(final Opener opener, final int i)
+    {
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages, "HostConnector: connecting to " +
+                hosts[i] + ":" + ports[i]);
+        }
+        Thread t = opener.newThread(new Runnable() {
+            public void run()
+            {
+                Attempt a = new Attempt(i);
+                try {
+                    a.socket = opener.open(hosts[i], ports[i]);
+                } catch( IOException ioe) {
+                    a.error = ioe;
+                } catch( RuntimeException ex) {
+                    a.error = new IOException(ex.toString());
+                }
+                synchronized( HostConnector.this) {
+                    if( ! done) {
+                        results.add(a);
+                        return;
+                    }
+                }
+                a.close();
+                return;
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return;
+    }
+
+    /*
+     * Stops accepting attempts and closes any socket connected after the
+     * one chosen.
+     */
+    private void finish()
+    {
+        synchronized( this) {
+            done = true;
+        }
+        Iterator i = results.iterator();
+        while( i.hasNext()) {
+            ((Attempt)i.next()).close();
+        }
+        results.clear();
+        return;
+    }
+
+    /*
+     * Returns the indexes of the hosts in the order they are tried,
+     * those that failed within the cooldown period last.
+     */
+    private int[] order()
+    {
+        int[] order = new int[hosts.length];
+        int n = 0;
+        boolean[] cool = new boolean[hosts.length];
+        if( cooldown > 0) {
+            long now = System.currentTimeMillis();
+            synchronized( failed) {
+                for( int i = 0; i < hosts.length; i++) {
+                    Long when = (Long)failed.get(hosts[i] + ":" + ports[i]);
+                    if( when != null) {
+                        if( now - when.longValue() < cooldown) {
+                            cool[i] = true;
+                        } else {
+                            failed.remove(hosts[i] + ":" + ports[i]);
+                        }
+                    }
+                }
+            }
+        }
+        for( int i = 0; i < hosts.length; i++) {
+            if( ! cool[i]) {
+                order[n++] = i;
+            }
+        }
+        for( int i = 0; i < hosts.length; i++) {
+            if( cool[i]) {
+                order[n++] = i;
+            }
+        }
+        return order;
+    }
+
+    private void failed(String host, int port)
+    {
+        if( cooldown > 0) {
+            synchronized( failed) {
+                if( failed.size() >= MAX_FAILED) {
+                    failed.clear();
+                }
+                failed.put(host + ":" + port,
+                           Long.valueOf(System.currentTimeMillis()));
+            }
+        }
+        return;
+    }
+
+    private static void succeeded(String host, int port)
+    {
+        synchronized( failed) {
+            failed.remove(host + ":" + port);
+        }
+        return;
+    }
+
+    /*
+     * The outcome of one attempt.
+     */
+    private static final class Attempt
+    {
+        private final int index;
+        private Socket socket = null;
+        private IOException error = null;
+
+        private Attempt(int index)
+        {
+            this.index = index;
+            return;
+        }
+
+        private void close()
+        {
+            if( socket != null) {
+                try {
+                    socket.close();
+                } catch( IOException ioe) {
+                    ; // not used, nothing more to do
+                }
+                socket = null;
+            }
+            return;
+        }
+    }
+}
@@ -41,6 +41,7 @@ import com.novell.ldap.util.Base64;
 import com.novell.ldap.util.ByteArray;
 import com.novell.ldap.util.LDAPXMLHandler;
 import com.novell.ldap.util.SAXEventMultiplexer;
+import com.novell.ldap.util.ValueList;
 import com.novell.ldap.util.ValueXMLhandler;
 /**
  * The name and values of one attribute of a directory entry.
@@ -65,6 +66,7 @@ public class LDAPAttribute implements java.lang.Cloneable,
     private String name;              // full attribute name
     private String baseName;          // cn of cn;lang-ja;phonetic
     private String[] subTypes = null; // lang-ja of cn;lang-ja
+    // Hash indexed once large, see ValueList
     private LinkedList<ByteArray> values = null;
 
 	/**
@@ -73,7 +75,7 @@ public class LDAPAttribute implements java.lang.Cloneable,
 	 */
 	public LDAPAttribute()
 	{
-		this.values = new LinkedList<ByteArray>();
+		this.values = new ValueList();
 	}
     
     /**
@@ -99,7 +101,7 @@ public class LDAPAttribute implements java.lang.Cloneable,
         }
         // OK to just copy attributes, as the app only sees a deep copy of them
         if( null != attr.values) {
-            this.values = new LinkedList<ByteArray>();
+            this.values = new ValueList();
             this.values.addAll(attr.values);
         }
         return;
@@ -120,7 +122,7 @@ public class LDAPAttribute implements java.lang.Cloneable,
         this.name = attrName;
         this.baseName = this.getBaseName( attrName );
         this.subTypes = this.getSubtypes( attrName );
-        this.values = new LinkedList<ByteArray>();
+        this.values = new ValueList();
         return;
     }
 
@@ -734,6 +736,47 @@ public class LDAPAttribute implements java.lang.Cloneable,
         return;
     }
 
+    /**
+     * Returns true if the attribute has the specified string value.
+     *
+     * @param attrString   Value of the attribute as a string.
+     *
+     * @throws IllegalArgumentException if attrString is null
+     */
+    public boolean hasValue( String attrString )
+    {
+        if( null == attrString ) {
+            throw new IllegalArgumentException("Attribute value cannot be null");
+        }
+        try {
+            return this.hasValue( attrString.getBytes( "UTF-8" ) );
+        } catch( UnsupportedEncodingException uee ) {
+            // This should NEVER happen but just in case ...
+            throw new RuntimeException( uee.toString());
+        }
+    }
+
+    /**
+     * Returns true if the attribute has the specified byte-formatted value.
+     * Values are compared byte for byte.
+     *
+     * <p>Attributes with many values answer this from a hash index rather
+     * than comparing each value.</p>
+     *
+     * @param attrBytes    Value of the attribute as raw bytes.
+     * <P> Note: If attrBytes represents a string it should be UTF-8 encoded.
+     *
+     * @throws IllegalArgumentException if attrBytes is null
+     */
+    public boolean hasValue( byte[] attrBytes )
+    {
+        if( null == attrBytes ) {
+            throw new IllegalArgumentException("Attribute value cannot be null");
+        }
+        return (this.values != null) &&
+                this.values.contains(new ByteArray(attrBytes));
+    }
+
     /**
      * Returns the number of values in the attribute.
      *
@@ -1019,6 +1062,17 @@ public class LDAPAttribute implements java.lang.Cloneable,
     */
 	public void writeExternal(ObjectOutput out) throws IOException
 	{
+		// Sub classes hold more than their values, so are always XML
+		if( LDAPExternalForm.isBinary() && (getClass() == LDAPAttribute.class)) {
+			LDAPExternalForm.writeHeader(out);
+			LDAPExternalForm.writeString(out, getName());
+			LDAPExternalForm.writeLength(out, values.size());
+			Iterator i = values.iterator();
+			while( i.hasNext()) {
+				LDAPExternalForm.writeBytes(out, ((ByteArray)i.next()).getValue());
+			}
+			return;
+		}
 		StringBuffer buff = new StringBuffer();
 		buff.append(ValueXMLhandler.newLine(0));
 		buff.append(ValueXMLhandler.newLine(0));
@@ -1094,7 +1148,17 @@ public class LDAPAttribute implements java.lang.Cloneable,
 	public void readExternal(ObjectInput in) 
 			throws IOException, ClassNotFoundException
 	 {
-		String readData = in.readUTF();
+		int header = LDAPExternalForm.readHeader(in);
+		if( header < 0) {
+			setName(LDAPExternalForm.readString(in));
+			int count = LDAPExternalForm.readLength(in);
+			this.values = new ValueList();
+			for( int i = 0; i < count; i++) {
+				add(LDAPExternalForm.readBytes(in));
+			}
+			return;
+		}
+		String readData = LDAPExternalForm.readUTF(in, header);
 		String readProperties = readData.substring(readData.indexOf('<'), 
 				  (readData.lastIndexOf('>') + 1));
 				  
@@ -1129,7 +1193,7 @@ public class LDAPAttribute implements java.lang.Cloneable,
 		 }
 
 		 if( null != readObject.values) {
-			 this.values = new LinkedList<ByteArray>();
+			 this.values = new ValueList();
 			 this.values.addAll(readObject.values);
 		 }
 	
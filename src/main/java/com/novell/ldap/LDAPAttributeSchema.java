@@ -187,6 +187,7 @@ public class LDAPAttributeSchema extends LDAPSchemaElement {
                this.superior = parser.getSuperior();
            this.userMod = parser.getUserMod();
            this.single = parser.getSingle();
+           this.usage = parser.getUsage();
            super.obsolete = parser.getObsolete();
            Enumeration qualifiers = parser.getQualifiers();
            AttributeQualifier attrQualifier;
@@ -528,6 +528,11 @@ public class LDAPAttributeSet
    */  
    public void writeExternal(ObjectOutput out) throws IOException
    {
+		if( LDAPExternalForm.isBinary()) {
+			LDAPExternalForm.writeHeader(out);
+			LDAPExternalForm.writeAttributes(out, this);
+			return;
+		}
 		StringBuffer buff = new StringBuffer();
 		buff.append(ValueXMLhandler.newLine(0));
 		buff.append(ValueXMLhandler.newLine(0));
@@ -574,7 +579,15 @@ public class LDAPAttributeSet
    public void readExternal(ObjectInput in) 
 		  throws IOException, ClassNotFoundException
    {
-	  String readData = in.readUTF();
+	  int header = LDAPExternalForm.readHeader(in);
+	  if( header < 0) {
+		  Iterator i = LDAPExternalForm.readAttributes(in).iterator();
+		  while (i.hasNext()){
+			  this.add(i.next());
+		  }
+		  return;
+	  }
+	  String readData = LDAPExternalForm.readUTF(in, header);
 	  String readProperties = readData.substring(readData.indexOf('<'), 
 	  			(readData.lastIndexOf('>') + 1));
 	  			
@@ -21,6 +21,9 @@ import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
 
 import com.novell.security.sasl.*;
 import javax.security.auth.callback.CallbackHandler;
@@ -61,11 +64,15 @@ public class LDAPConnection implements Cloneable
 {
     private LDAPSearchConstraints defSearchCons = new LDAPSearchConstraints();
     private LDAPControl[] responseCtls = null;
+    // Response whose controls are not yet in responseCtls, or null
+    private LDAPMessage responseCtlMsg = null;
 
     // Synchronization Object used to synchronize access to responseCtls
     private Object responseCtlSemaphore = new Object();
 
     private Connection conn = null;
+    // Cache keeping this connection, if made or reused to follow a referral
+    private LDAPReferralConnectionCache referralCache = null;
 
     private static Object nameLock = new Object(); // protect agentNum
     private static int lConnNum = 0;  // Debug, LDAPConnection number
@@ -189,6 +196,183 @@ public class LDAPConnection implements Cloneable
      */
     public static final String LDAP_PROPERTY_SECURITY = "version.security";
 
+    /**
+     * A string that can be passed in to the getProperty method.
+     *
+     *<p>LDAP_PROPERTY_PENDING_TIMERS = "client.timers.pending"</p>
+     *
+     * <p>You can use this string to request the number of client time
+     * limits, across all connections, that have not yet expired</p>.
+     */
+    public static final String LDAP_PROPERTY_PENDING_TIMERS =
+                                                    "client.timers.pending";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_PIPELINED_WRITES = "connection.writes.pipelined"</p>
+     *
+     * <p>Setting this property to Boolean.TRUE lets requests from several
+     * threads sharing the connection be written to the server together,
+     * with one write and flush for each batch.  Setting it to Boolean.FALSE
+     * writes and flushes each request on its own, the default</p>.
+     */
+    public static final String LDAP_PROPERTY_PIPELINED_WRITES =
+                                                "connection.writes.pipelined";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_SELECTOR_TRANSPORT = "connection.transport.selector"</p>
+     *
+     * <p>Setting this property to Boolean.TRUE before connecting makes
+     * replies on the connection be read by a small pool of shared selector
+     * threads, instead of a reader thread for each connection.  Setting it
+     * to Boolean.FALSE uses a reader thread, the default.  The setting
+     * takes effect when the connection is next opened, and is also used
+     * by clones of the connection.  Connections
+     * created by an LDAPSelectorSocketFactory always use the selector
+     * threads.  Application code called as replies arrive, such as the
+     * subscriber of searchAsync and actions on the stages returned by the
+     * asynchronous methods, is run on a shared pool of callback threads
+     * rather than on the selector threads.</p>
+     *
+     * @see LDAPSelectorSocketFactory
+     */
+    public static final String LDAP_PROPERTY_SELECTOR_TRANSPORT =
+                                            "connection.transport.selector";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_THREAD_FACTORY = "connection.threads.factory"</p>
+     *
+     * <p>Setting this property to a java.util.concurrent.ThreadFactory
+     * makes the threads this connection starts, such as its reader thread,
+     * be created by that factory.  See setThreadFactory.</p>
+     *
+     * @see #setThreadFactory(ThreadFactory)
+     * @see LDAPThreadFactory
+     */
+    public static final String LDAP_PROPERTY_THREAD_FACTORY =
+                                                "connection.threads.factory";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_CONNECT_TIMEOUT = "connection.connect.timeout"</p>
+     *
+     * <p>Setting this property to an Integer limits each attempt to
+     * connect to a host to that many milliseconds.  The default, 0, waits
+     * as long as the operating system allows.  Connections created by a
+     * socket factory are not limited, but when a list of hosts is given
+     * the next host is tried once the time has passed.</p>
+     */
+    public static final String LDAP_PROPERTY_CONNECT_TIMEOUT =
+                                                "connection.connect.timeout";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_CONNECT_STAGGER = "connection.connect.stagger"</p>
+     *
+     * <p>When connect is given a list of hosts, the next host is tried,
+     * in parallel, if the host being tried has not connected within this
+     * Integer number of milliseconds, and the first connection made is
+     * used.  The default is 250.  Setting 0 tries each host only once the
+     * one before it has failed.</p>
+     *
+     * @see #connect(String, int)
+     */
+    public static final String LDAP_PROPERTY_CONNECT_STAGGER =
+                                                "connection.connect.stagger";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_HOST_COOLDOWN = "connection.connect.cooldown"</p>
+     *
+     * <p>A host that fails to connect is tried after the other hosts in
+     * a list, by any connection in this JVM, for this Integer number of
+     * milliseconds.  The default is 30000.  Setting 0 always tries the
+     * hosts in the order listed.</p>
+     *
+     * @see #connect(String, int)
+     */
+    public static final String LDAP_PROPERTY_HOST_COOLDOWN =
+                                                "connection.connect.cooldown";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_MAX_PDU_SIZE = "connection.pdu.max"</p>
+     *
+     * <p>Setting this property to an Integer limits the size, in octets,
+     * of a message read from the server.  A message announcing a larger
+     * size closes the connection before its content is read, failing the
+     * requests outstanding on it.  The default, 0, sets no limit.  The
+     * setting takes effect when the connection is next opened.</p>
+     */
+    public static final String LDAP_PROPERTY_MAX_PDU_SIZE =
+                                                "connection.pdu.max";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_MAX_SPILL_SIZE = "connection.spill.max"</p>
+     *
+     * <p>Setting this property to an Integer limits the octets of
+     * replies held outside the heap, at any one time, for requests whose
+     * reply queues are full.  A request whose replies would go over the
+     * limit is abandoned, and fails with an LDAPException whose result
+     * code is NO_MEMORY; the other requests on the connection are not
+     * affected.  The default is 32 megabytes, 0 sets no limit.</p>
+     *
+     * @see LDAPSearchConstraints#setReplyQueueLimits(int, int)
+     */
+    public static final String LDAP_PROPERTY_MAX_SPILL_SIZE =
+                                                "connection.spill.max";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_REFERRAL_CACHE = "connection.referrals.cache"</p>
+     *
+     * <p>Setting this property to an LDAPReferralConnectionCache keeps the
+     * connections made to follow referrals automatically in that cache,
+     * bound, for reuse by later referrals to the same server.  By default
+     * each referral is followed on a new connection.</p>
+     *
+     * @see LDAPReferralConnectionCache
+     */
+    public static final String LDAP_PROPERTY_REFERRAL_CACHE =
+                                                "connection.referrals.cache";
+
+    /**
+     * A string that can be passed in to the getProperty method, or set
+     * as a property on the constraints passed to setConstraints.
+     *
+     *<p>LDAP_PROPERTY_SCHEMA_CACHE = "connection.schema.cache"</p>
+     *
+     * <p>Setting this property to an LDAPSchemaCache makes fetchSchema
+     * return the schema kept in that cache, read once for each server and
+     * bind DN and read again when its modifyTimestamp changes.  By default each
+     * fetchSchema reads and parses the schema.</p>
+     *
+     * @see LDAPSchemaCache
+     */
+    public static final String LDAP_PROPERTY_SCHEMA_CACHE =
+                                                "connection.schema.cache";
+
     /**
      * A string that corresponds to the server shutdown notification OID.
      * This notification may be used by the server to advise the client that
@@ -328,6 +512,8 @@ public class LDAPConnection implements Cloneable
         else {
             newClone.responseCtls = null;
         }
+        newClone.responseCtlMsg = responseCtlMsg;
+        newClone.referralCache = null;
         conn.incrCloneCount();     // Increment the count of clones
         return newObj;
     }
@@ -519,6 +705,42 @@ public class LDAPConnection implements Cloneable
      *  <li>LDAP_PROPERTY_SECURITY returns a comma-separated list of the
      *                             types of authentication supported, as a
      *                             string.
+     *
+     *  <li>LDAP_PROPERTY_PENDING_TIMERS returns the number of client time
+     *                          limits waiting to expire in this JVM, as an
+     *                          Integer data type.</li>
+     *
+     *  <li>LDAP_PROPERTY_PIPELINED_WRITES returns whether requests on this
+     *                          connection are written in batches, as a
+     *                          Boolean data type.</li>
+     *
+     *  <li>LDAP_PROPERTY_SELECTOR_TRANSPORT returns whether this connection
+     *                          is opened with replies read by the shared
+     *                          selector threads, as a Boolean data type.</li>
+     *
+     *  <li>LDAP_PROPERTY_THREAD_FACTORY returns the ThreadFactory creating
+     *                          the threads of this connection, or null if
+     *                          none is set.</li>
+
+     *  <li>LDAP_PROPERTY_REFERRAL_CACHE returns the
+     *                          LDAPReferralConnectionCache keeping referral
+     *                          connections, or null if none is set.</li>
+     *
+     *  <li>LDAP_PROPERTY_SCHEMA_CACHE returns the LDAPSchemaCache used by
+     *                          fetchSchema, or null if none is set.</li>
+     *
+     *  <li>LDAP_PROPERTY_CONNECT_TIMEOUT, LDAP_PROPERTY_CONNECT_STAGGER
+     *                          and LDAP_PROPERTY_HOST_COOLDOWN return the
+     *                          times used when connecting, in milliseconds,
+     *                          as an Integer data type.</li>
+     *
+     *  <li>LDAP_PROPERTY_MAX_PDU_SIZE returns the largest message accepted
+     *                          from the server, in octets, as an Integer
+     *                          data type.</li>
+     *
+     *  <li>LDAP_PROPERTY_MAX_SPILL_SIZE returns the most octets of replies
+     *                          held outside the heap, as an Integer
+     *                          data type.</li>
      *  </ul>
      *
      *  <p>A deep copy of the property is provided where applicable; a
@@ -538,6 +760,28 @@ public class LDAPConnection implements Cloneable
             return conn.protocol;
         else if (name.equalsIgnoreCase(LDAP_PROPERTY_SECURITY))
             return conn.security;
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_PENDING_TIMERS))
+            return Integer.valueOf(TimeoutScheduler.getPendingCount());
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_PIPELINED_WRITES))
+            return Boolean.valueOf(conn.isPipelinedWrites());
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_SELECTOR_TRANSPORT))
+            return Boolean.valueOf(conn.isSelectorTransport());
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_THREAD_FACTORY))
+            return conn.getThreadFactory();
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_REFERRAL_CACHE))
+            return getReferralConnectionCache();
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_SCHEMA_CACHE))
+            return getSchemaCache();
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_CONNECT_TIMEOUT))
+            return Integer.valueOf(conn.getConnectTimeout());
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_CONNECT_STAGGER))
+            return Integer.valueOf(conn.getConnectStagger());
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_HOST_COOLDOWN))
+            return Integer.valueOf(conn.getHostCooldown());
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_MAX_PDU_SIZE))
+            return Integer.valueOf(conn.getMaxPduSize());
+        else if (name.equalsIgnoreCase(LDAP_PROPERTY_MAX_SPILL_SIZE))
+            return Integer.valueOf(conn.getMaxSpillSize());
         else {
             return null;
         }
@@ -573,6 +817,40 @@ public class LDAPConnection implements Cloneable
         return conn.getSocketFactory();
     }
 
+    /**
+     * Returns the ThreadFactory creating the threads started for this
+     * connection.
+     *
+     * @return The factory, or null if threads are created directly.
+     *
+     * @see #setThreadFactory(ThreadFactory)
+     */
+    public ThreadFactory getThreadFactory()
+    {
+        return conn.getThreadFactory();
+    }
+
+    /**
+     * Sets the ThreadFactory creating the threads started for this
+     * connection and its clones: the reader thread, threads calling
+     * unsolicited notification listeners, and the event generators of
+     * listeners registered with an LDAPEventSource using this connection.
+     * Threads already started are not affected.
+     *
+     * <p>A reader thread is made a daemon thread if the factory did not
+     * create one, so an open connection never keeps the JVM running.</p>
+     *
+     * @param factory The factory, or null to create threads directly.
+     *
+     * @see LDAPThreadFactory
+     * @see #setDefaultThreadFactory(ThreadFactory)
+     */
+    public void setThreadFactory(ThreadFactory factory)
+    {
+        conn.setThreadFactory(factory);
+        return;
+    }
+
     /**
      * Indicates whether the object has authenticated to the connected LDAP
      * server.
@@ -656,6 +934,17 @@ public class LDAPConnection implements Cloneable
      * which is passed to this method sets all constraints, while an
      * LDAPConstraints object passed to this method sets only base constraints.
      *
+     * <p>If the constraints have the property LDAP_PROPERTY_PIPELINED_WRITES
+     * set to a Boolean, the write mode of the connection is changed
+     * accordingly.  Likewise LDAP_PROPERTY_SELECTOR_TRANSPORT selects the
+     * transport used when the connection is next opened, and
+     * LDAP_PROPERTY_THREAD_FACTORY, set to a ThreadFactory, the factory
+     * for threads the connection starts from now on.  The Integer
+     * properties LDAP_PROPERTY_CONNECT_TIMEOUT,
+     * LDAP_PROPERTY_CONNECT_STAGGER, LDAP_PROPERTY_HOST_COOLDOWN and
+     * LDAP_PROPERTY_MAX_PDU_SIZE apply when the connection is next
+     * opened, LDAP_PROPERTY_MAX_SPILL_SIZE immediately.</p>
+     *
      * @param cons  An LDAPConstraints or LDAPSearchConstraints Object
      * containing the contstraint values to set.
      *
@@ -664,6 +953,39 @@ public class LDAPConnection implements Cloneable
      */
     public void setConstraints(LDAPConstraints cons)
     {
+        Object pipelined = cons.getProperty(LDAP_PROPERTY_PIPELINED_WRITES);
+        if( pipelined instanceof Boolean) {
+            conn.setPipelinedWrites(((Boolean)pipelined).booleanValue());
+        }
+        Object selector = cons.getProperty(LDAP_PROPERTY_SELECTOR_TRANSPORT);
+        if( selector instanceof Boolean) {
+            conn.setSelectorTransport(((Boolean)selector).booleanValue());
+        }
+        Object threads = cons.getProperty(LDAP_PROPERTY_THREAD_FACTORY);
+        if( threads instanceof ThreadFactory) {
+            conn.setThreadFactory((ThreadFactory)threads);
+        }
+        Object timeout = cons.getProperty(LDAP_PROPERTY_CONNECT_TIMEOUT);
+        if( timeout instanceof Integer) {
+            conn.setConnectTimeout(((Integer)timeout).intValue());
+        }
+        Object stagger = cons.getProperty(LDAP_PROPERTY_CONNECT_STAGGER);
+        if( stagger instanceof Integer) {
+            conn.setConnectStagger(((Integer)stagger).intValue());
+        }
+        Object cooldown = cons.getProperty(LDAP_PROPERTY_HOST_COOLDOWN);
+        if( cooldown instanceof Integer) {
+            conn.setHostCooldown(((Integer)cooldown).intValue());
+        }
+        Object pdu = cons.getProperty(LDAP_PROPERTY_MAX_PDU_SIZE);
+        if( pdu instanceof Integer) {
+            conn.setMaxPduSize(((Integer)pdu).intValue());
+        }
+        Object spill = cons.getProperty(LDAP_PROPERTY_MAX_SPILL_SIZE);
+        if( spill instanceof Integer) {
+            conn.setMaxSpillSize(((Integer)spill).intValue());
+        }
+
         // Set all constraints, replace the object with a new one
         if( cons instanceof LDAPSearchConstraints) {
             defSearchCons = (LDAPSearchConstraints)cons.clone();
@@ -682,7 +1004,7 @@ public class LDAPConnection implements Cloneable
         if( lsc != null) {
             newCons.setControls( lsc);
         }
-        Hashtable lp = newCons.getProperties();
+        Hashtable lp = cons.getProperties();
         if( lp != null) {
             newCons.setProperties( lp);
         }
@@ -728,6 +1050,40 @@ public class LDAPConnection implements Cloneable
         return;
     }
 
+    /**
+     * Establishes the default ThreadFactory used by LDAPConnection objects
+     * constructed from now on, and by the library's client time limits.
+     *
+     * <p>Like setSocketFactory, this affects LDAPConnection objects only as
+     * they are constructed.  The threads that run expired client time
+     * limits are shared by all connections and are created by this factory
+     * from now on.</p>
+     *
+     * @param factory  The default factory, or null to create threads
+     *                 directly.
+     *
+     * @see #setThreadFactory(ThreadFactory)
+     * @see LDAPThreadFactory#newVirtualThreadFactory(String)
+     */
+    public static void setDefaultThreadFactory( ThreadFactory factory)
+    {
+        Connection.setDefaultThreadFactory( factory);
+        return;
+    }
+
+    /**
+     * Returns the default ThreadFactory used by LDAPConnection objects as
+     * they are constructed.
+     *
+     * @return The default factory, or null if threads are created directly.
+     *
+     * @see #setDefaultThreadFactory(ThreadFactory)
+     */
+    public static ThreadFactory getDefaultThreadFactory()
+    {
+        return Connection.getDefaultThreadFactory();
+    }
+
     /**
      * Registers an object to be notified on arrival of an unsolicited
      * message from a server.
@@ -1080,7 +1436,7 @@ public class LDAPConnection implements Cloneable
 
         // Set local copy of responseControls synchronously if there were any
         synchronized (responseCtlSemaphore) {
-            responseCtls = addResponse.getControls();
+            setResponseControls( addResponse);
         }
         chkResultCode( queue, cons, addResponse);
         return;
@@ -1402,7 +1758,7 @@ public class LDAPConnection implements Cloneable
         if( res != null) {
             // Set local copy of responseControls synchronously if any
             synchronized (responseCtlSemaphore) {
-                responseCtls = res.getControls();
+                setResponseControls( res);
             }
 
             chkResultCode( queue, cons, res);
@@ -1982,7 +2338,7 @@ public class LDAPConnection implements Cloneable
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
-            responseCtls = res.getControls();
+            setResponseControls( res);
         }
 
         if(res.getResultCode() == LDAPException.COMPARE_TRUE) {
@@ -2100,7 +2456,13 @@ public class LDAPConnection implements Cloneable
      *  conducted as an anonymous client.</p>
      *
      *  <p> When more than one host name is specified, each host is contacted
-     *  in turn until a connection can be established.</p>
+     *  in turn until a connection can be established.  If a host has not
+     *  answered within the delay set by LDAP_PROPERTY_CONNECT_STAGGER, the
+     *  next host is contacted without waiting further, and the first
+     *  connection established is used.  Hosts that failed to connect
+     *  within the period set by LDAP_PROPERTY_HOST_COOLDOWN are contacted
+     *  after the others.  Each attempt is limited to the time set by
+     *  LDAP_PROPERTY_CONNECT_TIMEOUT.</p>
      *
      *  @param host A host name or a dotted string representing the IP address
      *              of a host running an LDAP server. It may also
@@ -2126,47 +2488,48 @@ public class LDAPConnection implements Cloneable
             "connect(" + host + ", " + port + ")");
         }
 
-        // Step through the space-delimited list
+        // Parse the space-delimited list
         StringTokenizer hostList = new StringTokenizer(host," ");
+        String[] addresses = new String[hostList.countTokens()];
+        int[] ports = new int[addresses.length];
         String address = null;
 
         int specifiedPort;
 		  int bracketIndex; //Specific to IPv6 - after ']' is colon followed by port
         int colonIndex; //after the colon is the port
-        while (hostList.hasMoreTokens()) {
-            try{
-                specifiedPort=port;
-                address = hostList.nextToken();
-					 bracketIndex = address.indexOf(']');
-					 if(bracketIndex == -1)
-					 {
-                	colonIndex = address.indexOf((int)':');  //IPv4
-					 }
-					 else
-					 {
-						colonIndex = address.indexOf((int)':', bracketIndex); //IPv6
-					 }
-                if (colonIndex != -1 && colonIndex+1 != address.length()){
-                    //parse Port out of address
-                    try{
-                        specifiedPort = Integer.parseInt(
-                                    address.substring(colonIndex+1));
-                        address =   address.substring(0, colonIndex);
-                    }catch (Exception e){
-                          throw new IllegalArgumentException(
-                                     ExceptionMessages.INVALID_ADDRESS);
-                    }
+        for (int i = 0; hostList.hasMoreTokens(); i++) {
+            specifiedPort=port;
+            address = hostList.nextToken();
+            bracketIndex = address.indexOf(']');
+            if(bracketIndex == -1)
+            {
+                colonIndex = address.indexOf((int)':');  //IPv4
+            }
+            else
+            {
+                colonIndex = address.indexOf((int)':', bracketIndex); //IPv6
+            }
+            if (colonIndex != -1 && colonIndex+1 != address.length()){
+                //parse Port out of address
+                try{
+                    specifiedPort = Integer.parseInt(
+                                address.substring(colonIndex+1));
+                    address =   address.substring(0, colonIndex);
+                }catch (Exception e){
+                      throw new IllegalArgumentException(
+                                 ExceptionMessages.INVALID_ADDRESS);
                 }
-                // This may return a different conn object
-                // Disassociate this clone with the underlying connection.
-                conn = conn.destroyClone( true);
-                conn.connect( address, specifiedPort);
-                break;
-            }catch (LDAPException LE){
-                if (!hostList.hasMoreTokens())
-                    throw LE;
             }
+            addresses[i] = address;
+            ports[i] = specifiedPort;
         }
+        if (addresses.length == 0) {
+            return; // no host to connect to
+        }
+        // This may return a different conn object
+        // Disassociate this clone with the underlying connection.
+        conn = conn.destroyClone( true);
+        conn.connect( addresses, ports);
         return;
     }
 
@@ -2220,7 +2583,7 @@ public class LDAPConnection implements Cloneable
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
-            responseCtls = deleteResponse.getControls();
+            setResponseControls( deleteResponse);
         }
         chkResultCode( queue, cons, deleteResponse);
         return;
@@ -2419,7 +2782,7 @@ public class LDAPConnection implements Cloneable
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
-            responseCtls = response.getControls();
+            setResponseControls( response);
         }
 
         chkResultCode( queue, cons, response);
@@ -2542,6 +2905,14 @@ public class LDAPConnection implements Cloneable
      */
     public LDAPControl[] getResponseControls()
     {
+        LDAPControl[] responseCtls;
+        synchronized (responseCtlSemaphore) {
+            if( responseCtlMsg != null) {
+                this.responseCtls = responseCtlMsg.getControls();
+                responseCtlMsg = null;
+            }
+            responseCtls = this.responseCtls;
+        }
         if( responseCtls == null) {
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.apiRequests, name +
@@ -2576,6 +2947,18 @@ public class LDAPConnection implements Cloneable
         return clonedControl;
     }
 
+    /*
+     * Keeps the response to the latest synchronous request, so that its
+     * controls are only created if the application asks for them.  Called
+     * while synchronized on responseCtlSemaphore.
+     */
+    private void setResponseControls(LDAPMessage response)
+    {
+        responseCtls = null;
+        responseCtlMsg = response.hasControls() ? response : null;
+        return;
+    }
+
     //*************************************************************************
     // modify methods
     //*************************************************************************
@@ -2706,7 +3089,7 @@ public class LDAPConnection implements Cloneable
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
-            responseCtls = modifyResponse.getControls();
+            setResponseControls( modifyResponse);
         }
 
         chkResultCode( queue, cons, modifyResponse);
@@ -3164,7 +3547,7 @@ public class LDAPConnection implements Cloneable
 
         // Set local copy of responseControls synchronously - if there were any
         synchronized (responseCtlSemaphore) {
-            responseCtls = renameResponse.getControls();
+            setResponseControls( renameResponse);
         }
 
         chkResultCode( queue, cons, renameResponse);
@@ -3528,7 +3911,8 @@ public class LDAPConnection implements Cloneable
         }
 
         try {
-            agent.sendMessage( conn, msg, cons.getTimeLimit(), myqueue, null);
+            agent.sendMessage( conn, msg, cons.getTimeLimit(), myqueue, null,
+                    cons.getHighWaterMark(), cons.getLowWaterMark());
         } catch(LDAPException lex) {
             throw lex;
         }
@@ -3699,14 +4083,358 @@ public class LDAPConnection implements Cloneable
             }
         }
 
+        int highWater = 0;
+        int lowWater = 0;
+        if( (request.getType() == LDAPMessage.SEARCH_REQUEST) &&
+            (cons instanceof LDAPSearchConstraints)) {
+            highWater = ((LDAPSearchConstraints)cons).getHighWaterMark();
+            lowWater = ((LDAPSearchConstraints)cons).getLowWaterMark();
+        }
         try {
-            agent.sendMessage( conn, request, cons.getTimeLimit(), myqueue, null);
+            agent.sendMessage( conn, request, cons.getTimeLimit(), myqueue, null,
+                    highWater, lowWater);
         } catch(LDAPException lex) {
             throw lex;
         }
         return myqueue;
     }
 
+    //*************************************************************************
+    // CompletionStage methods
+    //*************************************************************************
+
+    /**
+     * Adds an entry to the directory without waiting, returning a
+     * CompletionStage for the response.
+     *
+     *  @param entry   LDAPEntry object specifying the distinguished
+     *                 name and attributes of the new entry.
+     *
+     *  @return a CompletionStage completed with the response, or
+     *  exceptionally with an LDAPException for a local error.
+     *
+     *  @see #addAsync(LDAPEntry, LDAPConstraints)
+     */
+    public CompletionStage<LDAPResponse> addAsync(LDAPEntry entry)
+    {
+        return addAsync(entry, defSearchCons);
+    }
+
+    /**
+     * Adds an entry to the directory without waiting, using the specified
+     * constraints, returning a CompletionStage for the response.
+     *
+     * <p>The stage is completed on the thread reading the connection, as
+     * are dependent stages added with the non-async methods of
+     * CompletionStage, which must therefore not block.  With the selector
+     * transport a shared callback thread completes it instead.  The stage
+     * completes normally whatever the result code of the response, and
+     * exceptionally with an LDAPException for a local error such as the
+     * time limit of cons expiring.  Cancelling the stage's
+     * CompletableFuture abandons the request.</p>
+     *
+     *  @param entry   LDAPEntry object specifying the distinguished
+     *                 name and attributes of the new entry.
+     *<br><br>
+     *  @param cons   Constraints specific to the operation.
+     *
+     *  @return a CompletionStage completed with the response, or
+     *  exceptionally with an LDAPException for a local error.
+     */
+    public CompletionStage<LDAPResponse> addAsync(LDAPEntry entry,
+                                                  LDAPConstraints cons)
+    {
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "addAsync()");
+        }
+        if(cons == null)
+            cons = defSearchCons;
+
+        // error check the parameters
+        if(entry == null ) {
+            throw new IllegalArgumentException("The LDAPEntry parameter" +
+                        " cannot be null");
+        }
+        if( entry.getDN() == null) {
+            throw new IllegalArgumentException("The DN value must be present" +
+                        " in the LDAPEntry object");
+        }
+
+        try {
+            LDAPMessage msg = new LDAPAddRequest( entry, cons.getControls());
+            return sendAsyncToServer(msg, cons.getTimeLimit());
+        } catch( LDAPException ex) {
+            return failedStage(ex);
+        }
+    }
+
+    /**
+     * Deletes an entry from the directory without waiting, returning a
+     * CompletionStage for the response.
+     *
+     *  @param dn  The distinguished name of the entry to delete.
+     *
+     *  @return a CompletionStage completed with the response, or
+     *  exceptionally with an LDAPException for a local error.
+     *
+     *  @see #addAsync(LDAPEntry, LDAPConstraints)
+     */
+    public CompletionStage<LDAPResponse> deleteAsync(String dn)
+    {
+        return deleteAsync(dn, defSearchCons);
+    }
+
+    /**
+     * Deletes an entry from the directory without waiting, using the
+     * specified constraints, returning a CompletionStage for the response.
+     *
+     *  @param dn       The distinguished name of the entry to delete.
+     *<br><br>
+     *  @param cons     Constraints specific to the operation.
+     *
+     *  @return a CompletionStage completed with the response, or
+     *  exceptionally with an LDAPException for a local error.
+     *
+     *  @see #addAsync(LDAPEntry, LDAPConstraints)
+     */
+    public CompletionStage<LDAPResponse> deleteAsync(String dn,
+                                                     LDAPConstraints cons)
+    {
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "deleteAsync(" + dn + ")");
+        }
+        if(dn == null) {
+            // Invalid DN parameter
+            throw new IllegalArgumentException(
+                                     ExceptionMessages.DN_PARAM_ERROR);
+        }
+
+        if(cons == null)
+            cons = defSearchCons;
+
+        try {
+            LDAPMessage msg = new LDAPDeleteRequest( dn, cons.getControls());
+            return sendAsyncToServer(msg, cons.getTimeLimit());
+        } catch( LDAPException ex) {
+            return failedStage(ex);
+        }
+    }
+
+    /**
+     * Makes a set of changes to an existing entry in the directory without
+     * waiting, returning a CompletionStage for the response.
+     *
+     *  @param dn         The distinguished name of the entry to modify.
+     *<br><br>
+     *  @param mods       The changes to be made to the entry.
+     *
+     *  @return a CompletionStage completed with the response, or
+     *  exceptionally with an LDAPException for a local error.
+     *
+     *  @see #addAsync(LDAPEntry, LDAPConstraints)
+     */
+    public CompletionStage<LDAPResponse> modifyAsync(String dn,
+                                                     LDAPModification[] mods)
+    {
+        return modifyAsync(dn, mods, defSearchCons);
+    }
+
+    /**
+     * Makes a set of changes to an existing entry in the directory without
+     * waiting, using the specified constraints, returning a CompletionStage
+     * for the response.
+     *
+     *  @param dn         The distinguished name of the entry to modify.
+     *<br><br>
+     *  @param mods       The changes to be made to the entry.
+     *<br><br>
+     *  @param cons       Constraints specific to the operation.
+     *
+     *  @return a CompletionStage completed with the response, or
+     *  exceptionally with an LDAPException for a local error.
+     *
+     *  @see #addAsync(LDAPEntry, LDAPConstraints)
+     */
+    public CompletionStage<LDAPResponse> modifyAsync(String dn,
+                                                     LDAPModification[] mods,
+                                                     LDAPConstraints cons)
+    {
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "modifyAsync(" + dn + "), " + mods.length + " modifications");
+        }
+        if(dn == null) {
+            // Invalid DN parameter
+            throw new IllegalArgumentException(
+                                     ExceptionMessages.DN_PARAM_ERROR);
+        }
+
+        if(cons == null)
+            cons = defSearchCons;
+
+        try {
+            LDAPMessage msg = new LDAPModifyRequest( dn, mods,
+                                                     cons.getControls());
+            return sendAsyncToServer(msg, cons.getTimeLimit());
+        } catch( LDAPException ex) {
+            return failedStage(ex);
+        }
+    }
+
+    /**
+     * Sends an LDAP request other than a search to a directory server
+     * without waiting, returning a CompletionStage for the response.
+     *
+     * <p>An extended operation's stage is completed with an
+     * LDAPExtendedResponse, as created by the registered extended response
+     * class.  Intermediate responses are not delivered.</p>
+     *
+     * @param request The LDAP request to send to the directory server.
+     * @param cons    The constraints that apply to this request, or null
+     *                for the default constraints.
+     *
+     * @return a CompletionStage completed with the response, or
+     * exceptionally with an LDAPException for a local error.
+     *
+     * @see #addAsync(LDAPEntry, LDAPConstraints)
+     * @see #searchAsync(String, int, String, String[], boolean,
+     *                   LDAPSearchConstraints, Flow.Subscriber)
+     */
+    public CompletionStage<LDAPResponse> sendRequestAsync(LDAPMessage request,
+                                                          LDAPConstraints cons)
+    {
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "sendRequestAsync(" + request.toString() + ")");
+        }
+
+        if( ! request.isRequest() ) {
+            throw new RuntimeException( "Object is not a request message");
+        }
+        if( request.getType() == LDAPMessage.SEARCH_REQUEST) {
+            throw new IllegalArgumentException(
+                    "Search requests are sent with searchAsync");
+        }
+
+        if(cons == null) {
+            cons = defSearchCons;
+        }
+        return sendAsyncToServer(request, cons.getTimeLimit());
+    }
+
+    /**
+     * Performs a search without waiting, publishing the entries found to
+     * subscriber as they arrive.
+     *
+     * @see #searchAsync(String, int, String, String[], boolean,
+     *                   LDAPSearchConstraints, Flow.Subscriber)
+     */
+    public CompletionStage<LDAPResponse> searchAsync(String base,
+                        int scope,
+                        String filter,
+                        String[] attrs,
+                        boolean typesOnly,
+                        Flow.Subscriber<? super LDAPSearchResult> subscriber)
+    {
+        return searchAsync(base, scope, filter, attrs, typesOnly,
+                           defSearchCons, subscriber);
+    }
+
+    /**
+     * Performs a search without waiting, using the specified constraints,
+     * publishing the entries found to subscriber as they arrive.
+     *
+     * <p>The subscriber's onSubscribe method is called before the search
+     * is sent.  Entries are then delivered as the subscriber requests them,
+     * on the thread reading the connection if they were requested in
+     * advance, so onNext must not block.  With the selector transport
+     * they are delivered on a shared callback thread instead.  An entry
+     * arriving before it is requested is held back, and the connection is
+     * not read, or the replies to this search are spilled while other
+     * requests are outstanding, until it is requested.  When the search ends
+     * onComplete is called if it succeeded and returned no search result
+     * references; otherwise onError is called with the LDAPException for
+     * the result code or local error, or with an LDAPReferralException
+     * holding the references returned.  Cancelling the subscription
+     * abandons the search.  The batch size and reply queue limits of cons
+     * do not apply, and references are never followed.</p>
+     *
+     * <p>The returned stage completes with the LDAPResult of the search,
+     * so its controls, such as a paged results cookie, can be read.  It
+     * completes once the entries before the result have been requested.</p>
+     *
+     *  @param base           The base distinguished name to search from.
+     *<br><br>
+     *  @param scope          The scope of the entries to search.
+     *<br><br>
+     *  @param filter         The search filter specifying the search criteria.
+     *<br><br>
+     *  @param attrs          The names of attributes to retrieve.
+     *<br><br>
+     *  @param typesOnly      If true, returns the names but not the values of
+     *                        the attributes found.
+     *<br><br>
+     *  @param cons           The constraints specific to the search.
+     *<br><br>
+     *  @param subscriber     The subscriber receiving the entries found.
+     *
+     *  @return a CompletionStage completed with the search result, or
+     *  exceptionally with an LDAPException for a local error.
+     */
+    public CompletionStage<LDAPResponse> searchAsync(String base,
+                        int scope,
+                        String filter,
+                        String[] attrs,
+                        boolean typesOnly,
+                        LDAPSearchConstraints cons,
+                        Flow.Subscriber<? super LDAPSearchResult> subscriber)
+    {
+        if( filter == null) {
+            filter = "objectclass=*";
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.apiRequests, name +
+            "searchAsync(\"" + base + "\"," + scope + ",\"" + filter + "\")");
+        }
+        if( subscriber == null) {
+            throw new NullPointerException("The subscriber cannot be null");
+        }
+        if(cons == null)
+            cons = defSearchCons;
+
+        MessageAgent agent = new MessageAgent();
+        LDAPMessage msg;
+        try {
+            msg = new LDAPSearchRequest( base, scope, filter,
+                                         attrs, cons.getDereference(),
+                                         cons.getMaxResults(),
+                                         cons.getServerTimeLimit(),
+                                         typesOnly, cons.getControls());
+        } catch( LDAPException ex) {
+            // The subscriber is still told, as Flow requires
+            SearchPublisher publisher =
+                            new SearchPublisher( agent, 0, subscriber);
+            subscriber.onSubscribe( publisher);
+            publisher.failed( ex);
+            return publisher.getResult();
+        }
+        SearchPublisher publisher = new SearchPublisher( agent,
+                                            msg.getMessageID(), subscriber);
+        subscriber.onSubscribe( publisher);
+        if( ! publisher.isCancelled()) {
+            try {
+                Message m = agent.sendMessage( conn, msg,
+                                cons.getTimeLimit(), publisher, true);
+                publisher.attach( m);
+            } catch( LDAPException ex) {
+                publisher.failed( ex);
+            }
+        }
+        return publisher.getResult();
+    }
+
     //*************************************************************************
     // helper methods
     //*************************************************************************
@@ -3744,6 +4472,39 @@ public class LDAPConnection implements Cloneable
         return queue;
     }
 
+    /**
+     * Sends the LDAP request to a directory server with a new message
+     * agent, completing the returned future as the reply is read.
+     *
+     * @param msg the message to send
+     *<br><br>
+     * @param timeout the timeout value
+     *
+     * @return the future completed with the response to this request
+     */
+    private CompletionStage<LDAPResponse> sendAsyncToServer( LDAPMessage msg,
+                                                             int timeout)
+    {
+        MessageAgent agent = new MessageAgent();
+        ResponseFuture future = new ResponseFuture( agent, msg.getMessageID());
+        try {
+            agent.sendMessage( conn, msg, timeout, future);
+        } catch( LDAPException ex) {
+            future.completeExceptionally( ex);
+        }
+        return future;
+    }
+
+    /**
+     * Returns a stage already completed exceptionally with ex.
+     */
+    private static CompletionStage<LDAPResponse> failedStage( LDAPException ex)
+    {
+        ResponseFuture future = new ResponseFuture( null, 0);
+        future.completeExceptionally( ex);
+        return future;
+    }
+
     /**
      * Return the Connection object associated with this LDAPConnection
      *
@@ -3786,6 +4547,7 @@ public class LDAPConnection implements Cloneable
         Throwable ex = null;
         LDAPConnection rconn = null;
         LDAPReferralHandler rh = defSearchCons.getReferralHandler();
+        LDAPReferralConnectionCache cache = getReferralConnectionCache();
         int i = 0;
         // Check if we use LDAPRebind to get authentication credentials
         if( (rh == null) ||      (rh instanceof LDAPAuthHandler)) {
@@ -3799,10 +4561,7 @@ public class LDAPConnection implements Cloneable
                                                     "getReferralConnection: " +
                                                     "url=" + referrals[i]);
                     }
-                    rconn = new LDAPConnection( conn.getSocketFactory());
-                    rconn.setConstraints( defSearchCons);
                     LDAPUrl url = new LDAPUrl(referrals[i]);
-                    rconn.connect(url.getHost(),url.getPort());
                     if( rh != null) {
                         if( rh instanceof LDAPAuthHandler) {
                             // Get application supplied dn and pw
@@ -3813,7 +4572,26 @@ public class LDAPConnection implements Cloneable
                             pw = ap.getPassword();
                         }
                     }
-                    rconn.bind( LDAP_V3, dn, pw);
+                    if( cache != null) {
+                        // Reuse a connection bound to the server if kept
+                        rconn = cache.get( conn.getSocketFactory(),
+                                    url.getHost(), url.getPort(), dn, pw);
+                    }
+                    if( rconn != null) {
+                        rconn.referralCache = cache;
+                        rconn.setConstraints( defSearchCons);
+                    } else {
+                        rconn = new LDAPConnection( conn.getSocketFactory());
+                        rconn.setConstraints( defSearchCons);
+                        rconn.setThreadFactory( conn.getThreadFactory());
+                        rconn.connect(url.getHost(),url.getPort());
+                        rconn.bind( LDAP_V3, dn, pw);
+                        if( (cache != null) &&
+                            cache.add( rconn, conn.getSocketFactory(),
+                                    url.getHost(), url.getPort(), dn, pw)) {
+                            rconn.referralCache = cache;
+                        }
+                    }
                     ex = null;
                     refInfo = new ReferralInfo(rconn, referrals, url);
                     // Indicate this connection created to follow referral
@@ -3828,6 +4606,10 @@ public class LDAPConnection implements Cloneable
                                     "binding for referral" + lex.toString());
                             }
                             rconn.disconnect();
+                            if( rconn.referralCache != null) {
+                                rconn.referralCache.release( rconn);
+                                rconn.referralCache = null;
+                            }
                             rconn = null;
                             ex = lex;
                         } catch( LDAPException e) {
@@ -3927,6 +4709,32 @@ public class LDAPConnection implements Cloneable
         return refInfo;
     }
 
+    /**
+     * Returns the cache for referral connections set in the default
+     * constraints, or null if none is set.
+     */
+    private LDAPReferralConnectionCache getReferralConnectionCache()
+    {
+        Object cache = defSearchCons.getProperty( LDAP_PROPERTY_REFERRAL_CACHE);
+        if( cache instanceof LDAPReferralConnectionCache) {
+            return (LDAPReferralConnectionCache)cache;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the schema cache set in the default constraints, or null if
+     * none is set.
+     */
+    private LDAPSchemaCache getSchemaCache()
+    {
+        Object cache = defSearchCons.getProperty( LDAP_PROPERTY_SCHEMA_CACHE);
+        if( cache instanceof LDAPSchemaCache) {
+            return (LDAPSchemaCache)cache;
+        }
+        return null;
+    }
+
     /**
      * Check the result code and throw an exception if needed.
      *
@@ -3949,7 +4757,7 @@ public class LDAPConnection implements Cloneable
             // Perform referral following and return
             ArrayList refConn = null;
             try {
-                chaseReferral( queue, cons, response,
+                refConn = chaseReferral( queue, cons, response,
                         response.getReferrals(), 0, false, null );
             } finally {
                 releaseReferralConnections( refConn);
@@ -4195,11 +5003,17 @@ public class LDAPConnection implements Cloneable
             Debug.trace( Debug.referrals, name +
                 "Release referal connections");
         }
-        // Release referral connections
+        // Release referral connections to the cache they were taken from
         for( int i = list.size()-1; i >= 0; i--) {
             LDAPConnection rconn = null;
             try {
                 rconn = (LDAPConnection)list.remove(i);
+                LDAPReferralConnectionCache cache = rconn.referralCache;
+                rconn.referralCache = null;
+                if( (cache != null) && cache.release( rconn)) {
+                    // Kept for reuse, or disconnected by the cache
+                    continue;
+                }
                 if( Debug.LDAP_DEBUG) {
                     Debug.trace( Debug.referrals, "\t" + name +
                         "Disconnecting " +
@@ -4235,6 +5049,11 @@ public class LDAPConnection implements Cloneable
      *
      * @param    schemaDN The schema DN used to fetch the schema.
      *
+     * <p>If an LDAPSchemaCache is set with the LDAP_PROPERTY_SCHEMA_CACHE
+     * constraint, the schema is returned from the cache, shared with other
+     * connections to the same server bound as the same DN, and is
+     * read-only.</p>
+     *
      * @return    An LDAPSchema entry containing schema attributes.  If the
      * entry contains no schema attributes then the returned LDAPSchema object
      * will be empty.
@@ -4243,8 +5062,13 @@ public class LDAPConnection implements Cloneable
      *          cannot be retrieved with this connection.
      * @see #getSchemaDN()
      * @see #getSchemaDN(String)
+     * @see #LDAP_PROPERTY_SCHEMA_CACHE
      */
     public LDAPSchema fetchSchema ( String schemaDN ) throws LDAPException {
+        LDAPSchemaCache cache = getSchemaCache();
+        if( cache != null) {
+            return cache.fetchSchema(this, schemaDN);
+        }
         /* Read the schema definitions.  If no entry is found an
          * Exception is thrown */
         LDAPEntry ent = read(schemaDN, LDAPSchema.schemaTypeNames);
@@ -381,6 +381,13 @@ public class LDAPEntry implements java.lang.Comparable,	Externalizable
 	 */  
 	 public void writeExternal(ObjectOutput out) throws IOException
 	 {
+		// LDAPSchema holds more than its attributes, so is always XML
+		if( LDAPExternalForm.isBinary() && (getClass() == LDAPEntry.class)) {
+			LDAPExternalForm.writeHeader(out);
+			LDAPExternalForm.writeString(out, getDN());
+			LDAPExternalForm.writeAttributes(out, getAttributeSet());
+			return;
+		}
 		out.write(writeExternal0().getBytes());
 	 }
 	 
@@ -394,8 +401,16 @@ public class LDAPEntry implements java.lang.Comparable,	Externalizable
 	 public void readExternal(ObjectInput in) 
 			throws IOException, ClassNotFoundException
 	 {
+		int header = LDAPExternalForm.readHeader(in);
+		if( header < 0) {
+			this.dn = LDAPExternalForm.readString(in);
+			this.attrs = LDAPExternalForm.readAttributes(in);
+			return;
+		}
 		ObjectInputStream reader = (ObjectInputStream)in;	
 		StringBuffer rawBuff = new StringBuffer();
+		rawBuff.append((char)(header >> 8));
+		rawBuff.append((char)(header & 0xFF));
 		while(reader.available() != 0)
 			rawBuff.append((char)reader.read());
 
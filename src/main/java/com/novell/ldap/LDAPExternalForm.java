@@ -0,0 +1,422 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import com.novell.ldap.asn1.ASN1Identifier;
+import com.novell.ldap.asn1.ASN1Length;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+import com.novell.ldap.util.ByteArray;
+
+/**
+ * Selects the form in which LDAPAttribute, LDAPAttributeSet, LDAPEntry and
+ * LDAPMessage objects are written by Java serialization.
+ *
+ * <p>By default these classes write a DSML document inside a text banner,
+ * which can be read by a person looking at the serialized data but is
+ * several times larger, and much slower to write and read, than the
+ * protocol encoding the data came from.  Setting the BINARY form makes
+ * them write a compact binary form instead:</p>
+ *
+ * <ul>
+ * <li>an LDAPAttribute is written as its length-prefixed name and values;
+ * <li>an LDAPAttributeSet, and the attributes of an LDAPEntry, are written
+ *     as the BER encoding of an LDAP PartialAttributeList.  An entry read
+ *     back creates each attribute only when it is asked for, as a search
+ *     result entry does;
+ * <li>a response LDAPMessage is written as the BER encoding of the
+ *     LDAPMessage, as it would be sent by a server.
+ * </ul>
+ *
+ * <p>Each binary object starts with a header that cannot begin the XML
+ * form, followed by a version number.  Objects are read back in whichever
+ * form they were written, so data already serialized in the XML form can
+ * always be read, whatever the form selected.  Request messages, which the
+ * library can encode but not decode, and the schema classes extending
+ * LDAPAttribute and LDAPEntry, are always written in the XML form.</p>
+ *
+ * <p>The following code selects the binary form, for example for entries
+ * shared between the nodes of a cache:
+ * <pre><code>
+ *   LDAPExternalForm.setDefault(LDAPExternalForm.BINARY);
+ * </code></pre></p>
+ *
+ * <p>Programs reading data written in the binary form must use a version
+ * of this library that supports it.</p>
+ */
+public final class LDAPExternalForm
+{
+    /**
+     * The DSML document form, written by all versions of this library.
+     */
+    public static final int XML = 0;
+
+    /**
+     * The compact binary form.
+     */
+    public static final int BINARY = 1;
+
+    /* The version of the binary form written */
+    private static final int VERSION = 1;
+
+    private static volatile int form = XML;
+
+    private LDAPExternalForm()
+    {
+        return;
+    }
+
+    /**
+     * Selects the form in which objects are serialized from now on.
+     *
+     * @param form XML or BINARY.
+     */
+    public static void setDefault(int form)
+    {
+        if( (form != XML) && (form != BINARY)) {
+            throw new IllegalArgumentException(
+                            "Unknown external form " + form);
+        }
+        LDAPExternalForm.form = form;
+        return;
+    }
+
+    /**
+     * Returns the form in which objects are serialized.
+     *
+     * @return XML or BINARY.
+     */
+    public static int getDefault()
+    {
+        return form;
+    }
+
+    /**
+     * Indicates whether objects are to be written in the binary form.
+     */
+    /* package */
+    static boolean isBinary()
+    {
+        return form == BINARY;
+    }
+
+    /**
+     * Writes the header of the binary form.  The XML forms start with the
+     * length of a non empty string, or with text, so never with two zero
+     * octets.
+     */
+    /* package */
+    static void writeHeader(ObjectOutput out)
+            throws IOException
+    {
+        out.write(0);
+        out.write(0);
+        out.write(VERSION);
+        return;
+    }
+
+    /**
+     * Reads the first two octets of an object.
+     *
+     * @return -1 if the object is in the binary form, with its header
+     * read, otherwise the two octets read as an unsigned 16 bit number.
+     */
+    /* package */
+    static int readHeader(ObjectInput in)
+            throws IOException
+    {
+        int first = readOctet(in) << 8 | readOctet(in);
+        if( first != 0) {
+            return first;
+        }
+        int version = readOctet(in);
+        if( version != VERSION) {
+            throw new InvalidObjectException(
+                    "Unsupported binary form version " + version);
+        }
+        return -1;
+    }
+
+    /**
+     * Completes reading a string written by writeUTF, once readHeader has
+     * read its length.
+     */
+    /* package */
+    static String readUTF(ObjectInput in, int length)
+            throws IOException
+    {
+        byte[] utf = new byte[length + 2];
+        utf[0] = (byte)(length >> 8);
+        utf[1] = (byte)length;
+        in.readFully(utf, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+    }
+
+    private static int readOctet(ObjectInput in)
+            throws IOException
+    {
+        int b = in.read();
+        if( b < 0) {
+            throw new InvalidObjectException("Unexpected end of data");
+        }
+        return b;
+    }
+
+    /**
+     * Writes a non-negative number in as few octets as possible, seven
+     * bits to an octet, low order bits first.
+     */
+    /* package */
+    static void writeLength(ObjectOutput out, int length)
+            throws IOException
+    {
+        while( length >= 0x80) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        return;
+    }
+
+    /* package */
+    static int readLength(ObjectInput in)
+            throws IOException
+    {
+        int length = 0;
+        for( int shift = 0; shift < 32; shift += 7) {
+            int b = readOctet(in);
+            length |= (b & 0x7F) << shift;
+            if( b < 0x80) {
+                if( length < 0) {
+                    break;
+                }
+                return length;
+            }
+        }
+        throw new InvalidObjectException("Invalid length");
+    }
+
+    /* package */
+    static void writeBytes(ObjectOutput out, byte[] bytes)
+            throws IOException
+    {
+        writeLength(out, bytes.length);
+        out.write(bytes);
+        return;
+    }
+
+    /* package */
+    static byte[] readBytes(ObjectInput in)
+            throws IOException
+    {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a string, which may be null, as its length and UTF-8 octets.
+     */
+    /* package */
+    static void writeString(ObjectOutput out, String s)
+            throws IOException
+    {
+        if( s == null) {
+            writeLength(out, 0);
+            return;
+        }
+        byte[] utf8 = s.getBytes("UTF-8");
+        writeLength(out, utf8.length + 1);
+        out.write(utf8);
+        return;
+    }
+
+    /* package */
+    static String readString(ObjectInput in)
+            throws IOException
+    {
+        int length = readLength(in);
+        if( length == 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length - 1];
+        in.readFully(utf8);
+        return new String(utf8, "UTF-8");
+    }
+
+    /**
+     * Writes an attribute set as the content octets of a BER encoded
+     * PartialAttributeList.
+     */
+    /* package */
+    static void writeAttributes(ObjectOutput out, LDAPAttributeSet set)
+            throws IOException
+    {
+        if( set instanceof LazyAttributeSet) {
+            byte[] pdu = ((LazyAttributeSet)set).getEncoding();
+            if( pdu != null) {
+                // Still exactly what the server sent
+                writeBytes(out, pdu);
+                return;
+            }
+        }
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        Iterator attrs = set.iterator();
+        while( attrs.hasNext()) {
+            LDAPAttribute attr = (LDAPAttribute)attrs.next();
+            byte[] name = attr.getName().getBytes("UTF-8");
+            int vals = 0;
+            Iterator values = attr.getAllValues().iterator();
+            while( values.hasNext()) {
+                int length = ((ByteArray)values.next()).getValue().length;
+                vals += 1 + lengthOctets(length) + length;
+            }
+            int content = 1 + lengthOctets(name.length) + name.length +
+                          1 + lengthOctets(vals) + vals;
+            // PartialAttributeList ::= SEQUENCE OF SEQUENCE {
+            //                  type    AttributeDescription,
+            //                  vals    SET OF AttributeValue }
+            list.write(0x30);
+            writeBERLength(list, content);
+            list.write(0x04);
+            writeBERLength(list, name.length);
+            list.write(name, 0, name.length);
+            list.write(0x31);
+            writeBERLength(list, vals);
+            values = attr.getAllValues().iterator();
+            while( values.hasNext()) {
+                byte[] value = ((ByteArray)values.next()).getValue();
+                list.write(0x04);
+                writeBERLength(list, value.length);
+                list.write(value, 0, value.length);
+            }
+        }
+        writeLength(out, list.size());
+        list.writeTo(new ObjectOutputAdapter(out));
+        return;
+    }
+
+    /**
+     * Reads an attribute set written by writeAttributes.  Its attributes
+     * are created from the encoding only when asked for.
+     */
+    /* package */
+    static LDAPAttributeSet readAttributes(ObjectInput in)
+            throws IOException
+    {
+        try {
+            return new LazyAttributeSet(readBytes(in));
+        } catch( RuntimeException ex) {
+            throw new InvalidObjectException(ex.getMessage());
+        }
+    }
+
+    private static int lengthOctets(int length)
+    {
+        if( length < 0x80) {
+            return 1;
+        }
+        int octets = 1;
+        while( length != 0) {
+            octets++;
+            length >>>= 8;
+        }
+        return octets;
+    }
+
+    private static void writeBERLength(ByteArrayOutputStream out, int length)
+    {
+        int octets = lengthOctets(length) - 1;
+        if( octets == 0) {
+            out.write(length);
+            return;
+        }
+        out.write(0x80 | octets);
+        while( octets-- > 0) {
+            out.write(length >>> (octets * 8));
+        }
+        return;
+    }
+
+    /**
+     * Writes a message as its BER encoding.
+     */
+    /* package */
+    static void writeMessage(ObjectOutput out, RfcLDAPMessage message)
+            throws IOException
+    {
+        writeBytes(out, message.getEncoding(new LBEREncoder()));
+        return;
+    }
+
+    /**
+     * Reads a response message written by writeMessage.
+     */
+    /* package */
+    static RfcLDAPMessage readMessage(ObjectInput in)
+            throws IOException
+    {
+        ByteArrayInputStream ber = new ByteArrayInputStream(readBytes(in));
+        try {
+            new ASN1Identifier(ber);
+            ASN1Length length = new ASN1Length(ber);
+            return new RfcLDAPMessage(new LBERDecoder(), ber,
+                                      length.getLength());
+        } catch( RuntimeException ex) {
+            throw new InvalidObjectException(
+                    "Invalid LDAPMessage encoding: " + ex.toString());
+        }
+    }
+
+    /*
+     * Lets ByteArrayOutputStream.writeTo write its buffer without a copy.
+     */
+    private static final class ObjectOutputAdapter extends OutputStream
+    {
+        private final ObjectOutput out;
+
+        ObjectOutputAdapter(ObjectOutput out)
+        {
+            this.out = out;
+            return;
+        }
+
+        public void write(int b)
+                throws IOException
+        {
+            out.write(b);
+            return;
+        }
+
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            out.write(b, off, len);
+            return;
+        }
+    }
+}
@@ -28,7 +28,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
 import com.novell.ldap.client.Debug;
-import com.novell.ldap.client.RespControlVector;
 import com.novell.ldap.rfc2251.RfcControl;
 import com.novell.ldap.rfc2251.RfcControls;
 import com.novell.ldap.rfc2251.RfcLDAPMessage;
@@ -374,71 +373,58 @@ public class LDAPMessage implements Externalizable
 	 */
 	private final LDAPControl controlFactory(String oid,boolean critical,byte[] value)
 	{
-		RespControlVector regControls = LDAPControl.getRegisteredControls();
-		try {
-			/*
-			 * search through the registered extension list to find the
-			 * response control class
-			 */
-			Class respCtlClass = regControls.findResponseControl(oid);
-
-			// Did not find a match so return default LDAPControl
-			if ( respCtlClass == null)
-				return new LDAPControl(oid, critical, value);
+		/*
+		 * Look up the constructor found when the response control class
+		 * was registered
+		 */
+		Constructor ctlConstructor =
+				LDAPControl.getRegisteredControls().findResponseConstructor(oid);
 
-			if( Debug.LDAP_DEBUG) {
-				Debug.trace( Debug.controls,
-				 "For oid " + oid + ", found class " + respCtlClass.toString());
+		// Did not find a match so return default LDAPControl
+		if ( ctlConstructor == null)
+			return new LDAPControl(oid, critical, value);
 
-			}
+		if( Debug.LDAP_DEBUG) {
+			Debug.trace( Debug.controls, "For oid " + oid + ", found class " +
+					ctlConstructor.getDeclaringClass().toString());
+		}
 
-			/* If found, get LDAPControl constructor */
-			Class[] argsClass = { String.class, boolean.class, byte[].class };
-			Object[] args = new Object[] {oid, new Boolean(critical), value};
-			Exception ex = null;
-			try {
-				Constructor ctlConstructor =
-										 respCtlClass.getConstructor(argsClass);
-
-				try {
-					/* Call the control constructor for a registered Class*/
-					Object ctl = null;
-					ctl = ctlConstructor.newInstance(args);
-					return (LDAPControl)ctl;
-				} catch (InstantiationException e) {
-					// Could not create the ResponseControl object
-					// All possible exceptions are ignored. We fall through
-					// and create a default LDAPControl object
-					ex = e;
-				} catch (IllegalAccessException e) {
-					ex = e;
-				} catch (InvocationTargetException e) {
-					ex = e;
-				}
-			} catch (NoSuchMethodException e) {
-				// bad class was specified, fall through and return a
-				// default LDAPControl object
-				ex = e;
-			}
-			if( Debug.LDAP_DEBUG) {
-				Debug.trace( Debug.controls,
-					  "Unable to create new instance of child LDAPControl");
-				Debug.trace( Debug.controls,
-				   ex.toString());
-			}
-		} catch (NoSuchFieldException e) {
-			// No match with the OID
-			// Do nothing. Fall through and construct a default LDAPControl object.
-			if( Debug.LDAP_DEBUG) {
-				Debug.trace( Debug.controls,
-					  "Oid " + oid + " not registered");
-			}
+		Exception ex = null;
+		try {
+			/* Call the control constructor for a registered Class*/
+			return (LDAPControl)ctlConstructor.newInstance(
+					new Object[] {oid, Boolean.valueOf(critical), value});
+		} catch (InstantiationException e) {
+			// Could not create the ResponseControl object
+			// All possible exceptions are ignored. We fall through
+			// and create a default LDAPControl object
+			ex = e;
+		} catch (IllegalAccessException e) {
+			ex = e;
+		} catch (InvocationTargetException e) {
+			ex = e;
+		}
+		if( Debug.LDAP_DEBUG) {
+			Debug.trace( Debug.controls,
+				  "Unable to create new instance of child LDAPControl");
+			Debug.trace( Debug.controls,
+			   ex.toString());
 		}
-		// If we get here we did not have a registered response control
-		// for this oid.  Return a default LDAPControl object.
+		// If we get here the registered response control could not be
+		// created.  Return a default LDAPControl object.
 		return new LDAPControl( oid, critical, value);
 	}
 
+	/**
+	 * Indicates whether the message has any controls, without creating
+	 * them.
+	 */
+	/* package */
+	final boolean hasControls()
+	{
+		return (message != null) && (message.getControls() != null);
+	}
+
 	/**
 	 * Returns the message ID.  The message ID is an integer value
 	 * identifying the LDAP request and its response.
@@ -686,6 +672,7 @@ public class LDAPMessage implements Externalizable
 	 try {
 		DSMLReader reader = new DSMLReader(input);
 		msg = reader.readMessage();
+		reader.close();
 		} catch (LDAPLocalException e) {
 		 e.printStackTrace();
 		 throw new IOException("LDAPLocalException"+ e);
@@ -701,6 +688,12 @@ public class LDAPMessage implements Externalizable
    */  
    public void writeExternal(ObjectOutput out) throws IOException
    {
+	  // Requests cannot be decoded, so are always XML
+	  if( LDAPExternalForm.isBinary() && ! isRequest()) {
+		  LDAPExternalForm.writeHeader(out);
+		  LDAPExternalForm.writeMessage(out, getExternalMessage());
+		  return;
+	  }
 	  String header = "\n\n";
 	  header += "*************************************************************************\n";
 	  header += "** The encrypted data above and below is the Class definition and  ******\n";
@@ -741,8 +734,15 @@ public class LDAPMessage implements Externalizable
    public void readExternal(ObjectInput in) 
 		  throws IOException, ClassNotFoundException
    {
+		int header = LDAPExternalForm.readHeader(in);
+		if( header < 0) {
+			message = LDAPExternalForm.readMessage(in);
+			return;
+		}
 		ObjectInputStream reader = (ObjectInputStream)in;
 		StringBuffer rawBuff = new StringBuffer();
+		rawBuff.append((char)(header >> 8));
+		rawBuff.append((char)(header & 0xFF));
 		while(reader.available() != 0){
 			rawBuff.append((char)reader.read());
 		}
@@ -762,6 +762,7 @@ public class LDAPMessage implements Externalizable
 		 try {
 			DSMLReader dsmlreader = new DSMLReader(istream);
 		readObject = dsmlreader.readMessage();
+		dsmlreader.close();
 		} catch (LDAPLocalException e) {
 			 throw new IOException("LDAPLocalException"+ e);
 		}
@@ -781,6 +782,17 @@ public class LDAPMessage implements Externalizable
 		
    }
 
+   /*
+    * Returns the message written in the binary form.  Subclasses holding
+    * state that may have changed since the message was read override
+    * this to encode it again.
+    */
+   /* package */
+   RfcLDAPMessage getExternalMessage()
+   {
+	   return message;
+   }
+
    //Sub classes need to override this method
    protected void setDeserializedValues(LDAPMessage readObject, 
    		RfcControls asn1Ctrls) throws IOException, ClassNotFoundException {
@@ -237,6 +237,37 @@ public abstract class LDAPMessageQueue
         return agent.isResponseReceived( msgid);
     }
 
+    /**
+     * Sets a task to be run each time a response for a particular message
+     * ID is received, so that an application need not wait or poll for
+     * responses.
+     *
+     * <p>The task is run on the thread reading from the server, after the
+     * response is queued, and also when the request is abandoned.  It
+     * must not block, and should hand the work of calling getResponse to
+     * another thread.  If responses were received before the task is set,
+     * it is run once before this method returns.</p>
+     *
+     * @param msgid    The message ID of an outstanding request.
+     *<br><br>
+     * @param notifier The task to run, or null to stop running one.
+     *
+     * @throws IllegalArgumentException if there is no outstanding operation
+     * for the message ID.
+     *
+     * @see #isResponseReceived(int)
+     */
+    public void setResponseNotifier(int msgid, Runnable notifier)
+    {
+        try {
+            agent.setReplyNotifier( msgid, notifier);
+        } catch( NoSuchFieldException ex) {
+            throw new IllegalArgumentException(
+                "No outstanding operation for message ID " + msgid);
+        }
+        return;
+    }
+
     /**
      * Reports true if all results have been received for a particular
      * message id.
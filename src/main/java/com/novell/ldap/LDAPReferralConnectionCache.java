@@ -0,0 +1,432 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ScheduledFuture;
+
+import com.novell.ldap.client.Debug;
+import com.novell.ldap.client.TimeoutScheduler;
+
+/**
+ * Keeps the connections made to follow referrals open, bound, for reuse by
+ * later referrals to the same server.
+ *
+ * <p>Without a cache, each referral followed automatically connects to
+ * the referred server, binds, and disconnects once the referral has been
+ * followed.  With a cache, the connection is kept once the referral has
+ * been followed, and is used again for the next referral to the same host
+ * and port with the same credentials and socket factory.</p>
+ *
+ * <p>A connection is used for one referral at a time.  At most
+ * maxPerHost connections to each host and port are kept; a referral
+ * needing another is followed with a connection that is disconnected
+ * afterwards, as without a cache.  A connection that has not been used
+ * for the idle timeout is disconnected.  Before a connection is reused it
+ * is checked to be open, and if it has been idle for longer than the
+ * health check interval, to accept a request.</p>
+ *
+ * <p>Credentials come from the LDAPAuthHandler set in the constraints,
+ * as without a cache.  Connections made by an LDAPBindHandler are never
+ * cached.</p>
+ *
+ * <p>A cache is set with the LDAP_PROPERTY_REFERRAL_CACHE constraint,
+ * and may be shared by many connections:
+ * <pre><code>
+ *   LDAPReferralConnectionCache cache = new LDAPReferralConnectionCache();
+ *   LDAPConstraints cons = conn.getConstraints();
+ *   cons.setReferralFollowing(true);
+ *   cons.setProperty(LDAPConnection.LDAP_PROPERTY_REFERRAL_CACHE, cache);
+ *   conn.setConstraints(cons);
+ * </code></pre></p>
+ *
+ * @see LDAPConnection#LDAP_PROPERTY_REFERRAL_CACHE
+ */
+public class LDAPReferralConnectionCache
+{
+    private final int maxPerHost;
+    private final long idleTimeout;
+    private final long healthCheckInterval;
+
+    // Idle connections for each key, most recently used first
+    private final HashMap idle = new HashMap();
+    // Key of each connection in use
+    private final IdentityHashMap inUse = new IdentityHashMap();
+    // Connections kept to each host:port, idle or in use
+    private final HashMap perHost = new HashMap();
+    private int idleCount = 0;
+    private ScheduledFuture sweeper = null;
+    private boolean closed = false;
+
+    /**
+     * Constructs a cache keeping up to four connections to each server,
+     * disconnected after a minute unused.
+     */
+    public LDAPReferralConnectionCache()
+    {
+        this(4, 60000, 10000);
+        return;
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param maxPerHost the most connections kept to each host and port.
+     *<br><br>
+     * @param idleTimeout the milliseconds a connection is kept unused.
+     *<br><br>
+     * @param healthCheckInterval the milliseconds a connection may be
+     * unused before it is checked by writing a request, rather than only
+     * checked to be open, before reuse.
+     */
+    public LDAPReferralConnectionCache(int maxPerHost,
+                                       long idleTimeout,
+                                       long healthCheckInterval)
+    {
+        if( (maxPerHost < 1) || (idleTimeout < 1)) {
+            throw new IllegalArgumentException(
+                    "maxPerHost and idleTimeout must be positive");
+        }
+        this.maxPerHost = maxPerHost;
+        this.idleTimeout = idleTimeout;
+        this.healthCheckInterval = healthCheckInterval;
+        return;
+    }
+
+    /**
+     * Returns the most connections kept to each host and port.
+     */
+    public int getMaxPerHost()
+    {
+        return maxPerHost;
+    }
+
+    /**
+     * Returns the milliseconds a connection is kept unused.
+     */
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns the number of connections kept that are not in use.
+     */
+    public synchronized int getIdleCount()
+    {
+        return idleCount;
+    }
+
+    /**
+     * Disconnects the connections not in use, and those in use once
+     * released.  The cache keeps no connections afterwards.
+     */
+    public void close()
+    {
+        ArrayList stale = new ArrayList();
+        synchronized( this) {
+            closed = true;
+            Iterator i = idle.values().iterator();
+            while( i.hasNext()) {
+                Iterator j = ((LinkedList)i.next()).iterator();
+                while( j.hasNext()) {
+                    Idle c = (Idle)j.next();
+                    forget(c.key);
+                    stale.add(c.conn);
+                }
+            }
+            idle.clear();
+            idleCount = 0;
+            if( sweeper != null) {
+                sweeper.cancel(false);
+                sweeper = null;
+            }
+        }
+        disconnect(stale);
+        return;
+    }
+
+    /**
+     * Returns a healthy connection to reuse for a referral, or null if
+     * none is kept.  The connection is in use until released.
+     */
+    /* package */
+    LDAPConnection get(LDAPSocketFactory factory, String host, int port,
+                       String dn, byte[] pw)
+    {
+        Key key = new Key(factory, host, port, dn, pw);
+        ArrayList stale = new ArrayList();
+        try {
+            for(;;) {
+                Idle c;
+                synchronized( this) {
+                    LinkedList list = (LinkedList)idle.get(key);
+                    if( (list == null) || closed) {
+                        return null;
+                    }
+                    c = (Idle)list.removeFirst();
+                    if( list.isEmpty()) {
+                        idle.remove(key);
+                    }
+                    idleCount--;
+                    inUse.put(c.conn, key);
+                }
+                long unused = System.currentTimeMillis() - c.since;
+                if( (unused < idleTimeout) && c.conn.isConnected() &&
+                    ((unused < healthCheckInterval) ||
+                      c.conn.isConnectionAlive())) {
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.referrals,
+                            "LDAPReferralConnectionCache: reusing " +
+                            c.conn.getConnectionName());
+                    }
+                    return c.conn;
+                }
+                synchronized( this) {
+                    inUse.remove(c.conn);
+                    forget(key);
+                }
+                stale.add(c.conn);
+            }
+        } finally {
+            disconnect(stale);
+        }
+    }
+
+    /**
+     * Keeps a connection newly made and bound for a referral, in use
+     * until released.
+     *
+     * @return false if the connection is not kept, because as many
+     * connections to the host as allowed already are, in which case it
+     * must be disconnected once used.
+     */
+    /* package */
+    synchronized boolean add(LDAPConnection conn, LDAPSocketFactory factory,
+                             String host, int port, String dn, byte[] pw)
+    {
+        Key key = new Key(factory, host, port, dn, pw);
+        Integer n = (Integer)perHost.get(key.hostPort);
+        int count = (n == null) ? 0 : n.intValue();
+        if( closed || (count >= maxPerHost)) {
+            return false;
+        }
+        perHost.put(key.hostPort, Integer.valueOf(count + 1));
+        inUse.put(conn, key);
+        return true;
+    }
+
+    /**
+     * Makes a connection in use available for reuse, or disconnects it if
+     * it is closed or the cache has been closed.
+     *
+     * @return false if the connection is not kept by this cache.
+     */
+    /* package */
+    boolean release(LDAPConnection conn)
+    {
+        boolean keep = conn.isConnected();
+        synchronized( this) {
+            Key key = (Key)inUse.remove(conn);
+            if( key == null) {
+                return false;
+            }
+            if( keep && ! closed) {
+                LinkedList list = (LinkedList)idle.get(key);
+                if( list == null) {
+                    list = new LinkedList();
+                    idle.put(key, list);
+                }
+                list.addFirst(new Idle(key, conn));
+                idleCount++;
+                if( sweeper == null) {
+                    scheduleSweep();
+                }
+                return true;
+            }
+            forget(key);
+        }
+        disconnect(conn);
+        return true;
+    }
+
+    /*
+     * Removes a connection no longer kept from the count for its host.
+     * Called with the lock held.
+     */
+    private void forget(Key key)
+    {
+        Integer n = (Integer)perHost.get(key.hostPort);
+        if( (n == null) || (n.intValue() <= 1)) {
+            perHost.remove(key.hostPort);
+        } else {
+            perHost.put(key.hostPort, Integer.valueOf(n.intValue() - 1));
+        }
+        return;
+    }
+
+    /*
+     * Schedules the disconnection of connections idle for too long.
+     * Called with the lock held.
+     */
+    private void scheduleSweep()
+    {
+        sweeper = TimeoutScheduler.schedule(new Runnable() {
+            public void run()
+            {
+                sweep();
+                return;
+            }
+        }, idleTimeout);
+        return;
+    }
+
+    /*
+     * Disconnects the connections idle for longer than the idle timeout,
+     * and sweeps again later if any remain.
+     */
+    private void sweep()
+    {
+        ArrayList stale = new ArrayList();
+        synchronized( this) {
+            sweeper = null;
+            long oldest = System.currentTimeMillis() - idleTimeout;
+            Iterator i = idle.values().iterator();
+            while( i.hasNext()) {
+                LinkedList list = (LinkedList)i.next();
+                // Least recently used last
+                while( ! list.isEmpty() &&
+                       (((Idle)list.getLast()).since <= oldest)) {
+                    Idle c = (Idle)list.removeLast();
+                    idleCount--;
+                    forget(c.key);
+                    stale.add(c.conn);
+                }
+                if( list.isEmpty()) {
+                    i.remove();
+                }
+            }
+            if( (idleCount > 0) && ! closed) {
+                scheduleSweep();
+            }
+        }
+        if( Debug.LDAP_DEBUG && ! stale.isEmpty()) {
+            Debug.trace( Debug.referrals, "LDAPReferralConnectionCache: " +
+                "disconnecting " + stale.size() + " idle connections");
+        }
+        disconnect(stale);
+        return;
+    }
+
+    private static void disconnect(ArrayList conns)
+    {
+        for( int i = 0; i < conns.size(); i++) {
+            disconnect((LDAPConnection)conns.get(i));
+        }
+        return;
+    }
+
+    private static void disconnect(LDAPConnection conn)
+    {
+        try {
+            conn.disconnect();
+        } catch( LDAPException ex) {
+            ; // closed anyway
+        }
+        return;
+    }
+
+    /*
+     * An idle connection and when it was last used.
+     */
+    private static final class Idle
+    {
+        private final Key key;
+        private final LDAPConnection conn;
+        private final long since = System.currentTimeMillis();
+
+        private Idle(Key key, LDAPConnection conn)
+        {
+            this.key = key;
+            this.conn = conn;
+            return;
+        }
+    }
+
+    /*
+     * The server, socket factory and credentials of a connection.  The
+     * password is held as a digest.
+     */
+    private static final class Key
+    {
+        private final LDAPSocketFactory factory;
+        private final String hostPort;
+        private final String dn;
+        private final byte[] pw;
+        private final int hash;
+
+        private Key(LDAPSocketFactory factory, String host, int port,
+                    String dn, byte[] pw)
+        {
+            this.factory = factory;
+            this.hostPort = host.toLowerCase() + ":" + port;
+            this.dn = dn;
+            this.pw = digest(pw);
+            int h = hostPort.hashCode();
+            h = h * 31 + ((dn == null) ? 0 : dn.hashCode());
+            h = h * 31 + Arrays.hashCode(this.pw);
+            h = h * 31 + System.identityHashCode(factory);
+            this.hash = h;
+            return;
+        }
+
+        private static byte[] digest(byte[] pw)
+        {
+            if( pw == null) {
+                return null;
+            }
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(pw);
+            } catch( NoSuchAlgorithmException ex) {
+                return pw.clone();
+            }
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            if( ! (o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return (k.hash == hash) && (k.factory == factory) &&
+                   k.hostPort.equals(hostPort) &&
+                   ((dn == null) ? (k.dn == null) : dn.equals(k.dn)) &&
+                   Arrays.equals(k.pw, pw);
+        }
+    }
+}
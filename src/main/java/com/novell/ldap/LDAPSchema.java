@@ -83,6 +83,10 @@ import com.novell.ldap.util.SAXEventMultiplexer;
  *
  *  </p>
  *
+ * <p>A schema returned by an LDAPSchemaCache is shared and read-only: its
+ * elements cannot be modified, and getAttribute and getAttributeSet return
+ * copies of its attributes.</p>
+ *
  * @see LDAPSchemaElement
  * @see LDAPConnection#fetchSchema
  * @see LDAPConnection#getSchemaDN
@@ -100,6 +104,9 @@ public class LDAPSchema extends LDAPEntry{
      */
     private HashMap nameTable[] = new HashMap[8];
 
+    /** Set once the schema is shared by an LDAPSchemaCache. */
+    private transient volatile boolean readOnly = false;
+
     /**
      * The following lists the LDAP names of subschema attributes for
      *  schema elements (definitions):
@@ -268,6 +275,54 @@ public class LDAPSchema extends LDAPEntry{
         return;
     }
 
+    /**
+     * Makes the schema and its elements read-only, before it is shared by
+     * an LDAPSchemaCache.
+     */
+    /*package*/
+    void setReadOnly()
+    {
+        for (int i=0; i< schemaTypeNames.length; i++) {
+            Iterator itr = idTable[i].values().iterator();
+            while(itr.hasNext()) {
+                ((LDAPSchemaElement)itr.next()).setReadOnly();
+            }
+        }
+        readOnly = true;
+        return;
+    }
+
+    /**
+     * Returns the attribute matching attrName, a copy if the schema is
+     * shared by an LDAPSchemaCache.
+     *
+     * @param attrName The name of the attribute to return.
+     *
+     * @return The attribute, or null if the schema entry has none.
+     */
+    public LDAPAttribute getAttribute(String attrName)
+    {
+        LDAPAttribute attr = super.getAttribute(attrName);
+        if( readOnly && (attr != null)) {
+            return (LDAPAttribute)attr.clone();
+        }
+        return attr;
+    }
+
+    /**
+     * Returns the attribute set of the schema entry, a copy if the schema
+     * is shared by an LDAPSchemaCache.
+     *
+     * @return The attribute set of the schema entry.
+     */
+    public LDAPAttributeSet getAttributeSet()
+    {
+        if( readOnly) {
+            return (LDAPAttributeSet)super.getAttributeSet().clone();
+        }
+        return super.getAttributeSet();
+    }
+
     /**
      * Adds the schema definition to the idList and nameList HashMaps.
      * This method is used by the methods fetchSchema and add.
@@ -0,0 +1,343 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.novell.ldap.util.CanonicalDN;
+
+/**
+ * Shares the schema read from directory servers among connections, so the
+ * schema entry is read and parsed once rather than by every connection
+ * needing it.
+ *
+ * <p>Schemas are kept by the host and port of the server, the DN of the
+ * subschema entry and the DN the connection is bound as, since access
+ * controls may let identities read different schema.  Connections bound
+ * as the same DN share a schema.  A schema cached is returned without contacting the
+ * server for the validation interval.  After that, the modifyTimestamp of
+ * the schema entry is read, and the schema is read again only if it has
+ * changed, or if the server does not return a modifyTimestamp.  While one
+ * connection reads a schema, other connections needing it wait for it
+ * rather than reading it too.</p>
+ *
+ * <p>Looking up a cached schema takes no lock.  The LDAPSchema returned is
+ * shared, so is read-only: its elements throw
+ * UnsupportedOperationException if modified, and its attributes are
+ * returned as copies.  A schema extended with LDAPConnection.modify is
+ * seen once the validation interval has passed, or at once after
+ * {@link #invalidate(String, int, String)}.</p>
+ *
+ * <p>A cache is set with the LDAP_PROPERTY_SCHEMA_CACHE constraint, and
+ * is then used by fetchSchema.  {@link #getDefault()} returns a cache
+ * shared by the whole process:
+ * <pre><code>
+ *   LDAPConstraints cons = conn.getConstraints();
+ *   cons.setProperty(LDAPConnection.LDAP_PROPERTY_SCHEMA_CACHE,
+ *                    LDAPSchemaCache.getDefault());
+ *   conn.setConstraints(cons);
+ *   LDAPSchema schema = conn.fetchSchema(conn.getSchemaDN());
+ * </code></pre></p>
+ *
+ * @see LDAPConnection#LDAP_PROPERTY_SCHEMA_CACHE
+ * @see LDAPConnection#fetchSchema(String)
+ */
+public class LDAPSchemaCache
+{
+    private static final LDAPSchemaCache defaultCache = new LDAPSchemaCache();
+    private static final String[] timestampAttrs = { "modifyTimestamp" };
+    private static final String[] schemaAttrs;
+
+    static {
+        String[] names = LDAPSchema.schemaTypeNames;
+        schemaAttrs = new String[names.length + 1];
+        System.arraycopy(names, 0, schemaAttrs, 0, names.length);
+        schemaAttrs[names.length] = timestampAttrs[0];
+    }
+
+    private final long validateInterval;
+    // Cached for each key
+    private final ConcurrentHashMap schemas = new ConcurrentHashMap();
+    // FutureTask reading the schema for each key being read
+    private final ConcurrentHashMap reading = new ConcurrentHashMap();
+
+    /**
+     * Constructs a cache validating schemas after a minute.
+     */
+    public LDAPSchemaCache()
+    {
+        this(60000);
+        return;
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param validateInterval the milliseconds a schema is used before its
+     * modifyTimestamp is read again.  With zero it is read by every
+     * fetchSchema.
+     */
+    public LDAPSchemaCache(long validateInterval)
+    {
+        if( validateInterval < 0) {
+            throw new IllegalArgumentException(
+                    "validateInterval must not be negative");
+        }
+        this.validateInterval = validateInterval;
+        return;
+    }
+
+    /**
+     * Returns the cache shared by the process.
+     */
+    public static LDAPSchemaCache getDefault()
+    {
+        return defaultCache;
+    }
+
+    /**
+     * Returns the milliseconds a schema is used before its modifyTimestamp
+     * is read again.
+     */
+    public long getValidateInterval()
+    {
+        return validateInterval;
+    }
+
+    /**
+     * Returns the number of schemas cached.
+     */
+    public int size()
+    {
+        return schemas.size();
+    }
+
+    /**
+     * Returns the schema cached for a server read anonymously, without
+     * validating it.
+     *
+     * @param host     The host name of the server.
+     *<br><br>
+     * @param port     The port of the server.
+     *<br><br>
+     * @param schemaDN The DN of the subschema entry.
+     *
+     * @return the schema, or null if none is cached.
+     */
+    public LDAPSchema getSchema(String host, int port, String schemaDN)
+    {
+        return getSchema(host, port, schemaDN, null);
+    }
+
+    /**
+     * Returns the schema cached for a server read by a connection bound as
+     * bindDN, without validating it.
+     *
+     * @param host     The host name of the server.
+     *<br><br>
+     * @param port     The port of the server.
+     *<br><br>
+     * @param schemaDN The DN of the subschema entry.
+     *<br><br>
+     * @param bindDN   The DN the connection was bound as, or null if
+     *                 anonymous.
+     *
+     * @return the schema, or null if none is cached.
+     */
+    public LDAPSchema getSchema(String host, int port, String schemaDN,
+                                String bindDN)
+    {
+        Cached cached = (Cached)schemas.get(
+                            getKey(host, port, schemaDN) + canonical(bindDN));
+        return (cached == null) ? null : cached.schema;
+    }
+
+    /**
+     * Returns the schema of the server a connection is connected to,
+     * reading it if it is not cached or has changed.
+     *
+     * @param conn     The connection used to read the schema.
+     *<br><br>
+     * @param schemaDN The DN of the subschema entry.
+     *
+     * @return the schema.
+     *
+     * @exception LDAPException the schema entry cannot be read.
+     */
+    public LDAPSchema fetchSchema(LDAPConnection conn, String schemaDN)
+            throws LDAPException
+    {
+        if( conn.getHost() == null) {               // not connected
+            return new LDAPSchema(conn.read(schemaDN,
+                                            LDAPSchema.schemaTypeNames));
+        }
+        String key = getKey(conn.getHost(), conn.getPort(), schemaDN) +
+                     canonical(conn.getAuthenticationDN());
+        Cached cached = (Cached)schemas.get(key);
+        if( cached != null) {
+            long now = System.currentTimeMillis();
+            if( now - cached.checked < validateInterval) {
+                return cached.schema;
+            }
+            if( cached.timestamp != null) {
+                LDAPAttribute attr = conn.read(schemaDN, timestampAttrs)
+                                         .getAttribute(timestampAttrs[0]);
+                if( (attr != null) &&
+                    cached.timestamp.equals(attr.getStringValue())) {
+                    cached.checked = now;
+                    return cached.schema;
+                }
+            }
+        }
+        return read(key, conn, schemaDN, cached);
+    }
+
+    /**
+     * Reads a schema, or waits while another thread reads it.
+     *
+     * @param stale The schema cached that has changed, or null.
+     */
+    private LDAPSchema read(final String key,
+                            final LDAPConnection conn,
+                            final String schemaDN,
+                            final Cached stale)
+            throws LDAPException
+    {
+        FutureTask task = new FutureTask(new Callable() {
+            public Object call() throws LDAPException
+            {
+                LDAPEntry entry = conn.read(schemaDN, schemaAttrs);
+                LDAPAttribute attr = entry.getAttribute(timestampAttrs[0]);
+                if( attr != null) {
+                    entry.getAttributeSet().remove(attr);
+                }
+                LDAPSchema schema = new LDAPSchema(entry);
+                schema.setReadOnly();
+                Cached cached = new Cached(schema,
+                            (attr == null) ? null : attr.getStringValue());
+                if( stale == null) {
+                    schemas.put(key, cached);
+                } else {
+                    schemas.replace(key, stale, cached);
+                }
+                return cached.schema;
+            }
+        });
+        FutureTask running = (FutureTask)reading.putIfAbsent(key, task);
+        if( running == null) {
+            try {
+                task.run();
+            } finally {
+                reading.remove(key, task);
+            }
+            running = task;
+        }
+        try {
+            return (LDAPSchema)running.get();
+        } catch( InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LDAPLocalException(
+                        "Interrupted waiting for the schema to be read",
+                        LDAPException.LOCAL_ERROR, ex);
+        } catch( ExecutionException ex) {
+            if( ex.getCause() instanceof LDAPException) {
+                throw (LDAPException)ex.getCause();
+            }
+            if( ex.getCause() instanceof Error) {
+                throw (Error)ex.getCause();
+            }
+            throw (RuntimeException)ex.getCause();
+        }
+    }
+
+    /**
+     * Removes the schemas cached for a server, whatever the identity they
+     * were read as, so the next fetchSchema reads them.
+     *
+     * @param host     The host name of the server.
+     *<br><br>
+     * @param port     The port of the server.
+     *<br><br>
+     * @param schemaDN The DN of the subschema entry.
+     */
+    public void invalidate(String host, int port, String schemaDN)
+    {
+        String prefix = getKey(host, port, schemaDN);
+        Iterator i = schemas.keySet().iterator();
+        while( i.hasNext()) {
+            if( ((String)i.next()).startsWith(prefix)) {
+                i.remove();
+            }
+        }
+        return;
+    }
+
+    /**
+     * Removes all the schemas cached.
+     */
+    public void clear()
+    {
+        schemas.clear();
+        return;
+    }
+
+    /**
+     * Returns the key of the schemas of a server, completed by the
+     * canonical bind DN: the host in lower case, the port and the
+     * canonical schema DN.
+     */
+    private static String getKey(String host, int port, String schemaDN)
+    {
+        return host.toLowerCase() + ":" + port + "/" + canonical(schemaDN) +
+               "\n";
+    }
+
+    /**
+     * Returns the canonical form of a DN, empty if null.
+     */
+    private static String canonical(String dn)
+    {
+        if( dn == null) {
+            return "";
+        }
+        try {
+            return CanonicalDN.valueOf(dn).toString();
+        } catch( IllegalArgumentException ex) {
+            return dn;                              // read fails
+        }
+    }
+
+    /**
+     * A schema cached, with the modifyTimestamp of its entry.
+     */
+    private static class Cached
+    {
+        private final LDAPSchema schema;
+        private final String timestamp;             // or null
+        private volatile long checked = System.currentTimeMillis();
+
+        private Cached(LDAPSchema schema, String timestamp)
+        {
+            this.schema = schema;
+            this.timestamp = timestamp;
+            return;
+        }
+    }
+}
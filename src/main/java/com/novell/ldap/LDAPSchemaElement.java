@@ -15,10 +15,15 @@
 
 package com.novell.ldap;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedList;
 import com.novell.ldap.client.AttributeQualifier;
 import com.novell.ldap.client.EnumeratedIterator;
+import com.novell.ldap.util.ByteArray;
 
 /**
  *  The LDAPSchemaElement class is the base class representing schema
@@ -30,6 +35,10 @@ import com.novell.ldap.client.EnumeratedIterator;
  *  <code>UnsupportedOperationException<code> if either of those methods are
  *  invoked by an application.<p>
  *
+ *  <p>An element of a schema shared by an LDAPSchemaCache cannot be
+ *  modified at all: setQualifier, and the other methods of LDAPAttribute
+ *  changing its values or name, throw UnsupportedOperationException.</p>
+ *
  * @see LDAPSchema
  * @see LDAPConnection#fetchSchema
  */
@@ -85,6 +94,9 @@ public abstract class LDAPSchemaElement extends LDAPAttribute implements
    */
     protected HashMap hashQualifier = new HashMap();
 
+    // Set once the element is shared by an LDAPSchemaCache
+    private transient boolean readOnly = false;
+
    /**
     * Returns an array of names for the element, or null if
     * none is found.
@@ -203,6 +215,7 @@ public abstract class LDAPSchemaElement extends LDAPAttribute implements
      */
     public void setQualifier(String name, String[] values)
     {
+        checkWritable();
         AttributeQualifier attrQualifier =
                 new AttributeQualifier( name, values );
         hashQualifier.put(name, attrQualifier);
@@ -257,6 +270,122 @@ public abstract class LDAPSchemaElement extends LDAPAttribute implements
         throw new UnsupportedOperationException(
                 "removeValue is not supported by LDAPSchemaElement");
     }
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise adds the value.
+     */
+    public void addValue(byte[] attrBytes){
+        checkWritable();
+        super.addValue(attrBytes);
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise adds the value.
+     */
+    public void addBase64Value(String attrString){
+        checkWritable();
+        super.addBase64Value(attrString);
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise adds the value.
+     */
+    public void addBase64Value(StringBuffer attrString, int start, int end){
+        checkWritable();
+        super.addBase64Value(attrString, start, end);
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise adds the value.
+     */
+    public void addBase64Value(char[] attrChars){
+        checkWritable();
+        super.addBase64Value(attrChars);
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise adds the value.
+     */
+    public void addURLValue(String url)
+            throws MalformedURLException, IOException {
+        checkWritable();
+        super.addURLValue(url);
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise adds the value.
+     */
+    public void addURLValue(URL url)
+            throws MalformedURLException, IOException {
+        checkWritable();
+        super.addURLValue(url);
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise removes the value.
+     */
+    public void removeValue(byte[] attrBytes){
+        checkWritable();
+        super.removeValue(attrBytes);
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise sets the name.
+     */
+    public void setName(String name){
+        checkWritable();
+        super.setName(name);
+    }
+
+    /**
+     *  Returns a copy of the values if the element is shared by an
+     *  LDAPSchemaCache, otherwise the values themselves.
+     */
+    public LinkedList<ByteArray> getAllValues(){
+        LinkedList<ByteArray> values = super.getAllValues();
+        if( readOnly && (values != null)) {
+            return new LinkedList<ByteArray>(values);
+        }
+        return values;
+    }
+
+    /**
+     *  Throws UnsupportedOperationException if the element is shared by
+     *  an LDAPSchemaCache, otherwise sets the values.
+     */
+    public void setAllValues(LinkedList<ByteArray> newVals){
+        checkWritable();
+        super.setAllValues(newVals);
+    }
+
+    /**
+     * Makes the element read-only, once it is shared by an
+     * LDAPSchemaCache.
+     */
+    /* package */
+    void setReadOnly()
+    {
+        readOnly = true;
+        return;
+    }
+
+    private void checkWritable()
+    {
+        if( readOnly) {
+            throw new UnsupportedOperationException(
+                "LDAPSchemaElement " + oid + " is shared by an " +
+                "LDAPSchemaCache and cannot be modified");
+        }
+        return;
+    }
+
     /**
     *  Writes the object state to a stream in standard Default Binary format
     *  This function wraps ObjectOutputStream' s defaultWriteObject() to write
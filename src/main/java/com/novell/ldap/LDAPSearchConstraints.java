@@ -38,6 +38,8 @@ public class LDAPSearchConstraints extends LDAPConstraints {
     private int serverTimeLimit = 0;
     private int maxResults = 1000;
     private int batchSize = 1;
+    private int highWaterMark = 0;   // reply queue limit, 0 is unbounded
+    private int lowWaterMark = 0;
     private static Object nameLock = new Object(); // protect agentNum
     private static int lSConsNum = 0;  // Debug, LDAPConnection number
     private String name;             // String name for debug
@@ -129,6 +131,8 @@ public class LDAPSearchConstraints extends LDAPConstraints {
             this.dereference = scons.getDereference();
             this.maxResults = scons.getMaxResults();
             this.batchSize = scons.getBatchSize();
+            this.highWaterMark = scons.getHighWaterMark();
+            this.lowWaterMark = scons.getLowWaterMark();
         }
         // Get a unique connection name for debug
         if( Debug.LDAP_DEBUG) {
@@ -251,6 +255,33 @@ public class LDAPSearchConstraints extends LDAPConstraints {
         return batchSize;
     }
 
+    /**
+     * Returns the maximum number of search results queued, not yet read
+     * by the application, before the API stops receiving more.
+     * A value of 0 means no limit.  Default: 0
+     *
+     * @return The maximum number of queued search results.
+     *
+     * @see #setReplyQueueLimits(int, int)
+     */
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+    /**
+     * Returns the number of queued search results at which the API
+     * resumes receiving results after reaching the high water mark.
+     *
+     * @return The number of queued search results at which receiving resumes.
+     *
+     * @see #setReplyQueueLimits(int, int)
+     */
+    public int getLowWaterMark()
+    {
+        return lowWaterMark;
+    }
+
     /**
      * Specifies when aliases should be dereferenced.
      *
@@ -327,6 +358,45 @@ public class LDAPSearchConstraints extends LDAPConstraints {
         return;
     }
 
+    /**
+     * Limits the number of search results queued by the API that the
+     * application has not yet read.
+     *
+     * <p>When <code>highWaterMark</code> results are queued for a search,
+     * the API stops receiving results until the application has read
+     * enough to bring the queue down to <code>lowWaterMark</code>.  If the
+     * search is the only operation outstanding on the connection, no more
+     * data is read from the connection in the meantime, so the server is
+     * held back.  Otherwise further results for the search are kept in
+     * their encoded form outside the Java heap, so the other operations
+     * on the connection are not held up, up to the limit set by
+     * LDAPConnection.LDAP_PROPERTY_MAX_SPILL_SIZE.</p>
+     *
+     * <p>This allows a very large result set to be read with bounded
+     * memory.  Note that a batch size of 0 still collects all results in
+     * LDAPSearchResults.  The default of 0 means no limit.</p>
+     *
+     * @param highWaterMark The maximum number of queued search results,
+     *                      or 0 for no limit.
+     *
+     * @param lowWaterMark  The number of queued search results at which
+     *                      receiving resumes, less than highWaterMark.
+     *
+     * @see #getHighWaterMark()
+     * @see #getLowWaterMark()
+     */
+    public void setReplyQueueLimits(int highWaterMark, int lowWaterMark)
+    {
+        if( (highWaterMark < 0) || (lowWaterMark < 0) ||
+            ((highWaterMark > 0) && (lowWaterMark >= highWaterMark))) {
+            throw new IllegalArgumentException(
+                    "Low water mark must be less than high water mark");
+        }
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = (highWaterMark == 0) ? 0 : lowWaterMark;
+        return;
+    }
+
     /**
      * Sets a preference indicating whether or not aliases should be
      * dereferenced, and if so, when.
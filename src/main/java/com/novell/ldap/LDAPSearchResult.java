@@ -112,7 +112,8 @@ public class LDAPSearchResult extends LDAPMessage
 			LDAPAttribute attribute = (LDAPAttribute) entryiterator.next();
 			attributesequence.add(new ASN1OctetString(attribute.getName()));
 			ASN1Set valueset = new ASN1Set();
-			String[] valueArray = attribute.getStringValueArray();
+			// The values as they are, binary values are not strings
+			byte[][] valueArray = attribute.getByteValueArray();
 			if (valueArray != null)
 				for (int i = 0; i < valueArray.length; i++) {
 					valueset.add(new ASN1OctetString(valueArray[i]));
@@ -130,28 +131,35 @@ public class LDAPSearchResult extends LDAPMessage
     public LDAPEntry getEntry()
     {
         if( entry == null) {
-            LDAPAttributeSet attrs = new LDAPAttributeSet();
-
-            ASN1Sequence attrList =
-                ((RfcSearchResultEntry)message.getResponse()).getAttributes();
-
-            ASN1Object[] seqArray = attrList.toArray();
-            for(int i = 0; i < seqArray.length; i++) {
-                ASN1Sequence seq = (ASN1Sequence)seqArray[i];
-                LDAPAttribute attr =
-                    new LDAPAttribute(((ASN1OctetString)seq.get(0)).stringValue());
-
-                ASN1Set set = (ASN1Set)seq.get(1);
-                Object[] setArray = set.toArray();
-                for(int j = 0; j < setArray.length; j++) {
-                    attr.addValue(((ASN1OctetString)setArray[j]).byteValue());
+            RfcSearchResultEntry result =
+                (RfcSearchResultEntry)message.getResponse();
+            LDAPAttributeSet attrs;
+
+            byte[] encoded = result.getAttributeBytes();
+            if( encoded != null) {
+                // Attributes are created from the encoding as they are used
+                attrs = new LazyAttributeSet(encoded);
+            } else {
+                attrs = new LDAPAttributeSet();
+
+                ASN1Sequence attrList = result.getAttributes();
+
+                ASN1Object[] seqArray = attrList.toArray();
+                for(int i = 0; i < seqArray.length; i++) {
+                    ASN1Sequence seq = (ASN1Sequence)seqArray[i];
+                    LDAPAttribute attr =
+                        new LDAPAttribute(((ASN1OctetString)seq.get(0)).stringValue());
+
+                    ASN1Set set = (ASN1Set)seq.get(1);
+                    Object[] setArray = set.toArray();
+                    for(int j = 0; j < setArray.length; j++) {
+                        attr.addValue(((ASN1OctetString)setArray[j]).byteValue());
+                    }
+                    attrs.add(attr);
                 }
-                attrs.add(attr);
             }
 
-            entry = new LDAPEntry(
-                ((RfcSearchResultEntry)message.getResponse()).getObjectName().stringValue(),
-                attrs);
+            entry = new LDAPEntry(result.getObjectName().stringValue(), attrs);
         }            
         return entry;
     }
@@ -172,6 +180,23 @@ public class LDAPSearchResult extends LDAPMessage
         return str;
     }
     
+    /*
+     * Once returned by getEntry the entry may have been changed, so it is
+     * encoded again rather than writing the message as read.
+     */
+    /*package*/
+    RfcLDAPMessage getExternalMessage()
+    {
+        if( entry == null) {
+            return message;
+        }
+        return new RfcLDAPMessage(
+                        new RfcSearchResultEntry(
+                            new ASN1OctetString(entry.getDN()),
+                            getEntrySequence(entry)),
+                        message.getControls());
+    }
+
 	protected void setDeserializedValues(LDAPMessage readObject, RfcControls asn1Ctrls)
 		   throws IOException, ClassNotFoundException {
 //			Check if it is the correct message type	
@@ -62,6 +62,7 @@ implements Externalizable
     private int batchSize;              // Application specified batch size
     private boolean completed = false;  // All entries received
     private LDAPControl[] controls = null; // Last set of controls
+    private LDAPMessage controlMsg = null; // Last with controls, not decoded
     private LDAPSearchQueue queue;
     private static Object nameLock = new Object(); // protect resultsNum
     private static int resultsNum = 0;  // used for debug
@@ -155,6 +156,13 @@ implements Externalizable
      */
     public LDAPControl[] getResponseControls()
     {
+        if( controlMsg != null) {
+            LDAPControl[] ctls = controlMsg.getControls();
+            if( ctls != null) {
+                controls = ctls;
+            }
+            controlMsg = null;
+        }
         return controls;
     }
 
@@ -336,16 +344,16 @@ implements Externalizable
         for(int i=0; i<batchSize; ) {
             try {
                 if((msg = queue.getResponse()) != null) {
-                    // Only save controls if there are some
-                    LDAPControl[] ctls = msg.getControls();
-                    if( ctls != null ) {
+                    // Only save controls if there are some, they are
+                    // created when the application asks for them
+                    if( msg.hasControls()) {
 
                         if( Debug.LDAP_DEBUG) {
                             Debug.trace( Debug.controls, name +
                                 "Saving returned controls in " +
                                 "LDAPSearchResults local variable.");
                         }
-                        controls = ctls;
+                        controlMsg = msg;
                     }
 
                     if(msg instanceof LDAPSearchResult) { // Search Entry
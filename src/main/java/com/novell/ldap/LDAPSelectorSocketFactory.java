@@ -0,0 +1,112 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Creates connections whose replies are read by a small pool of shared
+ * selector threads, rather than by a reader thread for each connection.
+ *
+ * <p>Use this factory when an application holds many connections, most of
+ * them idle.  There is one selector thread per processor, however many
+ * connections are open.  A connection created by this factory that starts
+ * TLS is read by its own thread until TLS is stopped.</p>
+ *
+ * <p>The socket timeout set with LDAPConnection.setSocketTimeOut does not
+ * apply to these connections, use LDAPConstraints.setTimeLimit.</p>
+ *
+ * <p>The selector transport may also be enabled without a socket factory
+ * by setting the LDAPConnection.LDAP_PROPERTY_SELECTOR_TRANSPORT property.</p>
+ *
+ * @see LDAPConnection#LDAPConnection(LDAPSocketFactory)
+ * @see LDAPConnection#LDAP_PROPERTY_SELECTOR_TRANSPORT
+ */
+public class LDAPSelectorSocketFactory implements LDAPSocketFactory
+{
+    /**
+     * Constructs a factory for connections read by the selector threads.
+     */
+    public LDAPSelectorSocketFactory()
+    {
+        return;
+    }
+
+    /**
+     * Returns a socket, backed by a SocketChannel, connected to the host
+     * and port.
+     *
+     *  @param host     The host name or a dotted string representing
+     *                  the IP address of the LDAP server to which you want
+     *                  to connect.
+     *<br><br>
+     *  @param port     The TCP port number to connect to.
+     *
+     * @exception IOException The socket to the specified host and port
+     *                        could not be created.
+     *
+     * @exception UnknownHostException The specified host could not be found.
+     *
+     * @return the new Socket
+     */
+    public Socket createSocket(String host, int port)
+        throws IOException, UnknownHostException
+    {
+        return createSocket(host, port, 0);
+    }
+
+    /**
+     * Returns a socket, backed by a SocketChannel, connected to the host
+     * and port within a time limit.  LDAPConnection calls this method with
+     * the LDAP_PROPERTY_CONNECT_TIMEOUT of the connection.
+     *
+     *  @param host     The host name or a dotted string representing
+     *                  the IP address of the LDAP server to which you want
+     *                  to connect.
+     *<br><br>
+     *  @param port     The TCP port number to connect to.
+     *<br><br>
+     *  @param timeout  The time allowed to connect, in milliseconds, or 0
+     *                  for no limit.
+     *
+     * @exception IOException The socket to the specified host and port
+     *                        could not be created.
+     *
+     * @exception UnknownHostException The specified host could not be found.
+     *
+     * @return the new Socket
+     */
+    public Socket createSocket(String host, int port, int timeout)
+        throws IOException, UnknownHostException
+    {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if( address.isUnresolved()) {
+            throw new UnknownHostException(host);
+        }
+        Socket s = SocketChannel.open().socket();
+        try {
+            s.connect(address, timeout);
+        } catch( IOException ioe) {
+            s.close();
+            throw ioe;
+        }
+        return s;
+    }
+}
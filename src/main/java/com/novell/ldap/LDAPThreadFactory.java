@@ -0,0 +1,169 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads started by the library, for connection readers,
+ * unsolicited notification listeners, event generators and client time
+ * limits.
+ *
+ * <p>A factory is set for one connection with
+ * {@link LDAPConnection#setThreadFactory(ThreadFactory)} or the
+ * LDAP_PROPERTY_THREAD_FACTORY constraint, or for all connections
+ * constructed afterwards with
+ * {@link LDAPConnection#setDefaultThreadFactory(ThreadFactory)}.  Any
+ * java.util.concurrent.ThreadFactory may be used; this class provides
+ * the two common ones.</p>
+ *
+ * <p>On a Java 21 or later runtime, {@link #newVirtualThreadFactory(String)}
+ * creates virtual threads, so an application can have many thousands of
+ * connections and requests waiting on the server without a platform thread
+ * for each.  The library is built for Java 11, so virtual threads are
+ * found at run time.</p>
+ *
+ * <p>The following code snippet uses virtual threads when available:
+ * <pre><code>
+ *   if( LDAPThreadFactory.isVirtualThreadSupported()) {
+ *       LDAPConnection.setDefaultThreadFactory(
+ *           LDAPThreadFactory.newVirtualThreadFactory("LDAP"));
+ *   }
+ * </code></pre></p>
+ *
+ * @see LDAPConnection#LDAP_PROPERTY_THREAD_FACTORY
+ */
+public class LDAPThreadFactory implements ThreadFactory
+{
+    /* Thread.Builder.OfVirtual name(String, long) and factory(), or null */
+    private static final Method ofVirtual;
+    private static final Method nameMethod;
+    private static final Method factoryMethod;
+
+    static {
+        Method of = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            Class builder = Class.forName("java.lang.Thread$Builder");
+            of = Thread.class.getMethod("ofVirtual", new Class[0]);
+            name = builder.getMethod("name",
+                                new Class[] { String.class, long.class });
+            factory = builder.getMethod("factory", new Class[0]);
+            // Fails if virtual threads are a preview feature not enabled
+            of.invoke(null, new Object[0]);
+        } catch( Throwable t) {
+            of = null;
+        }
+        ofVirtual = of;
+        nameMethod = name;
+        factoryMethod = factory;
+    }
+
+    private final String name;
+    private final ThreadFactory virtual;  // creates virtual threads, or null
+    private int count = 0;
+
+    /**
+     * Constructs a factory for daemon platform threads, named name
+     * followed by a dash and a sequence number.
+     *
+     * @param name The prefix of the names of the threads created.
+     */
+    public LDAPThreadFactory(String name)
+    {
+        this(name, null);
+        return;
+    }
+
+    private LDAPThreadFactory(String name, ThreadFactory virtual)
+    {
+        this.name = name;
+        this.virtual = virtual;
+        return;
+    }
+
+    /**
+     * Indicates whether this runtime can create virtual threads.
+     *
+     * @return true on a Java 21 or later runtime.
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Returns a factory for virtual threads, named name followed by a dash
+     * and a sequence number.
+     *
+     * @param name The prefix of the names of the threads created.
+     *
+     * @return a factory creating virtual threads.
+     *
+     * @exception UnsupportedOperationException this runtime cannot create
+     *            virtual threads.
+     */
+    public static LDAPThreadFactory newVirtualThreadFactory(String name)
+    {
+        if( ofVirtual == null) {
+            throw new UnsupportedOperationException(
+                        "Virtual threads are not supported by this runtime");
+        }
+        try {
+            Object builder = ofVirtual.invoke(null, new Object[0]);
+            builder = nameMethod.invoke(builder,
+                            new Object[] { name + "-", Long.valueOf(1) });
+            return new LDAPThreadFactory(name,
+                        (ThreadFactory)factoryMethod.invoke(builder,
+                                                            new Object[0]));
+        } catch( Exception ex) {
+            throw new UnsupportedOperationException(
+                        "Unable to create virtual threads: " + ex.toString());
+        }
+    }
+
+    /**
+     * Indicates whether this factory creates virtual threads.
+     *
+     * @return true if the threads created are virtual threads.
+     */
+    public boolean isVirtual()
+    {
+        return virtual != null;
+    }
+
+    /**
+     * Creates a thread, not yet started, to run r.
+     *
+     * @param r The task the thread runs.
+     *
+     * @return the new thread.
+     */
+    public Thread newThread(Runnable r)
+    {
+        if( virtual != null) {
+            return virtual.newThread(r);
+        }
+        Thread t;
+        synchronized( this) {
+            t = new Thread(r, name + "-" + ++count);
+        }
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,352 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * An LDAPAttributeSet built from the encoded PartialAttributeList of a
+ * search result entry.
+ *
+ * <p>The encoding is scanned once for the position of each attribute
+ * description and value set.  An LDAPAttribute is created only when it is
+ * asked for by name; its values are then copied out of the encoding.  Any
+ * other use of the set, iterating over it, modifying it, or asking for its
+ * size, creates all the remaining attributes first, after which the set
+ * behaves exactly like an LDAPAttributeSet.</p>
+ *
+ * <p>As with the decoded form, if an attribute description occurs more
+ * than once only the first occurrence is kept.</p>
+ *
+ * <p>The set may be read concurrently, as one built by LDAPSearchResult
+ * always could.</p>
+ */
+/* package */
+final class LazyAttributeSet extends LDAPAttributeSet
+{
+    // Never written itself, see writeReplace
+    private static final long serialVersionUID = 1L;
+
+    /* Encoded attribute list, null once every attribute has been created */
+    private volatile byte[] pdu = null;
+
+    /*
+     * For each attribute, in order: offset and length of the description,
+     * offset of the value set content and its end.
+     */
+    private int[] index;
+    private boolean[] created;
+    private int count = 0;
+
+    /**
+     * Constructs a set from the content octets of a PartialAttributeList.
+     *
+     * @param pdu The encoded attributes, shared, not copied.
+     */
+    /* package */
+    LazyAttributeSet(byte[] pdu)
+    {
+        super();
+        int[] index = new int[32];
+        int pos = 0;
+        while( pos < pdu.length) {
+            // PartialAttributeList ::= SEQUENCE OF SEQUENCE {
+            //                  type    AttributeDescription,
+            //                  vals    SET OF AttributeValue }
+            int[] attr = header(pdu, pos);
+            int end = attr[0] + attr[1];
+            int[] type = header(pdu, attr[0]);
+            int[] vals = header(pdu, type[0] + type[1]);
+            if( vals[0] + vals[1] != end) {
+                throw new RuntimeException(
+                    "LazyAttributeSet: Invalid attribute at offset " + pos);
+            }
+            if( count * 4 == index.length) {
+                int[] tmp = new int[index.length * 2];
+                System.arraycopy( index, 0, tmp, 0, index.length);
+                index = tmp;
+            }
+            index[count * 4] = type[0];
+            index[count * 4 + 1] = type[1];
+            index[count * 4 + 2] = vals[0];
+            index[count * 4 + 3] = end;
+            count++;
+            pos = end;
+        }
+        this.index = index;
+        this.created = new boolean[count];
+        this.pdu = pdu;
+        return;
+    }
+
+    /**
+     * Decodes the identifier and length octets of the element at pos.
+     *
+     * @return the offset of the element content and its length.
+     */
+    private static int[] header(byte[] pdu, int pos)
+    {
+        try {
+            pos++;                              // tag, always one octet
+            int len = pdu[pos++] & 0xFF;
+            if( len > 0x80) {
+                int octets = len & 0x7F;
+                if( octets > 4) {
+                    throw new RuntimeException(
+                            "LazyAttributeSet: Invalid length at offset " + pos);
+                }
+                len = 0;
+                while( octets-- > 0) {
+                    len = (len << 8) | (pdu[pos++] & 0xFF);
+                }
+            } else if( len == 0x80) {
+                throw new RuntimeException(
+                        "LazyAttributeSet: Indefinite length at offset " + pos);
+            }
+            if( (len < 0) || (pos + len > pdu.length)) {
+                throw new RuntimeException(
+                        "LazyAttributeSet: Length exceeds data at offset " + pos);
+            }
+            return new int[] { pos, len };
+        } catch( ArrayIndexOutOfBoundsException e) {
+            throw new RuntimeException(
+                    "LazyAttributeSet: Truncated attribute list");
+        }
+    }
+
+    /**
+     * Compares the description of attribute i with name, ignoring the case
+     * of ASCII letters.
+     */
+    private boolean nameMatches(byte[] pdu, int i, String name)
+    {
+        int off = index[i * 4];
+        int len = index[i * 4 + 1];
+        if( len != name.length()) {
+            // Lengths may still match once decoded if either is not ASCII
+            for( int j = 0; j < name.length(); j++) {
+                if( name.charAt(j) >= 0x80) {
+                    return nameOf(pdu, i).equalsIgnoreCase(name);
+                }
+            }
+            return false;
+        }
+        for( int j = 0; j < len; j++) {
+            int b = pdu[off + j];
+            int c = name.charAt(j);
+            if( (b < 0) || (c >= 0x80)) {
+                return nameOf(pdu, i).equalsIgnoreCase(name);
+            }
+            if( b != c) {
+                if( (b >= 'a') && (b <= 'z')) {
+                    b -= 'a' - 'A';
+                }
+                if( (c >= 'a') && (c <= 'z')) {
+                    c -= 'a' - 'A';
+                }
+                if( b != c) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private String nameOf(byte[] pdu, int i)
+    {
+        try {
+            return new String(pdu, index[i * 4], index[i * 4 + 1], "UTF-8");
+        } catch( UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee.toString());
+        }
+    }
+
+    /**
+     * Creates attribute i, copying its values out of the encoding.
+     */
+    private LDAPAttribute create(byte[] pdu, int i)
+    {
+        LDAPAttribute attr = new LDAPAttribute(nameOf(pdu, i));
+        int pos = index[i * 4 + 2];
+        int end = index[i * 4 + 3];
+        while( pos < end) {
+            int[] value = header(pdu, pos);
+            pos = value[0] + value[1];
+            if( pos > end) {
+                throw new RuntimeException(
+                    "LazyAttributeSet: Value exceeds attribute at offset " +
+                    value[0]);
+            }
+            attr.addValue(Arrays.copyOfRange(pdu, value[0], pos));
+        }
+        created[i] = true;
+        return attr;
+    }
+
+    /**
+     * Creates every attribute not yet created and releases the encoding.
+     */
+    private void materializeAll()
+    {
+        if( pdu == null) {
+            return;
+        }
+        synchronized( this) {
+            byte[] pdu = this.pdu;
+            if( pdu == null) {
+                return;
+            }
+            for( int i = 0; i < count; i++) {
+                if( ! created[i]) {
+                    super.add(create(pdu, i));
+                }
+            }
+            index = null;
+            created = null;
+            this.pdu = null;
+        }
+        return;
+    }
+
+    /**
+     * Returns the encoded attribute list if no attribute has been created
+     * from it, so could have been changed, otherwise null.
+     */
+    /* package */
+    byte[] getEncoding()
+    {
+        synchronized( this) {
+            if( pdu == null) {
+                return null;
+            }
+            for( int i = 0; i < count; i++) {
+                if( created[i]) {
+                    return null;
+                }
+            }
+            return pdu;
+        }
+    }
+
+    /**
+     * Returns the attribute matching the specified attrName, creating it
+     * from the encoding if it has not been asked for before.
+     *
+     * @see LDAPAttributeSet#getAttribute(String)
+     */
+    public LDAPAttribute getAttribute(String attrName)
+    {
+        if( pdu == null) {
+            return super.getAttribute(attrName);
+        }
+        synchronized( this) {
+            byte[] pdu = this.pdu;
+            LDAPAttribute attr = super.getAttribute(attrName);
+            if( (attr != null) || (pdu == null)) {
+                return attr;
+            }
+            for( int i = 0; i < count; i++) {
+                if( ! created[i] && nameMatches(pdu, i, attrName)) {
+                    attr = create(pdu, i);
+                    super.add(attr);
+                    return attr;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @see LDAPAttributeSet#getAttribute(String, String)
+     */
+    public LDAPAttribute getAttribute(String attrName, String lang)
+    {
+        return getAttribute(attrName + ";" + lang);
+    }
+
+    /**
+     * Returns a deep copy of this attribute set, as an LDAPAttributeSet.
+     */
+    public Object clone()
+    {
+        materializeAll();
+        LDAPAttributeSet newObj = new LDAPAttributeSet();
+        Iterator i = super.iterator();
+        while (i.hasNext()){
+            newObj.add( ((LDAPAttribute)i.next()).clone());
+        }
+        return newObj;
+    }
+
+    public Iterator iterator()
+    {
+        materializeAll();
+        return super.iterator();
+    }
+
+    public int size()
+    {
+        materializeAll();
+        return super.size();
+    }
+
+    public boolean isEmpty()
+    {
+        if( pdu != null) {
+            return count == 0;
+        }
+        return super.isEmpty();
+    }
+
+    public boolean contains(Object attr)
+    {
+        return getAttribute(((LDAPAttribute)attr).getName()) != null;
+    }
+
+    public boolean add(Object attr)
+    {
+        materializeAll();
+        return super.add(attr);
+    }
+
+    public boolean remove(Object object)
+    {
+        materializeAll();
+        return super.remove(object);
+    }
+
+    public void clear()
+    {
+        // Called by the LDAPAttributeSet constructor, before pdu is set
+        synchronized( this) {
+            pdu = null;
+            index = null;
+            created = null;
+            super.clear();
+        }
+        return;
+    }
+
+    /**
+     * Serializes this set as the LDAPAttributeSet it is equivalent to.
+     */
+    private Object writeReplace()
+    {
+        return clone();
+    }
+}
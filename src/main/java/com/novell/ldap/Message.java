@@ -15,6 +15,13 @@
 
 package com.novell.ldap;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.novell.ldap.asn1.LBERDecoder;
 import com.novell.ldap.client.*;
 import com.novell.ldap.rfc2251.*;
 
@@ -29,15 +36,31 @@ class Message
     private MessageAgent agent;          // MessageAgent handling this request
     private LDAPMessageQueue queue;      // Application message queue
     private int mslimit;                 // client time limit in milliseconds
-    private Thread timer = null;         // Timeout thread
+    private ScheduledFuture timer = null;// Pending client time limit
     // Note: MessageVector is synchronized
     private MessageVector replies = new MessageVector(5,5); // place to store replies
+    // Guards the reply queue and spill state.  A lock rather than the
+    // replies monitor, so a virtual thread waiting for a reply does not
+    // pin its carrier thread.
+    private final ReentrantLock replyLock = new ReentrantLock();
+    private final Condition replyChanged = replyLock.newCondition();
     private int msgId;                   // message ID of this request
     private boolean acceptReplies = true;// false if no longer accepting replies
     private boolean waitForReply = true;   // true if wait for reply
     private boolean complete = false;    // true LDAPResult received
     private String name;                 // String name used for Debug
     private BindProperties bindprops;    // Bind properties if a bind request
+    private int highWater = 0;           // reply queue limit, 0 if unbounded
+    private int lowWater = 0;            // resume reading at this many replies
+    private SpillQueue spilled = null;   // raw replies held while queue full
+    private boolean spilling = false;    // true if new replies are spilled
+    private boolean spillFailed = false; // true if over the spill limit
+    private LBERDecoder spillDecoder = null; // decodes spilled replies
+    private ReplyHandler handler = null; // receives replies instead of queue
+    private volatile Runnable notifier = null; // run when replies are queued
+    private boolean onDemand = false;    // entries handed over as requested
+    private long demand = 0;             // entries the handler may be given
+    private boolean delivering = false;  // a thread is handing over replies
 
     /**
      * Constructs a Message class encapsulating information about this message.
@@ -87,7 +110,7 @@ class Message
      * that window but opens the possibility for misuse.  We do not
      * enforce the requirement that it be called only once as that adds
      * extra synchronization.  We depend on the interal API to act correctly.
-     * When the message is sent, the timer thread is started to time
+     * When the message is sent, a timer is scheduled to time
      * the message.
      */
      /* package */
@@ -99,9 +122,9 @@ class Message
                 conn.getConnectionName());
         }
         conn.writeMessage( this );
-        // Start the timer thread
+        // Start the timer
         if( mslimit != 0 ) {
-            // Don't start the timer thread for abandon or Unbind
+            // Don't start the timer for abandon or Unbind
             switch( msg.getType())
             {
                 case LDAPMessage.ABANDON_REQUEST:
@@ -109,15 +132,191 @@ class Message
                     mslimit = 0;
                     break;
                 default:
-                    // start the timer thread
-                    timer = new Timeout( mslimit, this);
-                    timer.setDaemon(true); // If this is the last thread running, allow exit.
-                    timer.start();
+                    // schedule on the shared timer
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.messages, name +
+                           "client timer started, " + mslimit + " milliseconds");
+                    }
+                    timer = TimeoutScheduler.schedule( new Timeout( this),
+                                                       mslimit);
+                    if( complete) {
+                        // Result arrived before the timer was saved
+                        stopTimer();
+                    }
                     break;
             }
         }
         return;
     }
+    /**
+     * Limits the number of decoded replies queued for this message.
+     *
+     * <p>When highWater replies are queued and this is the only message
+     * outstanding on the connection, the reader thread stops reading the
+     * connection until the application has taken the queue down to
+     * lowWater replies.  If other messages are outstanding, further
+     * replies for this message are held undecoded outside the heap
+     * instead, so the other messages are not held up.</p>
+     *
+     * <p>Must be called before the message is sent.</p>
+     *
+     * @param highWater the maximum number of replies queued, or 0 for
+     * no limit.
+     *
+     * @param lowWater the number of queued replies at which reading resumes.
+     */
+    /* package */
+    void setReplyLimits( int highWater, int lowWater)
+    {
+        this.highWater = highWater;
+        this.lowWater = lowWater;
+        return;
+    }
+
+    /**
+     * Hands replies to handler as they are read, instead of queueing them.
+     * The message is released once the last reply has been handed over.
+     *
+     * <p>Must be called before the message is sent.</p>
+     *
+     * @param handler the handler receiving the replies.
+     */
+    /* package */
+    void setReplyHandler( ReplyHandler handler)
+    {
+        this.handler = handler;
+        return;
+    }
+
+    /**
+     * Hands search result entries to the reply handler only as they are
+     * requested with {@link #request(long)}, other replies as they are
+     * read.  Until an entry is requested it is queued, and once one is
+     * queued further replies are held back as for a full reply queue: the
+     * reader stops reading the connection, or spills the replies if other
+     * messages are outstanding.
+     *
+     * <p>Must be called after setReplyHandler and before the message is
+     * sent.</p>
+     */
+    /* package */
+    void setDeliverOnDemand()
+    {
+        onDemand = true;
+        highWater = 1;
+        lowWater = 0;
+        return;
+    }
+
+    /**
+     * Allows n more search result entries to be handed to the reply
+     * handler, and hands over those already read.
+     *
+     * @param n the number of entries, more than 0.
+     */
+    /* package */
+    void request( long n)
+    {
+        replyLock.lock();
+        try {
+            demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+        } finally {
+            replyLock.unlock();
+        }
+        deliverReplies();
+        return;
+    }
+
+    /*
+     * Hands the queued replies to the reply handler, in order, stopping at
+     * an entry not yet requested.  Only one thread hands over replies at
+     * a time; a call made meanwhile leaves the delivering thread to look
+     * again.  The handler is called without the lock held.
+     */
+    private void deliverReplies()
+    {
+        replyLock.lock();
+        try {
+            if( delivering) {
+                return;
+            }
+            delivering = true;
+        } finally {
+            replyLock.unlock();
+        }
+        boolean stopped = false;
+        try {
+            for(;;) {
+                RfcLDAPMessage reply = null;
+                ReplyHandler h;
+                boolean last = false;
+                replyLock.lock();
+                try {
+                    h = handler;
+                    if( replies.isEmpty()) {
+                        unspill();
+                    }
+                    if( (h != null) && ! replies.isEmpty()) {
+                        RfcLDAPMessage next = (RfcLDAPMessage)replies.get(0);
+                        if( next.getType() != LDAPMessage.SEARCH_RESPONSE) {
+                            reply = next;
+                        } else
+                        if( demand > 0) {
+                            if( demand != Long.MAX_VALUE) {
+                                demand--;
+                            }
+                            reply = next;
+                        }
+                    }
+                    if( reply == null) {
+                        delivering = false;
+                        stopped = true;
+                        return;
+                    }
+                    replies.remove(0);
+                    replyTaken();
+                    if( complete && drained()) {
+                        last = true;
+                        handler = null;         // not abandoned, finished
+                    }
+                } finally {
+                    replyLock.unlock();
+                }
+                if( last) {
+                    agent.abandon( msgId, null);    // Get rid of resources
+                }
+                h.reply( reply);
+            }
+        } finally {
+            if( ! stopped) {
+                // The handler failed, let the next call deliver
+                replyLock.lock();
+                try {
+                    delivering = false;
+                } finally {
+                    replyLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets a task run each time a reply is queued or the message is
+     * abandoned, on the thread that queued it.  The task must not block.
+     *
+     * @param notifier the task, or null for none.
+     */
+    /* package */
+    void setReplyNotifier( Runnable notifier)
+    {
+        this.notifier = notifier;
+        if( (notifier != null) && (hasReplies() || ! acceptReplies)) {
+            // Replies queued before the notifier was set
+            notifier.run();
+        }
+        return;
+    }
+
     /**
      * Returns true if replies are queued
      *
@@ -130,7 +329,144 @@ class Message
             // abandoned request
             return false;
         }
-        return (replies.size() > 0);
+        return (replies.size() > 0) || ((spilled != null) && ! spilled.isEmpty());
+    }
+
+    /**
+     * Returns true if new replies for this message are being spilled.
+     */
+    /* package */
+    boolean isSpilling()
+    {
+        return spilling;
+    }
+
+    /**
+     * Queues an undecoded reply while the reply queue is full.
+     *
+     * @param frame the content of the RfcLDAPMessage frame.
+     *
+     * @param result true if the frame is the LDAPResult ending the request.
+     *
+     * @return false if replies are no longer being spilled, in which case
+     * the caller must decode the reply and queue it with putReply.
+     */
+    /* package */
+    boolean spillReply( byte[] frame, boolean result)
+    {
+        replyLock.lock();
+        try {
+            if( ! spilling) {
+                return false;
+            }
+            if( ! acceptReplies || spillFailed) {
+                return true; // discard
+            }
+            Connection c = conn;
+            if( (c != null) && ! c.reserveSpill( frame.length)) {
+                // Fail this request only, the others are not held up.
+                // Still spilling, so later replies are discarded undecoded
+                stopTimer();
+                spillFailed = true;
+                c.releaseSpill( spilled.bytes());
+                spilled.clear();
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.messages, name +
+                        "spill limit of " + c.getMaxSpillSize() +
+                        " octets reached, abandoning request");
+                }
+                // Abandoning writes to the connection, not done on the reader
+                TimeoutScheduler.schedule( new SpillLimitExceeded( this), 0);
+                return true;
+            }
+            spilled.add( frame);
+            if( result) {
+                // The request is complete even though the result has
+                // not been decoded yet
+                stopTimer();
+                acceptReplies = false;
+                complete = true;
+            }
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, name +
+                    "Reply spilled (" + spilled.size() + " spilled)");
+            }
+        } finally {
+            replyLock.unlock();
+        }
+        return true;
+    }
+
+    /*
+     * Decodes spilled replies into the reply queue, up to the high water
+     * mark.  Called with replyLock held.
+     */
+    private void unspill()
+    {
+        if( (spilled == null) || spilled.isEmpty()) {
+            return;
+        }
+        if( spillDecoder == null) {
+            spillDecoder = new LBERDecoder();
+        }
+        while( (replies.size() < highWater) && ! spilled.isEmpty()) {
+            byte[] frame = spilled.remove();
+            if( conn != null) {
+                conn.releaseSpill( frame.length);
+            }
+            RfcLDAPMessage message;
+            try {
+                message = new RfcLDAPMessage( spillDecoder,
+                            new ByteArrayInputStream( frame), frame.length);
+            } catch( IOException ex) {
+                // Was a complete frame when read, cannot happen
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.messages, name +
+                        "discarding undecodable spilled reply " + ex);
+                }
+                continue;
+            }
+            if( msg != null) {
+                message.setRequestingMessage( msg);
+            }
+            replies.addElement( message);
+        }
+        if( spilled.isEmpty() && spilling && ! spillFailed) {
+            spilling = false;
+            if( conn != null) {
+                conn.spillingStopped();
+            }
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, name + "All spilled replies queued");
+            }
+        }
+        return;
+    }
+
+    /*
+     * Called after a reply is taken off the queue, with replyLock
+     * held.  Refills the queue from spilled replies, or lets a reader
+     * blocked on a full queue continue.
+     */
+    private void replyTaken()
+    {
+        if( (highWater > 0) && (replies.size() <= lowWater)) {
+            unspill();
+            replyChanged.signalAll();
+            Connection c = conn;
+            if( c != null) {
+                c.resumeReader( this);
+            }
+        }
+        return;
+    }
+
+    /*
+     * Returns true when no replies remain, queued or spilled.
+     */
+    private boolean drained()
+    {
+        return replies.isEmpty() && ((spilled == null) || spilled.isEmpty());
     }
 
     /**
@@ -141,6 +477,9 @@ class Message
     int getCount()
     {
         int size = replies.size();
+        if( spilled != null) {
+            size += spilled.size();
+        }
         if( complete) {
             return (size > 0 ? (size -1) : size);
         } else {
@@ -185,9 +524,12 @@ class Message
     /* package */
     void stopTimer()
     {
-        // If timer thread started, stop it
-        if( timer != null) {
-            timer.interrupt();
+        // If timer started, cancel it
+        ScheduledFuture t = timer;
+        if( t != null) {
+            if( t.cancel(false) && Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, name + "timer stopped");
+            }
         }
         return;
     }
@@ -202,11 +544,19 @@ class Message
                 agent.getAgentName());
         }
         // Notify any thread waiting for this message id
-        synchronized( replies) {
-            replies.notify();
+        replyLock.lock();
+        try {
+            // both the reader thread and application threads may wait here
+            replyChanged.signalAll();
+        } finally {
+            replyLock.unlock();
         }
         // Notify a thread waiting for any message id
         agent.sleepersAwake(false);
+        Runnable n = notifier;
+        if( n != null) {
+            n.run();
+        }
         return;
     }
 
@@ -284,7 +634,9 @@ class Message
             }
             return;
         }
-        replies.addElement( message);
+        if( (handler == null) || onDemand) {
+            replies.addElement( message);
+        }
         message.setRequestingMessage( msg); // Save request message info
         switch( message.getType()) {
         case LDAPMessage.SEARCH_RESPONSE:
@@ -349,8 +701,130 @@ class Message
                 }
             }
         }
-        // wake up waiting threads
-        sleepersAwake();
+        if( onDemand) {
+            deliverReplies();
+        } else
+        if( handler != null) {
+            deliver( message);
+            return;
+        } else {
+            // wake up waiting threads
+            sleepersAwake();
+        }
+
+        if( (highWater > 0) && (replies.size() >= highWater) && acceptReplies) {
+            replyQueueFull();
+        }
+        return;
+    }
+
+    /*
+     * Hands a reply to the reply handler.  Once the request is complete
+     * the message is released first, as the application would when it
+     * took the last reply off the queue.
+     */
+    private void deliver( RfcLDAPMessage message)
+    {
+        ReplyHandler h = handler;
+        if( complete) {
+            handler = null;                 // not abandoned, finished
+            agent.abandon( msgId, null);    // Get rid of resources
+        }
+        h.reply( message);
+        return;
+    }
+
+    /*
+     * Called by the reader thread when the reply queue reaches the high
+     * water mark.  While this is the only message on the connection the
+     * reader waits for the queue to drain, stopping reads from the socket.
+     * A selector thread, which must not wait, pauses reading from the
+     * connection instead.  Otherwise new replies are spilled from now on.
+     */
+    private void replyQueueFull()
+    {
+        Connection c = conn;
+        if( c == null) {
+            return;
+        }
+        boolean paused = false;
+        c.setReaderBlockedOn( this);
+        try {
+            replyLock.lock();
+            try {
+                if( c.isSelectorReader()) {
+                    if( acceptReplies && waitForReply &&
+                        (replies.size() > lowWater) &&
+                        (c.getMessageCount() == 1)) {
+                        if( Debug.LDAP_DEBUG) {
+                            Debug.trace( Debug.messages, name +
+                                "Reply queue full (" + replies.size() +
+                                "), reading paused");
+                        }
+                        // Resumed by replyTaken, wakeReader or removeMessage
+                        c.pauseReader( this);
+                        paused = true;
+                        return;
+                    }
+                }
+                while( ! c.isSelectorReader() &&
+                       acceptReplies && waitForReply &&
+                       (replies.size() > lowWater) &&
+                       (c.getMessageCount() == 1)) {
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.messages, name +
+                            "Reply queue full (" + replies.size() +
+                            "), reader waiting");
+                    }
+                    try {
+                        replyChanged.await();
+                    } catch( InterruptedException ex) {
+                        ; // recheck
+                    }
+                }
+                if( acceptReplies && waitForReply &&
+                    (replies.size() > lowWater)) {
+                    // Other messages are outstanding, don't hold them up
+                    if( spilled == null) {
+                        spilled = new SpillQueue();
+                    }
+                    spilling = true;
+                    c.spillingStarted();
+                    if( Debug.LDAP_DEBUG) {
+                        Debug.trace( Debug.messages, name +
+                            "Reply queue full (" + replies.size() +
+                            "), spilling replies");
+                    }
+                }
+            } finally {
+                replyLock.unlock();
+            }
+        } finally {
+            if( ! paused) {
+                c.setReaderBlockedOn( null);
+            }
+        }
+        return;
+    }
+
+    /**
+     * Wakes the reader thread if it is waiting for this message's reply
+     * queue to drain, or resumes reading if it was paused for it, so it
+     * can reconsider now another message is outstanding on the connection.
+     */
+    /* package */
+    void wakeReader()
+    {
+        replyLock.lock();
+        try {
+            replyChanged.signalAll();
+            Connection c = conn;
+            if( c != null) {
+                c.resumeReader( this);
+            }
+        } finally {
+            replyLock.unlock();
+        }
         return;
     }
 
@@ -369,9 +843,13 @@ class Message
             return null;
         }
         // sync on message so don't confuse with timer thread
-        synchronized( replies ) {
+        replyLock.lock();
+        try {
             Object msg = null;
             while( waitForReply ) {
+                if( replies.isEmpty()) {
+                    unspill();
+                }
                 if( replies.isEmpty()) {
                     if( Debug.LDAP_DEBUG) {
                         Debug.trace( Debug.messages, name +
@@ -382,7 +860,7 @@ class Message
                             Debug.trace( Debug.messages, name +
                                 "Wait for a reply");
                         }
-                        replies.wait();
+                        replyChanged.await();
                     } catch(InterruptedException ir) {
                         ; // do nothing
                     }
@@ -393,8 +871,9 @@ class Message
                     }
                 } else {
                     msg = replies.remove(0); // Atomic get and remove
+                    replyTaken();
                 }
-                if( (complete || ! acceptReplies) && replies.isEmpty()) {
+                if( (complete || ! acceptReplies) && drained()) {
                     // Remove msg from connection queue when last reply read
                     conn.removeMessage(this);
                     if( Debug.LDAP_DEBUG) {
@@ -412,6 +891,8 @@ class Message
                 return msg;
             }
             return null;
+        } finally {
+            replyLock.unlock();
         }
     }
 
@@ -427,8 +908,12 @@ class Message
             if( replies == null) {
                 return null;
             }
-            synchronized( replies) {
+            replyLock.lock();
+            try {
                 // Test and remove must be atomic
+                if( replies.isEmpty()) {
+                    unspill();
+                }
                 if( replies.isEmpty()) {
                     if( Debug.LDAP_DEBUG) {
                         Debug.trace( Debug.messages, name +
@@ -437,13 +922,16 @@ class Message
                     return null;    // No data
                 }
                 msg = replies.remove(0); // Atomic get and remove
+                replyTaken();
+            } finally {
+                replyLock.unlock();
             }
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.messages, name +
                         "Got reply from queue(" +
                         replies.size() + " remaining in queue)");
             }
-            if( (conn != null) && (complete || ! acceptReplies) && replies.isEmpty()) {
+            if( (conn != null) && (complete || ! acceptReplies) && drained()) {
                 // Remove msg from connection queue when last reply read
                 conn.removeMessage(this);
             }
@@ -474,8 +962,15 @@ class Message
                 ", informUser=" + (informUserEx != null) +
                 ", waitForReply=" + waitForReply);
         }
+        if( (informUserEx != null) && (handler == null)) {
+            // Queued before replies are refused, so a thread that has just
+            // taken the last reply does not find the request finished
+            replies.addElement( new LDAPResponse( informUserEx,
+                        conn.getActiveReferral()));
+        }
         acceptReplies = false;  // don't listen to anyone
         waitForReply = false;   // don't let sleeping threads lie
+        discardSpilled();
         if( ! complete) {
             try {
                 // If a bind, release bind semaphore & wake up waiting threads
@@ -514,9 +1009,17 @@ class Message
             conn.removeMessage( this);
         }
         // Get rid of all replies queued
+        if( (informUserEx != null) && (handler != null)) {
+            // No application thread will take the exception off a queue
+            LDAPResponse response = new LDAPResponse( informUserEx,
+                        conn.getActiveReferral());
+            ReplyHandler h = handler;
+            handler = null;
+            agent.abandon( msgId, null);
+            cleanup();
+            h.reply( response);
+        } else
         if( informUserEx != null) {
-            replies.addElement( new LDAPResponse( informUserEx,
-                        conn.getActiveReferral()));
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.messages, name +
                         "Queued exception as LDAPResponse (" + replies.size() +
@@ -535,6 +1038,11 @@ class Message
             // caller queues dummy response with error status
             sleepersAwake();
             cleanup();
+            ReplyHandler h = handler;
+            if( h != null) {
+                handler = null;
+                h.abandoned();
+            }
         }
         return;
     }
@@ -565,6 +1073,7 @@ class Message
                 while( ! replies.isEmpty()) {
                     replies.remove(0);
                 }
+                discardSpilled();
             }
         } catch ( Throwable ex ) {
             if( Debug.LDAP_DEBUG) {
@@ -583,6 +1092,32 @@ class Message
         return;
     }
 
+    /*
+     * Discards spilled replies, which are never delivered once the
+     * request is abandoned.
+     */
+    private void discardSpilled()
+    {
+        replyLock.lock();
+        try {
+            if( spilled != null) {
+                if( conn != null) {
+                    conn.releaseSpill( spilled.bytes());
+                }
+                spilled.clear();
+            }
+            if( spilling) {
+                spilling = false;
+                if( conn != null) {
+                    conn.spillingStopped();
+                }
+            }
+        } finally {
+            replyLock.unlock();
+        }
+        return;
+    }
+
     /**
      * Returns true if this message is a bind request
      *
@@ -608,49 +1143,67 @@ class Message
     }
 
     /**
-     * Timer class to provide timing for messages.  Only called
+     * Timer task to provide timing for messages.  Only scheduled
      * if time to wait is non zero.
      */
-    private final class Timeout extends Thread
+    private static final class Timeout implements Runnable
     {
-        private int timeToWait = 0;
         private Message message;
 
         /* package */
-        Timeout( int interval, Message msg)
+        Timeout( Message msg)
         {
-            super();
-            timeToWait = interval;
             message = msg;
             return;
         }
 
         /**
-         * The timeout thread.  If it wakes from the sleep, future input
-         * is stopped and the request is timed out.
+         * Runs when the time limit expires.  Future input is stopped and
+         * the request is abandoned.
         */
         public final void run()
         {
-            try {
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, message.name +
-                       "client timer started, " + timeToWait + " milliseconds");
-                }
-                sleep(timeToWait);
-                message.acceptReplies = false;
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, message.name + "client timed out");
-                }
-                // Note: Abandon clears the bind semaphore after failed bind.
-                message.abandon( null,
-                            new InterThreadException("Client request timed out",
-                            null, LDAPException.LDAP_TIMEOUT, null, message));
-            } catch ( InterruptedException ie ) {
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.messages, message.name + "timer stopped");
-                }
-                // the timer was stopped, do nothing
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, message.name +
+                        "client timed out");
+            }
+            // Note: Abandon clears the bind semaphore after failed bind.
+            message.abandon( null,
+                        new InterThreadException( "Client request timed out",
+                        null, LDAPException.LDAP_TIMEOUT, null, message));
+            return;
+        }
+    }
+
+    /**
+     * Task failing a request whose spilled replies would exceed the spill
+     * limit of the connection.  Run on a timer thread, as abandoning writes
+     * to the connection and must not be done by the reader.
+     */
+    private static final class SpillLimitExceeded implements Runnable
+    {
+        private Message message;
+
+        /* package */
+        SpillLimitExceeded( Message msg)
+        {
+            message = msg;
+            return;
+        }
+
+        /**
+         * Stops future input and abandons the request with NO_MEMORY.
+         */
+        public final void run()
+        {
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.messages, message.name +
+                        "spill limit exceeded");
             }
+            message.abandon( null,
+                        new InterThreadException(
+                        "Replies exceeded the connection spill limit",
+                        null, LDAPException.NO_MEMORY, null, message));
             return;
         }
     }
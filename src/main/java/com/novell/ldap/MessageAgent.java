@@ -15,12 +15,18 @@
 
 package com.novell.ldap;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import com.novell.ldap.client.*;
 
 /* package */
 class MessageAgent
 {
-    private MessageVector messages = new MessageVector(5,5);
+    private MessageMap messages = new MessageMap();
+    // Threads waiting for a reply to any message wait on messageArrived
+    private final ReentrantLock messagesLock = new ReentrantLock();
+    private final Condition messageArrived = messagesLock.newCondition();
     private int indexLastRead =0;
     private static Object nameLock = new Object(); // protect agentNum
     private static int agentNum = 0; // Debug, agent number
@@ -59,7 +65,7 @@ class MessageAgent
     {
         Object[] msgs = fromAgent.getMessageArray();
         for(int i = 0; i < msgs.length; i++) {
-            messages.addElement( msgs[i]);
+            messages.addElement( (Message)msgs[i]);
             ((Message)(msgs[i])).setAgent( this);
             if( Debug.LDAP_DEBUG) {
                 Message info = (Message)msgs[i];
@@ -68,18 +74,21 @@ class MessageAgent
                     messages.size());
             }
         }
-        synchronized(messages) {
+        messagesLock.lock();
+        try {
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.messages, name +
                     "Messages in queue");
                 debugDisplayMessages();
             }
             if( msgs.length > 1) {
-                messages.notifyAll();  // wake all threads waiting for messages
+                messageArrived.signalAll();  // wake all threads waiting for messages
             } else
             if( msgs.length == 1) {
-                messages.notify();    // only wake one thread
+                messageArrived.signal();    // only wake one thread
             }
+        } finally {
+            messagesLock.unlock();
         }
         return;
     }
@@ -92,11 +101,14 @@ class MessageAgent
      /* package */
      final void sleepersAwake(boolean all)
      {
-        synchronized(messages) {
+        messagesLock.lock();
+        try {
             if( all)
-                messages.notifyAll();
+                messageArrived.signalAll();
             else
-                messages.notify();
+                messageArrived.signal();
+        } finally {
+            messagesLock.unlock();
         }
         return;
      }
@@ -109,15 +121,9 @@ class MessageAgent
     /* package */
     final boolean isResponseReceived()
     {
-        int size = messages.size();
-        int next = indexLastRead + 1;
-        Message info;
-        for( int i = 0; i < size; i++) {
-           if( next == size ) {
-               next = 0;
-           }
-           info = (Message)messages.elementAt(next);
-           if( info.hasReplies() ) {
+        Object[] msgs = messages.toArray();
+        for( int i = 0; i < msgs.length; i++) {
+           if( ((Message)msgs[i]).hasReplies() ) {
               return true;
            }
         }
@@ -140,6 +146,21 @@ class MessageAgent
         }
     }
 
+    /**
+     * Sets the task run each time a reply for msgId is queued.
+     *
+     * @see Message#setReplyNotifier(Runnable)
+     *
+     * @exception NoSuchFieldException msgId is not outstanding.
+     */
+    /* package */
+    final void setReplyNotifier( int msgId, Runnable notifier)
+            throws NoSuchFieldException
+    {
+        messages.findMessageById( msgId).setReplyNotifier( notifier);
+        return;
+    }
+
     /**
      * Abandon the request associated with MsgId
      *
@@ -179,17 +200,16 @@ class MessageAgent
     /* package */
     final void abandonAll()
     {
-        int size = messages.size();
+        Object[] msgs = messages.getObjectArray();
         Message info;
 
-        for( int i = 0; i < size; i++ ) {
-            info = (Message)messages.elementAt(i);
-            // Message complete and no more replies, remove from id list
+        for( int i = 0; i < msgs.length; i++ ) {
+            info = (Message)msgs[i];
+            // Message complete and no more replies, removed from id list
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.messages, name +
                 "abandonAll: Removing abandoned Message(" + info.getMessageID() + ")");
             }
-            messages.removeElement( info);
             info.abandon( null, null);
         }
         if( Debug.LDAP_DEBUG) {
@@ -208,13 +228,11 @@ class MessageAgent
     /* package */
     final int[] getMessageIDs()
     {
-        int size = messages.size();
-        int[] ids = new int[size];
-        Message info;
+        Object[] msgs = messages.toArray();
+        int[] ids = new int[msgs.length];
 
-        for( int i = 0; i < size; i++ ) {
-            info = (Message)messages.elementAt(i);
-            ids[i] = info.getMessageID();
+        for( int i = 0; i < msgs.length; i++ ) {
+            ids[i] = ((Message)msgs[i]).getMessageID();
         }
         return ids;
     }
@@ -272,11 +290,37 @@ class MessageAgent
                             LDAPMessageQueue queue,
                             BindProperties   bindProps)
             throws LDAPException
+    {
+        sendMessage( conn, msg, timeOut, queue, bindProps, 0, 0);
+        return;
+    }
+
+    /**
+     * Send a request to the server, limiting the number of replies queued.
+     *
+     * @param highWater the maximum number of replies queued, or 0 for
+     * no limit.
+     * @param lowWater the number of queued replies at which receiving
+     * resumes.
+     *
+     * @see Message#setReplyLimits(int, int)
+     */
+    /* package */
+    final void sendMessage(
+                            Connection       conn,
+                            LDAPMessage      msg,
+                            int              timeOut,
+                            LDAPMessageQueue queue,
+                            BindProperties   bindProps,
+                            int              highWater,
+                            int              lowWater)
+            throws LDAPException
     {
         // creating a messageInfo causes the message to be sent
         // and a timer to be started if needed.
         Message message = new Message( msg, timeOut, conn,
                                     this, queue, bindProps);
+        message.setReplyLimits( highWater, lowWater);
         messages.addElement( message);
         if( Debug.LDAP_DEBUG) {
             Debug.trace( Debug.messages, name +
@@ -287,6 +331,64 @@ class MessageAgent
         return;
     }
 
+    /**
+     * Send a request to the server, handing its replies to handler as
+     * they are read instead of queueing them.
+     *
+     * @param handler the ReplyHandler receiving the replies.
+     *
+     * @see Message#setReplyHandler(ReplyHandler)
+     */
+    /* package */
+    final void sendMessage(
+                            Connection       conn,
+                            LDAPMessage      msg,
+                            int              timeOut,
+                            ReplyHandler     handler)
+            throws LDAPException
+    {
+        sendMessage( conn, msg, timeOut, handler, false);
+        return;
+    }
+
+    /**
+     * Send a request to the server, handing its replies to handler,
+     * search result entries only as requested if onDemand is true.
+     *
+     * @param handler  the ReplyHandler receiving the replies.
+     * @param onDemand true to hand over entries as requested from the
+     *                 returned Message.
+     *
+     * @return the Message sent.
+     *
+     * @see Message#setDeliverOnDemand()
+     */
+    /* package */
+    final Message sendMessage(
+                            Connection       conn,
+                            LDAPMessage      msg,
+                            int              timeOut,
+                            ReplyHandler     handler,
+                            boolean          onDemand)
+            throws LDAPException
+    {
+        Message message = new Message( msg, timeOut, conn,
+                                    this, null, null);
+        message.setReplyHandler( handler);
+        if( onDemand) {
+            message.setDeliverOnDemand();
+        }
+        messages.addElement( message);
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages, name +
+              "sendMessage: Added new Message(" + message.getMessageID() +
+              ") with reply handler");
+            debugDisplayMessages();
+        }
+        message.sendMessage(); // Now send message to server
+        return message;
+    }
+
     /**
      * Returns a response queued, or waits if none queued
      *
@@ -335,20 +437,24 @@ class MessageAgent
             }
         } else {
             // A msgId was NOT specified, any message will do
-            synchronized( messages ) {
+            messagesLock.lock();
+            try {
                 while( true) {
                     if( Debug.LDAP_DEBUG) {
                         Debug.trace( Debug.messages, name +
                             "getLDAPMessage: Look for any reply, " +
                             messages.size() + " messages active");
                     }
+                    // Start after the message read last time so one busy
+                    // request cannot starve the others
+                    Object[] msgs = messages.toArray();
                     int next = indexLastRead + 1;
                     Message info;
-                    for( int i = 0; i < messages.size(); i++) {
-                       if( next >= messages.size() ) {
+                    for( int i = 0; i < msgs.length; i++) {
+                       if( next >= msgs.length ) {
                            next = 0;
                        }
-                       info = (Message)messages.elementAt(next);
+                       info = (Message)msgs[next];
                        indexLastRead = next++;
                        rfcMsg = info.getReply();
                        // Check this request is complete
@@ -361,9 +467,6 @@ class MessageAgent
                           }
                           messages.removeElement( info); // remove from list
                           info.abandon(null, null); // Get rid of resources
-                          // Start loop at next message that is now moved
-                          // to the current position in the Vector.
-                          i -= 1;
                        }
                        if( rfcMsg != null) {
                           // We got a reply
@@ -396,7 +499,7 @@ class MessageAgent
                            Debug.trace( Debug.messages, name +
                            "getLDAPMessage: waiting for incoming messages");
                         }
-                        messages.wait();
+                        messageArrived.await();
                         if( Debug.LDAP_DEBUG) {
                            Debug.trace( Debug.messages, name +
                            "getLDAPMessage: wake up from wait");
@@ -408,7 +511,9 @@ class MessageAgent
                         }
                     }
                 } /* end while */
-            } /* end synchronized */
+            } finally {
+                messagesLock.unlock();
+            } /* end locked */
         }
     }
 
@@ -0,0 +1,158 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The <code>MessageMap</code> class holds the outstanding Message objects
+ * of a Connection or MessageAgent, indexed by message ID.
+ *
+ * <p>Lookups by message ID do not take a lock, so the reader thread can
+ * route a response without contending with threads sending requests or
+ * reading results.  Each Message is an independent entry, adding or
+ * removing one does not affect lookups of the others.</p>
+ *
+ * <p>The map does no locking of its own for waiters.  MessageAgent waits
+ * for any response to arrive on a Condition of its own ReentrantLock.</p>
+ */
+/* package */
+final class MessageMap
+{
+    private final ConcurrentHashMap messages;
+
+    /* package */
+    MessageMap()
+    {
+        messages = new ConcurrentHashMap();
+        return;
+    }
+
+    /**
+     * Adds a Message, keyed by its message ID.
+     *
+     * @param info The Message to add.
+     */
+    /* package */
+    final void addElement( Message info)
+    {
+        messages.put( Integer.valueOf(info.getMessageID()), info);
+        return;
+    }
+
+    /**
+     * Finds the Message object with the given MsgID, and returns the Message
+     * object.
+     *
+     * @param msgId The msgId of the Message object to return
+     *
+     * @return The Message object corresponding to this MsgId.
+     *
+     * @throws NoSuchFieldException when no object with the corresponding
+     * value for the MsgId field can be found.
+     */
+    /* package */
+    final Message findMessageById( int msgId)
+                throws NoSuchFieldException
+    {
+        Message msg = (Message)messages.get( Integer.valueOf(msgId));
+        if( msg == null) {
+            throw new NoSuchFieldException();
+        }
+        return msg;
+    }
+
+    /**
+     * Removes the specified Message.  A different Message that has since
+     * been added under the same ID is left in place.
+     *
+     * @param info The Message to remove.
+     *
+     * @return true if the Message was present.
+     */
+    /* package */
+    final boolean removeElement( Message info)
+    {
+        return messages.remove( Integer.valueOf(info.getMessageID()), info);
+    }
+
+    /**
+     * Removes and returns any one Message.
+     *
+     * @return the removed Message, or null if there are none.
+     */
+    /* package */
+    final Message removeAny()
+    {
+        Iterator it = messages.values().iterator();
+        while( it.hasNext()) {
+            Message info = (Message)it.next();
+            if( removeElement( info)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /** Returns an array containing all of the Messages in this map.
+     * The contents of the map are cleared.  Each Message is returned by
+     * at most one caller, even when called concurrently.
+     *
+     * @return the array containing all of the elements.
+     */
+    /* package */
+    final Object[] getObjectArray()
+    {
+        java.util.ArrayList results = new java.util.ArrayList( messages.size());
+        Iterator it = messages.values().iterator();
+        while( it.hasNext()) {
+            Message info = (Message)it.next();
+            if( removeElement( info)) {
+                results.add( info);
+            }
+        }
+        return results.toArray();
+    }
+
+    /**
+     * Returns a snapshot of the Messages in this map.  The map is not
+     * modified.
+     */
+    /* package */
+    final Object[] toArray()
+    {
+        return messages.values().toArray();
+    }
+
+    /**
+     * Returns the number of Messages in this map.
+     */
+    /* package */
+    final int size()
+    {
+        return messages.size();
+    }
+
+    /**
+     * Returns true if there are no Messages in this map.
+     */
+    /* package */
+    final boolean isEmpty()
+    {
+        return messages.isEmpty();
+    }
+}
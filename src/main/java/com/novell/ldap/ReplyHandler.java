@@ -0,0 +1,44 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+/**
+ * Receives the replies to a request as they are read, instead of having
+ * them queued for an application thread.
+ *
+ * <p>The methods are called on the thread reading the connection, so must
+ * never block.</p>
+ */
+/* package */
+interface ReplyHandler
+{
+    /**
+     * Called for each reply to the request.
+     *
+     * @param reply an RfcLDAPMessage read from the server, or an
+     * LDAPResponse holding the local exception, such as a client time
+     * limit or a lost connection, that ended the request.  Either an
+     * LDAPResult or an LDAPResponse is the last reply.
+     */
+    void reply( Object reply);
+
+    /**
+     * Called if the request is abandoned without a local exception, by
+     * the application or because the connection was closed.  No more
+     * replies follow.
+     */
+    void abandoned();
+}
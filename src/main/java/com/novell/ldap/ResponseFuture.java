@@ -0,0 +1,137 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.novell.ldap.client.ExtResponseFactory;
+import com.novell.ldap.resources.ExceptionMessages;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+
+/**
+ * The result of a request sent with one of the asynchronous LDAPConnection
+ * methods returning a CompletionStage.
+ *
+ * <p>The future is completed by the thread reading the connection when
+ * the result arrives, or by a callback thread if that is a selector
+ * thread, so dependent actions never hold up other connections.  It is
+ * completed normally with the LDAPResponse whatever its result
+ * code, or exceptionally with the LDAPException for a local error such as
+ * a client time limit or a lost connection.  Intermediate responses are
+ * not delivered.</p>
+ *
+ * <p>Cancelling the future abandons the request.</p>
+ */
+/* package */
+class ResponseFuture extends CompletableFuture<LDAPResponse>
+        implements ReplyHandler
+{
+    private final MessageAgent agent;
+    private final int msgId;
+
+    /**
+     * Constructs the future for a request.
+     *
+     * @param agent the MessageAgent the request is sent with.
+     * @param msgId the message ID of the request.
+     */
+    /* package */
+    ResponseFuture( MessageAgent agent, int msgId)
+    {
+        this.agent = agent;
+        this.msgId = msgId;
+        return;
+    }
+
+    /**
+     * Completes the future with the result of the request.
+     */
+    public void reply( final Object reply)
+    {
+        SelectorReader.callback( new Runnable() {
+            public void run()
+            {
+                completeWith( reply);
+                return;
+            }
+        });
+        return;
+    }
+
+    /*
+     * Completes the future with reply, as reply would on this thread.
+     */
+    private void completeWith( Object reply)
+    {
+        try {
+            if( reply instanceof LDAPResponse) {
+                // Local error
+                ((LDAPResponse)reply).chkResultCode();
+                complete( (LDAPResponse)reply);
+                return;
+            }
+            RfcLDAPMessage message = (RfcLDAPMessage)reply;
+            switch( message.getType()) {
+                case LDAPMessage.INTERMEDIATE_RESPONSE:
+                    break;
+                case LDAPMessage.EXTENDED_RESPONSE:
+                    complete( ExtResponseFactory.convertToExtendedResponse(
+                                                                   message));
+                    break;
+                default:
+                    complete( new LDAPResponse( message));
+                    break;
+            }
+        } catch( Throwable t) {
+            completeExceptionally( t);
+        }
+        return;
+    }
+
+    /**
+     * Completes the future exceptionally, unless already cancelled.
+     */
+    public void abandoned()
+    {
+        SelectorReader.callback( new Runnable() {
+            public void run()
+            {
+                completeExceptionally( new LDAPException(
+                            ExceptionMessages.REQUEST_ABANDONED,
+                            LDAPException.USER_CANCELLED, (String)null));
+                return;
+            }
+        });
+        return;
+    }
+
+    /**
+     * Cancels the future and abandons the request, if it has not
+     * completed.
+     *
+     * @param mayInterruptIfRunning ignored, no thread runs the request.
+     *
+     * @return true if the future was cancelled.
+     */
+    public boolean cancel( boolean mayInterruptIfRunning)
+    {
+        boolean cancelled = super.cancel( mayInterruptIfRunning);
+        if( cancelled) {
+            agent.abandon( msgId, null);
+        }
+        return cancelled;
+    }
+}
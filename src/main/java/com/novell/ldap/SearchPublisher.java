@@ -0,0 +1,308 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.novell.ldap.resources.ExceptionMessages;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+
+/**
+ * Publishes the entries returned by a search to a Flow.Subscriber, as
+ * they are read from the connection.
+ *
+ * <p>Entries are delivered as requested by the subscriber, on the thread
+ * reading the connection when requested in advance, otherwise on the
+ * thread calling request.  A selector thread hands the delivery to a
+ * callback thread instead, see SelectorReader.callback.  The demand is
+ * passed on to the Message, which holds back an entry not yet requested
+ * and stops reading the connection, or spills the replies, until it is;
+ * no more entries than requested are kept in memory.  When the search
+ * ends the subscriber's onComplete is called if it succeeded and no
+ * search result references were returned.  Otherwise onError is called
+ * with the LDAPException for the result code or local error, or an
+ * LDAPReferralException holding the references.</p>
+ *
+ * <p>Cancelling the subscription abandons the search.</p>
+ */
+/* package */
+final class SearchPublisher implements ReplyHandler, Flow.Subscription
+{
+    private final Flow.Subscriber<? super LDAPSearchResult> subscriber;
+    private final ResponseFuture result;    // completed with the LDAPResult
+    private final ConcurrentLinkedQueue<LDAPSearchResult> entries =
+                    new ConcurrentLinkedQueue<LDAPSearchResult>();
+    private Message message = null;     // receives the demand, once sent
+    private long pending = 0;           // demand made before it was sent
+    private final AtomicInteger wip = new AtomicInteger(); // drain requests
+    private ArrayList<String> references = null;    // reader thread only
+    private volatile Throwable error = null;
+    private volatile boolean done = false;          // no more entries
+    private volatile boolean cancelled = false;
+    private boolean terminated = false;             // subscriber told
+    private final Runnable deliverer = new Runnable() {
+        public void run()
+        {
+            deliver();
+            return;
+        }
+    };
+
+    /**
+     * Constructs the publisher for a search.
+     *
+     * @param agent      the MessageAgent the search is sent with.
+     * @param msgId      the message ID of the search request.
+     * @param subscriber the subscriber receiving the entries.
+     */
+    /* package */
+    SearchPublisher( MessageAgent agent, int msgId,
+                     Flow.Subscriber<? super LDAPSearchResult> subscriber)
+    {
+        this.subscriber = subscriber;
+        this.result = new ResponseFuture( agent, msgId);
+        return;
+    }
+
+    /**
+     * Returns the future completed with the result of the search.
+     */
+    /* package */
+    ResponseFuture getResult()
+    {
+        return result;
+    }
+
+    /**
+     * Passes the demand to the Message of the search once sent, along
+     * with any demand made before.
+     *
+     * @param message the Message sent, delivering entries on demand.
+     */
+    /* package */
+    void attach( Message message)
+    {
+        long n;
+        synchronized( this) {
+            this.message = message;
+            n = pending;
+            pending = 0;
+        }
+        if( n > 0) {
+            message.request( n);
+        }
+        return;
+    }
+
+    /**
+     * Returns the Message of the search, null until it is sent.
+     */
+    /* package */
+    synchronized Message getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Returns true if the subscription has been cancelled.
+     */
+    /* package */
+    boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public void reply( Object reply)
+    {
+        if( reply instanceof LDAPResponse) {
+            // Local error
+            finish( ((LDAPResponse)reply).getException());
+            result.reply( reply);
+            return;
+        }
+        RfcLDAPMessage message = (RfcLDAPMessage)reply;
+        switch( message.getType()) {
+            case LDAPMessage.SEARCH_RESPONSE:
+                if( ! done && ! cancelled) {
+                    entries.offer( new LDAPSearchResult( message));
+                    drain();
+                }
+                break;
+            case LDAPMessage.SEARCH_RESULT_REFERENCE:
+                String[] refs =
+                    new LDAPSearchResultReference( message).getReferrals();
+                if( references == null) {
+                    references = new ArrayList<String>();
+                }
+                for( int i = 0; i < refs.length; i++) {
+                    references.add( refs[i]);
+                }
+                break;
+            case LDAPMessage.INTERMEDIATE_RESPONSE:
+                break;
+            default:
+                LDAPException ex = new LDAPResponse( message).getResultException();
+                if( (ex == null) && (references != null)) {
+                    LDAPReferralException rex = new LDAPReferralException(
+                                ExceptionMessages.REFERENCE_NOFOLLOW);
+                    rex.setReferrals( references.toArray(
+                                                new String[references.size()]));
+                    ex = rex;
+                }
+                finish( ex);
+                result.reply( reply);
+                break;
+        }
+        return;
+    }
+
+    /**
+     * Ends the search with ex, when the request could not be sent.
+     */
+    /* package */
+    void failed( LDAPException ex)
+    {
+        finish( ex);
+        result.completeExceptionally( ex);
+        return;
+    }
+
+    public void abandoned()
+    {
+        finish( new LDAPException( ExceptionMessages.REQUEST_ABANDONED,
+                    LDAPException.USER_CANCELLED, (String)null));
+        result.abandoned();
+        return;
+    }
+
+    /*
+     * Ends the entries, onError is called with ex once the subscriber has
+     * taken the entries held, or onComplete if ex is null.
+     */
+    private void finish( Throwable ex)
+    {
+        if( done) {
+            return;
+        }
+        error = ex;
+        done = true;
+        drain();
+        return;
+    }
+
+    public void request( long n)
+    {
+        if( n <= 0) {
+            // End with the error before abandoning, which would end the
+            // search with REQUEST_ABANDONED instead
+            if( ! done) {
+                error = new IllegalArgumentException(
+                    "SearchPublisher: request of " + n +
+                    " entries, must be positive");
+                done = true;
+                entries.clear();
+            }
+            result.cancel( false);
+            drain();
+            return;
+        }
+        Message m;
+        synchronized( this) {
+            m = message;
+            if( m == null) {
+                pending = (pending + n < 0) ? Long.MAX_VALUE : pending + n;
+                return;
+            }
+        }
+        m.request( n);
+        return;
+    }
+
+    public void cancel()
+    {
+        if( cancelled) {
+            return;
+        }
+        cancelled = true;
+        result.cancel( false);      // abandons the search
+        drain();
+        return;
+    }
+
+    /*
+     * Delivers the entries requested and, once all are delivered, the end
+     * of the search.  Only one thread delivers at a time; a call made
+     * while another thread is delivering makes that thread loop again.
+     */
+    private void drain()
+    {
+        if( wip.getAndIncrement() != 0) {
+            return;
+        }
+        SelectorReader.callback( deliverer);
+        return;
+    }
+
+    /*
+     * The delivery loop of drain, repeated while drains are requested.
+     * Every entry held was requested, the Message hands over no others.
+     */
+    private void deliver()
+    {
+        int missed = 1;
+        do {
+            try {
+                while( ! cancelled) {
+                    LDAPSearchResult entry = entries.poll();
+                    if( entry == null) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext( entry);
+                    } catch( Throwable t) {
+                        // A subscriber failing is treated as cancelling
+                        cancel();
+                        break;
+                    }
+                }
+                if( cancelled) {
+                    entries.clear();
+                    terminated = true;
+                } else
+                if( done && ! terminated && entries.isEmpty()) {
+                    terminated = true;
+                    Throwable ex = error;
+                    try {
+                        if( ex == null) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onError( ex);
+                        }
+                    } catch( Throwable t) {
+                        ; // the subscriber has been told, nothing follows
+                    }
+                }
+            } finally {
+                // Later drains are not held up by whatever was thrown
+                missed = wip.addAndGet( -missed);
+            }
+        } while( missed != 0);
+        return;
+    }
+}
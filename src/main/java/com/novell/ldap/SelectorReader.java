@@ -0,0 +1,571 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.novell.ldap.asn1.LBERFrameBuffer;
+import com.novell.ldap.client.Debug;
+
+/**
+ * Reads responses for many connections on a small pool of threads.
+ *
+ * <p>Connections using the selector transport register their socket
+ * channel here instead of starting a reader thread.  There is one
+ * selector thread per processor, created when first needed, and
+ * connections are assigned to them in turn.  A selector thread reads
+ * whatever the server has sent into the connection's frame buffer and
+ * hands each complete LDAPMessage to the connection's Handler.</p>
+ *
+ * <p>Handlers run on the selector thread, so must never block.  A
+ * connection whose application is not keeping up pauses its registration
+ * instead, and resumes it from the application thread.  Application code
+ * called for a reply, such as a Flow.Subscriber or a CompletionStage
+ * action, is run through {@link #callback(Runnable)} so it never runs on a
+ * selector thread.</p>
+ */
+/* package */
+final class SelectorReader extends Thread
+{
+    private static SelectorReader[] pool = null;
+    private static int nextReader = 0;
+    // Runs application callbacks for replies read by selector threads
+    private static ThreadPoolExecutor callbacks = null;
+
+    private final Selector selector;
+    // Work for this thread, queued by other threads
+    private final LinkedList tasks = new LinkedList();
+    // Registrations to return to blocking mode once deregistered
+    private final ArrayList stopping = new ArrayList();
+
+    /**
+     * Receives the replies read for a connection.
+     */
+    /* package */
+    interface Handler
+    {
+        /**
+         * Called on the selector thread for each complete LDAPMessage.
+         *
+         * @param frame  the content of the LDAPMessage SEQUENCE, valid
+         *               only until this method returns.
+         * @param length the number of octets in frame.
+         * @param framer the buffer holding the frame.
+         *
+         * @return true to stop reading from the connection.
+         */
+        boolean frame(InputStream frame, int length, LBERFrameBuffer framer)
+                throws IOException;
+
+        /**
+         * Called once, on the selector thread, when reading stops.
+         *
+         * @param ioe the exception that ended reading, or null if the
+         * handler asked to stop.  The channel is then back in blocking
+         * mode.
+         */
+        void stopped(IOException ioe);
+    }
+
+    private SelectorReader(int number)
+            throws IOException
+    {
+        super("LDAP selector " + number);
+        selector = Selector.open();
+        setDaemon(true); // If the last thread running, allow exit.
+        return;
+    }
+
+    /**
+     * Creates a registration of channel with one of the selector threads.
+     * Reading starts when the registration is started.
+     */
+    /* package */
+    static Registration register(SocketChannel channel, Handler handler)
+            throws IOException
+    {
+        SelectorReader owner;
+        synchronized( SelectorReader.class) {
+            if( pool == null) {
+                pool = new SelectorReader[
+                            Runtime.getRuntime().availableProcessors()];
+            }
+            int i = nextReader;
+            nextReader = (nextReader + 1) % pool.length;
+            if( pool[i] == null) {
+                pool[i] = new SelectorReader(i);
+                pool[i].start();
+            }
+            owner = pool[i];
+        }
+        return new Registration(owner, channel, handler);
+    }
+
+    /**
+     * Runs a task that calls application code for a reply.  On a selector
+     * thread the task is handed to a shared pool of threads, so a slow
+     * application cannot hold up the other connections; on any other
+     * thread it is run before this method returns.
+     */
+    /* package */
+    static void callback(Runnable task)
+    {
+        if( ! (Thread.currentThread() instanceof SelectorReader)) {
+            task.run();
+            return;
+        }
+        ThreadPoolExecutor pool;
+        synchronized( SelectorReader.class) {
+            if( callbacks == null) {
+                int n = Runtime.getRuntime().availableProcessors();
+                callbacks = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+                                    new LinkedBlockingQueue(),
+                                    new LDAPThreadFactory("LDAP callback"));
+                callbacks.allowCoreThreadTimeOut(true);
+            }
+            pool = callbacks;
+        }
+        pool.execute(task);
+        return;
+    }
+
+    /*
+     * Runs task on this thread.
+     */
+    private void execute(Runnable task)
+    {
+        synchronized( tasks) {
+            tasks.add(task);
+        }
+        selector.wakeup();
+        return;
+    }
+
+    public void run()
+    {
+        long backoff = 0;   // pause after the selector itself failed
+        for(;;) {
+            Registration current = null;
+            try {
+                for(;;) {
+                    Runnable task;
+                    synchronized( tasks) {
+                        if( tasks.isEmpty()) {
+                            break;
+                        }
+                        task = (Runnable)tasks.removeFirst();
+                    }
+                    task.run();
+                }
+                // Cancelled keys are deregistered by the next selection
+                if( stopping.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                    for( int i = 0; i < stopping.size(); i++) {
+                        ((Registration)stopping.get(i)).stopped();
+                    }
+                    stopping.clear();
+                }
+                Iterator keys = selector.selectedKeys().iterator();
+                while( keys.hasNext()) {
+                    SelectionKey key = (SelectionKey)keys.next();
+                    keys.remove();
+                    if( key.isValid()) {
+                        current = (Registration)key.attachment();
+                        current.read();
+                        current = null;
+                    }
+                }
+                backoff = 0;
+            } catch( Throwable t) {
+                // Keep running for the other connections, after failing
+                // the connection being read, or all of them if the
+                // selector itself failed
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.messages, getName() +
+                        ": unexpected exception " + t.toString());
+                }
+                try {
+                    getUncaughtExceptionHandler().uncaughtException(this, t);
+                } catch( Throwable ignore) {
+                    ; // nothing more can be done to report it
+                }
+                fail(current, t);
+                if( current == null) {
+                    // A selector that keeps failing must not spin the thread
+                    backoff = Math.min(Math.max(backoff * 2, 10), 1000);
+                    try {
+                        Thread.sleep(backoff);
+                    } catch( InterruptedException ie) {
+                        // Selector threads run until the JVM exits, and a
+                        // pending interrupt would only make select spin
+                        ; // select again now
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Stops reading for a registration after an unexpected exception, or
+     * for every registration of this thread if registration is null.
+     */
+    private void fail(Registration registration, Throwable t)
+    {
+        Object[] failed;
+        if( registration != null) {
+            failed = new Object[] { registration };
+        } else {
+            ArrayList registered = new ArrayList();
+            try {
+                Iterator keys = selector.keys().iterator();
+                while( keys.hasNext()) {
+                    registered.add(((SelectionKey)keys.next()).attachment());
+                }
+            } catch( RuntimeException ex) {
+                ; // selector closed, nothing is registered
+            }
+            failed = registered.toArray();
+        }
+        for( int i = 0; i < failed.length; i++) {
+            IOException ioe = new IOException(
+                        "SelectorReader: unexpected exception " + t);
+            ioe.initCause(t);
+            try {
+                ((Registration)failed[i]).finish(ioe);
+            } catch( Throwable ignore) {
+                ; // the handler failed too, go on with the others
+            }
+        }
+        return;
+    }
+
+    /**
+     * A connection's channel registered with a selector thread.
+     */
+    /* package */
+    static final class Registration
+    {
+        private final SelectorReader owner;
+        private final SocketChannel channel;
+        private final Handler handler;
+        private final LBERFrameBuffer framer = new LBERFrameBuffer();
+        private SelectionKey key = null;
+        private boolean paused = false;
+        private boolean finished = false;     // no more frames handled
+        private boolean done = false;         // handler told, guarded by this
+
+        private Registration(SelectorReader owner, SocketChannel channel,
+                             Handler handler)
+        {
+            this.owner = owner;
+            this.channel = channel;
+            this.handler = handler;
+            return;
+        }
+
+        /**
+         * Sets the largest frame accepted, in octets, or 0 for no limit.
+         * A larger frame fails the registration.  Must be called before
+         * the registration is started.
+         */
+        /* package */
+        void setMaxFrameSize(int size)
+        {
+            framer.setMaxFrameSize(size);
+            return;
+        }
+
+        /**
+         * Puts the channel in non-blocking mode and starts reading.
+         */
+        /* package */
+        void start()
+                throws IOException
+        {
+            channel.configureBlocking(false);
+            owner.execute(new Runnable() {
+                public void run()
+                {
+                    if( finished) {
+                        return;
+                    }
+                    try {
+                        key = channel.register(owner.selector,
+                                    SelectionKey.OP_READ, Registration.this);
+                    } catch( IOException ioe) {
+                        finish(ioe);
+                    }
+                    return;
+                }
+            });
+            return;
+        }
+
+        /*
+         * Reads what is available and handles the complete frames.
+         */
+        private void read()
+        {
+            if( finished) {
+                return;
+            }
+            try {
+                if( channel.read(framer.getReadBuffer()) < 0) {
+                    throw new EOFException(
+                        "SelectorReader: connection closed by server");
+                }
+                process();
+            } catch( IOException ioe) {
+                finish(ioe);
+            }
+            return;
+        }
+
+        private void process()
+                throws IOException
+        {
+            while( ! paused && ! finished) {
+                InputStream frame = framer.nextFrame();
+                if( frame == null) {
+                    break;
+                }
+                boolean stop;
+                try {
+                    stop = handler.frame(frame, framer.getLength(), framer);
+                } catch( RuntimeException ex) {
+                    IOException ioe = new IOException(
+                        "SelectorReader: unable to process reply " + ex);
+                    ioe.initCause(ex);
+                    throw ioe;
+                }
+                if( stop) {
+                    // Back to blocking mode once the key is deregistered,
+                    // anything read after this frame is discarded
+                    finished = true;
+                    if( key != null) {
+                        key.cancel();
+                    }
+                    owner.stopping.add(this);
+                }
+            }
+            return;
+        }
+
+        /*
+         * Completes a stop requested by the handler, on the selector
+         * thread after the key has been deregistered.
+         */
+        private void stopped()
+        {
+            try {
+                channel.configureBlocking(true);
+            } catch( IOException ioe) {
+                ; // the channel is closed, nothing more to do
+            }
+            tell( null);
+            return;
+        }
+
+        /**
+         * Stops reading until resumed.  Called on the selector thread,
+         * from the handler.
+         */
+        /* package */
+        void pause()
+        {
+            paused = true;
+            if( (key != null) && key.isValid()) {
+                key.interestOps(0);
+            }
+            return;
+        }
+
+        /**
+         * Handles any frames already read and starts reading again.  May
+         * be called from any thread.
+         */
+        /* package */
+        void resume()
+        {
+            owner.execute(new Runnable() {
+                public void run()
+                {
+                    if( finished || ! paused) {
+                        return;
+                    }
+                    paused = false;
+                    try {
+                        process();
+                        if( ! paused && ! finished && key.isValid()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } catch( IOException ioe) {
+                        finish(ioe);
+                    }
+                    return;
+                }
+            });
+            return;
+        }
+
+        /**
+         * Stops reading because the connection has been closed, and waits
+         * until the handler has been told, unless called on the selector
+         * thread.
+         */
+        /* package */
+        void close()
+        {
+            if( Thread.currentThread() == owner) {
+                finish(new EOFException("SelectorReader: connection closed"));
+                return;
+            }
+            owner.execute(new Runnable() {
+                public void run()
+                {
+                    finish(new EOFException(
+                                    "SelectorReader: connection closed"));
+                    return;
+                }
+            });
+            boolean interrupted = false;
+            synchronized( this) {
+                while( ! done) {
+                    try {
+                        wait();
+                    } catch( InterruptedException ex) {
+                        // Keep waiting, the handler is told shortly
+                        interrupted = true;
+                    }
+                }
+            }
+            if( interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        /*
+         * Stops reading after an exception.
+         */
+        private void finish(IOException ioe)
+        {
+            if( finished) {
+                return;
+            }
+            finished = true;
+            if( key != null) {
+                key.cancel();
+            }
+            tell( ioe);
+            return;
+        }
+
+        /*
+         * Tells the handler reading has stopped and releases any thread
+         * waiting in close.
+         */
+        private void tell(IOException ioe)
+        {
+            try {
+                handler.stopped(ioe);
+            } finally {
+                synchronized( this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Writes to a non-blocking channel, waiting while the socket's send
+     * buffer is full.  Only one thread may write at a time.
+     */
+    /* package */
+    static final class ChannelOutputStream extends OutputStream
+    {
+        private final SocketChannel channel;
+        // Waits for room in the send buffer, opened when first needed
+        private volatile Selector writable = null;
+
+        /* package */
+        ChannelOutputStream(SocketChannel channel)
+        {
+            this.channel = channel;
+            return;
+        }
+
+        public void write(int b)
+                throws IOException
+        {
+            write(new byte[] { (byte)b }, 0, 1);
+            return;
+        }
+
+        public void write(byte[] b, int off, int len)
+                throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while( buffer.hasRemaining()) {
+                if( channel.write(buffer) == 0) {
+                    if( writable == null) {
+                        writable = Selector.open();
+                        channel.register(writable, SelectionKey.OP_WRITE);
+                    }
+                    try {
+                        writable.select();
+                        writable.selectedKeys().clear();
+                    } catch( ClosedSelectorException ex) {
+                        throw new IOException(
+                            "SelectorReader: connection closed");
+                    }
+                }
+            }
+            return;
+        }
+
+        public void close()
+                throws IOException
+        {
+            try {
+                channel.close();
+            } finally {
+                if( writable != null) {
+                    writable.close();
+                }
+            }
+            return;
+        }
+    }
+}
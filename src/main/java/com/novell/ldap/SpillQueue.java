@@ -0,0 +1,153 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A FIFO queue of raw, undecoded LDAPMessage frames held outside the Java
+ * heap.
+ *
+ * <p>Frames are appended, each preceded by its length, to direct buffers
+ * allocated in chunks.  A chunk is released once every frame in it has
+ * been removed; one empty chunk is kept for reuse.</p>
+ *
+ * <p>This class is not synchronized, Message guards it with its
+ * replyLock.</p>
+ */
+/* package */
+final class SpillQueue
+{
+    /* Size of a chunk, frames larger than this get a chunk of their own */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ArrayDeque chunks = new ArrayDeque();
+    private Chunk spare = null;
+    private int count = 0;
+    private long bytes = 0;
+
+    /**
+     * A direct buffer, written at the position of buf and read at the
+     * position of reader.
+     */
+    private static final class Chunk
+    {
+        private final ByteBuffer buf;
+        private final ByteBuffer reader;
+
+        private Chunk(int size)
+        {
+            buf = ByteBuffer.allocateDirect(size);
+            reader = buf.duplicate();
+            return;
+        }
+    }
+
+    /**
+     * Appends a frame to the queue.
+     *
+     * @param frame The frame content, not retained.
+     */
+    /* package */
+    final void add(byte[] frame)
+    {
+        int needed = frame.length + 4;
+        Chunk tail = (Chunk)chunks.peekLast();
+        if( (tail == null) || (tail.buf.remaining() < needed)) {
+            if( (spare != null) && (needed <= CHUNK_SIZE)) {
+                tail = spare;
+                spare = null;
+            } else {
+                tail = new Chunk(Math.max(CHUNK_SIZE, needed));
+            }
+            chunks.addLast(tail);
+        }
+        tail.buf.putInt(frame.length);
+        tail.buf.put(frame);
+        count++;
+        bytes += frame.length;
+        return;
+    }
+
+    /**
+     * Removes the oldest frame from the queue.
+     *
+     * @return the frame content, or null if the queue is empty.
+     */
+    /* package */
+    final byte[] remove()
+    {
+        Chunk head = (Chunk)chunks.peekFirst();
+        if( head == null) {
+            return null;
+        }
+        byte[] frame = new byte[head.reader.getInt()];
+        head.reader.get(frame);
+        count--;
+        bytes -= frame.length;
+        if( head.reader.position() == head.buf.position()) {
+            // Everything written to the chunk has been read
+            chunks.removeFirst();
+            if( head.buf.capacity() == CHUNK_SIZE) {
+                head.buf.clear();
+                head.reader.clear();
+                spare = head;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the number of frames queued.
+     */
+    /* package */
+    final int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the total length of the frames queued, in octets.
+     */
+    /* package */
+    final long bytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns true if no frames are queued.
+     */
+    /* package */
+    final boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    /**
+     * Discards all queued frames and releases the buffers.
+     */
+    /* package */
+    final void clear()
+    {
+        chunks.clear();
+        spare = null;
+        count = 0;
+        bytes = 0;
+        return;
+    }
+}
@@ -74,6 +74,10 @@ public abstract class ASN1Object implements Serializable {
      * in the child ASN1 classses.
      */
     public final byte[] getEncoding(ASN1Encoder enc) {
+        if((enc != null) && (enc.getClass() == LBEREncoder.class)) {
+            // Encodes straight into an exactly sized array
+            return ((LBEREncoder)enc).getEncoding(this);
+        }
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
             encode(enc, out);
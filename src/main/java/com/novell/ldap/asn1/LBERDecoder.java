@@ -219,6 +219,8 @@ public class LBERDecoder implements ASN1Decoder
     
       while( totalLen < len) {  // Make sure we have read all the data
          int inLen = in.read(octets, totalLen, len - totalLen);
+         if(inLen < 0)
+            throw new EOFException("LBER: OCTET STRING: decode error: EOF");
          totalLen += inLen;
       }
 
@@ -232,13 +234,14 @@ public class LBERDecoder implements ASN1Decoder
       throws IOException
    {
       byte[] octets = new byte[len];
+      int totalLen = 0;
 
-      for(int i=0; i<len; i++) {
-			int ret = in.read(); // blocks
-         if(ret == -1)
+      while( totalLen < len) {  // blocks
+         int inLen = in.read(octets, totalLen, len - totalLen);
+         if(inLen < 0)
             throw new EOFException(
                "LBER: CHARACTER STRING: decode error: EOF");
-         octets[i] = (byte)ret;
+         totalLen += inLen;
       }
 
       return new String(octets, "UTF8");
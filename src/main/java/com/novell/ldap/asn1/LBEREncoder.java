@@ -17,7 +17,6 @@ package com.novell.ldap.asn1;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.ByteArrayOutputStream;
 
 /**
  * This class provides LBER encoding routines for ASN.1 Types. LBER is a
@@ -170,49 +169,185 @@ public class LBEREncoder implements ASN1Encoder {
    /**
     * Encode an ASN1Structured into the specified outputstream.  This method
     * can be used to encode SET, SET_OF, SEQUENCE, SEQUENCE_OF
+    *
+    * <p>The whole structure is encoded into one exactly sized array, see
+    * {@link #getEncoding(ASN1Object)}, which is written with a single
+    * write.
     */
    public final void encode(ASN1Structured c, OutputStream out)
       throws IOException
    {
-      encode(c.getIdentifier(), out);
-
-      ASN1Object[] value = c.toArray();
-
-      ByteArrayOutputStream output = new ByteArrayOutputStream();
-
-      /* Cycle through each element encoding each element */
-      for( int i=0; i < value.length; i++) {
-         (value[i]).encode(this, output);
-      }
-
-      /* Encode the length */
-      encodeLength(output.size(), out);
-
-      /* Add each encoded element into the output stream */
-      out.write(output.toByteArray());
+      out.write(getEncoding(c));
       return;
    }
 
    /**
     * Encode an ASN1Tagged directly into the specified outputstream.
+    *
+    * <p>The whole structure is encoded into one exactly sized array, see
+    * {@link #getEncoding(ASN1Object)}, which is written with a single
+    * write.
     */
    public final void encode(ASN1Tagged t, OutputStream out)
       throws IOException
    {
-      if(t.isExplicit()) {
-         encode(t.getIdentifier(), out);
+      out.write(getEncoding(t));
+      return;
+   }
+
+   /**
+    * Returns the LBER encoding of an ASN1Object.
+    *
+    * <p>The encoding is done in two passes.  The first pass walks the
+    * object tree once, computing the content length of every constructed
+    * element bottom up.  The second pass writes every element straight into
+    * an array of exactly the encoded size.  No intermediate buffers are
+    * used, so content octets are copied once however deeply the
+    * structure is nested.</p>
+    *
+    * <p>This method may be called concurrently on a shared encoder.</p>
+    *
+    * @param obj The ASN1Object to encode.
+    *
+    * @return a new array containing exactly the encoded octets.
+    */
+   public final byte[] getEncoding(ASN1Object obj)
+   {
+      Sizes sizes = new Sizes();
+      byte[] buf = new byte[measure(obj, sizes)];
+      sizes.next = 0;
+      int end = write(obj, sizes, buf, 0);
+      if(end != buf.length) {
+         throw new RuntimeException("LBEREncoder: encoded " + end +
+               " octets, expected " + buf.length);
+      }
+      return buf;
+   }
 
-         /* determine the encoded length of the base type. */
-         ByteArrayOutputStream encodedContent = new ByteArrayOutputStream();
-         t.taggedValue().encode(this, encodedContent);
+   /**
+    * Returns the number of octets in the LBER encoding of an ASN1Object.
+    *
+    * @param obj The ASN1Object to measure.
+    */
+   public final int getEncodedLength(ASN1Object obj)
+   {
+      return measure(obj, new Sizes());
+   }
 
-         encodeLength(encodedContent.size(), out);
-         out.write(encodedContent.toByteArray());
+   /*
+    * First pass: returns the total encoded length of obj.  The content
+    * length of each constructed element is saved in sizes, in the order
+    * the elements are visited, for use by write.
+    */
+   private int measure(ASN1Object obj, Sizes sizes)
+   {
+      while(obj instanceof ASN1Choice) {
+         obj = ((ASN1Choice)obj).choiceValue();
       }
-      else {
-         t.taggedValue().encode(this, out);
+      if(obj instanceof ASN1OctetString) {
+         int len = ((ASN1OctetString)obj).byteValue().length;
+         return identifierLength(obj.getIdentifier()) + lengthLength(len) + len;
       }
-      return;
+      if(obj instanceof ASN1Structured) {
+         ASN1Structured c = (ASN1Structured)obj;
+         int slot = sizes.reserve();
+         int len = 0;
+         int count = c.size();
+         for(int i=0; i < count; i++) {
+            len += measure(c.get(i), sizes);
+         }
+         sizes.lengths[slot] = len;
+         return identifierLength(c.getIdentifier()) + lengthLength(len) + len;
+      }
+      if(obj instanceof ASN1Tagged) {
+         ASN1Tagged t = (ASN1Tagged)obj;
+         if(!t.isExplicit()) {
+            return measure(t.taggedValue(), sizes);
+         }
+         int slot = sizes.reserve();
+         int len = measure(t.taggedValue(), sizes);
+         sizes.lengths[slot] = len;
+         return identifierLength(t.getIdentifier()) + lengthLength(len) + len;
+      }
+      if(obj instanceof ASN1Numeric) {
+         return identifierLength(obj.getIdentifier()) + 1 +
+                numericLength(((ASN1Numeric)obj).longValue());
+      }
+      if((obj instanceof ASN1Boolean) && (getClass() == LBEREncoder.class)) {
+         return identifierLength(obj.getIdentifier()) + 2;
+      }
+      if(obj instanceof ASN1Null) {
+         return identifierLength(obj.getIdentifier()) + 1;
+      }
+      // Unknown type, or a boolean encoding overridden by a subclass,
+      // let it encode itself and keep the octets
+      byte[] octets = obj.getEncoding(this);
+      sizes.reserveOpaque(octets);
+      return octets.length;
+   }
+
+   /*
+    * Second pass: writes obj into buf at pos, returns the position
+    * following the encoding.  Visits elements in the same order as measure.
+    */
+   private int write(ASN1Object obj, Sizes sizes, byte[] buf, int pos)
+   {
+      while(obj instanceof ASN1Choice) {
+         obj = ((ASN1Choice)obj).choiceValue();
+      }
+      if(obj instanceof ASN1OctetString) {
+         byte[] content = ((ASN1OctetString)obj).byteValue();
+         pos = writeIdentifier(obj.getIdentifier(), buf, pos);
+         pos = writeLength(content.length, buf, pos);
+         System.arraycopy(content, 0, buf, pos, content.length);
+         return pos + content.length;
+      }
+      if(obj instanceof ASN1Structured) {
+         ASN1Structured c = (ASN1Structured)obj;
+         int len = sizes.lengths[sizes.next++];
+         pos = writeIdentifier(c.getIdentifier(), buf, pos);
+         pos = writeLength(len, buf, pos);
+         int count = c.size();
+         for(int i=0; i < count; i++) {
+            pos = write(c.get(i), sizes, buf, pos);
+         }
+         return pos;
+      }
+      if(obj instanceof ASN1Tagged) {
+         ASN1Tagged t = (ASN1Tagged)obj;
+         if(!t.isExplicit()) {
+            return write(t.taggedValue(), sizes, buf, pos);
+         }
+         int len = sizes.lengths[sizes.next++];
+         pos = writeIdentifier(t.getIdentifier(), buf, pos);
+         pos = writeLength(len, buf, pos);
+         return write(t.taggedValue(), sizes, buf, pos);
+      }
+      if(obj instanceof ASN1Numeric) {
+         long value = ((ASN1Numeric)obj).longValue();
+         int len = numericLength(value);
+         pos = writeIdentifier(obj.getIdentifier(), buf, pos);
+         buf[pos++] = (byte)len;
+         for(int i=len-1; i>=0; i--) {
+            buf[pos++] = (byte)(value >> (i * 8));
+         }
+         return pos;
+      }
+      if((obj instanceof ASN1Boolean) && (getClass() == LBEREncoder.class)) {
+         pos = writeIdentifier(obj.getIdentifier(), buf, pos);
+         buf[pos++] = 0x01;
+         buf[pos++] = ((ASN1Boolean)obj).booleanValue() ?
+                                        (byte) 0xff : (byte) 0x00;
+         return pos;
+      }
+      if(obj instanceof ASN1Null) {
+         pos = writeIdentifier(obj.getIdentifier(), buf, pos);
+         buf[pos++] = 0x00;
+         return pos;
+      }
+      byte[] octets = sizes.opaque[sizes.lengths[sizes.next++]];
+      System.arraycopy(octets, 0, buf, pos, octets.length);
+      return pos + octets.length;
    }
 
    /* Encoders for ASN.1 useful types
@@ -245,6 +380,123 @@ public class LBEREncoder implements ASN1Encoder {
    /* Private helper methods
     */
 
+   /*
+    * Content lengths of constructed elements in visiting order, and the
+    * octets of elements of unknown type.
+    */
+   private static final class Sizes
+   {
+      int[] lengths = new int[16];
+      int count = 0;
+      int next = 0;
+      byte[][] opaque = null;
+      int opaqueCount = 0;
+
+      int reserve()
+      {
+         if(count == lengths.length) {
+            int[] newLengths = new int[count << 1];
+            System.arraycopy(lengths, 0, newLengths, 0, count);
+            lengths = newLengths;
+         }
+         return count++;
+      }
+
+      void reserveOpaque(byte[] octets)
+      {
+         if(opaque == null) {
+            opaque = new byte[4][];
+         } else if(opaqueCount == opaque.length) {
+            byte[][] newOpaque = new byte[opaqueCount << 1][];
+            System.arraycopy(opaque, 0, newOpaque, 0, opaqueCount);
+            opaque = newOpaque;
+         }
+         lengths[reserve()] = opaqueCount;
+         opaque[opaqueCount++] = octets;
+         return;
+      }
+   }
+
+   /*
+    * Returns the number of octets used to encode the identifier
+    */
+   private static int identifierLength(ASN1Identifier id)
+   {
+      int t = id.getTag();
+      if(t < 30) {
+         return 1;
+      }
+      int n = 1;
+      for(; t != 0; t >>= 7) {
+         n++;
+      }
+      return n;
+   }
+
+   /*
+    * Returns the number of octets used to encode the length
+    */
+   private static int lengthLength(int length)
+   {
+      if(length < 0x80) {
+         return 1;
+      }
+      int n = 1;
+      for(; length != 0; length >>= 8) {
+         n++;
+      }
+      return n;
+   }
+
+   /*
+    * Returns the number of content octets of a two's complement numeric,
+    * the same count the stream encoder produces.
+    */
+   private static int numericLength(long value)
+   {
+      long endValue = (value < 0) ? -1 : 0;
+      int len = 1;
+      long top = value >> 7;
+      while(top != endValue) {
+         len++;
+         top >>= 8;
+      }
+      return len;
+   }
+
+   private static int writeIdentifier(ASN1Identifier id, byte[] buf, int pos)
+   {
+      int c = id.getASN1Class();
+      int t = id.getTag();
+      int ccf = (c << 6) | (id.getConstructed() ? 0x20 : 0);
+
+      if(t < 30) {
+         buf[pos++] = (byte)(ccf | t);
+         return pos;
+      }
+      buf[pos++] = (byte)(ccf | 0x1F);
+      int n = identifierLength(id) - 1;
+      for(int i=n-1; i>0; i--) {
+         buf[pos++] = (byte)(((t >> (i * 7)) & 0x7F) | 0x80);
+      }
+      buf[pos++] = (byte)(t & 0x7F);
+      return pos;
+   }
+
+   private static int writeLength(int length, byte[] buf, int pos)
+   {
+      if(length < 0x80) {
+         buf[pos++] = (byte)length;
+         return pos;
+      }
+      int n = lengthLength(length) - 1;
+      buf[pos++] = (byte)(0x80 | n);
+      for(int i=n-1; i>=0; i--) {
+         buf[pos++] = (byte)(length >> (i * 8));
+      }
+      return pos;
+   }
+
    /*
     *  Encodes the specified length into the the outputstream
     */
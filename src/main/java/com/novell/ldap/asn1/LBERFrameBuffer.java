@@ -0,0 +1,320 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.asn1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits LBER encoded SEQUENCE frames out of octets read, as they arrive,
+ * into a direct buffer.
+ *
+ * <p>This is the non-blocking counterpart of {@link LBERFrameReader}.  The
+ * owner reads from a channel into the buffer returned by
+ * {@link #getReadBuffer()}, then takes complete frames with
+ * {@link #nextFrame()} until it returns null.  Partial frames stay in the
+ * buffer, which grows to hold a frame larger than itself as the frame's
+ * octets arrive, never ahead of them.  A maximum frame size can be set,
+ * above which the frame is refused.</p>
+ *
+ * <p>Octets that do not start a SEQUENCE are discarded one identifier at a
+ * time, as LBERFrameReader does.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public class LBERFrameBuffer
+{
+    /* Size of the buffer when first allocated */
+    private static final int INITIAL_SIZE = 16 * 1024;
+
+    /* Buffers grown above this size are released once they are no longer
+     * needed, so a single large response does not pin memory for the life
+     * of the connection.
+     */
+    private static final int RETAIN_SIZE = 256 * 1024;
+
+    /* Compact rather than read into less free space than this */
+    private static final int MIN_READ = 4096;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_SIZE);
+    private int start = 0;          // first unconsumed octet
+    private int end = 0;            // end of the octets read
+    private int needed = 0;         // size of an incomplete frame, if known
+    private int frameStart = 0;
+    private int length = 0;
+    private int maxFrameSize = 0;
+    private Frame frame = new Frame();
+
+    /**
+     * Returns the largest frame content accepted, in octets, or 0 if
+     * there is no limit.
+     */
+    public final int getMaxFrameSize()
+    {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets the largest frame content accepted.  nextFrame throws an
+     * IOException for a frame announcing more, before it is read.
+     *
+     * @param size the limit in octets, or 0 for no limit.
+     */
+    public final void setMaxFrameSize(int size)
+    {
+        maxFrameSize = size;
+        return;
+    }
+
+    /**
+     * Returns the buffer to read into, positioned after the octets already
+     * read and with at least one octet free.
+     *
+     * <p>Calling this method invalidates the stream returned by the last
+     * call to {@link #nextFrame()}.</p>
+     */
+    public final ByteBuffer getReadBuffer()
+    {
+        end = buffer.position();
+        if( start == end) {
+            start = end = 0;
+            buffer.clear();
+        }
+        int data = end - start;
+        int want = data + 1;
+        if( needed > want) {
+            // Room for more of an incomplete frame, the buffer doubles
+            // only once the octets already read nearly fill it
+            want = Math.min(needed, data + MIN_READ);
+        }
+        int capacity = buffer.capacity();
+        if( (capacity > RETAIN_SIZE) && (want <= INITIAL_SIZE)) {
+            resize(INITIAL_SIZE);
+        } else
+        if( want > capacity) {
+            int size = capacity;
+            while( size < want) {
+                size = (size > (Integer.MAX_VALUE >> 1)) ?
+                        Integer.MAX_VALUE : size << 1;
+            }
+            resize(size);
+        } else
+        if( (start > 0) &&
+            ((start + want > capacity) || (capacity - end < MIN_READ))) {
+            buffer.limit(end).position(start);
+            buffer.compact();
+            start = 0;
+            end = data;
+        }
+        buffer.limit(buffer.capacity()).position(end);
+        return buffer;
+    }
+
+    /*
+     * Moves the unconsumed octets to the start of a new buffer.
+     */
+    private void resize(int size)
+    {
+        ByteBuffer larger = ByteBuffer.allocateDirect(size);
+        buffer.limit(end).position(start);
+        larger.put(buffer);
+        buffer = larger;
+        start = 0;
+        end = buffer.position();
+        return;
+    }
+
+    /**
+     * Takes the next complete SEQUENCE frame from the buffer.
+     *
+     * <p>The returned stream is valid until the next call to
+     * {@link #getReadBuffer()}.</p>
+     *
+     * @return a stream positioned at the first content octet of the frame,
+     * containing exactly {@link #getLength()} octets, or null if no
+     * complete frame has been read yet.
+     *
+     * @throws IOException if the frame length is not a definite length of
+     * at most four octets, or is larger than the maximum frame size.
+     */
+    public final InputStream nextFrame()
+            throws IOException
+    {
+        end = buffer.position();
+        int p = start;
+        for(;;) {
+            if( p >= end) {
+                return null;
+            }
+            int r = buffer.get(p) & 0xFF;
+            if((r & 0x1F) == 0x1F) {
+                // multiple octet tag number, never a SEQUENCE, skip it
+                int q = p + 1;
+                do {
+                    if( q >= end) {
+                        return null;
+                    }
+                    r = buffer.get(q++);
+                } while((r & 0x80) != 0);
+                start = p = q;
+                continue;
+            }
+            if((r & 0x1F) == ASN1Sequence.TAG) {
+                break;
+            }
+            start = ++p;
+        }
+
+        if( p + 1 >= end) {
+            return null;
+        }
+        int header = 2;
+        int len = buffer.get(p + 1) & 0xFF;
+        if( len == 0x80) {
+            throw new IOException(
+                "LBERFrameBuffer: indefinite length encoding not supported");
+        }
+        if( len > 0x80) {
+            int octets = len & 0x7F;
+            if( octets > 4) {
+                throw new IOException(
+                    "LBERFrameBuffer: length encoded in " + octets + " octets");
+            }
+            if( p + 2 + octets > end) {
+                return null;
+            }
+            len = 0;
+            for(int i=0; i < octets; i++) {
+                len = (len << 8) + (buffer.get(p + 2 + i) & 0xFF);
+            }
+            if( (len < 0) || (len > Integer.MAX_VALUE - 2 - octets)) {
+                throw new IOException("LBERFrameBuffer: invalid length " + len);
+            }
+            header += octets;
+        }
+        if( (maxFrameSize > 0) && (len > maxFrameSize)) {
+            throw new IOException("LBERFrameBuffer: frame of " + len +
+                " octets exceeds the maximum of " + maxFrameSize);
+        }
+        if( len > end - p - header) {
+            // Wait for the rest of the frame
+            needed = header + len;
+            return null;
+        }
+        needed = 0;
+        frameStart = p + header;
+        length = len;
+        start = frameStart + len;
+        frame.reset(buffer, frameStart, len);
+        return frame;
+    }
+
+    /**
+     * Returns the content length of the last frame taken.
+     */
+    public final int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Returns a copy of the content of the last frame taken.  The position
+     * of the stream returned by nextFrame is not changed.
+     */
+    public final byte[] copyFrame()
+    {
+        byte[] copy = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.limit(frameStart + length).position(frameStart);
+        view.get(copy);
+        return copy;
+    }
+
+    /**
+     * Returns true if octets beyond the last frame taken have been read.
+     */
+    public final boolean hasRemaining()
+    {
+        return buffer.position() > start;
+    }
+
+    /**
+     * An unsynchronized stream over a frame in the buffer, supporting
+     * mark and reset.
+     */
+    private static final class Frame extends InputStream
+    {
+        private ByteBuffer view;
+
+        private void reset(ByteBuffer buffer, int off, int len)
+        {
+            view = buffer.duplicate();
+            view.limit(off + len).position(off);
+            return;
+        }
+
+        public boolean markSupported()
+        {
+            return true;
+        }
+
+        public void mark(int readlimit)
+        {
+            view.mark();
+            return;
+        }
+
+        public void reset()
+        {
+            view.reset();
+            return;
+        }
+
+        public int read()
+        {
+            return view.hasRemaining() ? (view.get() & 0xFF) : -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            int n = view.remaining();
+            if( n == 0) {
+                return (len == 0) ? 0 : -1;
+            }
+            if( len < n) {
+                n = len;
+            }
+            view.get(b, off, n);
+            return n;
+        }
+
+        public long skip(long n)
+        {
+            long k = view.remaining();
+            if( n < k) {
+                k = (n < 0) ? 0 : n;
+            }
+            view.position(view.position() + (int)k);
+            return k;
+        }
+
+        public int available()
+        {
+            return view.remaining();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.asn1;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads complete LBER encoded SEQUENCE frames from an InputStream.
+ *
+ * <p>The identifier and length octets of the outer SEQUENCE are read first,
+ * then the whole content is read with bulk reads into a buffer that is
+ * reused from frame to frame.  The content is returned as an in-memory
+ * stream so the single byte reads done by the decoder never reach the
+ * underlying (usually socket) stream.</p>
+ *
+ * <p>The buffer grows as the content arrives rather than to the length
+ * announced by the frame, so a corrupt or hostile length does not make
+ * the reader allocate memory that is never filled.  A maximum frame size
+ * can also be set, above which the frame is refused.</p>
+ *
+ * <p>No bytes beyond the end of the current frame are ever read from the
+ * underlying stream.  This matters when the stream is handed over to
+ * something else between frames, for example the TLS handshake that
+ * follows a StartTLS response.</p>
+ *
+ * <p>This class is not thread safe, a single reader thread is expected
+ * to own an instance.</p>
+ */
+public class LBERFrameReader
+{
+    /* Size of the frame buffer when first allocated */
+    private static final int INITIAL_SIZE = 8192;
+
+    /* Buffers grown above this size are released after the frame is used,
+     * so a single large response does not pin memory for the life of
+     * the connection.
+     */
+    private static final int RETAIN_SIZE = 256 * 1024;
+
+    private InputStream in;
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private Frame frame = new Frame();
+    private int length;
+    private int maxFrameSize = 0;
+
+    /**
+     * Constructs a frame reader over the specified stream.
+     *
+     * @param in The stream from which frames are read.
+     */
+    public LBERFrameReader(InputStream in)
+    {
+        this.in = in;
+        return;
+    }
+
+    /**
+     * Returns the stream this frame reader reads from.
+     */
+    public final InputStream getInputStream()
+    {
+        return in;
+    }
+
+    /**
+     * Returns the largest frame content accepted, in octets, or 0 if
+     * there is no limit.
+     */
+    public final int getMaxFrameSize()
+    {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets the largest frame content accepted.  readFrame throws an
+     * IOException for a frame announcing more, without reading it.
+     *
+     * @param size the limit in octets, or 0 for no limit.
+     */
+    public final void setMaxFrameSize(int size)
+    {
+        maxFrameSize = size;
+        return;
+    }
+
+    /**
+     * Returns the content length of the last frame read.
+     */
+    public final int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Returns a copy of the content of the last frame read.  The position
+     * of the stream returned by readFrame is not changed.
+     */
+    public final byte[] copyFrame()
+    {
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Reads the next SEQUENCE frame from the stream.
+     *
+     * <p>Octets that do not start a SEQUENCE are discarded one identifier
+     * at a time, as the reader thread has always done.</p>
+     *
+     * <p>The returned stream is only valid until the next call to this
+     * method, the buffer behind it is reused.</p>
+     *
+     * @return a stream positioned at the first content octet of the frame,
+     * containing exactly {@link #getLength()} octets.
+     *
+     * @throws IOException if the stream fails or ends, or the frame is
+     * larger than the maximum frame size.
+     */
+    public final InputStream readFrame()
+            throws IOException
+    {
+        if( buffer.length > RETAIN_SIZE) {
+            buffer = new byte[INITIAL_SIZE];
+        }
+        for(;;) {
+            int r = in.read();
+            if(r < 0)
+                throw new EOFException("BERDecoder: decode: EOF in Identifier");
+            if((r & 0x1F) == 0x1F) {
+                // multiple octet tag number, never a SEQUENCE, skip it
+                do {
+                    r = in.read();
+                    if(r < 0)
+                        throw new EOFException(
+                            "BERDecoder: decode: EOF in tag number");
+                } while((r & 0x80) != 0);
+                continue;
+            }
+            if((r & 0x1F) == ASN1Sequence.TAG) {
+                break;
+            }
+        }
+
+        length = readLength();
+        if( (maxFrameSize > 0) && (length > maxFrameSize)) {
+            throw new IOException("LBERFrameReader: frame of " + length +
+                " octets exceeds the maximum of " + maxFrameSize);
+        }
+        readContent();
+        frame.reset(buffer, length);
+        return frame;
+    }
+
+    /*
+     * Decodes a definite length from the stream.
+     */
+    private int readLength()
+            throws IOException
+    {
+        int r = in.read();
+        if(r < 0)
+            throw new EOFException("BERDecoder: decode: EOF in ASN1Length");
+        if(r < 0x80)
+            return r;
+        if(r == 0x80)
+            throw new IOException(
+                "LBERFrameReader: indefinite length encoding not supported");
+        int octets = r & 0x7F;
+        if( octets > 4) {
+            throw new IOException(
+                "LBERFrameReader: length encoded in " + octets + " octets");
+        }
+        readFully(buffer, 0, octets);
+        int len = 0;
+        for(int i=0; i < octets; i++) {
+            len = (len << 8) + (buffer[i] & 0xFF);
+        }
+        if( len < 0) {
+            throw new IOException("LBERFrameReader: invalid length " + len);
+        }
+        return len;
+    }
+
+    /*
+     * Reads the frame content into the buffer, doubling it only when
+     * it fills, so its size follows the octets actually received.
+     */
+    private void readContent()
+            throws IOException
+    {
+        int off = 0;
+        while( off < length) {
+            if( off == buffer.length) {
+                int size = (off > (Integer.MAX_VALUE >> 1)) ?
+                        Integer.MAX_VALUE : off << 1;
+                byte[] larger = new byte[Math.min(size, length)];
+                System.arraycopy(buffer, 0, larger, 0, off);
+                buffer = larger;
+            }
+            int n = in.read(buffer, off, Math.min(buffer.length, length) - off);
+            if(n < 0)
+                throw new EOFException("LBERFrameReader: EOF in content");
+            off += n;
+        }
+        return;
+    }
+
+    /*
+     * Reads exactly len octets into the buffer.
+     */
+    private void readFully(byte[] b, int off, int len)
+            throws IOException
+    {
+        while( len > 0) {
+            int n = in.read(b, off, len);
+            if(n < 0)
+                throw new EOFException("LBERFrameReader: EOF in content");
+            off += n;
+            len -= n;
+        }
+        return;
+    }
+
+    /**
+     * An unsynchronized stream over the frame buffer, supporting mark
+     * and reset.
+     */
+    private static final class Frame extends InputStream
+    {
+        private byte[] buf;
+        private int pos;
+        private int count;
+        private int mark;
+
+        private void reset(byte[] buf, int count)
+        {
+            this.buf = buf;
+            this.count = count;
+            this.pos = 0;
+            this.mark = 0;
+            return;
+        }
+
+        public boolean markSupported()
+        {
+            return true;
+        }
+
+        public void mark(int readlimit)
+        {
+            mark = pos;
+            return;
+        }
+
+        public void reset()
+        {
+            pos = mark;
+            return;
+        }
+
+        public int read()
+        {
+            return (pos < count) ? (buf[pos++] & 0xFF) : -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if( pos >= count) {
+                return (len == 0) ? 0 : -1;
+            }
+            int n = count - pos;
+            if( len < n) {
+                n = len;
+            }
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        public long skip(long n)
+        {
+            long k = count - pos;
+            if( n < k) {
+                k = (n < 0) ? 0 : n;
+            }
+            pos += (int)k;
+            return k;
+        }
+
+        public int available()
+        {
+            return count - pos;
+        }
+    }
+}
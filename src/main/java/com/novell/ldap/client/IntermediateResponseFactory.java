@@ -59,57 +59,42 @@ public class IntermediateResponseFactory {
 
         RespExtensionSet regExtResponses = 
                                 LDAPIntermediateResponse.getRegisteredResponses();
-        try{
-            Class extRespClass = regExtResponses.findResponseExtension(inOID);            
-            if ( extRespClass == null ){
-                return tempResponse;
-            }
-            if( Debug.LDAP_DEBUG) {
-                Debug.trace( Debug.messages,
-                 "For oid " + inOID + ", found class " + extRespClass.toString());
-            }    
-            
-            Class[] argsClass = { RfcLDAPMessage.class };
-            Object[] args = { inResponse };
-            Exception ex;
-            try{
-                Constructor extConstructor = 
-                                     extRespClass.getConstructor(argsClass);
-                try{
-                    Object resp = null;
-                    resp = extConstructor.newInstance(args);
-                    return (LDAPIntermediateResponse) resp;
-                }catch(InstantiationException e) {
-                    // Could not create the ResponseControl object
-                    // All possible exceptions are ignored. We fall through
-                    // and create a default LDAPControl object
-                    ex = e;
-                } catch (IllegalAccessException e) {
-                    ex = e;
-                } catch (InvocationTargetException e) {
-                    ex = e;
-                }
-            } catch (NoSuchMethodException e) {
-                // bad class was specified, fall through and return a
-                // default  LDAPIntermediateResponse object
-                ex = e;
-            }
-            if( Debug.LDAP_DEBUG) {
-                Debug.trace( Debug.messages,
-                "Unable to create new instance of child LDAPIntermediateResponse");
-                Debug.trace( Debug.messages,
-                   ex.toString());
-            }
-        } catch (NoSuchFieldException e) {
-            // No match with the OID
-            // Do nothing. Fall through and construct a default LDAPControl object.
+        Constructor extConstructor =
+                            regExtResponses.findResponseConstructor(inOID);
+        if( extConstructor == null) {
+            // No class registered for this oid
             if( Debug.LDAP_DEBUG) {
                 Debug.trace( Debug.messages,
                       "Oid " + inOID + " not registered");
             }
+            return tempResponse;
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages, "For oid " + inOID +
+                ", found class " + extConstructor.getDeclaringClass().toString());
+        }
+        Exception ex;
+        try{
+            return (LDAPIntermediateResponse)extConstructor.newInstance(
+                                            new Object[] { inResponse });
+        }catch(InstantiationException e) {
+            // Could not create the response object
+            // All possible exceptions are ignored. We fall through
+            // and return the default response object
+            ex = e;
+        } catch (IllegalAccessException e) {
+            ex = e;
+        } catch (InvocationTargetException e) {
+            ex = e;
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.messages,
+            "Unable to create new instance of child LDAPIntermediateResponse");
+            Debug.trace( Debug.messages,
+               ex.toString());
         }
-        // If we get here we did not have a registered extendedresponse
-        // for this oid.  Return a default LDAPIntermediateResponse object.
+        // If we get here the registered class could not be instantiated.
+        // Return a default LDAPIntermediateResponse object.
         return tempResponse;
     }
 
@@ -17,13 +17,26 @@ package com.novell.ldap.client;
 
 import com.novell.ldap.client.Debug;
 
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+
 /**
  * The <code>MessageVector</code> class implements extends the
  * existing Vector class so that it can be used to maintain a
  * list of currently registered control responses.
+ *
+ * <p>Lookups do not lock.  Each registration replaces an OID keyed map
+ * holding the registered class and its constructor, found once when the
+ * control is registered rather than for every control received.</p>
  */
 public class RespControlVector extends java.util.Vector
 {
+    private static final Class[] CONSTRUCTOR_ARGS =
+                        { String.class, boolean.class, byte[].class };
+
+    // OID to RegisteredControl, replaced and never modified once published
+    private volatile HashMap registered = new HashMap();
+
     public RespControlVector( int cap, int incr)
     {
         super( cap, incr);
@@ -37,11 +50,22 @@ public class RespControlVector extends java.util.Vector
     {
         public String myOID;
         public Class myClass;
+        public Constructor myConstructor; // null if the class has none
 
         public RegisteredControl(String oid, Class controlClass)
         {
             myOID = oid;
             myClass = controlClass;
+            try {
+                myConstructor = controlClass.getConstructor(CONSTRUCTOR_ARGS);
+            } catch( NoSuchMethodException e) {
+                // Controls of this class are returned as LDAPControl
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.controls, "Class " +
+                        controlClass.toString() + " has no response " +
+                        "control constructor: " + e.toString());
+                }
+            }
         }
 
     }
@@ -56,42 +80,53 @@ public class RespControlVector extends java.util.Vector
                     + " for class " + controlClass.toString());
         }
 
-        addElement(new RegisteredControl(oid, controlClass));
+        RegisteredControl ctl = new RegisteredControl(oid, controlClass);
+        addElement(ctl);
+        // The first class registered for an OID is the one used
+        if( ! registered.containsKey(oid)) {
+            HashMap map = new HashMap(registered);
+            map.put(oid, ctl);
+            registered = map;
+        }
     }
 
     /* Searches the list of registered controls for a mathcing control.  We
      * search using the OID string.  If a match is found we return the
      * Class name that was provided to us on registration.
      */
-    public final synchronized Class findResponseControl(String searchOID)
+    public final Class findResponseControl(String searchOID)
                 throws NoSuchFieldException
     {
-        RegisteredControl ctl = null;
-
-        /* loop through the contents of the vector */
-        for( int i = 0; i < elementCount; i++) {
-
-            /* Get next registered control */
-            if( (ctl = (RegisteredControl)elementData[i]) == null) {
-                throw new NoSuchFieldException();
-            }
-
-            /* Does the stored OID match with whate we are looking for */
-            if(ctl.myOID.compareTo(searchOID) == 0) {
-
-                if( Debug.LDAP_DEBUG) {
-                    Debug.trace( Debug.controls, "Returned control matched a registered control");
-                }
-
-                /* Return the class name if we have match */
-                return ctl.myClass;
+        RegisteredControl ctl = (RegisteredControl)registered.get(searchOID);
+        if( ctl == null) {
+            /* The requested control does not have a registered response class */
+            if( Debug.LDAP_DEBUG) {
+                Debug.trace( Debug.controls, "Returned control did not match any registered control. Treating as ordinary LDAPControl.");
             }
+            return null;
+        }
+        if( Debug.LDAP_DEBUG) {
+            Debug.trace( Debug.controls, "Returned control matched a registered control");
         }
-        /* The requested control does not have a registered response class */
-		if( Debug.LDAP_DEBUG) {
-			Debug.trace( Debug.controls, "Returned control did not match any registered control. Treating as ordinary LDAPControl.");
+        return ctl.myClass;
+    }
+
+    /**
+     * Returns the constructor taking the OID, criticality and value of a
+     * control, of the class registered for an OID.
+     *
+     * @param searchOID The OID of the response control.
+     *
+     * @return the constructor, or null if no class with a public
+     * constructor of that form is registered for the OID.
+     */
+    public final Constructor findResponseConstructor(String searchOID)
+    {
+        RegisteredControl ctl = (RegisteredControl)registered.get(searchOID);
+        if( ctl == null) {
+            return null;
         }
-        return null;
+        return ctl.myConstructor;
     }
 
  }
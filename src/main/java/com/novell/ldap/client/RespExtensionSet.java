@@ -16,6 +16,8 @@
 package com.novell.ldap.client;
 
 import com.novell.ldap.client.Debug;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -23,17 +25,26 @@ import java.util.Iterator;
  * This  class  extends the AbstractSet and Implements the Set
  * so that it can be used to maintain a list of currently
  * registered extended responses.
+ *
+ * <p>Lookups do not lock.  Each registration replaces the OID keyed maps,
+ * which hold the registered class and the constructor taking an
+ * RfcLDAPMessage, found once when the response is registered.</p>
  */
 public class RespExtensionSet extends java.util.AbstractSet
         implements java.util.Set
 {
 
-    private HashMap map;
+    private static final Class[] CONSTRUCTOR_ARGS = { RfcLDAPMessage.class };
+
+    // Replaced and never modified once published
+    private volatile HashMap map;
+    private volatile HashMap constructors;
     
     public RespExtensionSet()
     {
         super();
         map = new HashMap();        
+        constructors = new HashMap();
         return;
     }
 
@@ -50,7 +61,21 @@ public class RespExtensionSet extends java.util.AbstractSet
 
        
         if( !this.map.containsKey(oid)){
-            this.map.put(oid, (Class)extClass);
+            HashMap newMap = new HashMap(this.map);
+            newMap.put(oid, (Class)extClass);
+            try {
+                Constructor c = extClass.getConstructor(CONSTRUCTOR_ARGS);
+                HashMap newConstructors = new HashMap(this.constructors);
+                newConstructors.put(oid, c);
+                this.constructors = newConstructors;
+            } catch( NoSuchMethodException e) {
+                // Responses with this OID are returned as the base class
+                if( Debug.LDAP_DEBUG) {
+                    Debug.trace( Debug.controls, "Class " + extClass.toString()
+                        + " has no response constructor: " + e.toString());
+                }
+            }
+            this.map = newMap;
             }
         
     }
@@ -79,13 +104,14 @@ public class RespExtensionSet extends java.util.AbstractSet
      * search using the OID string.  If a match is found we return the
      * Class name that was provided to us on registration.
      */
-    public final synchronized Class findResponseExtension(String searchOID)
+    public final Class findResponseExtension(String searchOID)
                 throws NoSuchFieldException
     {
     
-        if( this.map.containsKey(searchOID))
+        Class extClass = (Class)this.map.get(searchOID);
+        if( extClass != null)
         {
-              return (Class)this.map.get(searchOID);
+              return extClass;
         }
         /* The requested extension does not have a registered response class */
 		if( Debug.LDAP_DEBUG) {
@@ -94,4 +120,18 @@ public class RespExtensionSet extends java.util.AbstractSet
         return null;
     }
 
+    /**
+     * Returns the constructor taking an RfcLDAPMessage of the class
+     * registered for an OID.
+     *
+     * @param searchOID The OID of the response.
+     *
+     * @return the constructor, or null if no class with a public
+     * constructor of that form is registered for the OID.
+     */
+    public final Constructor findResponseConstructor(String searchOID)
+    {
+        return (Constructor)this.constructors.get(searchOID);
+    }
+
  }
@@ -18,11 +18,16 @@ package com.novell.ldap.client;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.io.StreamTokenizer;
-import java.io.StringReader;
 import java.io.IOException;
 import com.novell.ldap.LDAPObjectClassSchema;
 import com.novell.ldap.LDAPAttributeSchema;
 
+/**
+ * Parses an RFC 4512 schema definition.
+ *
+ * <p>The definition is split into tokens by a Tokenizer scanning the string
+ * in place, returning the token types of java.io.StreamTokenizer.</p>
+ */
 public class SchemaParser{
 
 	String rawString;
@@ -53,38 +58,8 @@ public class SchemaParser{
 
 	public SchemaParser( String aString ) throws IOException {
 
-        int index;
-        
-        if((index = aString.indexOf( '\\' )) != -1) {
-            /*
-             * Unless we escape the slash, StreamTokenizer will interpret the
-             * single slash and convert it assuming octal values.
-             * Two successive back slashes are intrepreted as one backslash.
-             */ 
-            StringBuffer newString =
-                    new StringBuffer( aString.substring(0,index));
-            for (int i=index; i< aString.length(); i++) {
-                newString.append( aString.charAt(i));
-                if (aString.charAt(i) == '\\') {
-                    newString.append('\\');
-                }
-            }
-            rawString = newString.toString();
-        } else {
-            rawString = aString;
-        }
-
-  		StreamTokenizer st2 = new StreamTokenizer(new StringReader(rawString));
-                st2.ordinaryChar('.');
-                st2.ordinaryChars('0', '9');
-                st2.ordinaryChar('{');
-                st2.ordinaryChar('}');
-                st2.ordinaryChar('_');
-                st2.ordinaryChar(';');
-                st2.wordChars('.', '9');
-                st2.wordChars('{', '}');
-                st2.wordChars('_', '_');
-                st2.wordChars(';', ';');
+        rawString = aString;
+        Tokenizer st2 = new Tokenizer(aString);
             //First parse out the OID
             try{
               String currName;
@@ -163,7 +138,8 @@ public class SchemaParser{
                         st2.nextToken();
                         if(st2.ttype == '(' ){
                           st2.nextToken();
-                          while(st2.ttype != ')' ){
+                          while(st2.ttype != ')' &&
+                                st2.ttype != StreamTokenizer.TT_EOF){
                             if(st2.ttype != '$'){
                             	values.add(st2.sval);
                              }
@@ -201,7 +177,8 @@ public class SchemaParser{
                         st2.nextToken();
                         if(st2.ttype == '(' ){
                           st2.nextToken();
-                          while(st2.ttype != ')' ){
+                          while(st2.ttype != ')' &&
+                                st2.ttype != StreamTokenizer.TT_EOF){
                             if(st2.ttype != '$'){
                             	values.add(st2.sval);
                              }
@@ -221,7 +198,8 @@ public class SchemaParser{
                         st2.nextToken();
                         if(st2.ttype == '(' ){
                           st2.nextToken();
-                          while( st2.ttype != ')' ){
+                          while( st2.ttype != ')' &&
+                                 st2.ttype != StreamTokenizer.TT_EOF){
                             if(st2.ttype != '$'){
                             	values.add(st2.sval);
                              }
@@ -241,7 +219,8 @@ public class SchemaParser{
                         st2.nextToken();
                         if(st2.ttype == '(' ){
                           st2.nextToken();
-                          while( st2.ttype != ')' ){
+                          while( st2.ttype != ')' &&
+                                 st2.ttype != StreamTokenizer.TT_EOF){
                             if(st2.ttype != '$'){
                             	values.add(st2.sval);
                              }
@@ -261,7 +240,8 @@ public class SchemaParser{
                         st2.nextToken();
                         if(st2.ttype == '(' ){
                           st2.nextToken();
-                          while( st2.ttype != ')'){
+                          while( st2.ttype != ')' &&
+                                 st2.ttype != StreamTokenizer.TT_EOF){
                             if(st2.ttype != '$'){
                             	values.add(st2.sval);
                              }
@@ -313,7 +293,8 @@ public class SchemaParser{
                         st2.nextToken();
                         if(st2.ttype == '(' ){
                           st2.nextToken();
-                          while(st2.ttype != ')' ){
+                          while(st2.ttype != ')' &&
+                                st2.ttype != StreamTokenizer.TT_EOF){
                             if(st2.ttype != '$'){
                             	values.add(st2.sval);
                              }
@@ -423,25 +404,98 @@ public class SchemaParser{
         return nameForm;
     }
 
-    private AttributeQualifier parseQualifier( StreamTokenizer st, String name )
+    private AttributeQualifier parseQualifier( Tokenizer st, String name )
             throws IOException
     {
         ArrayList values = new ArrayList(5);
-        try{
-            if(st.nextToken() == '\'' ){
-                values.add(st.sval);
-           	}
-           	else if(st.ttype == '(' ){
-           		while(st.nextToken() == '\'' ){
-           		    values.add(st.sval);
-                }
-           	}
+        if(st.nextToken() == '\'' ){
+            values.add(st.sval);
         }
-        catch(IOException e){
-            throw e;
+        else if(st.ttype == '(' ){
+            while(st.nextToken() == '\'' ){
+                values.add(st.sval);
+            }
         }
         String[] valArray = new String[ values.size() ];
         valArray = (String[])values.toArray( valArray);
         return new AttributeQualifier( name, valArray );
     }
+
+    /**
+     * Splits a definition into the tokens StreamTokenizer would return with
+     * the character types SchemaParser used to set, without copying the
+     * definition.  Quoted strings are taken literally, ending at the closing
+     * quote or the end of the line.
+     */
+    private static final class Tokenizer
+    {
+        private final String s;
+        private final int length;
+        private int pos = 0;
+        int ttype;
+        String sval;
+
+        Tokenizer( String s )
+        {
+            this.s = s;
+            this.length = s.length();
+            return;
+        }
+
+        /**
+         * Characters a word starts with: letters, digits, '.', '/', '{',
+         * '|', '}', '_', ';' and non-ASCII letters.  A word also continues
+         * with '-'.
+         */
+        private static boolean isWord( char c )
+        {
+            return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) ||
+                   ((c >= '.') && (c <= '9')) || ((c >= '{') && (c <= '}')) ||
+                   (c == '_') || (c == ';') || (c >= 160);
+        }
+
+        int nextToken()
+        {
+            sval = null;
+            while( (pos < length) && (s.charAt(pos) <= ' ')) {
+                pos++;
+            }
+            if( pos >= length) {
+                return ttype = StreamTokenizer.TT_EOF;
+            }
+            char c = s.charAt(pos);
+            int start = pos++;
+            if( isWord(c)) {
+                while( (pos < length) &&
+                       (isWord(c = s.charAt(pos)) || (c == '-'))) {
+                    pos++;
+                }
+                sval = s.substring(start, pos);
+                return ttype = StreamTokenizer.TT_WORD;
+            }
+            if( (c == '\'') || (c == '"')) {
+                char quote = c;
+                while( (pos < length) && ((c = s.charAt(pos)) != quote) &&
+                       (c != '\n') && (c != '\r')) {
+                    pos++;
+                }
+                sval = s.substring(start + 1, pos);
+                if( (pos < length) && (c == quote)) {
+                    pos++;
+                }
+                return ttype = quote;
+            }
+            if( (c == '-') && (pos < length) &&
+                (((c = s.charAt(pos)) == '.') || ((c >= '0') && (c <= '9')))) {
+                boolean dot = false;
+                while( (pos < length) && ((((c = s.charAt(pos)) == '.') &&
+                       !dot) || ((c >= '0') && (c <= '9')))) {
+                    dot |= (c == '.');
+                    pos++;
+                }
+                return ttype = StreamTokenizer.TT_NUMBER;
+            }
+            return ttype = s.charAt(start);
+        }
+    }
 }
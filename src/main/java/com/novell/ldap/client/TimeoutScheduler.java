@@ -0,0 +1,149 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999, 2000, 2001 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.client;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules client side time limits for all connections in the JVM.
+ *
+ * <p>A single daemon thread keeps the pending timers.  Cancelled timers
+ * are removed from its queue immediately, so requests that complete in
+ * time leave nothing behind.  When a timer expires its task is handed to
+ * a small pool of daemon threads, so a task that blocks (for example
+ * writing an abandon request to a stalled server) does not delay the
+ * timers of other connections.</p>
+ */
+public final class TimeoutScheduler
+{
+    /* Maximum number of threads running expired timer tasks */
+    private static final int MAX_RUNNERS = 4;
+
+    private static final ScheduledThreadPoolExecutor timers;
+    private static final ThreadPoolExecutor runners;
+
+    static {
+        timers = new ScheduledThreadPoolExecutor(1,
+                        new DaemonFactory("LDAP Timer"));
+        timers.setRemoveOnCancelPolicy(true);
+        timers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        runners = new ThreadPoolExecutor(MAX_RUNNERS, MAX_RUNNERS,
+                        60, TimeUnit.SECONDS, new LinkedBlockingQueue(),
+                        new DaemonFactory("LDAP Timeout"));
+        runners.allowCoreThreadTimeOut(true);
+    }
+
+    private TimeoutScheduler()
+    {
+        return;
+    }
+
+    /**
+     * Runs a task once the specified number of milliseconds have elapsed,
+     * unless the returned timer is cancelled first.
+     *
+     * @param task The task to run when the timer expires.
+     *
+     * @param millis The number of milliseconds to wait.
+     *
+     * @return the pending timer, cancel it to stop the task from running.
+     */
+    public static ScheduledFuture schedule(final Runnable task, long millis)
+    {
+        return timers.schedule(new Runnable() {
+                public void run()
+                {
+                    runners.execute(task);
+                    return;
+                }
+            }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the factory for the threads that run expired timer tasks,
+     * and for the timer thread if it has not yet been started.  Threads
+     * the factory returns are made daemon threads, so the timers never
+     * hold the JVM open.
+     *
+     * @param factory The factory to use, or null for named daemon threads.
+     */
+    public static void setThreadFactory(ThreadFactory factory)
+    {
+        if( factory == null) {
+            timers.setThreadFactory(new DaemonFactory("LDAP Timer"));
+            runners.setThreadFactory(new DaemonFactory("LDAP Timeout"));
+        } else {
+            DaemonFactory daemons = new DaemonFactory(factory);
+            timers.setThreadFactory(daemons);
+            runners.setThreadFactory(daemons);
+        }
+        return;
+    }
+
+    /**
+     * Returns the number of timers waiting to expire.
+     */
+    public static int getPendingCount()
+    {
+        return timers.getQueue().size();
+    }
+
+    /**
+     * Creates named daemon threads, or makes daemon threads of those
+     * created by an application factory, so the timers never hold the JVM
+     * open.
+     */
+    private static final class DaemonFactory implements ThreadFactory
+    {
+        private final String name;
+        private final ThreadFactory factory;
+        private int count = 0;
+
+        DaemonFactory(String name)
+        {
+            this.name = name;
+            this.factory = null;
+            return;
+        }
+
+        DaemonFactory(ThreadFactory factory)
+        {
+            this.name = null;
+            this.factory = factory;
+            return;
+        }
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            if( factory == null) {
+                Thread t = new Thread(r, name + "-" + ++count);
+                t.setDaemon(true);
+                return t;
+            }
+            Thread t = factory.newThread(r);
+            if( (t != null) && ! t.isDaemon()) {
+                t.setDaemon(true); // If the last thread running, allow exit.
+            }
+            return t;
+        }
+    }
+}
@@ -23,6 +23,8 @@ import com.novell.ldap.LDAPLocalException;
 
 import com.novell.ldap.resources.ExceptionMessages;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Extends LDAPConnection to add information needed by pool management.
  *
@@ -39,6 +41,15 @@ import com.novell.ldap.resources.ExceptionMessages;
     // This flag allows bind to be called from the package but not outside
     // of the package.
     private boolean allowPoolBind = false;
+
+    // Set while checked out of a ConnectionPool, so a connection that is
+    // returned twice is only made available once.
+    private final AtomicBoolean checkedOut = new AtomicBoolean(false);
+
+    // The ConnectionPool sub-pool for the identity this connection is
+    // bound as, and when it was last returned to it.
+    private volatile Object subPool = null;
+    private volatile long lastUsed = 0;
     
     /**
      * Establish an LDAPConnection supplying an appropriate socket factory.
@@ -83,6 +94,62 @@ import com.novell.ldap.resources.ExceptionMessages;
         return inUse;
     }
     
+    /**
+     * Marks the connection checked out of a ConnectionPool.
+     *
+     * @return false if it was already checked out.
+     */
+    boolean checkOut()
+    {
+        return checkedOut.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks the connection returned to a ConnectionPool.
+     *
+     * @return false if it was not checked out.
+     */
+    boolean checkIn()
+    {
+        return checkedOut.compareAndSet(true, false);
+    }
+
+    /**
+     * Returns the ConnectionPool sub-pool this connection belongs to.
+     */
+    Object getSubPool()
+    {
+        return subPool;
+    }
+
+    /**
+     * Sets the ConnectionPool sub-pool this connection belongs to.
+     */
+    void setSubPool(Object subPool)
+    {
+        this.subPool = subPool;
+        return;
+    }
+
+    /**
+     * Returns the time, in milliseconds, the connection was last returned
+     * to its ConnectionPool.
+     */
+    long getLastUsed()
+    {
+        return lastUsed;
+    }
+
+    /**
+     * Sets the time, in milliseconds, the connection was last returned
+     * to its ConnectionPool.
+     */
+    void setLastUsed(long lastUsed)
+    {
+        this.lastUsed = lastUsed;
+        return;
+    }
+
     /**
      * Call the super clone so that this will clone properly.
      *
@@ -0,0 +1,726 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+package com.novell.ldap.connectionpool;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPLocalException;
+import com.novell.ldap.LDAPSocketFactory;
+import com.novell.ldap.LDAPTLSSocketFactory;
+import com.novell.ldap.LDAPThreadFactory;
+import com.novell.ldap.client.TimeoutScheduler;
+import com.novell.ldap.resources.ExceptionMessages;
+
+/**
+ * Manages bound connections to an LDAP server for many threads and many
+ * bind identities.
+ *
+ * <p>Idle connections are kept in a sub-pool for each bind identity, keyed
+ * by a digest of the DN and password, so checking out a connection already
+ * bound as the requested identity is a map lookup and a lock-free pop.
+ * Connections are used by one thread at a time.  The number of connections
+ * checked out is limited to <code>maxConns</code>; a thread waits for at
+ * most <code>maxWait</code> milliseconds for one to be returned.  When no
+ * connection for the identity is idle and the pool is at its maximum size,
+ * an idle connection of another identity is bound as the requested one.</p>
+ *
+ * <p>An idle connection is checked to still be connected before it is
+ * handed out.  One idle for longer than <code>healthCheckInterval</code>
+ * milliseconds is also checked with
+ * {@link com.novell.ldap.LDAPConnection#isConnectionAlive()}, which writes
+ * a request to the server; connections returned more recently skip that
+ * round trip.  Dead connections are discarded and replaced.  Connections
+ * idle for longer than <code>idleTimeout</code> milliseconds are closed,
+ * keeping at least <code>minConns</code> connections open.  Connections
+ * closed this way are replaced on a pool maintenance thread, never on a
+ * thread checking a connection out, and the sub-pools of identities with
+ * no idle connections left are dropped.</p>
+ *
+ * <p>Unlike {@link PoolManager} no global lock is taken when checking
+ * connections out or in.  Once a connection is no longer needed
+ * {@link #makeConnectionAvailable(LDAPConnection) makeConnectionAvailable}
+ * must be called to return it to the pool, and once the pool is no longer
+ * needed {@link #close()} must be called to close its connections.</p>
+ *
+ * @see ConnectionPoolStatistics
+ */
+public class ConnectionPool implements AutoCloseable
+{
+    /** Runs the idle connection eviction and the connects replacing the
+     *  connections evicted, which may block for as long as the server
+     *  takes to answer, so must not hold up the client time limits run
+     *  by TimeoutScheduler.  Threads are started as needed and end when
+     *  idle. */
+    private static final ThreadPoolExecutor maintainers =
+            new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                                   new SynchronousQueue(),
+                                   new LDAPThreadFactory("LDAP pool"));
+
+    /** A SHA-256 digest for each thread computing bind identities */
+    private static final ThreadLocal digests = new ThreadLocal();
+
+    private final String host;
+    private final int port;
+    private final LDAPSocketFactory factory;
+    private final int minConns;
+    private final int maxConns;
+    private final long maxWait;
+    private final long idleTimeout;
+    private final long healthCheckInterval;
+
+    /** One permit for each connection that may be checked out, handed to
+     *  waiting threads in arrival order so none waits indefinitely */
+    private final Semaphore permits;
+    /** The sub-pool of idle connections for each bind identity */
+    private final ConcurrentHashMap subPools = new ConcurrentHashMap();
+    /** Number of open connections, idle or checked out */
+    private final AtomicInteger size = new AtomicInteger(0);
+    /** Pending idle connection eviction */
+    private volatile ScheduledFuture evictor = null;
+    private volatile boolean closed = false;
+
+    // Statistics
+    private final long created = System.currentTimeMillis();
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder failedChecks = new LongAdder();
+
+    /**
+     * Initialize the connection pool, checking connections idle for longer
+     * than ten seconds with a request to the server before they are handed
+     * out.
+     *
+     * <p><code>minConns</code> anonymous connections are opened before the
+     * constructor returns.</p>
+     *
+     * @param host - Host name associated with this connection pool
+     * (see {@link com.novell.ldap.LDAPConnection#connect(String, int) LDAPConnection.connect()}).
+     * @param port - Port number for the host associated with this connection
+     *   pool.
+     * @param minConns - Number of connections kept open when idle.
+     * @param maxConns - Maximum number of connections checked out at once.
+     * @param maxWait - Maximum time, in milliseconds, to wait for a
+     *           connection to become available, or 0 to wait indefinitely.
+     * @param idleTimeout - Time, in milliseconds, after which an unused
+     *           connection is closed, or 0 to keep idle connections open.
+     * @param factory - A socket factory used to set an encrypted connection,
+     *           or null if none.  If the factory is an instance of
+     * {@link com.novell.ldap.LDAPTLSSocketFactory} then a startTLS is
+     * performed after the connection to the server is established.
+     *
+     * @throws LDAPException if the minimum number of connections could
+     * not be opened.
+     */
+    public ConnectionPool(String host,
+                          int port,
+                          int minConns,
+                          int maxConns,
+                          long maxWait,
+                          long idleTimeout,
+                          LDAPSocketFactory factory)
+        throws LDAPException
+    {
+        this(host, port, minConns, maxConns, maxWait, idleTimeout, 10000,
+             factory);
+        return;
+    }
+
+    /**
+     * Initialize the connection pool, checking connections idle for
+     * longer than healthCheckInterval with a request to the server before
+     * they are handed out.
+     *
+     * <p><code>minConns</code> anonymous connections are opened before the
+     * constructor returns.</p>
+     *
+     * @param host - Host name associated with this connection pool
+     * (see {@link com.novell.ldap.LDAPConnection#connect(String, int) LDAPConnection.connect()}).
+     * @param port - Port number for the host associated with this connection
+     *   pool.
+     * @param minConns - Number of connections kept open when idle.
+     * @param maxConns - Maximum number of connections checked out at once.
+     * @param maxWait - Maximum time, in milliseconds, to wait for a
+     *           connection to become available, or 0 to wait indefinitely.
+     * @param idleTimeout - Time, in milliseconds, after which an unused
+     *           connection is closed, or 0 to keep idle connections open.
+     * @param healthCheckInterval - Time, in milliseconds, a connection may
+     *           be unused before it is checked by writing a request, rather
+     *           than only checked to be connected, or 0 to always write one.
+     * @param factory - A socket factory used to set an encrypted connection,
+     *           or null if none.  If the factory is an instance of
+     * {@link com.novell.ldap.LDAPTLSSocketFactory} then a startTLS is
+     * performed after the connection to the server is established.
+     *
+     * @throws LDAPException if the minimum number of connections could
+     * not be opened.
+     */
+    public ConnectionPool(String host,
+                          int port,
+                          int minConns,
+                          int maxConns,
+                          long maxWait,
+                          long idleTimeout,
+                          long healthCheckInterval,
+                          LDAPSocketFactory factory)
+        throws LDAPException
+    {
+        if( (maxConns < 1) || (minConns < 0) || (minConns > maxConns)) {
+            throw new IllegalArgumentException(
+                "ConnectionPool: invalid sizes min " + minConns +
+                ", max " + maxConns);
+        }
+        this.host = host;
+        this.port = port;
+        this.factory = factory;
+        this.minConns = minConns;
+        this.maxConns = maxConns;
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        this.healthCheckInterval = healthCheckInterval;
+        this.permits = new Semaphore(maxConns, true);
+
+        try {
+            ensureMinimum();
+        } catch( LDAPException e) {
+            close();
+            throw e;
+        }
+        scheduleEviction();
+        return;
+    }
+
+    /**
+     * Get a bound connection.
+     *
+     * <p>This returns a connection bound as the desired DN and password,
+     * binding one if necessary.  The connection is used exclusively by the
+     * caller until it is returned with makeConnectionAvailable.</p>
+     *
+     * @param DN  Authentication DN used for bind and key.
+     * @param PW  Authentication password used for bind and key.
+     *
+     * @throws LDAPException if no connection became available within the
+     * maximum wait time, if the pool is closed, or if a connection
+     * could not be opened or bound.
+     */
+    public LDAPConnection getBoundConnection(String DN, byte[] PW)
+            throws LDAPException, InterruptedException
+    {
+        if( closed) {
+            throw new LDAPLocalException(ExceptionMessages.POOL_CLOSED,
+                                         LDAPException.CONNECT_ERROR);
+        }
+        if( ! permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+            long start = System.nanoTime();
+            if( maxWait > 0) {
+                if( ! permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                    timeouts.increment();
+                    throw new LDAPLocalException(ExceptionMessages.POOL_TIMEOUT,
+                                            new Object[] { Long.valueOf(maxWait)},
+                                            LDAPException.LDAP_TIMEOUT);
+                }
+            } else {
+                permits.acquire();
+            }
+            long waited = System.nanoTime() - start;
+            waitNanos.add(waited);
+            long max = maxWaitNanos.get();
+            while( (waited > max) && ! maxWaitNanos.compareAndSet(max, waited)) {
+                max = maxWaitNanos.get();
+            }
+        }
+
+        boolean done = false;
+        try {
+            if( closed) {
+                throw new LDAPLocalException(ExceptionMessages.POOL_CLOSED,
+                                             LDAPException.CONNECT_ERROR);
+            }
+            Connection conn = checkOut(getSubPool(DN, PW), DN, PW);
+            checkouts.increment();
+            done = true;
+            return conn;
+        } finally {
+            if( ! done) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Make this connection available.
+     *
+     * <p>Returning a connection more than once has no effect.</p>
+     *
+     * @param conn LDAPConnection to be made available, obtained from
+     * getBoundConnection.
+     */
+    public void makeConnectionAvailable(LDAPConnection conn)
+    {
+        Connection c = (Connection)conn;
+        if( ! c.checkIn()) {
+            return;
+        }
+        if( closed) {
+            discard(c);
+        } else {
+            c.setLastUsed(System.currentTimeMillis());
+            makeIdle(c);
+            // close may have drained the pool before the offer
+            if( closed && ((SubPool)c.getSubPool()).idle.remove(c)) {
+                discard(c);
+            }
+        }
+        permits.release();
+        return;
+    }
+
+    /**
+     * Returns a snapshot of the pool statistics.
+     */
+    public ConnectionPoolStatistics getStatistics()
+    {
+        int idle = 0;
+        Iterator it = subPools.values().iterator();
+        while( it.hasNext()) {
+            idle += ((SubPool)it.next()).idle.size();
+        }
+        int inUse = maxConns - permits.availablePermits();
+        if( inUse < 0) {
+            inUse = 0; // permits are released to wake waiters on close
+        }
+        return new ConnectionPoolStatistics(created,
+                                            size.get(),
+                                            inUse,
+                                            idle,
+                                            subPools.size(),
+                                            permits.getQueueLength(),
+                                            checkouts.sum(),
+                                            timeouts.sum(),
+                                            waitNanos.sum(),
+                                            maxWaitNanos.get(),
+                                            opened.sum(),
+                                            discarded.sum(),
+                                            evicted.sum(),
+                                            failedChecks.sum());
+    }
+
+    /**
+     * Closes the pool.
+     *
+     * <p>Idle connections are disconnected, connections still checked out
+     * are disconnected when they are returned.  Threads waiting for a
+     * connection, and later calls to getBoundConnection, fail with an
+     * LDAPException.  The connections of a pool that is not closed stay
+     * open, even once the pool is no longer referenced.</p>
+     */
+    public void close()
+    {
+        closed = true;
+        ScheduledFuture task = evictor;
+        if( task != null) {
+            task.cancel(false);
+        }
+        Iterator it = subPools.values().iterator();
+        while( it.hasNext()) {
+            SubPool sub = (SubPool)it.next();
+            Connection c;
+            while( (c = (Connection)sub.idle.pollFirst()) != null) {
+                discard(c);
+            }
+        }
+        // Let waiting threads through to find the pool closed
+        permits.release(maxConns);
+        return;
+    }
+
+    /*
+     * Returns a connection bound as DN/PW, the caller holds a permit.
+     */
+    private Connection checkOut(SubPool sub, String DN, byte[] PW)
+            throws LDAPException
+    {
+        for(;;) {
+            Connection c = (Connection)sub.idle.pollFirst();
+            if( c != null) {
+                if( isUsable(c)) {
+                    c.checkOut();
+                    return c;
+                }
+                failedChecks.increment();
+                discard(c);
+                continue;
+            }
+
+            if( size.incrementAndGet() <= maxConns) {
+                try {
+                    c = open(sub, DN, PW);
+                } catch( LDAPException e) {
+                    size.decrementAndGet();
+                    throw e;
+                }
+                c.checkOut();
+                return c;
+            }
+            size.decrementAndGet();
+
+            // At the maximum size, rebind a connection idle for another
+            // identity.  One exists, as fewer than maxConns are checked out.
+            c = takeIdle(sub);
+            if( c != null) {
+                if( ! isUsable(c)) {
+                    failedChecks.increment();
+                    discard(c);
+                    continue;
+                }
+                try {
+                    c.poolBind(LDAPConnection.LDAP_V3, DN, PW);
+                } catch( LDAPException e) {
+                    discard(c);
+                    throw e;
+                }
+                c.setSubPool(sub);
+                c.checkOut();
+                return c;
+            }
+            // Another thread is between taking and discarding a connection
+            Thread.yield();
+        }
+    }
+
+    /*
+     * Checks an idle connection before it is handed out.  Only one unused
+     * for longer than healthCheckInterval costs a round trip to the server.
+     */
+    private boolean isUsable(Connection c)
+    {
+        if( ! c.isConnected()) {
+            return false;
+        }
+        long unused = System.currentTimeMillis() - c.getLastUsed();
+        return (unused < healthCheckInterval) || c.isConnectionAlive();
+    }
+
+    /*
+     * Puts a connection on the idle list of its sub-pool.  A connection
+     * whose sub-pool was dropped while it was checked out moves to the
+     * current sub-pool for its identity.
+     */
+    private void makeIdle(Connection c)
+    {
+        SubPool sub = (SubPool)c.getSubPool();
+        for(;;) {
+            sub.idle.offerFirst(c);
+            // dropSubPool takes back whatever it finds once removed is set
+            if( ! sub.removed || ! sub.idle.remove(c)) {
+                return;
+            }
+            sub = getSubPool(sub.id);
+            c.setSubPool(sub);
+        }
+    }
+
+    /*
+     * Removes the least recently used idle connection of any identity
+     * other than sub.
+     */
+    private Connection takeIdle(SubPool sub)
+    {
+        Iterator it = subPools.values().iterator();
+        while( it.hasNext()) {
+            SubPool other = (SubPool)it.next();
+            if( other != sub) {
+                Connection c = (Connection)other.idle.pollLast();
+                if( c != null) {
+                    return c;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Opens a new connection bound as DN/PW, counted in size by the caller.
+     */
+    private Connection open(SubPool sub, String DN, byte[] PW)
+            throws LDAPException
+    {
+        Connection c = new Connection(factory);
+        try {
+            c.connect(host, port);
+            if( factory instanceof LDAPTLSSocketFactory) {
+                c.startTLS();
+            }
+            if( (DN != null) || (PW != null)) {
+                c.poolBind(LDAPConnection.LDAP_V3, DN, PW);
+            }
+        } catch( LDAPException e) {
+            try {
+                c.disconnect();
+            } catch( LDAPException ex) {
+                ; // already failed
+            }
+            throw e;
+        }
+        c.setSubPool(sub);
+        opened.increment();
+        return c;
+    }
+
+    /*
+     * Closes a connection removed from the pool.
+     */
+    private void discard(Connection c)
+    {
+        size.decrementAndGet();
+        discarded.increment();
+        try {
+            c.disconnect();
+        } catch( LDAPException e) {
+            ; // the connection is being thrown away
+        }
+        return;
+    }
+
+    /*
+     * Opens anonymous connections until minConns are open.
+     */
+    private void ensureMinimum()
+            throws LDAPException
+    {
+        while( ! closed && (size.get() < minConns)) {
+            if( size.incrementAndGet() > minConns) {
+                size.decrementAndGet();
+                break;
+            }
+            Connection c;
+            try {
+                c = open(getSubPool(null, null), null, null);
+            } catch( LDAPException e) {
+                size.decrementAndGet();
+                throw e;
+            }
+            c.setLastUsed(System.currentTimeMillis());
+            makeIdle(c);
+            // close may have drained the pool while connecting
+            if( closed && ((SubPool)c.getSubPool()).idle.remove(c)) {
+                discard(c);
+            }
+        }
+        return;
+    }
+
+    /*
+     * Closes connections idle for longer than idleTimeout, keeping
+     * minConns open, then schedules the next run.
+     */
+    private void evictIdle()
+    {
+        long now = System.currentTimeMillis();
+        Iterator it = subPools.values().iterator();
+        while( it.hasNext() && (size.get() > minConns)) {
+            SubPool sub = (SubPool)it.next();
+            // The most recently returned connections are at the front
+            Iterator idle = sub.idle.descendingIterator();
+            while( idle.hasNext() && (size.get() > minConns)) {
+                Connection c = (Connection)idle.next();
+                if( now - c.getLastUsed() < idleTimeout) {
+                    break;
+                }
+                if( sub.idle.remove(c)) {
+                    evicted.increment();
+                    discard(c);
+                }
+            }
+        }
+        it = subPools.values().iterator();
+        while( it.hasNext()) {
+            SubPool sub = (SubPool)it.next();
+            if( sub.idle.isEmpty()) {
+                dropSubPool(sub);
+            }
+        }
+        try {
+            ensureMinimum();
+        } catch( LDAPException e) {
+            ; // try again on the next run
+        }
+        scheduleEviction();
+        return;
+    }
+
+    /*
+     * Drops a sub-pool with no idle connections, so identities that are
+     * no longer used do not accumulate.  Connections of the identity that
+     * are checked out move to a new sub-pool when they are returned.
+     */
+    private void dropSubPool(SubPool sub)
+    {
+        sub.removed = true;
+        subPools.remove(sub.id, sub);
+        // Returned after the check for idle connections
+        Connection c;
+        while( (c = (Connection)sub.idle.pollFirst()) != null) {
+            SubPool current = getSubPool(sub.id);
+            c.setSubPool(current);
+            current.idle.offerLast(c);
+        }
+        return;
+    }
+
+    private void scheduleEviction()
+    {
+        if( closed || (idleTimeout <= 0)) {
+            return;
+        }
+        final Runnable eviction = new Runnable() {
+                public void run()
+                {
+                    evictIdle();
+                    return;
+                }
+            };
+        evictor = TimeoutScheduler.schedule(new Runnable() {
+                public void run()
+                {
+                    maintainers.execute(eviction);
+                    return;
+                }
+            }, Math.max(idleTimeout / 2, 100));
+        return;
+    }
+
+    /*
+     * Returns the sub-pool for a bind identity, creating it if needed.
+     */
+    private SubPool getSubPool(String DN, byte[] PW)
+    {
+        return getSubPool(new Identity(DN, PW));
+    }
+
+    private SubPool getSubPool(Identity id)
+    {
+        SubPool sub = (SubPool)subPools.get(id);
+        if( sub == null) {
+            SubPool created = new SubPool(id);
+            sub = (SubPool)subPools.putIfAbsent(id, created);
+            if( sub == null) {
+                sub = created;
+            }
+        }
+        return sub;
+    }
+
+    /**
+     * The idle connections bound as one identity, the most recently
+     * returned first.
+     */
+    private static final class SubPool
+    {
+        private final Identity id;
+        private final ConcurrentLinkedDeque idle = new ConcurrentLinkedDeque();
+        /** Set once the sub-pool is no longer in the map */
+        private volatile boolean removed = false;
+
+        private SubPool(Identity id)
+        {
+            this.id = id;
+            return;
+        }
+    }
+
+    /**
+     * A bind identity, held as a digest of the DN and password so the
+     * pool does not keep passwords.  DNs are compared case insensitively.
+     */
+    private static final class Identity
+    {
+        private final byte[] digest;
+        private final int hash;
+
+        private Identity(String DN, byte[] PW)
+        {
+            MessageDigest md = (MessageDigest)digests.get();
+            if( md == null) {
+                try {
+                    md = MessageDigest.getInstance("SHA-256");
+                } catch( NoSuchAlgorithmException e) {
+                    // Every Java platform is required to support SHA-256
+                    throw new RuntimeException(e.toString());
+                }
+                digests.set(md);
+            }
+            if( DN == null) {
+                md.update((byte)0);
+            } else {
+                byte[] dn;
+                try {
+                    dn = DN.toLowerCase(Locale.ENGLISH).getBytes("UTF-8");
+                } catch( UnsupportedEncodingException e) {
+                    throw new RuntimeException(e.toString());
+                }
+                // length first, so no DN can run into the password
+                md.update((byte)1);
+                md.update((byte)(dn.length >>> 24));
+                md.update((byte)(dn.length >>> 16));
+                md.update((byte)(dn.length >>> 8));
+                md.update((byte)dn.length);
+                md.update(dn);
+            }
+            if( PW == null) {
+                md.update((byte)0);
+            } else {
+                md.update((byte)1);
+                md.update(PW);
+            }
+            digest = md.digest();
+            hash = Arrays.hashCode(digest);
+            return;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            return (o instanceof Identity) &&
+                   Arrays.equals(digest, ((Identity)o).digest);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+package com.novell.ldap.connectionpool;
+
+/**
+ * A snapshot of the statistics of a {@link ConnectionPool}.
+ *
+ * <p>Counts are cumulative from the creation of the pool.  The rate of
+ * checkouts over an interval is obtained by comparing two snapshots with
+ * {@link #getCheckoutsPerSecond(ConnectionPoolStatistics)}.</p>
+ *
+ * @see ConnectionPool#getStatistics()
+ */
+public final class ConnectionPoolStatistics
+{
+    private final long time = System.currentTimeMillis();
+    private final long created;
+    private final int size;
+    private final int inUse;
+    private final int idle;
+    private final int identities;
+    private final int waiting;
+    private final long checkouts;
+    private final long timeouts;
+    private final long waitNanos;
+    private final long maxWaitNanos;
+    private final long opened;
+    private final long discarded;
+    private final long evicted;
+    private final long failedChecks;
+
+    /* package */
+    ConnectionPoolStatistics(long created,
+                             int size,
+                             int inUse,
+                             int idle,
+                             int identities,
+                             int waiting,
+                             long checkouts,
+                             long timeouts,
+                             long waitNanos,
+                             long maxWaitNanos,
+                             long opened,
+                             long discarded,
+                             long evicted,
+                             long failedChecks)
+    {
+        this.created = created;
+        this.size = size;
+        this.inUse = inUse;
+        this.idle = idle;
+        this.identities = identities;
+        this.waiting = waiting;
+        this.checkouts = checkouts;
+        this.timeouts = timeouts;
+        this.waitNanos = waitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.opened = opened;
+        this.discarded = discarded;
+        this.evicted = evicted;
+        this.failedChecks = failedChecks;
+        return;
+    }
+
+    /**
+     * Returns the time the snapshot was taken, in milliseconds.
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Returns the number of open connections, idle or checked out.
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of connections checked out.
+     */
+    public int getInUseCount()
+    {
+        return inUse;
+    }
+
+    /**
+     * Returns the number of idle connections.
+     */
+    public int getIdleCount()
+    {
+        return idle;
+    }
+
+    /**
+     * Returns the number of bind identities the pool has kept
+     * connections for.
+     */
+    public int getIdentityCount()
+    {
+        return identities;
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting for a
+     * connection.
+     */
+    public int getWaitingCount()
+    {
+        return waiting;
+    }
+
+    /**
+     * Returns the number of connections checked out.
+     */
+    public long getCheckoutCount()
+    {
+        return checkouts;
+    }
+
+    /**
+     * Returns the number of requests for a connection that timed out.
+     */
+    public long getTimeoutCount()
+    {
+        return timeouts;
+    }
+
+    /**
+     * Returns the average time, in milliseconds, a checkout waited for
+     * a connection to be returned.  Checkouts that did not wait count
+     * as zero.
+     */
+    public double getAverageWaitMillis()
+    {
+        return (checkouts == 0) ? 0 : (waitNanos / 1e6) / checkouts;
+    }
+
+    /**
+     * Returns the longest time, in milliseconds, a checkout waited for
+     * a connection to be returned.
+     */
+    public double getMaxWaitMillis()
+    {
+        return maxWaitNanos / 1e6;
+    }
+
+    /**
+     * Returns the number of connections opened.
+     */
+    public long getOpenedCount()
+    {
+        return opened;
+    }
+
+    /**
+     * Returns the number of connections closed, for any reason.
+     */
+    public long getClosedCount()
+    {
+        return discarded;
+    }
+
+    /**
+     * Returns the number of connections closed because they were idle
+     * for too long.
+     */
+    public long getEvictedCount()
+    {
+        return evicted;
+    }
+
+    /**
+     * Returns the number of idle connections found dead when checked out.
+     */
+    public long getFailedHealthCheckCount()
+    {
+        return failedChecks;
+    }
+
+    /**
+     * Returns the average number of checkouts per second since the pool
+     * was created.
+     */
+    public double getCheckoutsPerSecond()
+    {
+        long elapsed = time - created;
+        return (elapsed <= 0) ? 0 : checkouts * 1000.0 / elapsed;
+    }
+
+    /**
+     * Returns the number of checkouts per second between an earlier
+     * snapshot and this one.
+     *
+     * @param earlier a snapshot of the same pool taken before this one.
+     */
+    public double getCheckoutsPerSecond(ConnectionPoolStatistics earlier)
+    {
+        long elapsed = time - earlier.time;
+        return (elapsed <= 0) ? 0 :
+                (checkouts - earlier.checkouts) * 1000.0 / elapsed;
+    }
+
+    public String toString()
+    {
+        return "ConnectionPoolStatistics(size=" + size +
+               ", inUse=" + inUse +
+               ", idle=" + idle +
+               ", identities=" + identities +
+               ", waiting=" + waiting +
+               ", checkouts=" + checkouts +
+               ", timeouts=" + timeouts +
+               ", avgWaitMillis=" + getAverageWaitMillis() +
+               ", maxWaitMillis=" + getMaxWaitMillis() +
+               ", opened=" + opened +
+               ", closed=" + discarded +
+               ", evicted=" + evicted +
+               ", failedHealthChecks=" + failedChecks + ")";
+    }
+}
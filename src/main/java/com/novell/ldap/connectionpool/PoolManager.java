@@ -42,6 +42,8 @@ import com.novell.ldap.LDAPTLSSocketFactory;
  * Once an LDAPConnection object is no longer needed the 
  * {@link #makeConnectionAvailable(LDAPConnection) makeConnectionAvailable}
  * function must be called to make the LDAPConnection available to other threads.</p>
+ * <p>{@link ConnectionPool} serves many threads and bind identities without
+ * global locks, and adds bounded waits, idle eviction and statistics.</p>
  */
 public class PoolManager
 {
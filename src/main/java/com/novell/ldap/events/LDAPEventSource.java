@@ -17,15 +17,24 @@ package com.novell.ldap.events;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPMessage;
 import com.novell.ldap.LDAPMessageQueue;
 import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPThreadFactory;
 import com.novell.ldap.client.Debug;
 
 /**
@@ -34,6 +43,14 @@ import com.novell.ldap.client.Debug;
  * be subclassed to define a EventSource which can also classify
  * events.Since Event Classification is not handled completely in this
  * class.
+ *
+ * <p>By default each registration has a thread checking for responses
+ * every {@link #getSleepTime()} milliseconds.  Once an executor is set
+ * with {@link #setEventExecutor(Executor)}, responses are instead passed
+ * to it by the thread reading from the server as soon as they arrive, so
+ * there is no polling delay and no thread for each registration.  The
+ * events for a listener are still delivered one at a time, in the order
+ * received.</p>
  */
 public abstract class LDAPEventSource {
     /**
@@ -48,6 +65,20 @@ public abstract class LDAPEventSource {
      */
     private Map listenermap = new TreeMap(new HashComparator());
 
+    /**
+     * Executor dispatching events as responses arrive, or null to poll.
+     */
+    private Executor executor = null;
+
+    /**
+     * Local Map to Store LDAPEventListener and the SerialExecutor
+     * dispatching its events.
+     */
+    private Map dispatchermap = new TreeMap(new HashComparator());
+
+    /** Executor shared by event sources, created when first needed. */
+    private static Executor sharedExecutor = null;
+
     /**
      * Stops and removes the polling Thread for this listener from
      * receiving LDAP events fired by this class. The listener can only
@@ -87,6 +118,7 @@ public abstract class LDAPEventSource {
             ((List) listenermap.get(alistener)).iterator();
 
         listenermap.remove(alistener);
+        dispatchermap.remove(alistener);
 
         while (eventthreaditerator.hasNext()) {
             EventsGenerator generator =
@@ -127,7 +159,25 @@ public abstract class LDAPEventSource {
         EventsGenerator eventsthread =
             createListeningThread(queue, conn, alistener, msgid, source);
 
-        eventsthread.start();
+        if (executor != null) {
+            //One SerialExecutor for all of a listener's registrations.
+            SerialExecutor dispatcher =
+                (SerialExecutor) dispatchermap.get(alistener);
+            if (dispatcher == null) {
+                dispatcher = new SerialExecutor(executor);
+                dispatchermap.put(alistener, dispatcher);
+            }
+            eventsthread.startDispatch(dispatcher);
+        } else {
+            ThreadFactory factory = conn.getThreadFactory();
+            if (factory == null) {
+                eventsthread.start();
+            } else {
+                // The generator is run by the factory's thread, it is only
+                // a Runnable then
+                factory.newThread(eventsthread).start();
+            }
+        }
 
         List eventdecoratorlist = null;
 
@@ -193,6 +243,135 @@ public abstract class LDAPEventSource {
         sleepTime = l;
     }
 
+    /**
+     * Returns the executor used to dispatch events as responses arrive.
+     *
+     * @return the executor, or null if each registration polls for
+     * responses on its own thread.
+     */
+    public Executor getEventExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used to dispatch events for registrations made
+     * afterwards.  The thread reading responses from the server hands
+     * them to the executor as they arrive, instead of a thread for each
+     * registration checking for them every sleep time milliseconds.
+     *
+     * <p>The events for a listener are dispatched one at a time and in
+     * order, so a listener which blocks delays only its own events, and
+     * ties up only one of the executor's threads.  The executor should
+     * not reject tasks; responses are left on the queue until the next
+     * one arrives if it does.</p>
+     *
+     * @param anexecutor The executor, for example
+     *        {@link #getSharedEventExecutor()}, or null to poll for
+     *        responses (Default).
+     */
+    public void setEventExecutor(final Executor anexecutor) {
+        executor = anexecutor;
+    }
+
+    /**
+     * Returns an executor which may be shared by event sources.  It has
+     * up to one daemon thread for each processor, which stop when there
+     * have been no events for a minute.
+     *
+     * @return the shared executor.
+     */
+    public static synchronized Executor getSharedEventExecutor() {
+        if (sharedExecutor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(
+                    threads,
+                    threads,
+                    60L,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue(),
+                    new LDAPThreadFactory("LDAP events"));
+            pool.allowCoreThreadTimeOut(true);
+            sharedExecutor = pool;
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * Runs tasks one at a time on another executor, in the order
+     * submitted.
+     */
+    private static class SerialExecutor implements Executor {
+        /** The tasks waiting to run. */
+        private final LinkedList tasks = new LinkedList();
+
+        /** The executor running the tasks. */
+        private final Executor executor;
+
+        /** The task submitted to executor and not yet finished, or null. */
+        private Runnable active = null;
+
+        /**
+         * Default Constructor for SerialExecutor.
+         *
+         * @param anexecutor The executor which runs the tasks.
+         */
+        SerialExecutor(final Executor anexecutor) {
+            executor = anexecutor;
+        }
+
+        /**
+         * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+         */
+        public synchronized void execute(final Runnable task) {
+            tasks.add(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            scheduleNext();
+                        }
+                    }
+                });
+            if (active == null) {
+                if (!scheduleNext()) {
+                    tasks.removeLast();
+                    throw new RejectedExecutionException(
+                        "Event dispatch rejected");
+                }
+            }
+        }
+
+        /**
+         * Submits the next task, if any, to the executor.  If it is
+         * rejected the tasks wait for the next call to execute.
+         *
+         * @return false if the executor rejected the task.
+         */
+        private synchronized boolean scheduleNext() {
+            if (tasks.isEmpty()) {
+                active = null;
+                return true;
+            }
+            Runnable next = (Runnable) tasks.removeFirst();
+            active = next;
+            try {
+                executor.execute(next);
+            } catch (RejectedExecutionException e) {
+                if (Debug.LDAP_DEBUG) {
+                    Debug.trace(
+                        Debug.EventsCalls,
+                        "Event dispatch rejected " + e.getMessage());
+                }
+                tasks.addFirst(next);
+                active = null;
+                return false;
+            }
+            return true;
+        }
+    }
+
     /**
      * This inner Thread is used to notify the Registered Listener when an
      * LDAPResponse occurs.
@@ -226,6 +405,18 @@ public abstract class LDAPEventSource {
         /** Local variable to control the state of the system. */
         private volatile boolean isrunning = true;
 
+        /**
+         * Executor dispatching the events as responses arrive, or null
+         * if this Thread polls for them.
+         */
+        private Executor dispatcher = null;
+
+        /**
+         * Number of times responses were signalled since the dispatching
+         * task last finished, zero if no task is pending.
+         */
+        private final AtomicInteger signals = new AtomicInteger();
+
         /**
          * Default Constructor for EventGenerator.
          *
@@ -299,6 +490,82 @@ public abstract class LDAPEventSource {
             }
         }
 
+        /**
+         * Dispatches the events on anexecutor as the responses arrive,
+         * instead of running this Thread.
+         *
+         * @param anexecutor The executor running the listener.
+         */
+        final void startDispatch(final Executor anexecutor) {
+            dispatcher = anexecutor;
+            searchqueue.setResponseNotifier(
+                messageid,
+                new Runnable() {
+                    public void run() {
+                        signal();
+                    }
+                });
+        }
+
+        /**
+         * Called by the thread reading from the server when a response
+         * arrives.  Only one dispatching task is pending at a time.
+         */
+        private void signal() {
+            if (signals.getAndIncrement() == 0) {
+                try {
+                    dispatcher.execute(
+                        new Runnable() {
+                            public void run() {
+                                dispatch();
+                            }
+                        });
+                } catch (RejectedExecutionException e) {
+                    //Retried when the next response arrives.
+                    signals.set(0);
+                }
+            }
+        }
+
+        /**
+         * Notifies the listener of the responses received, until there
+         * are no more.
+         */
+        private void dispatch() {
+            int missed = signals.get();
+            do {
+                try {
+                    while (isrunning
+                        && searchqueue.isResponseReceived(messageid)) {
+                        try {
+                            LDAPMessage response =
+                                searchqueue.getResponse(messageid);
+                            if (response != null) {
+                                processmessage(response);
+                            }
+                        } catch (LDAPException e) {
+                            ///CLOVER:OFF
+                            LDAPExceptionEvent exceptionevent =
+                                new LDAPExceptionEvent(eventsource, e, null);
+                            eventlistener.ldapExceptionNotification(
+                                exceptionevent);
+                            ///CLOVER:ON
+                        } catch (RuntimeException e) {
+                            //The listener failed, go on with the next event.
+                            if (Debug.LDAP_DEBUG) {
+                                Debug.trace(
+                                    Debug.EventsCalls,
+                                    "Listener threw " + e.toString());
+                            }
+                        }
+                    }
+                } finally {
+                    //A later signal must start a new dispatching task.
+                    missed = signals.addAndGet(-missed);
+                }
+            } while (missed != 0);
+        }
+
         /**Processes the Message Receive on the queue.
          * This method actually sends the notification to the 
          * LDAPEventListener.
@@ -89,6 +89,9 @@ public class ExceptionMessages extends java.util.ListResourceBundle {
   public final static String NO_SCHEMA              = "NO_SCHEMA";
   public final static String READ_MULTIPLE          = "READ_MULTIPLE";
   public final static String CANNOT_BIND            = "CANNOT_BIND";
+  public final static String POOL_TIMEOUT           = "POOL_TIMEOUT";
+  public final static String POOL_CLOSED            = "POOL_CLOSED";
+  public final static String REQUEST_ABANDONED      = "REQUEST_ABANDONED";
 
   //End constants
 
@@ -155,7 +158,10 @@ public class ExceptionMessages extends java.util.ListResourceBundle {
       {"MULTIPLE_SCHEMA", "Multiple schema found when reading the subschemaSubentry for {0}"}, //the 0th parameter is a String DN
       {"NO_SCHEMA", "No schema found when reading the subschemaSubentry for {0}"}, //the 0th parameter is a String DN
       {"READ_MULTIPLE", "Read response is ambiguous, multiple entries returned"},
-      {"CANNOT_BIND", "Cannot bind. Use PoolManager.getBoundConnection()"}
+      {"CANNOT_BIND", "Cannot bind. Use PoolManager.getBoundConnection()"},
+      {"POOL_TIMEOUT", "No pooled connection became available within {0} milliseconds"},
+      {"POOL_CLOSED", "The connection pool has been closed"},
+      {"REQUEST_ABANDONED", "The request was abandoned before its result was received"}
   // END OF MATERIAL TO LOCALIZE
   };
 }//End ExceptionMessages
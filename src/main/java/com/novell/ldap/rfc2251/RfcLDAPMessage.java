@@ -17,7 +17,6 @@ package com.novell.ldap.rfc2251;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ByteArrayInputStream;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPMessage;
 import com.novell.ldap.asn1.*;
@@ -173,21 +172,29 @@ public class RfcLDAPMessage extends ASN1Sequence
 
     /**
      * Will decode an RfcLDAPMessage directly from an InputStream.
+     *
+     * <p>The message is decoded in one pass.  The APPLICATION tag of the
+     * protocol operation selects the response type, which then decodes its
+     * content straight from the stream, as do the controls.</p>
      */
     public RfcLDAPMessage(ASN1Decoder dec, InputStream in, int len)
             throws IOException
     {
-        super(dec, in, len);
+        super(3);
 
-        byte[] content;
-        ByteArrayInputStream bais;
+        int[] componentLen = new int[1];
 
-        // Decode implicitly tagged protocol operation from an ASN1Tagged type
-        // to its appropriate application type.
-        ASN1Tagged protocolOp = (ASN1Tagged)get(1);
-        ASN1Identifier protocolOpId = protocolOp.getIdentifier();
-        content = ((ASN1OctetString)protocolOp.taggedValue()).byteValue();
-        bais = new ByteArrayInputStream(content);
+        // Decode messageID
+        add(dec.decode(in, componentLen));
+        len -= componentLen[0];
+
+        // Decode the implicitly tagged protocol operation as its
+        // application type.
+        ASN1Identifier protocolOpId = new ASN1Identifier(in);
+        ASN1Length protocolOpLen = new ASN1Length(in);
+        int opLen = protocolOpLen.getLength();
+        len -= protocolOpId.getEncodedLength() +
+               protocolOpLen.getEncodedLength() + opLen;
 
         if( Debug.LDAP_DEBUG ) {
             Debug.trace( Debug.messages, "RfcLDAPMessage: input message w/tag " +
@@ -195,53 +202,48 @@ public class RfcLDAPMessage extends ASN1Sequence
         }
         switch(protocolOpId.getTag()) {
             case LDAPMessage.SEARCH_RESPONSE:
-                set(1, new RfcSearchResultEntry(dec, bais, content.length));
+                add(new RfcSearchResultEntry(dec, in, opLen));
                 break;
             case LDAPMessage.SEARCH_RESULT:
-                set(1, new RfcSearchResultDone(dec, bais, content.length));
+                add(new RfcSearchResultDone(dec, in, opLen));
                 break;
             case LDAPMessage.SEARCH_RESULT_REFERENCE:
-                set(1, new RfcSearchResultReference(dec, bais, content.length));
+                add(new RfcSearchResultReference(dec, in, opLen));
                 break;
             case LDAPMessage.ADD_RESPONSE:
-                set(1, new RfcAddResponse(dec, bais, content.length));
+                add(new RfcAddResponse(dec, in, opLen));
                 break;
             case LDAPMessage.BIND_RESPONSE:
-                set(1, new RfcBindResponse(dec, bais, content.length));
+                add(new RfcBindResponse(dec, in, opLen));
                 break;
             case LDAPMessage.COMPARE_RESPONSE:
-                set(1, new RfcCompareResponse(dec, bais, content.length));
+                add(new RfcCompareResponse(dec, in, opLen));
                 break;
             case LDAPMessage.DEL_RESPONSE:
-                set(1, new RfcDelResponse(dec, bais, content.length));
+                add(new RfcDelResponse(dec, in, opLen));
                 break;
             case LDAPMessage.EXTENDED_RESPONSE:
-                set(1, new RfcExtendedResponse(dec, bais, content.length));
+                add(new RfcExtendedResponse(dec, in, opLen));
                 break;
             case LDAPMessage.INTERMEDIATE_RESPONSE:
-                set(1, new RfcIntermediateResponse(dec, bais, content.length));
+                add(new RfcIntermediateResponse(dec, in, opLen));
                 break;
             case LDAPMessage.MODIFY_RESPONSE:
-                set(1, new RfcModifyResponse(dec, bais, content.length));
+                add(new RfcModifyResponse(dec, in, opLen));
                 break;
             case LDAPMessage.MODIFY_RDN_RESPONSE:
-                set(1, new RfcModifyDNResponse(dec, bais, content.length));
+                add(new RfcModifyDNResponse(dec, in, opLen));
                 break;
             default:
                 throw new RuntimeException("RfcLDAPMessage: Invalid tag: " +
                     protocolOpId.getTag());
         }
 
-        // decode optional implicitly tagged controls from ASN1Tagged type to
-        // to RFC 2251 types.
-        if(size() > 2) {
-            ASN1Tagged controls = (ASN1Tagged)get(2);
-            //   ASN1Identifier controlsId = protocolOp.getIdentifier();
-            // we could check to make sure we have controls here....
-
-            content = ((ASN1OctetString)controls.taggedValue()).byteValue();
-            bais = new ByteArrayInputStream(content);
-            set(2, new RfcControls(dec, bais, content.length));
+        // decode optional implicitly tagged controls as RFC 2251 types.
+        if(len > 0) {
+            new ASN1Identifier(in);             // [0] Controls
+            ASN1Length controlsLen = new ASN1Length(in);
+            add(new RfcControls(dec, in, controlsLen.getLength()));
         }
         return;
     }
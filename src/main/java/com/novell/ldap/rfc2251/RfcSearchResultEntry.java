@@ -14,6 +14,7 @@
  ******************************************************************************/
 package com.novell.ldap.rfc2251;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import com.novell.ldap.*;
@@ -35,21 +36,38 @@ public class RfcSearchResultEntry extends ASN1Sequence {
     // Constructors for SearchResultEntry
     //*************************************************************************
 
+    /* The encoded PartialAttributeList content, or null if decoded */
+    private byte[] attributeBytes = null;
+    private ASN1Decoder dec = null;
+
     /**
      * The only time a client will create a SearchResultEntry is when it is
      * decoding it from an InputStream
+     *
+     * <p>Only the objectName is decoded.  The content octets of the
+     * PartialAttributeList are kept as received and are decoded the first
+     * time {@link #getAttributes()} is called.</p>
      */
     public RfcSearchResultEntry(ASN1Decoder dec, InputStream in, int len)
             throws IOException
     {
-        super(dec, in, len);
+        super(2);
+        this.dec = dec;
 
         // Decode objectName
-//      set(0, new RfcLDAPDN(((ASN1OctetString)get(0)).stringValue()));
+        int[] componentLen = new int[1];
+        add(dec.decode(in, componentLen));
 
-        // Create PartitalAttributeList. This does not need to be decoded, only
-        // typecast.
-//      set(1, new PartitalAttributeList());
+        // Keep the PartialAttributeList undecoded, tagged as a SEQUENCE so
+        // it encodes exactly as it was received.
+        ASN1Identifier id = new ASN1Identifier(in);
+        ASN1Length length = new ASN1Length(in);
+        if( length.getLength() < 0) {
+            throw new IOException(
+                    "RfcSearchResultEntry: indefinite length attribute list");
+        }
+        attributeBytes = (byte[])dec.decodeOctetString(in, length.getLength());
+        add(new ASN1Tagged(id, new ASN1OctetString(attributeBytes), false));
         return;
     }
     /** Creates an RfcSearchResultEntry from individual ASN encoded objects.
@@ -84,7 +102,32 @@ public class RfcSearchResultEntry extends ASN1Sequence {
      */
     public final ASN1Sequence getAttributes()
     {
-        return (ASN1Sequence)get(1);
+        ASN1Object attributes = get(1);
+        if( attributes instanceof ASN1Tagged) {
+            try {
+                attributes = new ASN1Sequence(dec,
+                        new ByteArrayInputStream(attributeBytes),
+                        attributeBytes.length);
+            } catch( IOException ioe) {
+                throw new RuntimeException(
+                    "RfcSearchResultEntry: Invalid attribute list: " +
+                    ioe.toString());
+            }
+            set(1, attributes);
+        }
+        return (ASN1Sequence)attributes;
+    }
+
+    /**
+     * Returns the content octets of the PartialAttributeList as received
+     * from the server, or null if this entry was not decoded from a
+     * stream.
+     *
+     * <p>The array is shared, not copied, and must not be modified.</p>
+     */
+    public final byte[] getAttributeBytes()
+    {
+        return attributeBytes;
     }
 
     /**
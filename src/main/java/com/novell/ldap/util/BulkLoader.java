@@ -0,0 +1,621 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+
+import com.novell.ldap.LDAPAddRequest;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPConstraints;
+import com.novell.ldap.LDAPDeleteRequest;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPLocalException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPModifyDNRequest;
+import com.novell.ldap.LDAPModifyRequest;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.LDAPThreadFactory;
+
+/**
+ * Applies the requests read from LDIF, or any LDAPReader, over several
+ * connections with many requests outstanding on each.
+ *
+ * <p>One thread reads and parses the input, a little ahead of the thread
+ * calling {@link #load(LDAPReader)}, which sends each request with
+ * LDAPConnection.sendRequestAsync to the connection with the fewest
+ * outstanding requests, waiting while every connection has a full window.
+ * Content records are added as entries.</p>
+ *
+ * <p>Requests for the same entry are applied in the order read, and no
+ * request is sent while one for an ancestor or a descendant of its entry
+ * is outstanding, so parents are added before their children and deleted
+ * after them.  A modify DN request is ordered by both the DN of the entry
+ * it renames and its new DN, so it also waits for, and holds back, the
+ * requests for the new superior and for entries under the new name.</p>
+ *
+ * <p>Requests that fail, whatever the reason, are written to the reject
+ * writer, if one is set, each preceded by a comment giving the error.  The
+ * writer should be an LDIFWriter writing requests, so the rejects can be
+ * corrected and loaded again.</p>
+ *
+ * <p>The following code snippet loads a file over four connections and
+ * prints the throughput every five seconds:
+ * <pre><code>
+ *   BulkLoader loader = new BulkLoader(connections, 32);
+ *   loader.setRejectWriter(new LDIFWriter(rejects, "1", true));
+ *   loader.setProgressListener(new BulkLoader.ProgressListener() {
+ *       public void progress(BulkLoader l) {
+ *           System.out.println(l.getCompleted() + " done, " +
+ *                   (long)l.getIntervalRate() + "/s");
+ *       }
+ *   }, 5000);
+ *   loader.load(new LDIFReader(in));
+ * </code></pre></p>
+ *
+ * @see LDIFReader
+ * @see LDIFWriter
+ */
+public class BulkLoader
+{
+    /* Number of parsed requests held waiting to be sent */
+    private static final int CAPACITY = 1024;
+    /* Queued after the last request */
+    private static final Object END = new Object();
+    private static final ThreadFactory threads =
+                                        new LDAPThreadFactory("BulkLoader");
+
+    private final LDAPConnection[] connections;
+    private final int window;
+    private final int[] outstanding;          // per connection, guarded by this
+    private final DNIndex pending = new DNIndex();        // guarded by this
+    private final ConcurrentLinkedQueue rejects = new ConcurrentLinkedQueue();
+    private LDAPConstraints cons = null;
+    private LDAPWriter rejectWriter = null;
+    private ProgressListener listener = null;
+    private long interval = 0;                // nanoseconds
+
+    private int next = 0;                     // connection tried first
+    private int total = 0;                    // outstanding requests
+    private long read = 0;
+    private long completed = 0;               // guarded by this
+    private long failed = 0;                  // guarded by this
+    private long start;
+    private long lastReport;
+    private long lastCompleted;
+    private double intervalRate = 0;
+
+    /**
+     * Receives progress reports while requests are being loaded.
+     */
+    public interface ProgressListener
+    {
+        /**
+         * Called periodically during a load, and once at its end, on the
+         * thread calling load.
+         *
+         * @param loader The loader reporting its progress.
+         */
+        void progress(BulkLoader loader);
+    }
+
+    /**
+     * Constructs a loader sending requests over the specified connections,
+     * which must already be connected and bound.
+     *
+     * @param connections The connections to send requests with.
+     * @param window      The maximum number of requests outstanding on each
+     *                    connection.
+     */
+    public BulkLoader(LDAPConnection[] connections, int window)
+    {
+        if( (connections.length == 0) || (window < 1)) {
+            throw new IllegalArgumentException(
+                    "At least one connection and a window of one are needed");
+        }
+        this.connections = connections.clone();
+        this.window = window;
+        this.outstanding = new int[connections.length];
+        return;
+    }
+
+    /**
+     * Sets the constraints the requests are sent with.
+     *
+     * @param cons The constraints, or null for each connection's default
+     *             constraints.
+     */
+    public void setConstraints(LDAPConstraints cons)
+    {
+        this.cons = cons;
+        return;
+    }
+
+    /**
+     * Sets the writer the failed requests are written to.
+     *
+     * @param writer The writer, normally an LDIFWriter writing requests, or
+     *               null to discard failed requests.
+     */
+    public void setRejectWriter(LDAPWriter writer)
+    {
+        this.rejectWriter = writer;
+        return;
+    }
+
+    /**
+     * Sets the listener told of the progress of a load.
+     *
+     * @param listener The listener, or null for none.
+     * @param millis   The interval between reports, in milliseconds.
+     */
+    public void setProgressListener(ProgressListener listener, long millis)
+    {
+        this.listener = listener;
+        this.interval = millis * 1000000L;
+        return;
+    }
+
+    /**
+     * Reads requests until the end of the input, applies them and waits
+     * for the last result.
+     *
+     * <p>Failed requests do not stop the load.  Requests already sent when
+     * the input cannot be read are completed before the exception is
+     * thrown.</p>
+     *
+     * @param reader The source of the requests, normally an LDIFReader.
+     *
+     * @exception LDAPException The input could not be parsed, or the load
+     *            was interrupted.
+     * @exception IOException The input or the reject writer could not be
+     *            read or written.
+     */
+    public void load(final LDAPReader reader)
+            throws LDAPException, IOException
+    {
+        final ArrayBlockingQueue queue = new ArrayBlockingQueue(CAPACITY);
+        Thread parser = threads.newThread(new Runnable() {
+            public void run()
+            {
+                Object message;
+                do {
+                    try {
+                        message = reader.readMessage();
+                        if( message == null) {
+                            message = END;
+                        } else {
+                            message = new Request((LDAPMessage)message);
+                        }
+                    } catch( Exception ex) {
+                        message = ex;
+                    }
+                    try {
+                        queue.put(message);
+                    } catch( InterruptedException ex) {
+                        return; // load abandoned
+                    }
+                } while( (message != END) && ! (message instanceof Exception));
+                return;
+            }
+        });
+        synchronized( this) {
+            read = completed = failed = lastCompleted = 0;
+            intervalRate = 0;
+            start = lastReport = System.nanoTime();
+        }
+        parser.start();
+        Throwable failure = null;
+        try {
+            for(;;) {
+                Object message = queue.take();
+                if( message == END) {
+                    break;
+                }
+                if( message instanceof LDAPException) {
+                    throw (LDAPException)message;
+                }
+                if( message instanceof IOException) {
+                    throw (IOException)message;
+                }
+                if( message instanceof RuntimeException) {
+                    throw (RuntimeException)message;
+                }
+                send((Request)message);
+            }
+        } catch( InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failure = new LDAPLocalException("Interrupted while loading",
+                    LDAPException.LOCAL_ERROR, ex);
+            throw (LDAPLocalException)failure;
+        } catch( Throwable ex) {
+            failure = ex;
+            throw ex;
+        } finally {
+            parser.interrupt();
+            try {
+                drain(true);
+            } catch( IOException ex) {
+                if( failure == null) {
+                    throw ex;
+                }
+                // Not hiding the exception that ended the load
+                failure.addSuppressed(ex);
+            }
+        }
+        return;
+    }
+
+    /*
+     * Sends one request, once its connection and entry are free.
+     */
+    private void send(Request r)
+            throws IOException, InterruptedException
+    {
+        LDAPMessage request = r.request;
+        CanonicalDN dn = r.dn;
+        CanonicalDN newDN = r.newDN;
+        synchronized( this) {
+            read++;
+        }
+        if( r.reason != null) {
+            reject(request, r.reason);
+            drain(false);
+            return;
+        }
+
+        int c;
+        for(;;) {
+            synchronized( this) {
+                c = acquire(dn, newDN);
+                if( c < 0) {
+                    wait(waitTime());
+                }
+            }
+            if( c >= 0) {
+                break;
+            }
+            drain(false);
+        }
+        CompletionStage stage =
+                connections[c].sendRequestAsync(request, cons);
+        stage.whenComplete(new Completion(request, dn, newDN, c));
+        drain(false);
+        return;
+    }
+
+    /*
+     * Reserves a connection for a request for dn, renaming it to newDN if
+     * not null, returning its index, or -1 while the request must wait.
+     */
+    private int acquire(CanonicalDN dn, CanonicalDN newDN)
+    {
+        if( busy(dn) || busy(newDN)) {
+            return -1;
+        }
+        int best = -1;
+        for( int i = 0; i < connections.length; i++) {
+            int c = (next + i) % connections.length;
+            if( (outstanding[c] < window) &&
+                        ((best < 0) || (outstanding[c] < outstanding[best]))) {
+                best = c;
+            }
+        }
+        if( best >= 0) {
+            next = (best + 1) % connections.length;
+            outstanding[best]++;
+            total++;
+            if( dn != null) {
+                pending.put(dn, dn);
+            }
+            if( newDN != null) {
+                pending.put(newDN, newDN);
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Returns true if a request for dn, its ancestors or its descendants
+     * is outstanding.
+     */
+    private boolean busy(CanonicalDN dn)
+    {
+        return (dn != null) && ((pending.countSubtree(dn) > 0) ||
+                                (pending.findAncestor(dn) != null));
+    }
+
+    /*
+     * Returns how long to wait, in milliseconds, before the next report.
+     */
+    private long waitTime()
+    {
+        if( listener == null) {
+            return 0;
+        }
+        long ms = (lastReport + interval - System.nanoTime()) / 1000000L;
+        return (ms < 1) ? 1 : ms;
+    }
+
+    /*
+     * Writes the rejected requests and reports progress if due.  At the
+     * end of a load, first waits for the outstanding requests.
+     */
+    private void drain(boolean end)
+            throws IOException
+    {
+        boolean interrupted = false;
+        try {
+            for(;;) {
+                boolean done;
+                synchronized( this) {
+                    // Once done, the rejects of every result are queued
+                    done = ! end || (total == 0);
+                    if( ! done && rejects.isEmpty() && ! reportDue()) {
+                        try {
+                            wait(waitTime());
+                        } catch( InterruptedException ex) {
+                            // Results still arrive, keep waiting for them
+                            interrupted = true;
+                        }
+                    }
+                }
+                Object[] reject;
+                while( (reject = (Object[])rejects.poll()) != null) {
+                    if( rejectWriter != null) {
+                        rejectWriter.writeComments((String)reject[1]);
+                        try {
+                            rejectWriter.writeMessage(
+                                                (LDAPMessage)reject[0]);
+                        } catch( LDAPException ex) {
+                            rejectWriter.writeError(ex);
+                        }
+                    }
+                }
+                if( (listener != null) && (reportDue() || (done && end))) {
+                    synchronized( this) {
+                        long now = System.nanoTime();
+                        intervalRate = (now == lastReport) ? 0 :
+                            (completed - lastCompleted) * 1e9 /
+                                                        (now - lastReport);
+                        lastReport = now;
+                        lastCompleted = completed;
+                    }
+                    listener.progress(this);
+                }
+                if( done) {
+                    break;
+                }
+            }
+            if( end && (rejectWriter != null)) {
+                rejectWriter.finish();
+            }
+        } finally {
+            if( interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return;
+    }
+
+    private synchronized boolean reportDue()
+    {
+        return (listener != null) &&
+                        (System.nanoTime() - lastReport >= interval);
+    }
+
+    private void reject(LDAPMessage request, String reason)
+    {
+        rejects.add(new Object[] { request, reason });
+        synchronized( this) {
+            failed++;
+            notifyAll();
+        }
+        return;
+    }
+
+    /**
+     * Returns the number of requests read in the current or last load.
+     *
+     * @return the number of requests read.
+     */
+    public synchronized long getRead()
+    {
+        return read;
+    }
+
+    /**
+     * Returns the number of requests completed, successfully or not, in
+     * the current or last load.
+     *
+     * @return the number of results received.
+     */
+    public synchronized long getCompleted()
+    {
+        return completed;
+    }
+
+    /**
+     * Returns the number of requests rejected in the current or last load.
+     *
+     * @return the number of requests failed.
+     */
+    public synchronized long getFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * Returns the number of requests sent and not yet completed.
+     *
+     * @return the number of requests outstanding.
+     */
+    public synchronized int getOutstanding()
+    {
+        return total;
+    }
+
+    /**
+     * Returns the number of requests completed per second since the start
+     * of the current or last load.
+     *
+     * @return the average throughput.
+     */
+    public synchronized double getRate()
+    {
+        long elapsed = System.nanoTime() - start;
+        return (elapsed <= 0) ? 0 : completed * 1e9 / elapsed;
+    }
+
+    /**
+     * Returns the number of requests completed per second between the two
+     * latest progress reports.
+     *
+     * @return the recent throughput.
+     */
+    public synchronized double getIntervalRate()
+    {
+        return intervalRate;
+    }
+
+    /*
+     * A request read, with the DN it is ordered by, prepared on the thread
+     * reading the input.
+     */
+    private static class Request
+    {
+        private LDAPMessage request;
+        private CanonicalDN dn = null;     // null if not ordered
+        private CanonicalDN newDN = null;  // renamed to, if ordered
+        private String reason = null;      // why rejected without sending
+
+        private Request(LDAPMessage message)
+        {
+            request = message;
+            try {
+                if( message instanceof LDAPSearchResult) {
+                    // A content record
+                    request = new LDAPAddRequest(
+                                ((LDAPSearchResult)message).getEntry(),
+                                message.getControls());
+                }
+                switch( request.getType()) {
+                    case LDAPMessage.ADD_REQUEST:
+                        dn = CanonicalDN.valueOf(
+                            ((LDAPAddRequest)request).getEntry().getDN());
+                        break;
+                    case LDAPMessage.DEL_REQUEST:
+                        dn = CanonicalDN.valueOf(
+                            ((LDAPDeleteRequest)request).getDN());
+                        break;
+                    case LDAPMessage.MODIFY_REQUEST:
+                        dn = CanonicalDN.valueOf(
+                            ((LDAPModifyRequest)request).getDN());
+                        break;
+                    case LDAPMessage.MODIFY_RDN_REQUEST:
+                        LDAPModifyDNRequest rename =
+                                            (LDAPModifyDNRequest)request;
+                        dn = CanonicalDN.valueOf(rename.getDN());
+                        String superior = rename.getParentDN();
+                        CanonicalDN parent = (superior == null) ?
+                            dn.getParent() : CanonicalDN.valueOf(superior);
+                        if( parent != null) {
+                            newDN = parent.getChild(rename.getNewRDN());
+                            if( newDN.equals(dn)) {
+                                newDN = null;
+                            }
+                        }
+                        break;
+                    case LDAPMessage.EXTENDED_REQUEST:
+                        break;
+                    default:
+                        reason = "Not an update request";
+                        break;
+                }
+            } catch( LDAPException ex) {
+                reason = ex.toString();
+            } catch( IllegalArgumentException ex) {
+                // Sent unordered, for the server to reject
+                dn = null;
+                newDN = null;
+            }
+            return;
+        }
+    }
+
+    /*
+     * Records the result of a request, on the thread reading its
+     * connection.
+     */
+    private class Completion implements BiConsumer
+    {
+        private final LDAPMessage request;
+        private final CanonicalDN dn;
+        private final CanonicalDN newDN;
+        private final int connection;
+
+        private Completion(LDAPMessage request, CanonicalDN dn,
+                           CanonicalDN newDN, int connection)
+        {
+            this.request = request;
+            this.dn = dn;
+            this.newDN = newDN;
+            this.connection = connection;
+            return;
+        }
+
+        public void accept(Object response, Object ex)
+        {
+            String reason = null;
+            if( ex != null) {
+                reason = ex.toString();
+            } else {
+                int code = ((LDAPResponse)response).getResultCode();
+                if( code != LDAPException.SUCCESS) {
+                    String msg = ((LDAPResponse)response).getErrorMessage();
+                    reason = LDAPException.resultCodeToString(code) +
+                        " (" + code + ")" +
+                        (((msg == null) || (msg.length() == 0)) ?
+                                                        "" : ": " + msg);
+                }
+            }
+            if( reason != null) {
+                rejects.add(new Object[] { request, reason });
+            }
+            synchronized( BulkLoader.this) {
+                outstanding[connection]--;
+                total--;
+                completed++;
+                if( reason != null) {
+                    failed++;
+                }
+                if( dn != null) {
+                    pending.remove(dn);
+                }
+                if( newDN != null) {
+                    pending.remove(newDN);
+                }
+                BulkLoader.this.notifyAll();
+            }
+            return;
+        }
+    }
+}
@@ -1,9 +1,18 @@
 package com.novell.ldap.util;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
+/**
+ * An attribute value, compared by content.
+ *
+ * <p>The hash code is computed from the bytes on first use and cached, so
+ * the array returned by getValue must not be modified once the value has
+ * been added to an attribute.</p>
+ */
 public class ByteArray {
     byte[] value;
+    private int hash; // cached hash code, 0 if not yet computed
 
     public ByteArray(byte[] value) {
         this.value = value;
@@ -31,18 +40,26 @@ public class ByteArray {
             if (ba.value.length != value.length) {
                 return false;
             }
-
-            for (int i = 0;i < value.length;i++) {
-                if (this.value[i] != ba.value[i]) {
-                    return false;
-                }
+            // Both hashes known and different, the contents differ
+            if (hash != 0 && ba.hash != 0 && hash != ba.hash) {
+                return false;
             }
 
-            return true;
+            return Arrays.equals(this.value, ba.value);
         }
 
     }
 
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(value);
+            hash = h;
+        }
+        return h;
+    }
+
     @Override
     public String toString() {
         try {
@@ -0,0 +1,326 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * An immutable distinguished name in a canonical form, for use as a key in
+ * hash tables and indexes.
+ *
+ * <p>A CanonicalDN is its leftmost RDN and a reference to its parent, so
+ * the DNs of entries under the same container can share their parent
+ * objects; a {@link DNPool} makes them do so.  Its hash code is computed
+ * once, as it is constructed, and its string form the first time it is
+ * asked for.  Two CanonicalDN objects are equal if they name the same
+ * entry, which is decided by comparing RDN strings from the leaf up,
+ * stopping at the first shared parent.  isDescendantOf needs only to
+ * step up to the depth of the container and compare.</p>
+ *
+ * <p>In the canonical form attribute types and values are folded to lower
+ * case, the values of a multivalued RDN are sorted, and the characters
+ * special in a DN are escaped with a backslash.  Two DNs are therefore
+ * equal as CanonicalDN objects exactly when they are equal as DN objects,
+ * except that a type given as an OID never equals one given as a name,
+ * where DN.equals throws an exception.  As values are folded to lower
+ * case, the canonical form is a key rather than a name for display.</p>
+ *
+ * @see DN
+ * @see DNPool
+ * @see DNIndex
+ */
+public final class CanonicalDN
+{
+    /**
+     * The empty DN, naming the root of the directory tree.  It is the
+     * parent of every DN of one RDN.
+     */
+    public static final CanonicalDN ROOT = new CanonicalDN(null, "");
+
+    private final CanonicalDN parent;   // null only for ROOT
+    private final String rdn;           // canonical leftmost RDN
+    private final int depth;
+    private final int hash;
+    private volatile String string = null;
+
+    /* package */
+    CanonicalDN(CanonicalDN parent, String rdn)
+    {
+        this.parent = parent;
+        this.rdn = rdn;
+        if( parent == null) {
+            this.depth = 0;
+            this.hash = 0;
+        } else {
+            this.depth = parent.depth + 1;
+            this.hash = 31 * parent.hash + rdn.hashCode();
+        }
+        return;
+    }
+
+    /**
+     * Returns the CanonicalDN of a DN string.
+     *
+     * @param dn A DN in the syntax of RFC 2253.
+     *
+     * @return the canonical form of dn.
+     *
+     * @exception IllegalArgumentException dn is not a valid DN.
+     */
+    public static CanonicalDN valueOf(String dn)
+    {
+        return valueOf(new DN(dn), null);
+    }
+
+    /**
+     * Returns the CanonicalDN of a DN.
+     *
+     * @param dn The DN.
+     *
+     * @return the canonical form of dn.
+     */
+    public static CanonicalDN valueOf(DN dn)
+    {
+        return valueOf(dn, null);
+    }
+
+    /*
+     * Builds the DN from the root down, taking each level from pool if
+     * it is not null.
+     */
+    /* package */
+    static CanonicalDN valueOf(DN dn, DNPool pool)
+    {
+        Vector rdns = dn.getRDNs();
+        CanonicalDN node = ROOT;
+        for( int i = rdns.size() - 1; i >= 0; i--) {
+            String rdn = canonicalRDN((RDN)rdns.get(i));
+            node = (pool == null) ? new CanonicalDN(node, rdn) :
+                                    pool.child(node, rdn);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the DN of a child of this DN.
+     *
+     * @param rdn The RDN of the child, in the syntax of RFC 2253.
+     *
+     * @return the child DN.
+     *
+     * @exception IllegalArgumentException rdn is not a valid RDN.
+     */
+    public CanonicalDN getChild(String rdn)
+    {
+        return new CanonicalDN(this, canonicalRDN(new RDN(rdn)));
+    }
+
+    /**
+     * Returns the parent of this DN.
+     *
+     * @return the DN with the leftmost RDN removed, or null for ROOT.
+     */
+    public CanonicalDN getParent()
+    {
+        return parent;
+    }
+
+    /**
+     * Returns the leftmost RDN of this DN, in the canonical form.
+     *
+     * @return the RDN, or an empty string for ROOT.
+     */
+    public String getRDN()
+    {
+        return rdn;
+    }
+
+    /**
+     * Returns the number of RDNs in this DN.
+     *
+     * @return the number of RDNs, 0 for ROOT.
+     */
+    public int countRDNs()
+    {
+        return depth;
+    }
+
+    /**
+     * Determines if this DN is below another in the directory tree.  As
+     * with DN.isDescendantOf, a DN is not a descendant of itself.
+     *
+     * @param containerDN The DN of a container.
+     *
+     * @return true if containerDN contains this DN.
+     */
+    public boolean isDescendantOf(CanonicalDN containerDN)
+    {
+        if( containerDN.depth >= depth) {
+            return false;
+        }
+        CanonicalDN node = this;
+        while( node.depth > containerDN.depth) {
+            node = node.parent;
+        }
+        return node.equals(containerDN);
+    }
+
+    /**
+     * Compares this DN to an object.
+     *
+     * @param obj The object to compare to.
+     *
+     * @return true if obj is a CanonicalDN naming the same entry.
+     */
+    public boolean equals(Object obj)
+    {
+        if( obj == this) {
+            return true;
+        }
+        if( !(obj instanceof CanonicalDN)) {
+            return false;
+        }
+        CanonicalDN a = this;
+        CanonicalDN b = (CanonicalDN)obj;
+        if( (a.hash != b.hash) || (a.depth != b.depth)) {
+            return false;
+        }
+        // Both chains end at ROOT, so stop at the first shared parent
+        while( a != b) {
+            if( !a.rdn.equals(b.rdn)) {
+                return false;
+            }
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the hash code of this DN, computed as it was constructed.
+     *
+     * @return the hash code.
+     */
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /**
+     * Returns the canonical string form of this DN.
+     *
+     * @return the DN string, empty for ROOT.
+     */
+    public String toString()
+    {
+        String s = string;
+        if( s == null) {
+            if( depth == 0) {
+                s = "";
+            } else {
+                StringBuffer buf = new StringBuffer(rdn);
+                for( CanonicalDN p = parent; p.depth > 0; p = p.parent) {
+                    buf.append(',');
+                    buf.append(p.rdn);
+                }
+                s = buf.toString();
+            }
+            string = s;
+        }
+        return s;
+    }
+
+    /*
+     * Returns the canonical form of an RDN.
+     */
+    /* package */
+    static String canonicalRDN(RDN rdn)
+    {
+        String[] types = rdn.getTypes();
+        String[] values = rdn.getValues();
+        String[] avas = new String[types.length];
+        for( int i = 0; i < avas.length; i++) {
+            StringBuffer buf = new StringBuffer();
+            buf.append(fold(types[i]));
+            buf.append('=');
+            escape(fold(values[i]), buf);
+            avas[i] = buf.toString();
+        }
+        if( avas.length == 1) {
+            return avas[0];
+        }
+        Arrays.sort(avas);
+        StringBuffer buf = new StringBuffer(avas[0]);
+        for( int i = 1; i < avas.length; i++) {
+            buf.append('+');
+            buf.append(avas[i]);
+        }
+        return buf.toString();
+    }
+
+    /*
+     * Folds a string as equalsIgnoreCase compares it.
+     */
+    private static String fold(String s)
+    {
+        int i = 0;
+        for( ; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if( ((c >= 'A') && (c <= 'Z')) || (c >= 0x80)) {
+                break;
+            }
+        }
+        if( i == s.length()) {
+            return s;
+        }
+        char[] chars = s.toCharArray();
+        for( ; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /*
+     * Appends a value, escaping the characters special in a DN so that
+     * the canonical form of every RDN is different.
+     */
+    private static void escape(String value, StringBuffer buf)
+    {
+        int last = value.length() - 1;
+        for( int i = 0; i <= last; i++) {
+            char c = value.charAt(i);
+            switch( c) {
+                case ',': case '+': case '"': case '\\': case '<': case '>':
+                case ';': case '=':
+                    buf.append('\\');
+                    break;
+                case '#':
+                    if( i == 0) {
+                        buf.append('\\');
+                    }
+                    break;
+                case ' ':
+                    if( (i == 0) || (i == last)) {
+                        buf.append('\\');
+                    }
+                    break;
+            }
+            buf.append(c);
+        }
+        return;
+    }
+}
@@ -0,0 +1,740 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.util.Iterator;
+import java.util.Vector;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSchema;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMatchingRuleSchema;
+import com.novell.ldap.LDAPSchema;
+import com.novell.ldap.asn1.ASN1Boolean;
+import com.novell.ldap.asn1.ASN1Object;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Structured;
+import com.novell.ldap.asn1.ASN1Tagged;
+import com.novell.ldap.rfc2251.RfcFilter;
+
+/**
+ * A search filter compiled for evaluation against LDAPEntry objects in the
+ * client, without a server.
+ *
+ * <p>The filter is compiled once into a tree of predicates, with each
+ * attribute description, matching rule and assertion value resolved and
+ * prepared.  The compiled filter is immutable, so may be kept and used by
+ * any number of threads.  Evaluating it does not create objects for entries
+ * whose values are printable ASCII strings, octet strings or integers.</p>
+ *
+ * <p>All filter items are supported.  Each is evaluated as RFC 4511
+ * describes, to TRUE, FALSE or Undefined, and an entry matches only if the
+ * whole filter is TRUE.  Without a schema every attribute is compared with
+ * caseIgnoreMatch, caseIgnoreOrderingMatch and caseIgnoreSubstringsMatch.
+ * With a schema, attribute names are resolved with their aliases, and
+ * each attribute is compared with the matching rules its type, or the
+ * types it is derived from, specifies.  An item for an attribute type
+ * not in the schema, or without a matching rule of the kind it needs, is
+ * Undefined.</p>
+ *
+ * <p>The standard string, numeric string, telephone number, integer,
+ * octet string and distinguished name matching rules are supported.
+ * Other matching rules given by a schema are evaluated as caseIgnoreMatch;
+ * an extensible match naming an unsupported rule is Undefined.
+ * Approximate matches compare strings ignoring case and all white
+ * space.  Attribute descriptions with options only match attributes with
+ * exactly the same options.</p>
+ *
+ * <p>The following code selects the person entries from a search:
+ * <pre><code>
+ *   CompiledFilter people = new CompiledFilter("(objectClass=person)");
+ *   while( results.hasMore()) {
+ *       LDAPEntry entry = results.next();
+ *       if( people.matches(entry)) {
+ *           ...
+ *       }
+ *   }
+ * </code></pre></p>
+ *
+ * @see LDAPSchema
+ */
+public final class CompiledFilter
+{
+    /* The results of evaluating a filter item, as in RFC 4511 */
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+    private static final int UNDEFINED = 2;
+
+    /* The kinds of matching rule for an attribute type */
+    private static final int EQUALITY = 0;
+    private static final int ORDERING = 1;
+    private static final int SUBSTRING = 2;
+
+    /* An item which is always Undefined */
+    private static final Node UNDEFINED_ITEM = new Node() {
+        int evaluate(LDAPEntry entry)
+        {
+            return UNDEFINED;
+        }
+    };
+
+    private final RfcFilter filter;
+    private final LDAPSchema schema;
+    private final Node root;
+
+    /**
+     * Compiles a string filter, comparing all attributes as strings
+     * ignoring case.
+     *
+     * @param filter The filter, as described in RFC 2254.
+     *
+     * @exception LDAPException The filter is not valid.
+     */
+    public CompiledFilter(String filter)
+            throws LDAPException
+    {
+        this(new RfcFilter(filter), null);
+        return;
+    }
+
+    /**
+     * Compiles a string filter, using the matching rules of a schema.
+     *
+     * @param filter The filter, as described in RFC 2254.
+     *<br><br>
+     * @param schema The schema of the entries to be matched, or null.
+     *
+     * @exception LDAPException The filter is not valid.
+     */
+    public CompiledFilter(String filter, LDAPSchema schema)
+            throws LDAPException
+    {
+        this(new RfcFilter(filter), schema);
+        return;
+    }
+
+    /**
+     * Compiles a filter, comparing all attributes as strings ignoring
+     * case.
+     *
+     * @param filter The filter.
+     */
+    public CompiledFilter(RfcFilter filter)
+    {
+        this(filter, null);
+        return;
+    }
+
+    /**
+     * Compiles a filter, using the matching rules of a schema.
+     *
+     * @param filter The filter.
+     *<br><br>
+     * @param schema The schema of the entries to be matched, or null.
+     */
+    public CompiledFilter(RfcFilter filter, LDAPSchema schema)
+    {
+        if( filter == null) {
+            throw new IllegalArgumentException("The filter cannot be null");
+        }
+        this.filter = filter;
+        this.schema = schema;
+        this.root = compile((ASN1Tagged)filter.choiceValue());
+        return;
+    }
+
+    /**
+     * Returns true if the filter is TRUE for an entry.
+     *
+     * @param entry The entry to evaluate the filter against.
+     *
+     * @return true if the entry matches the filter, false if the filter
+     * is FALSE or Undefined for the entry.
+     */
+    public boolean matches(LDAPEntry entry)
+    {
+        if( entry == null) {
+            throw new IllegalArgumentException("The entry cannot be null");
+        }
+        return root.evaluate(entry) == TRUE;
+    }
+
+    /**
+     * Returns the filter compiled.
+     *
+     * @return the filter.
+     */
+    public RfcFilter getFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * Returns the string representation of the filter.
+     */
+    public String toString()
+    {
+        return filter.filterToString();
+    }
+
+    //*************************************************************************
+    // Compilation
+    //*************************************************************************
+
+    private Node compile(ASN1Tagged item)
+    {
+        int type = item.getIdentifier().getTag();
+        ASN1Object value = item.taggedValue();
+        switch( type) {
+            case RfcFilter.AND:
+            case RfcFilter.OR: {
+                ASN1Structured set = (ASN1Structured)value;
+                Node[] nodes = new Node[set.size()];
+                for( int i = 0; i < nodes.length; i++) {
+                    nodes[i] = compile((ASN1Tagged)set.get(i));
+                }
+                return new Junction(type == RfcFilter.AND, nodes);
+            }
+            case RfcFilter.NOT:
+                return new Not(compile((ASN1Tagged)value));
+            case RfcFilter.PRESENT:
+                return new Present(
+                            attribute(((ASN1OctetString)value).stringValue()));
+            case RfcFilter.EQUALITY_MATCH:
+            case RfcFilter.GREATER_OR_EQUAL:
+            case RfcFilter.LESS_OR_EQUAL:
+            case RfcFilter.APPROX_MATCH: {
+                ASN1Structured ava = (ASN1Structured)value;
+                String desc = ((ASN1OctetString)ava.get(0)).stringValue();
+                byte[] assertion = ((ASN1OctetString)ava.get(1)).byteValue();
+                Attribute attr = attribute(desc);
+                MatchingRule rule = rule(attr,
+                        ((type == RfcFilter.GREATER_OR_EQUAL) ||
+                         (type == RfcFilter.LESS_OR_EQUAL)) ? ORDERING : EQUALITY);
+                if( rule == null) {
+                    return UNDEFINED_ITEM;
+                }
+                if( type == RfcFilter.APPROX_MATCH) {
+                    rule = rule.approximate();
+                } else if( (type != RfcFilter.EQUALITY_MATCH) &&
+                           ! rule.hasOrdering()) {
+                    return UNDEFINED_ITEM;
+                }
+                Object prepared = rule.prepare(assertion);
+                if( prepared == null) {
+                    return UNDEFINED_ITEM;
+                }
+                if( type == RfcFilter.GREATER_OR_EQUAL) {
+                    return new Ordering(attr, rule, prepared, true);
+                }
+                if( type == RfcFilter.LESS_OR_EQUAL) {
+                    return new Ordering(attr, rule, prepared, false);
+                }
+                return new Equality(attr, rule, prepared);
+            }
+            case RfcFilter.SUBSTRINGS: {
+                ASN1Structured sub = (ASN1Structured)value;
+                Attribute attr = attribute(
+                                ((ASN1OctetString)sub.get(0)).stringValue());
+                MatchingRule rule = rule(attr, SUBSTRING);
+                if( (rule == null) || ! rule.hasSubstrings()) {
+                    return UNDEFINED_ITEM;
+                }
+                ASN1Structured parts = (ASN1Structured)sub.get(1);
+                byte[] initial = null;
+                byte[] last = null;
+                Vector any = new Vector();
+                for( int i = 0; i < parts.size(); i++) {
+                    ASN1Tagged part = (ASN1Tagged)parts.get(i);
+                    byte[] component = rule.prepareSubstring(
+                            ((ASN1OctetString)part.taggedValue()).byteValue());
+                    switch( part.getIdentifier().getTag()) {
+                        case RfcFilter.INITIAL:
+                            initial = component;
+                            break;
+                        case RfcFilter.ANY:
+                            any.add(component);
+                            break;
+                        case RfcFilter.FINAL:
+                            last = component;
+                            break;
+                    }
+                }
+                byte[][] anyParts = new byte[any.size()][];
+                any.copyInto(anyParts);
+                return new Substrings(attr, rule, initial, anyParts, last);
+            }
+            case RfcFilter.EXTENSIBLE_MATCH:
+                return extensible((ASN1Structured)value);
+            default:
+                return UNDEFINED_ITEM;
+        }
+    }
+
+    /*
+     * Compiles a MatchingRuleAssertion.
+     */
+    private Node extensible(ASN1Structured mra)
+    {
+        String ruleName = null;
+        String desc = null;
+        byte[] assertion = null;
+        boolean dnAttributes = false;
+        for( int i = 0; i < mra.size(); i++) {
+            ASN1Tagged part = (ASN1Tagged)mra.get(i);
+            ASN1Object content = part.taggedValue();
+            switch( part.getIdentifier().getTag()) {
+                case 1:
+                    ruleName = ((ASN1OctetString)content).stringValue();
+                    break;
+                case 2:
+                    desc = ((ASN1OctetString)content).stringValue();
+                    break;
+                case 3:
+                    assertion = ((ASN1OctetString)content).byteValue();
+                    break;
+                case 4:
+                    if( content instanceof ASN1Boolean) {
+                        dnAttributes = ((ASN1Boolean)content).booleanValue();
+                    } else {
+                        byte[] b = ((ASN1OctetString)content).byteValue();
+                        dnAttributes = (b.length > 0) && (b[0] != 0);
+                    }
+                    break;
+            }
+        }
+        Attribute attr = (desc == null) ? null : attribute(desc);
+        MatchingRule rule;
+        if( ruleName != null) {
+            rule = lookupRule(ruleName);
+        } else if( attr != null) {
+            rule = rule(attr, EQUALITY);
+        } else {
+            rule = null;
+        }
+        if( (rule == null) || (assertion == null)) {
+            return UNDEFINED_ITEM;
+        }
+        Object prepared = rule.prepare(assertion);
+        if( prepared == null) {
+            return UNDEFINED_ITEM;
+        }
+        return new Extensible(attr, rule, prepared, dnAttributes);
+    }
+
+    /*
+     * Resolves an attribute description to the names it may have in an
+     * entry.
+     */
+    private Attribute attribute(String desc)
+    {
+        String base = desc;
+        String options = "";
+        int semi = desc.indexOf(';');
+        if( semi >= 0) {
+            base = desc.substring(0, semi);
+            options = desc.substring(semi);
+        }
+        LDAPAttributeSchema type = null;
+        String[] names = null;
+        if( schema != null) {
+            type = schema.getAttributeSchema(base);
+            if( type != null) {
+                names = type.getNames();
+            }
+        }
+        Vector all = new Vector();
+        all.add(upper(desc));
+        if( names != null) {
+            for( int i = 0; i < names.length; i++) {
+                String name = upper(names[i] + options);
+                if( ! all.contains(name)) {
+                    all.add(name);
+                }
+            }
+        }
+        String[] upperNames = new String[all.size()];
+        all.copyInto(upperNames);
+        return new Attribute(upperNames, type, (schema != null) && (type == null));
+    }
+
+    /*
+     * Returns the matching rule of a kind for an attribute, or null if the
+     * item using it is Undefined.
+     */
+    private MatchingRule rule(Attribute attr, int kind)
+    {
+        if( schema == null) {
+            return MatchingRule.DEFAULT;
+        }
+        LDAPAttributeSchema type = attr.type;
+        // Guard against a loop of superiors in a broken schema
+        for( int depth = 0; (type != null) && (depth < 16); depth++) {
+            String name;
+            switch( kind) {
+                case ORDERING:
+                    name = type.getOrderingMatchingRule();
+                    break;
+                case SUBSTRING:
+                    name = type.getSubstringMatchingRule();
+                    break;
+                default:
+                    name = type.getEqualityMatchingRule();
+                    break;
+            }
+            if( name != null) {
+                MatchingRule rule = lookupRule(name);
+                return (rule == null) ? MatchingRule.DEFAULT : rule;
+            }
+            String superior = type.getSuperior();
+            type = (superior == null) ? null :
+                                        schema.getAttributeSchema(superior);
+        }
+        return null;
+    }
+
+    /*
+     * Returns the supported rule with a name or OID, or null.
+     */
+    private MatchingRule lookupRule(String name)
+    {
+        MatchingRule rule = MatchingRule.forName(name);
+        if( (rule == null) && (schema != null)) {
+            LDAPMatchingRuleSchema ruleSchema =
+                                    schema.getMatchingRuleSchema(name);
+            if( ruleSchema != null) {
+                rule = MatchingRule.forName(ruleSchema.getID());
+                String[] names = ruleSchema.getNames();
+                for( int i = 0; (rule == null) && (names != null) &&
+                                (i < names.length); i++) {
+                    rule = MatchingRule.forName(names[i]);
+                }
+            }
+        }
+        return rule;
+    }
+
+    private static String upper(String name)
+    {
+        // As LDAPAttributeSet does, so its lookup returns the same string
+        return name.toUpperCase();
+    }
+
+    //*************************************************************************
+    // Evaluation
+    //*************************************************************************
+
+    /*
+     * The names an attribute may have in an entry, in upper case so that
+     * LDAPAttributeSet need not convert them.
+     */
+    private static final class Attribute
+    {
+        final String[] names;
+        final LDAPAttributeSchema type;  // null if there is no schema
+        final boolean unknown;           // not in the schema
+
+        Attribute(String[] names, LDAPAttributeSchema type, boolean unknown)
+        {
+            this.names = names;
+            this.type = type;
+            this.unknown = unknown;
+            return;
+        }
+
+        /* Returns the values of the attribute in entry, or null */
+        Iterator values(LDAPEntry entry)
+        {
+            for( int i = 0; i < names.length; i++) {
+                LDAPAttribute attr = entry.getAttribute(names[i]);
+                if( (attr != null) && (attr.getAllValues() != null)) {
+                    return attr.getAllValues().iterator();
+                }
+            }
+            return null;
+        }
+    }
+
+    /*
+     * A filter item or set of items.
+     */
+    private abstract static class Node
+    {
+        /* Returns TRUE, FALSE or UNDEFINED */
+        abstract int evaluate(LDAPEntry entry);
+    }
+
+    private static final class Junction extends Node
+    {
+        private final boolean and;
+        private final Node[] nodes;
+
+        Junction(boolean and, Node[] nodes)
+        {
+            this.and = and;
+            this.nodes = nodes;
+            return;
+        }
+
+        int evaluate(LDAPEntry entry)
+        {
+            // An AND is FALSE if any item is, an OR TRUE if any item is
+            int decisive = and ? FALSE : TRUE;
+            int result = and ? TRUE : FALSE;
+            for( int i = 0; i < nodes.length; i++) {
+                int r = nodes[i].evaluate(entry);
+                if( r == decisive) {
+                    return r;
+                }
+                if( r == UNDEFINED) {
+                    result = UNDEFINED;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Not extends Node
+    {
+        private final Node node;
+
+        Not(Node node)
+        {
+            this.node = node;
+            return;
+        }
+
+        int evaluate(LDAPEntry entry)
+        {
+            int r = node.evaluate(entry);
+            return (r == UNDEFINED) ? UNDEFINED : (r == TRUE) ? FALSE : TRUE;
+        }
+    }
+
+    private static final class Present extends Node
+    {
+        private final Attribute attr;
+
+        Present(Attribute attr)
+        {
+            this.attr = attr;
+            return;
+        }
+
+        int evaluate(LDAPEntry entry)
+        {
+            for( int i = 0; i < attr.names.length; i++) {
+                if( entry.getAttribute(attr.names[i]) != null) {
+                    return TRUE;
+                }
+            }
+            return FALSE;
+        }
+    }
+
+    private static final class Equality extends Node
+    {
+        private final Attribute attr;
+        private final MatchingRule rule;
+        private final Object assertion;
+
+        Equality(Attribute attr, MatchingRule rule, Object assertion)
+        {
+            this.attr = attr;
+            this.rule = rule;
+            this.assertion = assertion;
+            return;
+        }
+
+        int evaluate(LDAPEntry entry)
+        {
+            Iterator values = attr.values(entry);
+            if( values == null) {
+                return attr.unknown ? UNDEFINED : FALSE;
+            }
+            while( values.hasNext()) {
+                if( rule.equal(((ByteArray)values.next()).getValue(),
+                               assertion)) {
+                    return TRUE;
+                }
+            }
+            return FALSE;
+        }
+    }
+
+    private static final class Ordering extends Node
+    {
+        private final Attribute attr;
+        private final MatchingRule rule;
+        private final Object assertion;
+        private final boolean greater;   // >= rather than <=
+
+        Ordering(Attribute attr, MatchingRule rule, Object assertion,
+                 boolean greater)
+        {
+            this.attr = attr;
+            this.rule = rule;
+            this.assertion = assertion;
+            this.greater = greater;
+            return;
+        }
+
+        int evaluate(LDAPEntry entry)
+        {
+            Iterator values = attr.values(entry);
+            if( values == null) {
+                return attr.unknown ? UNDEFINED : FALSE;
+            }
+            while( values.hasNext()) {
+                int c = rule.compare(((ByteArray)values.next()).getValue(),
+                                     assertion);
+                if( (c != Integer.MIN_VALUE) &&
+                    (greater ? (c >= 0) : (c <= 0))) {
+                    return TRUE;
+                }
+            }
+            return FALSE;
+        }
+    }
+
+    private static final class Substrings extends Node
+    {
+        private final Attribute attr;
+        private final MatchingRule rule;
+        private final byte[] initial;
+        private final byte[][] any;
+        private final byte[] last;
+
+        Substrings(Attribute attr, MatchingRule rule, byte[] initial,
+                   byte[][] any, byte[] last)
+        {
+            this.attr = attr;
+            this.rule = rule;
+            this.initial = initial;
+            this.any = any;
+            this.last = last;
+            return;
+        }
+
+        int evaluate(LDAPEntry entry)
+        {
+            Iterator values = attr.values(entry);
+            if( values == null) {
+                return attr.unknown ? UNDEFINED : FALSE;
+            }
+            while( values.hasNext()) {
+                if( rule.substrings(((ByteArray)values.next()).getValue(),
+                                    initial, any, last)) {
+                    return TRUE;
+                }
+            }
+            return FALSE;
+        }
+    }
+
+    private static final class Extensible extends Node
+    {
+        private final Attribute attr;     // null to match any attribute
+        private final MatchingRule rule;
+        private final Object assertion;
+        private final boolean dnAttributes;
+
+        Extensible(Attribute attr, MatchingRule rule, Object assertion,
+                   boolean dnAttributes)
+        {
+            this.attr = attr;
+            this.rule = rule;
+            this.assertion = assertion;
+            this.dnAttributes = dnAttributes;
+            return;
+        }
+
+        int evaluate(LDAPEntry entry)
+        {
+            if( attr != null) {
+                Iterator values = attr.values(entry);
+                if( (values == null) && attr.unknown) {
+                    return UNDEFINED;
+                }
+                if( matches(values)) {
+                    return TRUE;
+                }
+            } else {
+                Iterator attrs = entry.getAttributeSet().iterator();
+                while( attrs.hasNext()) {
+                    LDAPAttribute a = (LDAPAttribute)attrs.next();
+                    if( (a.getAllValues() != null) &&
+                        matches(a.getAllValues().iterator())) {
+                        return TRUE;
+                    }
+                }
+            }
+            if( dnAttributes && (entry.getDN() != null)) {
+                return matchesDN(entry.getDN()) ? TRUE : FALSE;
+            }
+            return FALSE;
+        }
+
+        private boolean matches(Iterator values)
+        {
+            while( (values != null) && values.hasNext()) {
+                if( rule.equal(((ByteArray)values.next()).getValue(),
+                               assertion)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /* Matches the attribute values in the RDNs of a DN */
+        private boolean matchesDN(String dnString)
+        {
+            DN dn;
+            try {
+                dn = new DN(dnString);
+            } catch( IllegalArgumentException e) {
+                return false;
+            }
+            Vector rdns = dn.getRDNs();
+            for( int i = 0; i < rdns.size(); i++) {
+                RDN rdn = (RDN)rdns.get(i);
+                String[] types = rdn.getTypes();
+                String[] values = rdn.getValues();
+                for( int j = 0; j < types.length; j++) {
+                    if( (attr != null) && ! isName(types[j])) {
+                        continue;
+                    }
+                    if( rule.equal(new ByteArray(values[j]).getValue(),
+                                   assertion)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean isName(String type)
+        {
+            for( int i = 0; i < attr.names.length; i++) {
+                if( attr.names[i].equalsIgnoreCase(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -592,6 +592,41 @@ public class DN extends Object
         return true;
     }
 
+    /**
+     * Compares this DN to an object, as equals(DN) does.
+     *
+     * @param   obj the object to compare to
+     * @return  <code>true</code> if obj is a DN equal to this DN;
+     *          <code>false</code> if it is not, or the DNs give an
+     *          attribute type as an OID in one and a name in the other.
+     */
+    public boolean equals( Object obj ){
+        if (obj == this)
+            return true;
+        if (!(obj instanceof DN))
+            return false;
+        try {
+            return equals( (DN)obj );
+        } catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * Returns a hash code consistent with equals, so that a DN may be used
+     * as a key in a hash table.  The hash code is computed on each call,
+     * since a DN may be changed; use CanonicalDN for a key which caches it.
+     *
+     * @return  a hash code for this DN
+     * @see CanonicalDN
+     */
+    public int hashCode(){
+        int hash = 0;
+        for (int i=0; i<rdnList.size(); i++)
+            hash = 31 * hash + rdnList.get(i).hashCode();
+        return hash;
+    }
+
     /**
      * return a string array of the individual RDNs contained in the DN
      *
@@ -0,0 +1,377 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An index of values by DN, arranged as the directory tree.
+ *
+ * <p>Each DN in the index is a node with its parent, up to ROOT, so the
+ * index can answer questions about subtrees as well as about single DNs.
+ * Finding a DN's node takes time proportional to the number of its RDNs,
+ * and each node keeps the number of entries below it.  So counting the
+ * entries in a subtree or one level under a DN, or finding the nearest
+ * entry containing a DN, takes time proportional to the depth of the DN,
+ * however many entries the index holds.  Listing a subtree or one level
+ * takes time proportional to the number of entries listed.</p>
+ *
+ * <p>Container DNs with no value of their own are kept only while there
+ * are entries below them, and are not themselves entries of the index.
+ * The index uses the DNs it is given for its nodes, so those from a
+ * DNPool are shared with the application rather than copied.</p>
+ *
+ * <p>Like java.util.HashMap, a DNIndex is not synchronized, and must not
+ * be changed while a list from it is in use.</p>
+ *
+ * @see CanonicalDN
+ */
+public class DNIndex
+{
+    private final HashMap nodes = new HashMap();
+    private final Node root = new Node(CanonicalDN.ROOT, null);
+
+    /*
+     * A DN in the tree, with or without a value.
+     */
+    private static final class Node
+    {
+        final CanonicalDN dn;
+        final Node parent;
+        HashMap children = null;    // CanonicalDN to Node, created when needed
+        boolean present = false;    // whether the DN is an entry
+        Object value = null;
+        int subtree = 0;            // entries in the subtree, including this
+        int childCount = 0;         // entries one level below
+
+        Node(CanonicalDN dn, Node parent)
+        {
+            this.dn = dn;
+            this.parent = parent;
+            return;
+        }
+    }
+
+    /**
+     * Constructs an empty index.
+     */
+    public DNIndex()
+    {
+        nodes.put(CanonicalDN.ROOT, root);
+        return;
+    }
+
+    /**
+     * Associates a value with a DN.
+     *
+     * @param dn    The DN.
+     *<br><br>
+     * @param value The value, which may be null.
+     *
+     * @return the value previously associated with dn, or null.
+     */
+    public Object put(CanonicalDN dn, Object value)
+    {
+        Node node = (Node)nodes.get(dn);
+        if( node == null) {
+            node = create(dn);
+        }
+        Object old = node.value;
+        node.value = value;
+        if( !node.present) {
+            node.present = true;
+            if( node.parent != null) {
+                node.parent.childCount++;
+            }
+            for( Node n = node; n != null; n = n.parent) {
+                n.subtree++;
+            }
+        }
+        return old;
+    }
+
+    /*
+     * Creates the node of a DN not in the tree, and any of its parents
+     * missing.
+     */
+    private Node create(CanonicalDN dn)
+    {
+        Node parent = (Node)nodes.get(dn.getParent());
+        if( parent == null) {
+            parent = create(dn.getParent());
+        }
+        Node node = new Node(dn, parent);
+        if( parent.children == null) {
+            parent.children = new HashMap(4);
+        }
+        parent.children.put(dn, node);
+        nodes.put(dn, node);
+        return node;
+    }
+
+    /**
+     * Returns the value associated with a DN.
+     *
+     * @param dn The DN.
+     *
+     * @return the value, or null if dn is not in the index.
+     */
+    public Object get(CanonicalDN dn)
+    {
+        Node node = (Node)nodes.get(dn);
+        return (node == null) ? null : node.value;
+    }
+
+    /**
+     * Determines whether a DN is in the index.
+     *
+     * @param dn The DN.
+     *
+     * @return true if a value has been put for dn and not removed.
+     */
+    public boolean containsKey(CanonicalDN dn)
+    {
+        Node node = (Node)nodes.get(dn);
+        return (node != null) && node.present;
+    }
+
+    /**
+     * Removes a DN from the index.  Entries below it are not removed.
+     *
+     * @param dn The DN.
+     *
+     * @return the value associated with dn, or null.
+     */
+    public Object remove(CanonicalDN dn)
+    {
+        Node node = (Node)nodes.get(dn);
+        if( (node == null) || !node.present) {
+            return null;
+        }
+        Object old = node.value;
+        node.value = null;
+        node.present = false;
+        if( node.parent != null) {
+            node.parent.childCount--;
+        }
+        for( Node n = node; n != null; n = n.parent) {
+            n.subtree--;
+        }
+        // Drop containers left with nothing below them
+        while( (node != root) && (node.subtree == 0)) {
+            node.parent.children.remove(node.dn);
+            nodes.remove(node.dn);
+            node = node.parent;
+        }
+        return old;
+    }
+
+    /**
+     * Returns the number of DNs in the index.
+     *
+     * @return the number of entries.
+     */
+    public int size()
+    {
+        return root.subtree;
+    }
+
+    /**
+     * Removes every DN from the index.
+     */
+    public void clear()
+    {
+        nodes.clear();
+        root.children = null;
+        root.present = false;
+        root.value = null;
+        root.subtree = 0;
+        root.childCount = 0;
+        nodes.put(CanonicalDN.ROOT, root);
+        return;
+    }
+
+    /**
+     * Returns the number of entries in a subtree, including its base.
+     *
+     * @param base The base DN of the subtree.
+     *
+     * @return the number of entries at or below base.
+     */
+    public int countSubtree(CanonicalDN base)
+    {
+        Node node = (Node)nodes.get(base);
+        return (node == null) ? 0 : node.subtree;
+    }
+
+    /**
+     * Returns the number of entries immediately below a DN.
+     *
+     * @param base The DN.
+     *
+     * @return the number of entries one level below base.
+     */
+    public int countChildren(CanonicalDN base)
+    {
+        Node node = (Node)nodes.get(base);
+        return (node == null) ? 0 : node.childCount;
+    }
+
+    /**
+     * Determines whether there are entries below a DN.
+     *
+     * @param dn The DN.
+     *
+     * @return true if any entry in the index is a descendant of dn.
+     */
+    public boolean hasSubordinates(CanonicalDN dn)
+    {
+        Node node = (Node)nodes.get(dn);
+        return (node != null) && (node.subtree > (node.present ? 1 : 0));
+    }
+
+    /**
+     * Returns the nearest entry of the index containing a DN, which need
+     * not itself be in the index.
+     *
+     * @param dn The DN.
+     *
+     * @return the DN of the nearest ancestor of dn in the index, or null.
+     */
+    public CanonicalDN findAncestor(CanonicalDN dn)
+    {
+        // Find the deepest node of the tree above dn, then the nearest
+        // entry from there up
+        Node node = null;
+        for( CanonicalDN p = dn.getParent(); node == null; p = p.getParent()) {
+            if( p == null) {
+                return null;
+            }
+            node = (Node)nodes.get(p);
+        }
+        for( ; node != null; node = node.parent) {
+            if( node.present) {
+                return node.dn;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the DNs of the entries in a subtree, including its base.
+     *
+     * @param base The base DN of the subtree.
+     *
+     * @return an Iterator of the CanonicalDN objects at or below base,
+     * parents before their children.
+     */
+    public Iterator subtree(CanonicalDN base)
+    {
+        Node node = (Node)nodes.get(base);
+        return new Lister(node, true);
+    }
+
+    /**
+     * Lists the DNs of the entries immediately below a DN.
+     *
+     * @param base The DN.
+     *
+     * @return an Iterator of the CanonicalDN objects one level below base.
+     */
+    public Iterator children(CanonicalDN base)
+    {
+        Node node = (Node)nodes.get(base);
+        return new Lister(node, false);
+    }
+
+    /*
+     * Lists the entries of a subtree, depth first, or one level.
+     */
+    private static final class Lister implements Iterator
+    {
+        private final boolean subtree;
+        private final ArrayList stack = new ArrayList(); // of Iterators
+        private Node next;
+
+        Lister(Node base, boolean subtree)
+        {
+            this.subtree = subtree;
+            if( base != null) {
+                if( subtree && base.present) {
+                    next = base;
+                }
+                push(base);
+            }
+            if( next == null) {
+                advance();
+            }
+            return;
+        }
+
+        private void push(Node node)
+        {
+            if( (node.children != null) && (node.subtree > 0)) {
+                stack.add(node.children.values().iterator());
+            }
+            return;
+        }
+
+        private void advance()
+        {
+            next = null;
+            while( !stack.isEmpty()) {
+                Iterator i = (Iterator)stack.get(stack.size() - 1);
+                if( !i.hasNext()) {
+                    stack.remove(stack.size() - 1);
+                    continue;
+                }
+                Node node = (Node)i.next();
+                if( subtree) {
+                    push(node);
+                }
+                if( node.present) {
+                    next = node;
+                    return;
+                }
+            }
+            return;
+        }
+
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        public Object next()
+        {
+            if( next == null) {
+                throw new NoSuchElementException();
+            }
+            CanonicalDN dn = next.dn;
+            advance();
+            return dn;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException(
+                                    "DNIndex lists cannot be changed");
+        }
+    }
+}
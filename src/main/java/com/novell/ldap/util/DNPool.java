@@ -0,0 +1,136 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of CanonicalDN objects, so that equal DNs, and the parents they
+ * have in common, are the same object.
+ *
+ * <p>When many DNs are kept, most of them are the DNs of entries in a few
+ * containers.  Taking them from a pool keeps one object for each container
+ * and for each DN, instead of one for every level of every DN, and DNs
+ * from the same pool are compared by reference as soon as their parents
+ * are reached.</p>
+ *
+ * <p>A pool holds every DN it has returned until it is cleared or no
+ * longer referenced, so is best kept for a set of DNs with a known
+ * lifetime, such as the entries of one replica.  It may be used by any
+ * number of threads.</p>
+ *
+ * <p>The following code keeps one copy of each container DN:
+ * <pre><code>
+ *   DNPool pool = new DNPool();
+ *   CanonicalDN dn = pool.valueOf(entry.getDN());
+ * </code></pre></p>
+ *
+ * @see CanonicalDN
+ */
+public class DNPool
+{
+    private final ConcurrentHashMap pool = new ConcurrentHashMap();
+
+    /**
+     * Constructs an empty pool.
+     */
+    public DNPool()
+    {
+        return;
+    }
+
+    /**
+     * Returns the pooled CanonicalDN of a DN string.
+     *
+     * @param dn A DN in the syntax of RFC 2253.
+     *
+     * @return the pooled canonical form of dn.
+     *
+     * @exception IllegalArgumentException dn is not a valid DN.
+     */
+    public CanonicalDN valueOf(String dn)
+    {
+        return CanonicalDN.valueOf(new DN(dn), this);
+    }
+
+    /**
+     * Returns the pooled CanonicalDN of a DN.
+     *
+     * @param dn The DN.
+     *
+     * @return the pooled canonical form of dn.
+     */
+    public CanonicalDN valueOf(DN dn)
+    {
+        return CanonicalDN.valueOf(dn, this);
+    }
+
+    /**
+     * Returns the pooled DN equal to dn, adding it and its parents to the
+     * pool if they are not there.
+     *
+     * @param dn The DN.
+     *
+     * @return the DN in the pool equal to dn.
+     */
+    public CanonicalDN intern(CanonicalDN dn)
+    {
+        if( dn.countRDNs() == 0) {
+            return CanonicalDN.ROOT;
+        }
+        CanonicalDN pooled = (CanonicalDN)pool.get(dn);
+        if( pooled != null) {
+            return pooled;
+        }
+        CanonicalDN parent = intern(dn.getParent());
+        if( parent == dn.getParent()) {
+            pooled = (CanonicalDN)pool.putIfAbsent(dn, dn);
+            return (pooled == null) ? dn : pooled;
+        }
+        return child(parent, dn.getRDN());
+    }
+
+    /**
+     * Returns the pooled DN with an RDN under a pooled parent.
+     */
+    /* package */
+    CanonicalDN child(CanonicalDN parent, String rdn)
+    {
+        CanonicalDN dn = new CanonicalDN(parent, rdn);
+        CanonicalDN pooled = (CanonicalDN)pool.putIfAbsent(dn, dn);
+        return (pooled == null) ? dn : pooled;
+    }
+
+    /**
+     * Returns the number of DNs in the pool, including those only pooled
+     * as the parents of others.
+     *
+     * @return the number of DNs pooled.
+     */
+    public int size()
+    {
+        return pool.size();
+    }
+
+    /**
+     * Removes all DNs from the pool.  DNs already returned remain valid.
+     */
+    public void clear()
+    {
+        pool.clear();
+        return;
+    }
+}
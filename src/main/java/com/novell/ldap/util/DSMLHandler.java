@@ -744,6 +744,7 @@ private ArrayList errors = new ArrayList();
         if (dn == null) {
           throw new SAXException("DN is Mandatory in SearchResultEntry");
         }
+        break;
       case BATCH_REQUEST :
         {
           batchRequestID = attrs.getValue("requestID");
@@ -981,7 +982,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
           }
           break;
@@ -1007,7 +1008,7 @@ private ArrayList errors = new ArrayList();
           requestID = null;
           errorMessage = null;
           controls.clear();
-          queue.add(message);
+          queueMessage(message);
           break;
         case SEARCH_RESPONSE :
           state = BATCH_RESPONSE;
@@ -1041,7 +1042,7 @@ private ArrayList errors = new ArrayList();
           requestID = null;
           errorMessage = null;
           controls.clear();
-          queue.add(message);
+          queueMessage(message);
           break;
 
         case EXTENDED_RESPONSE_NAME :
@@ -1094,7 +1095,7 @@ private ArrayList errors = new ArrayList();
             message.setTag(requestID);
           }
           requestID = null;
-          queue.add(message);
+          queueMessage(message);
           state = BATCH_RESPONSE;
           controls.clear();
           break;
@@ -1133,7 +1134,7 @@ private ArrayList errors = new ArrayList();
           requestID = null;
           errorMessage = null;
           controls.clear();
-          queue.add(message);
+          queueMessage(message);
           break;
         case RESULT_CODE :
           //nothing to do.
@@ -1200,7 +1201,7 @@ private ArrayList errors = new ArrayList();
             message.setTag(requestID);
           }
           requestID = null;
-          queue.add(message);
+          queueMessage(message);
           break;
         case ATTRIBUTES :
           state = SEARCH_REQUEST;
@@ -1232,7 +1233,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1271,7 +1272,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1291,7 +1292,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1310,7 +1311,7 @@ private ArrayList errors = new ArrayList();
               message.setTag(requestID);
             }
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1343,7 +1344,7 @@ private ArrayList errors = new ArrayList();
             if (requestID != null)
               message.setTag(requestID);
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             controls.clear();
             break;
           }
@@ -1402,7 +1403,7 @@ private ArrayList errors = new ArrayList();
             if (requestID != null)
               message.setTag(requestID);
             requestID = null;
-            queue.add(message);
+            queueMessage(message);
             state = BATCH_REQUEST;
             controls.clear();
             break;
@@ -1770,6 +1771,19 @@ private ArrayList errors = new ArrayList();
   ArrayList getQueue() {
     return this.queue;
   }
+
+  /**
+   * Called as each message is completely parsed.  Adds the message to the
+   * queue returned by getQueue, unless overridden.
+   *
+   * @param message The message parsed.
+   * @exception org.xml.sax.SAXException to stop parsing.
+   */
+  /* package */
+  void queueMessage(LDAPMessage message) throws SAXException {
+    queue.add(message);
+    return;
+  }
   
   ArrayList getErrors() {
   	return this.errors;
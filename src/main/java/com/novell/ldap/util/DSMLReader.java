@@ -18,12 +18,16 @@ package com.novell.ldap.util;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.Cleaner;
 import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.parsers.SAXParser;
 
 import javax.xml.parsers.*;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
@@ -37,16 +41,34 @@ import com.novell.ldap.*;
  * readers, and returns LDAPMessages.  Note that some XML applications will have
  * DSML pre-parsed into DOM objects, in which case DOMReader should be used.</p>
  *
+ * <p>The document is parsed by a separate thread, which hands each message
+ * to readMessage as soon as its closing tag has been parsed.  At most a
+ * small, fixed number of parsed messages are held waiting to be read, so
+ * documents of any size can be read in constant memory.  A reader not read
+ * to the end should be closed; the parser of a reader dropped without
+ * being closed is stopped once the reader is garbage collected.</p>
+ *
  * @see DSMLWriter
  * @see DOMReader
  * @see LDAPMessage
  * @see com.novell.ldap.LDAPConnection#sendRequest
  */
 
-public class DSMLReader implements LDAPReader {
+public class DSMLReader implements LDAPReader, AutoCloseable {
+
+    /* Number of parsed messages held waiting for readMessage */
+    private static final int CAPACITY = 64;
+    /* Queued after the last message */
+    private static final Object END = new Object();
+    private static final ThreadFactory threads =
+                                        new LDAPThreadFactory("DSMLReader");
+    /* Stops the parser of a reader no longer reachable */
+    private static final Cleaner cleaner = Cleaner.create(threads);
 
-    private int messageIndex = 0;
-    private DSMLHandler handler = new DSMLHandler();
+    /* Not referring to this reader, so an abandoned reader can be cleaned */
+    private final Parser parser;
+    private final Cleaner.Cleanable cleanable;
+    private boolean finished = false;         // END taken by readMessage
     private boolean            requestFile=true;          // request file=true
     private String version = "2.0";
 
@@ -102,17 +124,13 @@ public class DSMLReader implements LDAPReader {
     public DSMLReader (java.io.Reader reader) throws LDAPLocalException
     {
         // Create an XML Parser
+        final SAXParser saxParser;
         try {
             SAXParserFactory spf = SAXParserFactory.newInstance();
             spf.setNamespaceAware(true);
             //spf.setValidating(true);
 
-            SAXParser saxParser = spf.newSAXParser();
-
-            InputSource is = new InputSource(reader);
-
-            // parse the document
-            saxParser.parse(is, handler);
+            saxParser = spf.newSAXParser();
 
         } catch (FactoryConfigurationError e) {
             throw new LDAPLocalException(
@@ -124,22 +142,16 @@ public class DSMLReader implements LDAPReader {
                     "The SAX parser is configured incorrectly:" + e,
                     LDAPException.LOCAL_ERROR,
                     e);
-        } catch (SAXNotRecognizedException e){
-            throw new LDAPLocalException(
-                    null,
-                    LDAPException.PROTOCOL_ERROR,
-                    e);
         } catch (SAXException e) {
             throw new LDAPLocalException(
-                    "The following error occured while parsing DSML: " + e,
-                    LDAPException.DECODING_ERROR,
-                    e);
-        } catch (IOException e) {
-            throw new LDAPLocalException(
-                    "The following error occured while reading DSML: " + e,
+                    "The SAX parser is configured incorrectly:" + e,
                     LDAPException.LOCAL_ERROR,
                     e);
         }
+        // parse the document, and wait for the batch attributes
+        parser = new Parser(saxParser, new InputSource(reader));
+        parser.awaitStarted();
+        cleanable = cleaner.register(this, parser);
         return;
     }
 
@@ -147,15 +159,46 @@ public class DSMLReader implements LDAPReader {
      * Retrieves the current LDAPMessage and advances to the next.
      *
      * <p>This method is used to iterate over all DSML tags parsed into
-     * LDAPMessages<p>
+     * LDAPMessages.  It waits until the next message has been parsed.<p>
      * @return LDAPMessage found in the DSML source specified in the
-     * constructor.
+     * constructor, or <tt>null</tt> after the last message or once the
+     * reader is closed.
+     * @throws RuntimeException Occurs once, after the messages parsed
+     * before it, when the rest of the document cannot be read or is invalid
+     * DSML.  The cause is an LDAPLocalException describing the error.
      */
     public LDAPMessage readMessage()
     {
-        if (this.messageIndex >= handler.getQueue().size())
+        if (finished || parser.closed)
+            return null;
+        Object message;
+        try {
+            message = parser.messages.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading DSML", e);
+        }
+        if (message == END) {
+            finished = true;
+            LDAPLocalException error = parser.error;
+            if (error != null) {
+                throw new RuntimeException(error.toString(), error);
+            }
             return null;
-        return (LDAPMessage) handler.getQueue().get( this.messageIndex ++ );
+        }
+        return (LDAPMessage) message;
+    }
+
+    /**
+     * Stops parsing and discards any messages not yet read.
+     *
+     * <p>The input specified in the constructor is not closed.  A parser
+     * waiting for more input stops once it is closed or input arrives.</p>
+     */
+    public void close()
+    {
+        cleanable.clean();
+        return;
     }
 
     /**
@@ -185,7 +228,7 @@ public class DSMLReader implements LDAPReader {
      * specified or the content is in a batchResponse.
      */
     public String getBatchRequestID(){
-        return this.handler.getBatchRequestID();
+        return parser.handler.getBatchRequestID();
     }
 
     /**
@@ -205,7 +248,7 @@ public class DSMLReader implements LDAPReader {
      * @see #isResumeOnError
      */
     public boolean isParallelProcessing(){
-        return this.handler.isParallelProcessing();
+        return parser.handler.isParallelProcessing();
     }
 
     /**
@@ -221,7 +264,7 @@ public class DSMLReader implements LDAPReader {
      *
      */
     public boolean isResponseUnordered(){
-        return this.handler.isResponseUnordered();
+        return parser.handler.isResponseUnordered();
     }
 
     /**
@@ -241,10 +284,158 @@ public class DSMLReader implements LDAPReader {
      * @see #isResponseUnordered
      */
     public boolean isResumeOnError(){
-        return this.handler.isResumeOnError();
+        return parser.handler.isResumeOnError();
     }
     
+    /**
+     * Returns the errors parsed from errorResponse tags in a batchResponse.
+     *
+     * <p>The list is complete once readMessage has returned <tt>null</tt>.</p>
+     *
+     * @return a list of LDAPExceptions.
+     */
     public ArrayList getErrors() {
-    	return this.handler.getErrors();
+    	return parser.handler.getErrors();
+    }
+
+    /*
+     * Parses the document on its own thread.  Run as a Runnable, which the
+     * cleaner does for an abandoned reader, it stops parsing instead.
+     */
+    private static final class Parser implements Runnable {
+
+        private final ArrayBlockingQueue messages =
+                                        new ArrayBlockingQueue(CAPACITY);
+        private final Handler handler = new Handler();
+        private final Thread thread;
+        private boolean started = false;  // batch tag seen, guarded by this
+        private boolean ended = false;    // parsing ended, guarded by this
+        private volatile LDAPLocalException error = null; // ended parsing
+        private volatile boolean closed = false;
+
+        Parser(final SAXParser saxParser, final InputSource is)
+        {
+            thread = threads.newThread(new Runnable() {
+                public void run()
+                {
+                    parse(saxParser, is);
+                    return;
+                }
+            });
+            thread.start();
+            return;
+        }
+
+        /*
+         * Waits for the batch attributes, or throws the error that ended
+         * parsing before a batchRequest or batchResponse was parsed.
+         */
+        synchronized void awaitStarted() throws LDAPLocalException
+        {
+            boolean interrupted = false;
+            try {
+                while( ! started && ! ended) {
+                    try {
+                        wait();
+                    } catch( InterruptedException e) {
+                        interrupted = true; // keep waiting
+                    }
+                }
+            } finally {
+                if( interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if( ! started && (error != null)) {
+                throw error;
+            }
+            return;
+        }
+
+        public void run()
+        {
+            closed = true;
+            thread.interrupt();
+            messages.clear();
+            return;
+        }
+
+        /*
+         * Parses the document on the parser thread, then queues END.
+         */
+        private void parse(SAXParser saxParser, InputSource is)
+        {
+            LDAPLocalException ex = null;
+            try {
+                saxParser.parse(is, handler);
+            } catch (SAXNotRecognizedException e){
+                ex = new LDAPLocalException(
+                        null,
+                        LDAPException.PROTOCOL_ERROR,
+                        e);
+            } catch (SAXException e) {
+                ex = new LDAPLocalException(
+                        "The following error occured while parsing DSML: " + e,
+                        LDAPException.DECODING_ERROR,
+                        e);
+            } catch (IOException e) {
+                ex = new LDAPLocalException(
+                        "The following error occured while reading DSML: " + e,
+                        LDAPException.LOCAL_ERROR,
+                        e);
+            } catch (Throwable e) {
+                ex = new LDAPLocalException(
+                        "The following error occured while parsing DSML: " + e,
+                        LDAPException.LOCAL_ERROR,
+                        e);
+            }
+            if( closed) {
+                return;
+            }
+            synchronized( this) {
+                error = ex;
+                ended = true;
+                notifyAll();
+            }
+            try {
+                messages.put(END);
+            } catch (InterruptedException e) {
+                ; // closed, no more messages will be read
+            }
+            return;
+        }
+
+        /*
+         * Hands each message to readMessage, and tells the constructor once the
+         * batch attributes are known.
+         */
+        private final class Handler extends DSMLHandler {
+
+            public void startElement(
+                String strNamespaceURI,
+                String strSName,
+                String strQName,
+                Attributes attrs)
+                throws SAXException {
+                super.startElement(strNamespaceURI, strSName, strQName, attrs);
+                if (!started && (strSName.equals("batchRequest") ||
+                                 strSName.equals("batchResponse"))) {
+                    synchronized( Parser.this) {
+                        started = true;
+                        Parser.this.notifyAll();
+                    }
+                }
+                return;
+            }
+
+            void queueMessage(LDAPMessage message) throws SAXException {
+                try {
+                    messages.put(message);
+                } catch (InterruptedException e) {
+                    throw new SAXException("DSMLReader closed");
+                }
+                return;
+            }
+        }
     }
 }
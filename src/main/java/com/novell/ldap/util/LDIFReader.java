@@ -16,10 +16,16 @@
 package com.novell.ldap.util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPAttributeSet;
@@ -47,8 +53,17 @@ import com.novell.ldap.util.Base64;
  *    of the first record in the LDIF file currently being read.</p>
  *
  * <p>The constructors uses '1' as default LDIF file version</p>
+ *
+ * <p>The readers returned by newParallelReader parse in parallel.  One
+ * thread splits the input into batches of whole records, at the empty
+ * lines between them, and the other threads parse the batches, while
+ * readMessage still returns the messages in the order of the input.  A
+ * file is memory-mapped rather than read.  The threads stop, and a file
+ * is closed, once readMessage has returned the last message or thrown.  A
+ * parallel reader not read to the end should be closed; one dropped
+ * without being closed is closed once garbage collected.</p>
  */
-public class LDIFReader implements LDAPReader {
+public class LDIFReader implements LDAPReader, AutoCloseable {
 
     private boolean            requestFile=true;          // request file=true
     private String             version;                   // LDIF file version
@@ -67,6 +82,8 @@ public class LDIFReader implements LDAPReader {
     private LDAPEntry          currentEntry = null;
     private LDAPModification[] mods;
     private LDAPMessage        currentRequest = null;
+    private LDIFSplitter       splitter = null;            // parallel mode
+    private Cleaner.Cleanable  closer = null;              // of splitter
 
     /**
      * Constructs an LDIFReader object by initializing LDIF_VERSION, isRequest,
@@ -109,8 +126,6 @@ public class LDIFReader implements LDAPReader {
 
         super();
 
-        String line = null;
-
         if ( version != 1 ) {  // check LDIF file version
             throw new RuntimeException("com.novell.ldap.ldif_dsml.LDIFReader:"
                               + "found: " + version + ", Should be: 1");
@@ -119,6 +134,167 @@ public class LDIFReader implements LDAPReader {
         setVersion( version );
         InputStreamReader isr = new InputStreamReader(in, "US-ASCII");
         bufReader = new BufferedReader(isr);
+        readHeader( bufSize );
+        return;
+    }
+
+    /**
+     * Returns an LDIFReader object that parses the records read from a
+     * stream on several threads.
+     *
+     * @param in       The Inputstream object to be processed by LDIFReader
+     * @param threads  The number of threads parsing records
+     *
+     * @return the reader.
+     */
+    public static LDIFReader newParallelReader(InputStream in, int threads)
+                throws IOException, LDAPLocalException
+    {
+        byte[] prefix = new byte[LDIFSplitter.PREFIX];
+        int length = 0, n;
+        while( (length < prefix.length) &&
+               (n = in.read(prefix, length, prefix.length - length)) > 0) {
+            length += n;
+        }
+        LDIFReader reader = new LDIFReader(true);
+        int start = reader.readHeader(prefix, length);
+        reader.splitter = new LDIFSplitter(in, prefix, start, length,
+                                reader.lNumber, reader.isRequest(), threads);
+        reader.closer = reader.splitter.closeWhenUnreachable(reader);
+        return reader;
+    }
+
+    /**
+     * Returns an LDIFReader object that parses the records of a
+     * memory-mapped file on several threads.
+     *
+     * @param file     The LDIF file
+     * @param threads  The number of threads parsing records
+     *
+     * @return the reader.
+     */
+    public static LDIFReader newParallelReader(File file, int threads)
+                throws IOException, LDAPLocalException
+    {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                Math.min(channel.size(), LDIFSplitter.PREFIX));
+            byte[] prefix = new byte[head.remaining()];
+            head.get(prefix);
+            LDIFReader reader = new LDIFReader(true);
+            int start = reader.readHeader(prefix, prefix.length);
+            reader.splitter = new LDIFSplitter(channel, start, reader.lNumber,
+                                               reader.isRequest(), threads);
+            reader.closer = reader.splitter.closeWhenUnreachable(reader);
+            return reader;
+        } catch( IOException ex) {
+            channel.close();
+            throw ex;
+        } catch( LDAPLocalException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Constructs the LDIFReader object a parallel reader parses a batch of
+     * records with.
+     */
+    /* package */
+    LDIFReader(boolean request)
+    {
+        setVersion( 1 );
+        setRequest( request );
+        return;
+    }
+
+    /**
+     * Reads the header at the start of a file, returning the offset of the
+     * first record.
+     */
+    private int readHeader( byte[] prefix, int length )
+                throws IOException, LDAPLocalException
+    {
+        bufReader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(prefix, 0, length), "US-ASCII"));
+        readHeader( Math.max(length, 1) );
+        bufReader = null;
+        // lNumber lines, ending in LF, CR LF or CR, precede the first record
+        int start = 0;
+        for( int i = 0; i < this.lNumber; i++) {
+            while( (prefix[start] != '\n') && (prefix[start] != '\r')) {
+                start++;
+            }
+            if( (prefix[start++] == '\r') && (start < length) &&
+                (prefix[start] == '\n')) {
+                start++;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Parses a batch of whole records.
+     *
+     * @param data  The records
+     * @param line  The number of lines before the batch in the file
+     *
+     * @return the LDAPMessages parsed, followed by the exception ending the
+     * batch early, if any.
+     */
+    /* package */
+    ArrayList readRecords( ByteBuffer data, int line )
+    {
+        byte[] bytes;
+        int offset;
+        int length = data.remaining();
+        if( data.hasArray()) {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+        } else {                        // mapped
+            bytes = new byte[length];
+            data.get(bytes);
+            offset = 0;
+        }
+        ArrayList messages = new ArrayList();
+        try {
+            bufReader = new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(bytes, offset, length),
+                        "US-ASCII"));
+            this.lNumber = line;
+            LDAPMessage message;
+            while( (message = readMessage()) != null) {
+                messages.add(message);
+            }
+        } catch( Exception ex) {
+            messages.add(ex);
+        }
+        return messages;
+    }
+
+    /**
+     * Stops the threads of a parallel reader, which then returns no more
+     * messages.  Does nothing for other readers.
+     *
+     * <p>A stream is not closed.  A file is closed.</p>
+     */
+    public void close()
+    {
+        if( closer != null) {
+            closer.clean();
+        }
+        return;
+    }
+
+    /**
+     * Reads the version line and determines whether the file holds
+     * requests, leaving bufReader at the first record.
+     */
+    private void readHeader( int bufSize )
+                throws IOException, LDAPLocalException
+    {
+        String line = null;
 
         // In order to determine if it is a LDIF content file or LDIF change
         // file, the first line of dn field and the meaningful line next to
@@ -270,6 +446,12 @@ public class LDIFReader implements LDAPReader {
     public LDAPMessage readMessage()
                 throws IOException, LDAPException
     {
+        if ( this.splitter != null ) { // parsed on other threads
+            return this.splitter.readMessage();
+        }
+        if ( this.rFields == null ) { // already at the end of file
+            return null;
+        }
         readRecordFields();           // read record fields
         if ( this.rFields == null ) { // end of file
             return null;
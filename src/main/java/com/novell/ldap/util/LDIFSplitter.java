@@ -0,0 +1,446 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPThreadFactory;
+
+/**
+ * Splits LDIF records into batches parsed on a pool of threads, for a
+ * parallel LDIFReader.
+ *
+ * <p>The splitter thread looks for the end of a record, a line end
+ * followed by an empty line, a batch length past the start of each batch,
+ * and counts the lines of the batch so the parsing thread reports errors
+ * with the line in the file.  Lines end with LF, CR LF or CR, as for
+ * BufferedReader.readLine.  The futures of the batches are queued in
+ * the order of the input, so the messages are returned in that order.</p>
+ *
+ * <p>A stream is read in chunks, a file mapped in windows, a batch being a
+ * slice of the chunk or window it lies in.  A chunk or window ending in
+ * the middle of a record is followed by one starting at that record.</p>
+ *
+ * @see LDIFReader
+ */
+/* package */
+class LDIFSplitter implements Runnable
+{
+    /* Length of the start of the input holding the version line */
+    /* package */
+    static final int PREFIX = 1 << 20;
+    /* Least length of a batch */
+    private static final int BATCH = 1 << 16;
+    /* Least length of a chunk read from a stream */
+    private static final int CHUNK = 1 << 20;
+    /* Least length of a window mapped from a file */
+    private static final long WINDOW = 1L << 28;
+    /* Queued after the last batch */
+    private static final Object END = new Object();
+    private static final ThreadFactory threads =
+                                        new LDAPThreadFactory("LDIFReader");
+    /* Closes the splitters of readers no longer reachable */
+    private static final Cleaner cleaner = Cleaner.create(threads);
+
+    private final InputStream in;             // or null
+    private final FileChannel channel;        // or null
+    private final boolean request;
+    private final ExecutorService workers;
+    private final ArrayBlockingQueue batches;
+    private final Thread thread;
+
+    private byte[] prefix;                    // start of a stream
+    private int start;                        // of the first record
+    private int length;                       // of the prefix
+    private int line;                         // lines before the next batch
+
+    private List current = null;              // messages of a batch
+    private int index = 0;                    // next in current
+    private volatile boolean done = false;
+
+    /**
+     * Constructs a splitter reading a stream.
+     *
+     * @param in       The stream, following the prefix.
+     * @param prefix   The start of the stream.
+     * @param start    The offset of the first record in the prefix.
+     * @param length   The length of the prefix.
+     * @param line     The number of lines before the first record.
+     * @param request  Whether the records are change records.
+     * @param count    The number of threads parsing batches.
+     */
+    /* package */
+    LDIFSplitter(InputStream in, byte[] prefix, int start, int length,
+                 int line, boolean request, int count)
+    {
+        this(in, null, request, count);
+        this.prefix = prefix;
+        this.start = start;
+        this.length = length;
+        this.line = line;
+        thread.start();
+        return;
+    }
+
+    /**
+     * Constructs a splitter mapping a file.
+     *
+     * @param channel  The channel of the file, closed once mapped.
+     * @param start    The offset of the first record in the file.
+     * @param line     The number of lines before the first record.
+     * @param request  Whether the records are change records.
+     * @param count    The number of threads parsing batches.
+     */
+    /* package */
+    LDIFSplitter(FileChannel channel, int start, int line, boolean request,
+                 int count)
+    {
+        this(null, channel, request, count);
+        this.start = start;
+        this.line = line;
+        thread.start();
+        return;
+    }
+
+    private LDIFSplitter(InputStream in, FileChannel channel, boolean request,
+                         int count)
+    {
+        this.in = in;
+        this.channel = channel;
+        this.request = request;
+        workers = Executors.newFixedThreadPool(count, threads);
+        batches = new ArrayBlockingQueue(4 * count);
+        thread = threads.newThread(this);
+        return;
+    }
+
+    /**
+     * Splits the input, queuing the batches then END, or the exception
+     * ending the input early.
+     */
+    public void run()
+    {
+        Object last = END;
+        try {
+            if( channel == null) {
+                splitStream();
+            } else {
+                splitFile();
+            }
+        } catch( IOException ex) {
+            last = ex;
+        } catch( InterruptedException ex) {
+            return;                             // closed
+        } catch( RejectedExecutionException ex) {
+            return;                             // closed
+        } finally {
+            workers.shutdown();
+            if( channel != null) {
+                try {
+                    channel.close();
+                } catch( IOException ex) {
+                    ;
+                }
+            }
+        }
+        try {
+            batches.put(last);
+        } catch( InterruptedException ex) {
+            ;                                   // closed
+        }
+        return;
+    }
+
+    /**
+     * Splits a stream read in chunks, a new array for each so the batches
+     * being parsed are not overwritten.
+     */
+    private void splitStream()
+                throws IOException, InterruptedException
+    {
+        byte[] chunk = prefix;
+        int pos = start;
+        int end = length;
+        boolean eof = false;
+        prefix = null;
+        for(;;) {
+            ByteBuffer data = ByteBuffer.wrap(chunk);
+            pos = split(data, pos, end);
+            if( eof) {
+                if( pos < end) {
+                    submit(data, pos, end);
+                }
+                return;
+            }
+            // start the next chunk with the record left over
+            int carry = end - pos;
+            byte[] next = new byte[Math.max(CHUNK, 2 * carry)];
+            System.arraycopy(chunk, pos, next, 0, carry);
+            chunk = next;
+            pos = 0;
+            end = carry;
+            while( end < chunk.length) {
+                int n = in.read(chunk, end, chunk.length - end);
+                if( n < 0) {
+                    eof = true;
+                    break;
+                }
+                end += n;
+            }
+        }
+    }
+
+    /**
+     * Splits a file mapped in windows, a window growing until it holds a
+     * whole batch.
+     */
+    private void splitFile()
+                throws IOException, InterruptedException
+    {
+        long size = channel.size();
+        long base = start;
+        long window = WINDOW;
+        while( base < size) {
+            int end = (int)Math.min(window, size - base);
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+                                          base, end);
+            int pos = split(data, 0, end);
+            if( base + end == size) {
+                if( pos < end) {
+                    submit(data, pos, end);
+                }
+                return;
+            }
+            if( pos == 0) {
+                window = Math.min(2 * window, Integer.MAX_VALUE);
+            }
+            base += pos;
+        }
+        return;
+    }
+
+    /**
+     * Submits the batches ending at the record ends found in data between
+     * pos and end.
+     *
+     * @return the offset of the first record not submitted.
+     */
+    private int split(ByteBuffer data, int pos, int end)
+                throws InterruptedException
+    {
+        int cut;
+        while( (cut = findEnd(data, pos + BATCH, end)) >= 0) {
+            submit(data, pos, cut);
+            pos = cut;
+        }
+        return pos;
+    }
+
+    /**
+     * Finds the end of a record, a line end followed by an empty line, at
+     * or after from.
+     *
+     * @return the offset after the line end, or -1 if none before end.
+     */
+    private static int findEnd(ByteBuffer data, int from, int end)
+    {
+        for( int i = from; i < end - 1; i++) {
+            byte b = data.get(i);
+            if( (b == '\n') || (b == '\r')) {
+                int next = i + 1;
+                if( (b == '\r') && (data.get(next) == '\n')) {
+                    next++;                     // CR LF
+                }
+                if( next < end) {
+                    b = data.get(next);
+                    if( (b == '\n') || (b == '\r')) {
+                        return next;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Queues the batch of records in data between pos and cut for parsing.
+     */
+    private void submit(ByteBuffer data, int pos, int cut)
+                throws InterruptedException
+    {
+        ByteBuffer batch = data.duplicate();
+        batch.limit(cut);
+        batch.position(pos);
+        batch = batch.slice();
+        Future future = workers.submit(new Batch(batch, line, request));
+        int limit = batch.limit();
+        for( int i = 0; i < limit; i++) {
+            byte b = batch.get(i);
+            // A batch ends with a whole line end, so CR LF is not split
+            if( (b == '\n') || ((b == '\r') &&
+                        ((i + 1 == limit) || (batch.get(i + 1) != '\n')))) {
+                line++;
+            }
+        }
+        batches.put(future);
+        return;
+    }
+
+    /**
+     * Returns the next message parsed, in the order of the input.
+     *
+     * @return the next message, or null after the last one.
+     *
+     * @exception LDAPException a record cannot be parsed.  No messages are
+     *            returned after it.
+     *
+     * @exception IOException the input cannot be read.
+     */
+    /* package */
+    LDAPMessage readMessage()
+                throws IOException, LDAPException
+    {
+        for(;;) {
+            if( (current != null) && (index < current.size())) {
+                Object next = current.get(index++);
+                if( next instanceof LDAPMessage) {
+                    return (LDAPMessage)next;
+                }
+                close();
+                if( next instanceof LDAPException) {
+                    throw (LDAPException)next;
+                }
+                if( next instanceof IOException) {
+                    throw (IOException)next;
+                }
+                throw (RuntimeException)next;
+            }
+            if( done) {
+                return null;
+            }
+            Object next;
+            try {
+                next = batches.take();
+            } catch( InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                            "Interrupted waiting for LDIF records");
+            }
+            if( next == END) {
+                close();
+                return null;
+            }
+            if( next instanceof IOException) {
+                close();
+                throw (IOException)next;
+            }
+            try {
+                current = (List)((Future)next).get();
+            } catch( InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                            "Interrupted waiting for LDIF records");
+            } catch( ExecutionException ex) {
+                close();
+                if( ex.getCause() instanceof Error) {
+                    throw (Error)ex.getCause();
+                }
+                throw (RuntimeException)ex.getCause();
+            }
+            index = 0;
+        }
+    }
+
+    /**
+     * Closes this splitter once owner is no longer reachable, unless
+     * cleaned before.
+     *
+     * @return the action closing this splitter, to run when owner is
+     * closed.
+     */
+    /* package */
+    Cleaner.Cleanable closeWhenUnreachable(Object owner)
+    {
+        return cleaner.register(owner, new Runnable() {
+            public void run()
+            {
+                close();
+                return;
+            }
+        });
+    }
+
+    /**
+     * Stops splitting and parsing, releasing the threads and the file.
+     * No more messages are returned.
+     */
+    /* package */
+    void close()
+    {
+        done = true;
+        current = null;
+        thread.interrupt();
+        workers.shutdownNow();
+        batches.clear();
+        if( channel != null) {
+            try {
+                channel.close();
+            } catch( IOException ex) {
+                ;
+            }
+        }
+        return;
+    }
+
+    /**
+     * Parses a batch of records on a pool thread.
+     */
+    private static class Batch implements Callable
+    {
+        private final ByteBuffer data;
+        private final int line;
+        private final boolean request;
+
+        private Batch(ByteBuffer data, int line, boolean request)
+        {
+            this.data = data;
+            this.line = line;
+            this.request = request;
+            return;
+        }
+
+        public Object call()
+        {
+            return new LDIFReader(request).readRecords(data, line);
+        }
+    }
+}
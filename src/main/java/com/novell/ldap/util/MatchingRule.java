@@ -0,0 +1,522 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The comparisons made for the matching rules a CompiledFilter evaluates.
+ *
+ * <p>Assertion values are prepared once, when the filter is compiled.
+ * Attribute values which are printable ASCII, and already in the prepared
+ * form apart from case, are compared where they are, without creating any
+ * objects; nearly all directory string values are.  Other values are
+ * prepared into a new array first.</p>
+ *
+ * <p>String preparation follows RFC 4518 loosely: white space is mapped
+ * to a single space and removed from the ends, case is folded for the
+ * case ignoring rules, and spaces, or spaces and hyphens, are removed for
+ * numeric strings and telephone numbers.</p>
+ */
+/* package */
+final class MatchingRule
+{
+    /* The kinds of comparison */
+    private static final int CASE_IGNORE = 0;
+    private static final int CASE_EXACT = 1;
+    private static final int NUMERIC_STRING = 2;
+    private static final int TELEPHONE_NUMBER = 3;
+    private static final int APPROXIMATE = 4;
+    private static final int INTEGER = 5;
+    private static final int OCTET_STRING = 6;
+    private static final int DISTINGUISHED_NAME = 7;
+
+    // Lower case name or OID to MatchingRule
+    private static final HashMap rules = new HashMap();
+
+    /** caseIgnoreMatch, used for attributes not in a schema */
+    static final MatchingRule DEFAULT =
+        define(CASE_IGNORE, "2.5.13.2", "caseIgnoreMatch");
+
+    /** Approximate matching: equality ignoring case and all white space */
+    static final MatchingRule APPROX =
+        new MatchingRule(APPROXIMATE, null, "approximateMatch");
+
+    static {
+        define(CASE_IGNORE, "2.5.13.0", "objectIdentifierMatch");
+        define(DISTINGUISHED_NAME, "2.5.13.1", "distinguishedNameMatch");
+        define(CASE_IGNORE, "2.5.13.3", "caseIgnoreOrderingMatch");
+        define(CASE_IGNORE, "2.5.13.4", "caseIgnoreSubstringsMatch");
+        define(CASE_EXACT, "2.5.13.5", "caseExactMatch");
+        define(CASE_EXACT, "2.5.13.6", "caseExactOrderingMatch");
+        define(CASE_EXACT, "2.5.13.7", "caseExactSubstringsMatch");
+        define(NUMERIC_STRING, "2.5.13.8", "numericStringMatch");
+        define(NUMERIC_STRING, "2.5.13.9", "numericStringOrderingMatch");
+        define(NUMERIC_STRING, "2.5.13.10", "numericStringSubstringsMatch");
+        define(CASE_IGNORE, "2.5.13.11", "caseIgnoreListMatch");
+        define(CASE_IGNORE, "2.5.13.12", "caseIgnoreListSubstringsMatch");
+        define(CASE_IGNORE, "2.5.13.13", "booleanMatch");
+        define(INTEGER, "2.5.13.14", "integerMatch");
+        define(INTEGER, "2.5.13.15", "integerOrderingMatch");
+        define(OCTET_STRING, "2.5.13.16", "bitStringMatch");
+        define(OCTET_STRING, "2.5.13.17", "octetStringMatch");
+        define(OCTET_STRING, "2.5.13.18", "octetStringOrderingMatch");
+        define(OCTET_STRING, "2.5.13.19", "octetStringSubstringsMatch");
+        define(TELEPHONE_NUMBER, "2.5.13.20", "telephoneNumberMatch");
+        define(TELEPHONE_NUMBER, "2.5.13.21",
+                                        "telephoneNumberSubstringsMatch");
+        define(CASE_IGNORE, "2.5.13.27", "generalizedTimeMatch");
+        define(CASE_IGNORE, "2.5.13.28", "generalizedTimeOrderingMatch");
+        define(CASE_EXACT, "1.3.6.1.4.1.1466.109.114.1", "caseExactIA5Match");
+        define(CASE_IGNORE, "1.3.6.1.4.1.1466.109.114.2",
+                                        "caseIgnoreIA5Match");
+        define(CASE_IGNORE, "1.3.6.1.4.1.1466.109.114.3",
+                                        "caseIgnoreIA5SubstringsMatch");
+    }
+
+    private final int kind;
+    private final String oid;
+    private final String name;
+
+    private MatchingRule(int kind, String oid, String name)
+    {
+        this.kind = kind;
+        this.oid = oid;
+        this.name = name;
+        return;
+    }
+
+    private static MatchingRule define(int kind, String oid, String name)
+    {
+        MatchingRule rule = new MatchingRule(kind, oid, name);
+        rules.put(oid, rule);
+        rules.put(name.toLowerCase(Locale.ENGLISH), rule);
+        return rule;
+    }
+
+    /**
+     * Returns the rule with a name or OID, or null if it is not one
+     * supported.
+     */
+    static MatchingRule forName(String nameOrOid)
+    {
+        if( nameOrOid == null) {
+            return null;
+        }
+        return (MatchingRule)rules.get(nameOrOid.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the OID of the rule, or null for approximate matching.
+     */
+    String getID()
+    {
+        return oid;
+    }
+
+    public String toString()
+    {
+        return name;
+    }
+
+    /**
+     * Indicates whether the rule can compare values for order.
+     */
+    boolean hasOrdering()
+    {
+        return (kind != DISTINGUISHED_NAME) && (kind != APPROXIMATE);
+    }
+
+    /**
+     * Indicates whether the rule can match substrings.
+     */
+    boolean hasSubstrings()
+    {
+        return (kind != DISTINGUISHED_NAME) && (kind != INTEGER);
+    }
+
+    /**
+     * Returns the rule for approximate matching of values which this rule
+     * matches for equality.
+     */
+    MatchingRule approximate()
+    {
+        return (kind <= APPROXIMATE) ? APPROX : this;
+    }
+
+    /**
+     * Prepares an assertion value for equal and compare.
+     *
+     * @return the prepared value, or null if value is not valid for the
+     * rule.
+     */
+    Object prepare(byte[] value)
+    {
+        switch( kind) {
+            case OCTET_STRING:
+                return value;
+            case INTEGER:
+                return canonicalInteger(value);
+            case DISTINGUISHED_NAME:
+                try {
+                    return new DN(utf8(value));
+                } catch( IllegalArgumentException e) {
+                    return null;
+                }
+            default:
+                return normalize(value, true);
+        }
+    }
+
+    /**
+     * Prepares a substring assertion component for substrings.  Spaces
+     * at its ends are significant, so are kept.
+     */
+    byte[] prepareSubstring(byte[] value)
+    {
+        if( kind == OCTET_STRING) {
+            return value;
+        }
+        return normalize(value, false);
+    }
+
+    /**
+     * Indicates whether value matches the prepared assertion value.
+     */
+    boolean equal(byte[] value, Object prepared)
+    {
+        switch( kind) {
+            case OCTET_STRING:
+                return Arrays.equals(value, (byte[])prepared);
+            case INTEGER:
+                return compareInteger(value, (byte[])prepared) == 0;
+            case DISTINGUISHED_NAME:
+                try {
+                    return ((DN)prepared).equals(new DN(utf8(value)));
+                } catch( IllegalArgumentException e) {
+                    return false;
+                }
+            default:
+                byte[] p = (byte[])prepared;
+                if( isPrepared(value)) {
+                    return (value.length == p.length) &&
+                           regionMatches(value, 0, p, folds());
+                }
+                return Arrays.equals(normalize(value, true), p);
+        }
+    }
+
+    /**
+     * Compares value with the prepared assertion value for order.
+     *
+     * @return less than, equal to or greater than zero as value is less
+     * than, equal to or greater than the assertion value, or
+     * Integer.MIN_VALUE if value cannot be compared.
+     */
+    int compare(byte[] value, Object prepared)
+    {
+        byte[] p = (byte[])prepared;
+        switch( kind) {
+            case OCTET_STRING:
+                return compareBytes(value, p, false);
+            case INTEGER:
+                return compareInteger(value, p);
+            default:
+                if( isPrepared(value)) {
+                    return compareBytes(value, p, folds());
+                }
+                return compareBytes(normalize(value, true), p, false);
+        }
+    }
+
+    /**
+     * Indicates whether value matches a substring assertion with the
+     * prepared components.
+     *
+     * @param initial the initial component, or null.
+     * @param any     the any components, in order, possibly none.
+     * @param last    the final component, or null.
+     */
+    boolean substrings(byte[] value, byte[] initial, byte[][] any, byte[] last)
+    {
+        byte[] s = value;
+        boolean fold = folds();
+        if( (kind != OCTET_STRING) && ! isPrepared(value)) {
+            s = normalize(value, true);
+            fold = false;
+        }
+        int start = 0;
+        int end = s.length;
+        if( initial != null) {
+            if( (initial.length > end) || ! regionMatches(s, 0, initial, fold)) {
+                return false;
+            }
+            start = initial.length;
+        }
+        if( last != null) {
+            int from = end - last.length;
+            if( (from < start) || ! regionMatches(s, from, last, fold)) {
+                return false;
+            }
+            end = from;
+        }
+        for( int i = 0; i < any.length; i++) {
+            int at = indexOf(s, start, end, any[i], fold);
+            if( at < 0) {
+                return false;
+            }
+            start = at + any[i].length;
+        }
+        return true;
+    }
+
+    private boolean folds()
+    {
+        return (kind == CASE_IGNORE) || (kind == TELEPHONE_NUMBER) ||
+               (kind == APPROXIMATE);
+    }
+
+    /*
+     * Returns true if value is printable ASCII and prepared apart from
+     * case.
+     */
+    private boolean isPrepared(byte[] value)
+    {
+        int n = value.length;
+        for( int i = 0; i < n; i++) {
+            int c = value[i];
+            if( (c < 0x20) || (c > 0x7e)) {
+                return false;
+            }
+            if( c == ' ') {
+                if( (kind != CASE_IGNORE) && (kind != CASE_EXACT)) {
+                    return false;
+                }
+                if( (i == 0) || (i == n - 1) || (value[i - 1] == ' ')) {
+                    return false;
+                }
+            } else if( (c == '-') && (kind == TELEPHONE_NUMBER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Prepares a string value, folding case and removing or collapsing
+     * white space as the rule requires.
+     */
+    private byte[] normalize(byte[] value, boolean trim)
+    {
+        String s = utf8(value);
+        StringBuffer buf = new StringBuffer(s.length());
+        boolean space = false;
+        for( int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if( Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = true;
+                continue;
+            }
+            if( space) {
+                if( ((kind == CASE_IGNORE) || (kind == CASE_EXACT)) &&
+                    (! trim || (buf.length() > 0))) {
+                    buf.append(' ');
+                }
+                space = false;
+            }
+            if( (kind == TELEPHONE_NUMBER) &&
+                ((c == '-') || (Character.getType(c) ==
+                                Character.DASH_PUNCTUATION))) {
+                continue;
+            }
+            buf.append(c);
+        }
+        if( space && ! trim &&
+            ((kind == CASE_IGNORE) || (kind == CASE_EXACT))) {
+            buf.append(' ');
+        }
+        s = buf.toString();
+        if( folds()) {
+            s = s.toUpperCase(Locale.ENGLISH).toLowerCase(Locale.ENGLISH);
+        }
+        try {
+            return s.getBytes("UTF-8");
+        } catch( UnsupportedEncodingException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
+    private static String utf8(byte[] value)
+    {
+        try {
+            return new String(value, "UTF-8");
+        } catch( UnsupportedEncodingException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
+    private static int lower(int c)
+    {
+        return ((c >= 'A') && (c <= 'Z')) ? c + ('a' - 'A') : c;
+    }
+
+    /*
+     * Returns true if s holds pattern at offset, folding the case of s
+     * if fold is true.  The caller ensures s is long enough.
+     */
+    private static boolean regionMatches(byte[] s, int offset, byte[] pattern,
+                                         boolean fold)
+    {
+        for( int i = 0; i < pattern.length; i++) {
+            int c = s[offset + i];
+            if( fold) {
+                c = lower(c);
+            }
+            if( c != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the first offset from start at which pattern ends no later
+     * than end, or -1.
+     */
+    private static int indexOf(byte[] s, int start, int end, byte[] pattern,
+                               boolean fold)
+    {
+        for( int i = start; i <= end - pattern.length; i++) {
+            if( regionMatches(s, i, pattern, fold)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Compares the octets of value, with case folded if fold is true,
+     * and prepared as unsigned numbers.
+     */
+    private static int compareBytes(byte[] value, byte[] prepared,
+                                    boolean fold)
+    {
+        int n = Math.min(value.length, prepared.length);
+        for( int i = 0; i < n; i++) {
+            int c = value[i] & 0xff;
+            if( fold) {
+                c = lower(c);
+            }
+            int d = prepared[i] & 0xff;
+            if( c != d) {
+                return c - d;
+            }
+        }
+        return value.length - prepared.length;
+    }
+
+    /*
+     * Returns the decimal integer in value without spaces, a plus sign or
+     * leading zeros, or null if value is not an integer.
+     */
+    private static byte[] canonicalInteger(byte[] value)
+    {
+        String s = utf8(value).trim();
+        boolean negative = false;
+        int i = 0;
+        if( s.startsWith("-") || s.startsWith("+")) {
+            negative = s.charAt(0) == '-';
+            i = 1;
+        }
+        if( i >= s.length()) {
+            return null;
+        }
+        for( int j = i; j < s.length(); j++) {
+            if( (s.charAt(j) < '0') || (s.charAt(j) > '9')) {
+                return null;
+            }
+        }
+        while( (i < s.length() - 1) && (s.charAt(i) == '0')) {
+            i++;
+        }
+        s = s.substring(i);
+        if( negative && ! s.equals("0")) {
+            s = "-" + s;
+        }
+        try {
+            return s.getBytes("UTF-8");
+        } catch( UnsupportedEncodingException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
+    /*
+     * Compares the integer in value with a canonical integer, without
+     * creating any objects.  Returns Integer.MIN_VALUE if value is not an
+     * integer.
+     */
+    private static int compareInteger(byte[] value, byte[] canonical)
+    {
+        int i = 0;
+        int n = value.length;
+        while( (i < n) && (value[i] == ' ')) {
+            i++;
+        }
+        while( (n > i) && (value[n - 1] == ' ')) {
+            n--;
+        }
+        boolean negative = false;
+        if( (i < n) && ((value[i] == '-') || (value[i] == '+'))) {
+            negative = value[i] == '-';
+            i++;
+        }
+        if( i >= n) {
+            return Integer.MIN_VALUE;
+        }
+        for( int j = i; j < n; j++) {
+            if( (value[j] < '0') || (value[j] > '9')) {
+                return Integer.MIN_VALUE;
+            }
+        }
+        while( (i < n - 1) && (value[i] == '0')) {
+            i++;
+        }
+        if( (n - i == 1) && (value[i] == '0')) {
+            negative = false;
+        }
+        boolean canonicalNegative = canonical[0] == '-';
+        if( negative != canonicalNegative) {
+            return negative ? -1 : 1;
+        }
+        int c = 0;
+        int start = canonicalNegative ? 1 : 0;
+        int length = n - i;
+        if( length != canonical.length - start) {
+            c = (length < canonical.length - start) ? -1 : 1;
+        } else {
+            for( int j = 0; j < length; j++) {
+                if( value[i + j] != canonical[start + j]) {
+                    c = (value[i + j] < canonical[start + j]) ? -1 : 1;
+                    break;
+                }
+            }
+        }
+        return negative ? -c : c;
+    }
+}
@@ -98,6 +98,55 @@ public class RDN extends Object
         return true;
     }
 
+    /**
+     * Compares the RDN to an object, as equals(RDN) does.
+     *
+     * @param obj the object to compare to
+     *
+     * @return true if obj is an RDN with the same values; false if it is
+     * not, or one RDN has a type given as an OID where the other has a name.
+     */
+    public boolean equals(Object obj){
+        if (obj == this)
+            return true;
+        if (!(obj instanceof RDN))
+            return false;
+        try {
+            return equals((RDN)obj);
+        } catch (IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * Returns a hash code consistent with equals, which ignores the case of
+     * types and values, and the order of the values of a multivalued RDN.
+     *
+     * @return a hash code for this RDN
+     */
+    public int hashCode(){
+        int hash = 0;
+        for (int i=0; i<values.size(); i++){
+            hash += 31 * foldedHash((String)types.get(i)) +
+                    foldedHash((String)values.get(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes a string as equalsIgnoreCase compares it, folding each
+     * character to the lower case of its upper case.
+     */
+    /* package */
+    static int foldedHash(String s){
+        int hash = 0;
+        for (int i=0; i<s.length(); i++){
+            hash = 31 * hash +
+                Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return hash;
+    }
+
     /**
      * Internal function used by equal to compare Attribute types.  Because
      * attribute types could either be an OID or a name.  There needs to be a
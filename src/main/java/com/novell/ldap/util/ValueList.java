@@ -0,0 +1,721 @@
+/* **************************************************************************
+ * $OpenLDAP$
+ *
+ * Copyright (C) 1999 - 2002 Novell, Inc. All Rights Reserved.
+ *
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND
+ * TREATIES. USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT
+ * TO VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS
+ * AVAILABLE AT HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE"
+ * IN THE TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION
+ * OF THIS WORK OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP
+ * PUBLIC LICENSE, OR OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT
+ * THE PERPETRATOR TO CRIMINAL AND CIVIL LIABILITY.
+ ******************************************************************************/
+
+package com.novell.ldap.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * The values of an attribute, in insertion order, with a hash index for
+ * large attributes.
+ *
+ * <p>The list keeps its values in its own doubly linked nodes rather than
+ * in the LinkedList it extends, so it remains a LinkedList to callers of
+ * LDAPAttribute.getAllValues.  Once the list holds
+ * {@link #INDEX_THRESHOLD} values or more a hash index maps each value to
+ * its nodes, in list order.  <code>contains</code>,
+ * <code>remove(Object)</code>, <code>removeFirstOccurrence</code> and
+ * <code>removeLastOccurrence</code> then find the node through the index
+ * and unlink it in constant time, duplicate values included.  Smaller
+ * lists are searched from the start, exactly like a LinkedList.</p>
+ *
+ * <p>Adding or removing at either end, or through an iterator, keeps the
+ * index current.  Inserting in the middle of the list or replacing a
+ * value drops the index, which is rebuilt the next time it is needed.</p>
+ */
+public class ValueList extends LinkedList<ByteArray> {
+
+    private static final long serialVersionUID = 2L;
+
+    /**
+     * The number of values at which lookups start using the hash index.
+     */
+    public static final int INDEX_THRESHOLD = 32;
+
+    /* A value in the list */
+    private static final class Node {
+        private ByteArray value;
+        private Node prev;
+        private Node next;
+        /* Neighbouring nodes of an equal value, valid while indexed */
+        private Node prevSame;
+        private Node nextSame;
+
+        private Node(ByteArray value) {
+            this.value = value;
+        }
+    }
+
+    /* The nodes of one value, linked through nextSame in list order */
+    private static final class Chain {
+        private Node first;
+        private Node last;
+    }
+
+    private transient Node first = null;
+    private transient Node last = null;
+    private transient int size = 0;
+    /* Nodes of each value, null if not built */
+    private transient HashMap<ByteArray, Chain> index = null;
+
+    /**
+     * Constructs an empty list.
+     */
+    public ValueList() {
+        super();
+    }
+
+    /**
+     * Constructs a list holding the values of a collection, in the order
+     * returned by its iterator.
+     *
+     * @param values The values to copy.
+     */
+    public ValueList(Collection<? extends ByteArray> values) {
+        this();
+        addAll(values);
+    }
+
+    /*
+     * Returns the index if the list is large enough to use one, building
+     * it if necessary, otherwise null.
+     */
+    private HashMap<ByteArray, Chain> index() {
+        if (index == null && size >= INDEX_THRESHOLD) {
+            HashMap<ByteArray, Chain> idx =
+                    new HashMap<ByteArray, Chain>(size * 4 / 3 + 1);
+            for (Node n = first; n != null; n = n.next) {
+                n.prevSame = null;
+                n.nextSame = null;
+                Chain c = idx.get(n.value);
+                if (c == null) {
+                    c = new Chain();
+                    c.first = n;
+                    idx.put(n.value, c);
+                } else {
+                    n.prevSame = c.last;
+                    c.last.nextSame = n;
+                }
+                c.last = n;
+            }
+            index = idx;
+        }
+        return index;
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /*
+     * Links a new node at the end of the list.
+     */
+    private void linkLast(ByteArray value) {
+        Node n = new Node(value);
+        n.prev = last;
+        if (last == null) {
+            first = n;
+        } else {
+            last.next = n;
+        }
+        last = n;
+        size++;
+        modCount++;
+        if (index != null) {
+            Chain c = index.get(value);
+            if (c == null) {
+                c = new Chain();
+                c.first = n;
+                index.put(value, c);
+            } else {
+                n.prevSame = c.last;
+                c.last.nextSame = n;
+            }
+            c.last = n;
+        }
+    }
+
+    /*
+     * Links a new node at the start of the list.
+     */
+    private void linkFirst(ByteArray value) {
+        Node n = new Node(value);
+        n.next = first;
+        if (first == null) {
+            last = n;
+        } else {
+            first.prev = n;
+        }
+        first = n;
+        size++;
+        modCount++;
+        if (index != null) {
+            Chain c = index.get(value);
+            if (c == null) {
+                c = new Chain();
+                c.last = n;
+                index.put(value, c);
+            } else {
+                n.nextSame = c.first;
+                c.first.prevSame = n;
+            }
+            c.first = n;
+        }
+    }
+
+    /*
+     * Links a new node before succ, which is not the first node.  The
+     * position of the node among equal values is not known, so the index
+     * is dropped.
+     */
+    private void linkBefore(ByteArray value, Node succ) {
+        Node n = new Node(value);
+        n.prev = succ.prev;
+        n.next = succ;
+        succ.prev.next = n;
+        succ.prev = n;
+        size++;
+        modCount++;
+        index = null;
+    }
+
+    /*
+     * Unlinks a node from the list and the index.
+     */
+    private ByteArray unlink(Node n) {
+        if (n.prev == null) {
+            first = n.next;
+        } else {
+            n.prev.next = n.next;
+        }
+        if (n.next == null) {
+            last = n.prev;
+        } else {
+            n.next.prev = n.prev;
+        }
+        size--;
+        modCount++;
+        if (index != null) {
+            Chain c = index.get(n.value);
+            if (n.prevSame == null) {
+                c.first = n.nextSame;
+            } else {
+                n.prevSame.nextSame = n.nextSame;
+            }
+            if (n.nextSame == null) {
+                c.last = n.prevSame;
+            } else {
+                n.nextSame.prevSame = n.prevSame;
+            }
+            if (c.first == null) {
+                index.remove(n.value);
+            }
+        }
+        n.prev = n.next = n.prevSame = n.nextSame = null;
+        return n.value;
+    }
+
+    /*
+     * Returns the node at a position, walking from the nearer end.
+     */
+    private Node node(int pos) {
+        if (pos < 0 || pos >= size) {
+            throw new IndexOutOfBoundsException("Index: " + pos + ", Size: "
+                    + size);
+        }
+        Node n;
+        if (pos < (size >> 1)) {
+            n = first;
+            for (int i = 0; i < pos; i++) {
+                n = n.next;
+            }
+        } else {
+            n = last;
+            for (int i = size - 1; i > pos; i--) {
+                n = n.prev;
+            }
+        }
+        return n;
+    }
+
+    /*
+     * Returns the first node of a value, or null.
+     */
+    private Node firstNode(Object o) {
+        HashMap<ByteArray, Chain> idx = index();
+        if (idx != null) {
+            Chain c = idx.get(o);
+            return c == null ? null : c.first;
+        }
+        for (Node n = first; n != null; n = n.next) {
+            if (eq(o, n.value)) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns the last node of a value, or null.
+     */
+    private Node lastNode(Object o) {
+        HashMap<ByteArray, Chain> idx = index();
+        if (idx != null) {
+            Chain c = idx.get(o);
+            return c == null ? null : c.last;
+        }
+        for (Node n = last; n != null; n = n.prev) {
+            if (eq(o, n.value)) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return firstNode(o) != null;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        int i = 0;
+        for (Node n = first; n != null; n = n.next, i++) {
+            if (eq(o, n.value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        int i = size - 1;
+        for (Node n = last; n != null; n = n.prev, i--) {
+            if (eq(o, n.value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean add(ByteArray value) {
+        linkLast(value);
+        return true;
+    }
+
+    @Override
+    public void add(int pos, ByteArray value) {
+        if (pos == size) {
+            linkLast(value);
+        } else if (pos == 0) {
+            linkFirst(value);
+        } else {
+            linkBefore(value, node(pos));
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends ByteArray> values) {
+        return addAll(size, values);
+    }
+
+    @Override
+    public boolean addAll(int pos, Collection<? extends ByteArray> values) {
+        if (pos < 0 || pos > size) {
+            throw new IndexOutOfBoundsException("Index: " + pos + ", Size: "
+                    + size);
+        }
+        Object[] a = values.toArray();
+        if (pos == size) {
+            for (int i = 0; i < a.length; i++) {
+                linkLast((ByteArray) a[i]);
+            }
+        } else {
+            ListIterator<ByteArray> it = listIterator(pos);
+            for (int i = 0; i < a.length; i++) {
+                it.add((ByteArray) a[i]);
+            }
+        }
+        return a.length != 0;
+    }
+
+    @Override
+    public void addFirst(ByteArray value) {
+        linkFirst(value);
+    }
+
+    @Override
+    public void addLast(ByteArray value) {
+        linkLast(value);
+    }
+
+    @Override
+    public boolean offer(ByteArray value) {
+        return add(value);
+    }
+
+    @Override
+    public boolean offerFirst(ByteArray value) {
+        linkFirst(value);
+        return true;
+    }
+
+    @Override
+    public boolean offerLast(ByteArray value) {
+        linkLast(value);
+        return true;
+    }
+
+    @Override
+    public void push(ByteArray value) {
+        linkFirst(value);
+    }
+
+    @Override
+    public ByteArray get(int pos) {
+        return node(pos).value;
+    }
+
+    @Override
+    public ByteArray set(int pos, ByteArray value) {
+        Node n = node(pos);
+        ByteArray old = n.value;
+        n.value = value;
+        index = null;
+        return old;
+    }
+
+    @Override
+    public ByteArray getFirst() {
+        if (first == null) {
+            throw new NoSuchElementException();
+        }
+        return first.value;
+    }
+
+    @Override
+    public ByteArray getLast() {
+        if (last == null) {
+            throw new NoSuchElementException();
+        }
+        return last.value;
+    }
+
+    @Override
+    public ByteArray element() {
+        return getFirst();
+    }
+
+    @Override
+    public ByteArray peek() {
+        return first == null ? null : first.value;
+    }
+
+    @Override
+    public ByteArray peekFirst() {
+        return peek();
+    }
+
+    @Override
+    public ByteArray peekLast() {
+        return last == null ? null : last.value;
+    }
+
+    @Override
+    public ByteArray remove(int pos) {
+        return unlink(node(pos));
+    }
+
+    /**
+     * Removes the first occurrence of a value.  Also used by
+     * removeFirstOccurrence.
+     */
+    @Override
+    public boolean remove(Object o) {
+        Node n = firstNode(o);
+        if (n == null) {
+            return false;
+        }
+        unlink(n);
+        return true;
+    }
+
+    @Override
+    public boolean removeFirstOccurrence(Object o) {
+        return remove(o);
+    }
+
+    @Override
+    public boolean removeLastOccurrence(Object o) {
+        Node n = lastNode(o);
+        if (n == null) {
+            return false;
+        }
+        unlink(n);
+        return true;
+    }
+
+    @Override
+    public ByteArray remove() {
+        return removeFirst();
+    }
+
+    @Override
+    public ByteArray removeFirst() {
+        if (first == null) {
+            throw new NoSuchElementException();
+        }
+        return unlink(first);
+    }
+
+    @Override
+    public ByteArray removeLast() {
+        if (last == null) {
+            throw new NoSuchElementException();
+        }
+        return unlink(last);
+    }
+
+    @Override
+    public ByteArray pop() {
+        return removeFirst();
+    }
+
+    @Override
+    public ByteArray poll() {
+        return first == null ? null : unlink(first);
+    }
+
+    @Override
+    public ByteArray pollFirst() {
+        return poll();
+    }
+
+    @Override
+    public ByteArray pollLast() {
+        return last == null ? null : unlink(last);
+    }
+
+    @Override
+    public void clear() {
+        for (Node n = first; n != null;) {
+            Node next = n.next;
+            n.prev = n.next = n.prevSame = n.nextSame = null;
+            n = next;
+        }
+        first = last = null;
+        size = 0;
+        index = null;
+        modCount++;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] a = new Object[size];
+        int i = 0;
+        for (Node n = first; n != null; n = n.next) {
+            a[i++] = n.value;
+        }
+        return a;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        if (a.length < size) {
+            a = (T[]) Array.newInstance(a.getClass().getComponentType(), size);
+        }
+        int i = 0;
+        for (Node n = first; n != null; n = n.next) {
+            a[i++] = (T) n.value;
+        }
+        if (a.length > size) {
+            a[size] = null;
+        }
+        return a;
+    }
+
+    @Override
+    public ListIterator<ByteArray> listIterator(int pos) {
+        if (pos < 0 || pos > size) {
+            throw new IndexOutOfBoundsException("Index: " + pos + ", Size: "
+                    + size);
+        }
+        return new Itr(pos);
+    }
+
+    @Override
+    public Iterator<ByteArray> descendingIterator() {
+        final ListIterator<ByteArray> it = new Itr(size);
+        return new Iterator<ByteArray>() {
+            public boolean hasNext() {
+                return it.hasPrevious();
+            }
+
+            public ByteArray next() {
+                return it.previous();
+            }
+
+            public void remove() {
+                it.remove();
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<ByteArray> spliterator() {
+        return Spliterators.spliterator(this, Spliterator.ORDERED);
+    }
+
+    @Override
+    public Object clone() {
+        // LinkedList.clone would share the nodes
+        return new ValueList(this);
+    }
+
+    /* A list iterator over the nodes */
+    private final class Itr implements ListIterator<ByteArray> {
+        private Node lastReturned = null;
+        private Node next;
+        private int nextIndex;
+        private int expectedModCount = modCount;
+
+        private Itr(int pos) {
+            next = (pos == size) ? null : node(pos);
+            nextIndex = pos;
+        }
+
+        public boolean hasNext() {
+            return nextIndex < size;
+        }
+
+        public ByteArray next() {
+            checkForComodification();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            next = next.next;
+            nextIndex++;
+            return lastReturned.value;
+        }
+
+        public boolean hasPrevious() {
+            return nextIndex > 0;
+        }
+
+        public ByteArray previous() {
+            checkForComodification();
+            if (!hasPrevious()) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next = (next == null) ? last : next.prev;
+            nextIndex--;
+            return lastReturned.value;
+        }
+
+        public int nextIndex() {
+            return nextIndex;
+        }
+
+        public int previousIndex() {
+            return nextIndex - 1;
+        }
+
+        public void remove() {
+            checkForComodification();
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            Node lastNext = lastReturned.next;
+            unlink(lastReturned);
+            if (next == lastReturned) {
+                next = lastNext;
+            } else {
+                nextIndex--;
+            }
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+
+        public void set(ByteArray value) {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            lastReturned.value = value;
+            index = null;
+        }
+
+        public void add(ByteArray value) {
+            checkForComodification();
+            lastReturned = null;
+            if (next == null) {
+                linkLast(value);
+            } else if (next == first) {
+                linkFirst(value);
+            } else {
+                linkBefore(value, next);
+            }
+            nextIndex++;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /*
+     * The values are written after the empty LinkedList.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (Node n = first; n != null; n = n.next) {
+            out.writeObject(n.value);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            linkLast((ByteArray) in.readObject());
+        }
+    }
+}
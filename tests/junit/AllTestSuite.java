@@ -13,9 +13,28 @@
  * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
  * CRIMINAL AND CIVIL LIABILITY.
  */
+import com.novell.ldap.HostConnectorTest;
+import com.novell.ldap.LDAPConnectionTest;
+import com.novell.ldap.LDAPExternalFormTest;
+import com.novell.ldap.LDAPReferralConnectionCacheTest;
+import com.novell.ldap.LDAPSchemaTest;
+import com.novell.ldap.LDAPThreadFactoryTest;
 import com.novell.ldap.LDAPUrlTest;
+import com.novell.ldap.LazyAttributeSetTest;
+import com.novell.ldap.SearchPublisherTest;
+import com.novell.ldap.SelectorReaderTest;
+import com.novell.ldap.asn1.LBERFrameReaderTest;
+import com.novell.ldap.client.ResponseRegistryTest;
+import com.novell.ldap.connectionpool.ConnectionPoolTest;
+import com.novell.ldap.events.LDAPEventSourceTest;
+import com.novell.ldap.rfc2251.RfcLDAPMessageTest;
+import com.novell.ldap.util.BulkLoaderTest;
+import com.novell.ldap.util.CanonicalDNTest;
+import com.novell.ldap.util.CompiledFilterTest;
 import com.novell.ldap.util.DSMLReaderTest;
 import com.novell.ldap.util.DSMLWriterTest;
+import com.novell.ldap.util.LDIFReaderTest;
+import com.novell.ldap.util.ValueListTest;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 /**
@@ -31,6 +50,25 @@ public class AllTestSuite {
 		suite.addTest(new TestSuite(LDAPUrlTest.class));
 		suite.addTest(new TestSuite(DSMLReaderTest.class));
 		suite.addTest(new TestSuite(DSMLWriterTest.class));
+		suite.addTest(new TestSuite(LBERFrameReaderTest.class));
+		suite.addTest(new TestSuite(ValueListTest.class));
+		suite.addTest(new TestSuite(LazyAttributeSetTest.class));
+		suite.addTest(new TestSuite(CompiledFilterTest.class));
+		suite.addTest(new TestSuite(LDAPExternalFormTest.class));
+		suite.addTest(new TestSuite(CanonicalDNTest.class));
+		suite.addTest(new TestSuite(LDIFReaderTest.class));
+		suite.addTest(new TestSuite(LDAPSchemaTest.class));
+		suite.addTest(new TestSuite(ConnectionPoolTest.class));
+		suite.addTest(new TestSuite(LDAPConnectionTest.class));
+		suite.addTest(new TestSuite(RfcLDAPMessageTest.class));
+		suite.addTest(new TestSuite(SearchPublisherTest.class));
+		suite.addTest(new TestSuite(SelectorReaderTest.class));
+		suite.addTest(new TestSuite(LDAPThreadFactoryTest.class));
+		suite.addTest(new TestSuite(HostConnectorTest.class));
+		suite.addTest(new TestSuite(LDAPReferralConnectionCacheTest.class));
+		suite.addTest(new TestSuite(ResponseRegistryTest.class));
+		suite.addTest(new TestSuite(LDAPEventSourceTest.class));
+		suite.addTest(new TestSuite(BulkLoaderTest.class));
 		//$JUnit-END$
 		return suite;
 	}
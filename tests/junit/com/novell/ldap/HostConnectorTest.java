@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for connecting to the first of a list of
+ * hosts.
+ */
+public class HostConnectorTest extends TestCase {
+	/**
+	 * This tests checks the first host listed is used when it connects
+	 * within the stagger delay, without trying the others.
+	 * 
+	 * @throws Exception
+	 */
+	public void testfirstHost() throws Exception {
+		Opener opener = new Opener();
+		opener.delay("first-a", 0);
+		opener.delay("first-b", 0);
+		HostConnector connector = new HostConnector(new String[] {
+				"first-a", "first-b" }, new int[] { 389, 389 }, 0, 1000, 0);
+		Socket s = connector.connect(opener);
+		assertEquals("first-a", connector.getHost());
+		assertSame(opener.socket("first-a"), s);
+		assertEquals(1, opener.opened().size());
+	}
+	/**
+	 * This tests checks the next host is tried in parallel when an attempt
+	 * is still pending after the stagger delay, the first to connect is
+	 * kept and a socket connected later is closed.
+	 * 
+	 * @throws Exception
+	 */
+	public void teststaggered() throws Exception {
+		Opener opener = new Opener();
+		opener.delay("race-a", 500);
+		opener.delay("race-b", 0);
+		HostConnector connector = new HostConnector(new String[] {
+				"race-a", "race-b" }, new int[] { 389, 389 }, 0, 50, 0);
+		long start = System.currentTimeMillis();
+		connector.connect(opener);
+		assertTrue(System.currentTimeMillis() - start < 400);
+		assertEquals("race-b", connector.getHost());
+		Thread.sleep(800);
+		assertTrue(opener.socket("race-a").isClosed());
+		assertFalse(opener.socket("race-b").isClosed());
+	}
+	/**
+	 * This tests checks a failed attempt starts the next one at once,
+	 * without waiting for the stagger delay.
+	 * 
+	 * @throws Exception
+	 */
+	public void testfailureStartsNext() throws Exception {
+		Opener opener = new Opener();
+		opener.fail("fail-a");
+		opener.delay("fail-b", 0);
+		HostConnector connector = new HostConnector(new String[] {
+				"fail-a", "fail-b" }, new int[] { 389, 389 }, 0, 10000, 0);
+		long start = System.currentTimeMillis();
+		connector.connect(opener);
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals("fail-b", connector.getHost());
+	}
+	/**
+	 * This tests checks attempts that do not complete within the time
+	 * limit fail the connect with a SocketTimeoutException.
+	 * 
+	 * @throws Exception
+	 */
+	public void testtimeout() throws Exception {
+		Opener opener = new Opener();
+		opener.delay("slow-a", 2000);
+		opener.delay("slow-b", 2000);
+		HostConnector connector = new HostConnector(new String[] {
+				"slow-a", "slow-b" }, new int[] { 389, 389 }, 200, 50, 0);
+		long start = System.currentTimeMillis();
+		try {
+			connector.connect(opener);
+			fail("connect must time out");
+		} catch (SocketTimeoutException e) {
+			// expected
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(2, opener.opened().size());
+	}
+	/**
+	 * This tests checks a single host whose opener ignores the time limit
+	 * still fails the connect once the time limit expires.
+	 * 
+	 * @throws Exception
+	 */
+	public void testsingleHostTimeout() throws Exception {
+		Opener opener = new Opener();
+		opener.delay("alone", 2000);
+		HostConnector connector = new HostConnector(new String[] { "alone" },
+				new int[] { 389 }, 200, 50, 0);
+		long start = System.currentTimeMillis();
+		try {
+			connector.connect(opener);
+			fail("connect must time out");
+		} catch (SocketTimeoutException e) {
+			// expected
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(1, opener.opened().size());
+	}
+	/**
+	 * This tests checks a host that failed is tried after the others for
+	 * the cooldown period, and in its listed place once it connects.
+	 * 
+	 * @throws Exception
+	 */
+	public void testcooldown() throws Exception {
+		Opener opener = new Opener();
+		opener.fail("cool-a");
+		opener.delay("cool-b", 0);
+		String[] hosts = new String[] { "cool-a", "cool-b" };
+		int[] ports = new int[] { 389, 389 };
+		new HostConnector(hosts, ports, 0, 10000, 60000).connect(opener);
+		assertEquals("cool-a", opener.opened().get(0));
+		opener = new Opener();
+		opener.delay("cool-a", 0);
+		opener.delay("cool-b", 0);
+		HostConnector connector = new HostConnector(hosts, ports, 0, 10000,
+				60000);
+		connector.connect(opener);
+		assertEquals("cool-b", connector.getHost());
+		assertEquals(1, opener.opened().size());
+		// A single host is still tried, and clears the failure
+		connector = new HostConnector(new String[] { "cool-a" },
+				new int[] { 389 }, 0, 10000, 60000);
+		connector.connect(opener);
+		connector = new HostConnector(hosts, ports, 0, 10000, 60000);
+		connector.connect(opener);
+		assertEquals("cool-a", connector.getHost());
+	}
+	/**
+	 * This tests checks failures are not remembered without a cooldown
+	 * period, keeping the listed order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testnoCooldown() throws Exception {
+		Opener opener = new Opener();
+		opener.fail("keep-a");
+		opener.delay("keep-b", 0);
+		String[] hosts = new String[] { "keep-a", "keep-b" };
+		int[] ports = new int[] { 389, 389 };
+		new HostConnector(hosts, ports, 0, 10000, 0).connect(opener);
+		opener = new Opener();
+		opener.delay("keep-a", 0);
+		opener.delay("keep-b", 0);
+		HostConnector connector = new HostConnector(hosts, ports, 0, 10000,
+				0);
+		connector.connect(opener);
+		assertEquals("keep-a", connector.getHost());
+	}
+	/*
+	 * Opens sockets, not connected, after a delay set for each host, or
+	 * fails for hosts set to fail.  Records the hosts opened and the
+	 * sockets returned.
+	 */
+	private static class Opener implements HostConnector.Opener {
+		private final List delays = new ArrayList();
+		private final List opened = new ArrayList();
+		private final List sockets = new ArrayList();
+		void delay(String host, long millis) {
+			delays.add(new Object[] { host, Long.valueOf(millis) });
+		}
+		void fail(String host) {
+			delays.add(new Object[] { host, null });
+		}
+		synchronized List opened() {
+			return new ArrayList(opened);
+		}
+		synchronized Socket socket(String host) {
+			int i = opened.indexOf(host);
+			return (i < 0) ? null : (Socket) sockets.get(i);
+		}
+		public Socket open(String host, int port) throws IOException {
+			Long delay = null;
+			for (int i = 0; i < delays.size(); i++) {
+				Object[] d = (Object[]) delays.get(i);
+				if (d[0].equals(host)) {
+					delay = (Long) d[1];
+				}
+			}
+			Socket s = new Socket();
+			synchronized (this) {
+				opened.add(host);
+				sockets.add(s);
+			}
+			if (delay == null) {
+				throw new ConnectException(host + " refused");
+			}
+			try {
+				Thread.sleep(delay.longValue());
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+			return s;
+		}
+		public Thread newThread(Runnable r) {
+			return new Thread(r);
+		}
+		public boolean isTimed() {
+			return false;
+		}
+	}
+}
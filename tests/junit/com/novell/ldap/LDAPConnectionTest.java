@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for requests sent on an LDAPConnection to
+ * the in-process TestServer.
+ */
+public class LDAPConnectionTest extends TestCase {
+	private TestServer server;
+	private LDAPConnection conn;
+	protected void setUp() throws Exception {
+		server = new TestServer(5);
+		conn = new LDAPConnection();
+		conn.connect("127.0.0.1", server.getPort());
+	}
+	protected void tearDown() throws Exception {
+		conn.disconnect();
+		server.close();
+	}
+	/*
+	 * Runs count threads each doing a search, and fails with the first
+	 * error any of them had.
+	 */
+	private void concurrentSearches(int count) throws Exception {
+		final Throwable[] error = new Throwable[1];
+		Thread[] threads = new Thread[count];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 20; j++) {
+							LDAPSearchResults results = conn.search(
+									"dc=example,dc=com",
+									LDAPConnection.SCOPE_SUB, "(cn=*)", null,
+									false);
+							int n = 0;
+							while (results.hasMore()) {
+								assertEquals(TestServer.dn(n++), results
+										.next().getDN());
+							}
+							assertEquals(5, n);
+						}
+					} catch (Throwable t) {
+						synchronized (error) {
+							error[0] = t;
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+		if (error[0] instanceof Exception) {
+			throw (Exception) error[0];
+		}
+		if (error[0] != null) {
+			throw (Error) error[0];
+		}
+	}
+	/**
+	 * This tests checks the replies of requests outstanding together on
+	 * one connection each reach their own request.
+	 * 
+	 * @throws Exception
+	 */
+	public void testconcurrentRequests() throws Exception {
+		concurrentSearches(8);
+		assertEquals(160, server.getRequests(LDAPMessage.SEARCH_REQUEST));
+	}
+	/**
+	 * This tests checks a request the server does not answer in time fails
+	 * with LDAP_TIMEOUT, and requests answered in time leave no timers
+	 * pending.
+	 * 
+	 * @throws Exception
+	 */
+	public void testtimeLimit() throws Exception {
+		LDAPConstraints cons = new LDAPConstraints();
+		cons.setTimeLimit(5000);
+		for (int i = 0; i < 10; i++) {
+			conn.delete(TestServer.dn(i), cons);
+		}
+		assertEquals(Integer.valueOf(0), conn
+				.getProperty(LDAPConnection.LDAP_PROPERTY_PENDING_TIMERS));
+
+		server.setDelay(1000);
+		cons.setTimeLimit(100);
+		long start = System.currentTimeMillis();
+		try {
+			conn.delete(TestServer.dn(0), cons);
+			fail("delete must time out");
+		} catch (LDAPException e) {
+			assertEquals(LDAPException.LDAP_TIMEOUT, e.getResultCode());
+		}
+		assertTrue(System.currentTimeMillis() - start < 900);
+	}
+	/**
+	 * This tests checks requests written together through the write
+	 * pipeline by several threads each get their own replies.
+	 * 
+	 * @throws Exception
+	 */
+	public void testpipelinedWrites() throws Exception {
+		LDAPConstraints cons = conn.getConstraints();
+		cons.setProperty(LDAPConnection.LDAP_PROPERTY_PIPELINED_WRITES,
+				Boolean.TRUE);
+		conn.setConstraints(cons);
+		assertEquals(Boolean.TRUE, conn
+				.getProperty(LDAPConnection.LDAP_PROPERTY_PIPELINED_WRITES));
+		concurrentSearches(8);
+		assertEquals(160, server.getRequests(LDAPMessage.SEARCH_REQUEST));
+	}
+	/*
+	 * Starts a search of a server with count entries, queueing no more than
+	 * ten replies at a time.
+	 */
+	private LDAPSearchQueue limitedSearch(LDAPConnection ld)
+			throws Exception {
+		LDAPSearchConstraints cons = ld.getSearchConstraints();
+		cons.setReplyQueueLimits(10, 5);
+		return ld.search("dc=example,dc=com", LDAPConnection.SCOPE_SUB,
+				"(cn=*)", null, false, (LDAPSearchQueue) null, cons);
+	}
+	/*
+	 * Returns the message of the only request on a queue.
+	 */
+	private static Message message(LDAPMessageQueue queue) throws Exception {
+		return queue.getMessageAgent().getMessage(queue.getMessageIDs()[0]);
+	}
+	/*
+	 * Reads count entries, in order, then the search result.
+	 */
+	private static void readAll(LDAPSearchQueue queue, int count)
+			throws Exception {
+		for (int i = 0; i < count; i++) {
+			LDAPMessage reply = queue.getResponse();
+			assertTrue(reply instanceof LDAPSearchResult);
+			assertEquals(TestServer.dn(i), ((LDAPSearchResult) reply)
+					.getEntry().getDN());
+		}
+		LDAPMessage result = queue.getResponse();
+		assertTrue(result instanceof LDAPResponse);
+		assertEquals(LDAPException.SUCCESS, ((LDAPResponse) result)
+				.getResultCode());
+	}
+	/*
+	 * Checks a search that is the only request on a connection stops the
+	 * reader at the high water mark, without spilling, and resumes it.
+	 */
+	private void pausedReader(LDAPConnection ld) throws Exception {
+		LDAPSearchQueue queue = limitedSearch(ld);
+		Message info = message(queue);
+		Thread.sleep(500);
+		assertTrue(info.getCount() <= 10);
+		assertFalse(info.isSpilling());
+		readAll(queue, 500);
+	}
+	/**
+	 * This tests checks the reader stops reading at the high water mark
+	 * of the only request outstanding, and resumes below the low water
+	 * mark.
+	 * 
+	 * @throws Exception
+	 */
+	public void testpauseResume() throws Exception {
+		TestServer large = new TestServer(500);
+		LDAPConnection ld = new LDAPConnection();
+		try {
+			ld.connect("127.0.0.1", large.getPort());
+			pausedReader(ld);
+		} finally {
+			ld.disconnect();
+			large.close();
+		}
+	}
+	/**
+	 * This tests checks the selector transport stops reading at the high
+	 * water mark of the only request outstanding, and resumes below the
+	 * low water mark.
+	 * 
+	 * @throws Exception
+	 */
+	public void testpauseResumeSelector() throws Exception {
+		TestServer large = new TestServer(500);
+		LDAPConnection ld = new LDAPConnection();
+		try {
+			LDAPConstraints cons = ld.getConstraints();
+			cons.setProperty(LDAPConnection.LDAP_PROPERTY_SELECTOR_TRANSPORT,
+					Boolean.TRUE);
+			ld.setConstraints(cons);
+			ld.connect("127.0.0.1", large.getPort());
+			pausedReader(ld);
+		} finally {
+			ld.disconnect();
+			large.close();
+		}
+	}
+	/**
+	 * This tests checks replies past the high water mark are spilled while
+	 * another request is outstanding, and come back in order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testspill() throws Exception {
+		TestServer large = new TestServer(500);
+		LDAPConnection ld = new LDAPConnection();
+		try {
+			ld.connect("127.0.0.1", large.getPort());
+			// Never answered, keeps the reader from pausing
+			ld.extendedOperation(new LDAPExtendedOperation("1.2.3", null),
+					(LDAPResponseQueue) null);
+			LDAPSearchQueue queue = limitedSearch(ld);
+			Message info = message(queue);
+			long end = System.currentTimeMillis() + 5000;
+			while (info.getCount() < 500 && System.currentTimeMillis() < end) {
+				Thread.sleep(20);
+			}
+			assertEquals(500, info.getCount());
+			assertTrue(info.isSpilling());
+			readAll(queue, 500);
+			assertFalse(info.isSpilling());
+		} finally {
+			ld.disconnect();
+			large.close();
+		}
+	}
+	/**
+	 * This tests checks a search going over the spill limit fails with
+	 * NO_MEMORY, and leaves the connection usable.
+	 * 
+	 * @throws Exception
+	 */
+	public void testspillLimit() throws Exception {
+		TestServer large = new TestServer(500);
+		LDAPConnection ld = new LDAPConnection();
+		try {
+			LDAPConstraints cons = ld.getConstraints();
+			cons.setProperty(LDAPConnection.LDAP_PROPERTY_MAX_SPILL_SIZE,
+					Integer.valueOf(2000));
+			ld.setConstraints(cons);
+			assertEquals(Integer.valueOf(2000), ld
+					.getProperty(LDAPConnection.LDAP_PROPERTY_MAX_SPILL_SIZE));
+			ld.connect("127.0.0.1", large.getPort());
+			ld.extendedOperation(new LDAPExtendedOperation("1.2.3", null),
+					(LDAPResponseQueue) null);
+			LDAPSearchQueue queue = limitedSearch(ld);
+			int entries = 0;
+			LDAPMessage reply;
+			while ((reply = queue.getResponse()) instanceof LDAPSearchResult) {
+				entries++;
+			}
+			assertTrue(entries < 500);
+			assertEquals(LDAPException.NO_MEMORY, ((LDAPResponse) reply)
+					.getResultCode());
+
+			LDAPSearchResults results = ld.search("dc=example,dc=com",
+					LDAPConnection.SCOPE_SUB, "(cn=*)", null, false);
+			int n = 0;
+			while (results.hasMore()) {
+				assertEquals(TestServer.dn(n++), results.next().getDN());
+			}
+			assertEquals(500, n);
+		} finally {
+			ld.disconnect();
+			large.close();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the XML and binary serialized forms of
+ * attributes, entries and messages.
+ */
+public class LDAPExternalFormTest extends TestCase {
+	private LDAPEntry entry;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		LDAPAttributeSet attrs = new LDAPAttributeSet();
+		attrs.add(new LDAPAttribute("objectClass", new String[] { "top",
+				"person" }));
+		attrs.add(new LDAPAttribute("cn", "Barbara Jensen"));
+		attrs.add(new LDAPAttribute("description;lang-fr", "été"));
+		byte[] photo = new byte[300];
+		for (int i = 0; i < photo.length; i++) {
+			photo[i] = (byte) i;
+		}
+		attrs.add(new LDAPAttribute("jpegPhoto", photo));
+		entry = new LDAPEntry("cn=Barbara Jensen,dc=example,dc=com", attrs);
+	}
+
+	protected void tearDown() throws Exception {
+		LDAPExternalForm.setDefault(LDAPExternalForm.XML);
+		super.tearDown();
+	}
+
+	private static byte[] write(Object o) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object read(byte[] b) throws Exception {
+		return new ObjectInputStream(new ByteArrayInputStream(b)).readObject();
+	}
+
+	private static void assertSameAttribute(LDAPAttribute a, LDAPAttribute b) {
+		assertNotNull(b);
+		assertEquals(a.getName(), b.getName());
+		byte[][] av = a.getByteValueArray();
+		byte[][] bv = b.getByteValueArray();
+		assertEquals(av.length, bv.length);
+		for (int i = 0; i < av.length; i++) {
+			assertTrue(java.util.Arrays.equals(av[i], bv[i]));
+		}
+	}
+
+	private void assertSameEntry(LDAPEntry e) {
+		assertEquals(entry.getDN(), e.getDN());
+		assertEquals(entry.getAttributeSet().size(), e.getAttributeSet().size());
+		java.util.Iterator i = entry.getAttributeSet().iterator();
+		while (i.hasNext()) {
+			LDAPAttribute a = (LDAPAttribute) i.next();
+			assertSameAttribute(a, e.getAttribute(a.getName()));
+		}
+	}
+
+	/**
+	 * Each class must read back what it wrote in the binary form, and that
+	 * form must be smaller than the XML form.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testBinaryForm() throws Exception {
+		byte[] xml = write(entry);
+		LDAPExternalForm.setDefault(LDAPExternalForm.BINARY);
+		byte[] binary = write(entry);
+		assertTrue(binary.length < xml.length);
+		assertSameEntry((LDAPEntry) read(binary));
+
+		LDAPAttribute photo = entry.getAttribute("jpegPhoto");
+		assertSameAttribute(photo, (LDAPAttribute) read(write(photo)));
+
+		LDAPAttributeSet set = (LDAPAttributeSet) read(write(entry
+				.getAttributeSet()));
+		assertEquals(entry.getAttributeSet().size(), set.size());
+		assertSameAttribute(entry.getAttribute("cn"), set.getAttribute("cn"));
+
+		LDAPSearchResult result = new LDAPSearchResult(entry, null);
+		LDAPSearchResult copy = (LDAPSearchResult) read(write(result));
+		assertEquals(LDAPMessage.SEARCH_RESPONSE, copy.getType());
+		LDAPEntry e = copy.getEntry();
+		assertSameEntry(e);
+
+		// An entry read back is written again without decoding it
+		assertSameEntry((LDAPEntry) read(write(read(binary))));
+	}
+
+	/**
+	 * Changes made to the entry of a search result must be kept in the
+	 * binary form, whether the result was read back or constructed.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testModifiedSearchResult() throws Exception {
+		LDAPExternalForm.setDefault(LDAPExternalForm.BINARY);
+		LDAPControl[] controls = new LDAPControl[] { new LDAPControl(
+				"1.2.3.4", true, new byte[] { 1, 2 }) };
+		LDAPSearchResult result = (LDAPSearchResult) read(write(
+				new LDAPSearchResult(entry, controls)));
+		LDAPEntry e = result.getEntry();
+		e.getAttribute("cn").addValue("Babs Jensen");
+		e.getAttributeSet().add(new LDAPAttribute("mail", "bjensen@example.com"));
+		e.getAttributeSet().remove("jpegPhoto");
+		LDAPSearchResult copy = (LDAPSearchResult) read(write(result));
+		LDAPEntry c = copy.getEntry();
+		assertEquals(entry.getDN(), c.getDN());
+		assertEquals(2, c.getAttribute("cn").size());
+		assertEquals("bjensen@example.com", c.getAttribute("mail")
+				.getStringValue());
+		assertNull(c.getAttribute("jpegPhoto"));
+		assertSameAttribute(entry.getAttribute("objectClass"), c
+				.getAttribute("objectClass"));
+		assertEquals(1, copy.getControls().length);
+		assertEquals("1.2.3.4", copy.getControls()[0].getID());
+
+		result = new LDAPSearchResult(entry, null);
+		entry.getAttributeSet().remove("description;lang-fr");
+		c = ((LDAPSearchResult) read(write(result))).getEntry();
+		assertNull(c.getAttribute("description;lang-fr"));
+		assertEquals(3, c.getAttributeSet().size());
+	}
+
+	/**
+	 * The lazily decoded attributes of an entry read back must serialize as
+	 * the LDAPAttributeSet they are equivalent to.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testLazyAttributeSet() throws Exception {
+		LDAPExternalForm.setDefault(LDAPExternalForm.BINARY);
+		LDAPEntry e = (LDAPEntry) read(write(entry));
+		assertTrue(e.getAttributeSet() instanceof LazyAttributeSet);
+
+		LDAPAttributeSet set = (LDAPAttributeSet) read(write(e
+				.getAttributeSet()));
+		assertEquals(LDAPAttributeSet.class, set.getClass());
+		assertEquals(entry.getAttributeSet().size(), set.size());
+		java.util.Iterator i = entry.getAttributeSet().iterator();
+		while (i.hasNext()) {
+			LDAPAttribute a = (LDAPAttribute) i.next();
+			assertSameAttribute(a, set.getAttribute(a.getName()));
+		}
+	}
+
+	/**
+	 * Objects written in the XML form must still be read whatever the form
+	 * selected, and requests are always written as XML.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testXMLCompatibility() throws Exception {
+		// The XML form of an entry only keeps ASCII text values
+		entry.getAttributeSet().remove(entry.getAttribute("jpegPhoto"));
+		entry.getAttributeSet().remove(entry.getAttribute("description;lang-fr"));
+		byte[] xmlEntry = write(entry);
+		byte[] xmlAttr = write(entry.getAttribute("cn"));
+		LDAPExternalForm.setDefault(LDAPExternalForm.BINARY);
+		assertSameEntry((LDAPEntry) read(xmlEntry));
+		assertSameAttribute(entry.getAttribute("cn"),
+				(LDAPAttribute) read(xmlAttr));
+
+		LDAPDeleteRequest request = new LDAPDeleteRequest(entry.getDN(), null);
+		LDAPDeleteRequest copy = (LDAPDeleteRequest) read(write(request));
+		assertEquals(entry.getDN(), copy.getDN());
+	}
+}
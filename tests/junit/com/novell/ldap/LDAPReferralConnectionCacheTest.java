@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.io.IOException;
+import java.io.OutputStream;
+import junit.framework.TestCase;
+import com.novell.ldap.asn1.ASN1Sequence;
+/**
+ * This Class contains testcases for keeping referral connections for
+ * reuse.
+ */
+public class LDAPReferralConnectionCacheTest extends TestCase {
+	private static final byte[] PW = "secret".getBytes();
+	private TestServer server;
+	protected void setUp() throws Exception {
+		server = new TestServer(0);
+	}
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+	/**
+	 * This tests checks a released connection is reused for the same
+	 * server and credentials only.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreuse() throws Exception {
+		LDAPReferralConnectionCache cache = new LDAPReferralConnectionCache();
+		LDAPConnection conn = connect();
+		assertTrue(cache.add(conn, null, "127.0.0.1", server.getPort(),
+				"cn=a", PW));
+		assertNull(cache.get(null, "127.0.0.1", server.getPort(), "cn=a",
+				PW));
+		assertTrue(cache.release(conn));
+		assertEquals(1, cache.getIdleCount());
+		assertNull(cache.get(null, "127.0.0.1", server.getPort(), "cn=b",
+				PW));
+		assertNull(cache.get(null, "127.0.0.1", server.getPort(), "cn=a",
+				"other".getBytes()));
+		assertSame(conn, cache.get(null, "127.0.0.1", server.getPort(),
+				"cn=a", PW));
+		assertEquals(0, cache.getIdleCount());
+		cache.close();
+		assertTrue(cache.release(conn));
+		assertFalse(conn.isConnected());
+	}
+	/**
+	 * This tests checks no more than maxPerHost connections are kept to a
+	 * server, counting those in use.
+	 * 
+	 * @throws Exception
+	 */
+	public void testmaxPerHost() throws Exception {
+		LDAPReferralConnectionCache cache =
+				new LDAPReferralConnectionCache(1, 60000, 10000);
+		LDAPConnection first = connect();
+		LDAPConnection second = connect();
+		try {
+			assertTrue(cache.add(first, null, "127.0.0.1", server.getPort(),
+					"cn=a", PW));
+			assertFalse(cache.add(second, null, "127.0.0.1", server
+					.getPort(), "cn=b", PW));
+			assertFalse(cache.release(second));
+			assertTrue(cache.release(first));
+			assertFalse(cache.add(second, null, "127.0.0.1", server
+					.getPort(), "cn=b", PW));
+		} finally {
+			second.disconnect();
+			cache.close();
+		}
+		assertFalse(first.isConnected());
+	}
+	/**
+	 * This tests checks connections idle for the idle timeout are
+	 * disconnected and no longer counted, making room for others.
+	 * 
+	 * @throws Exception
+	 */
+	public void testidleEviction() throws Exception {
+		LDAPReferralConnectionCache cache =
+				new LDAPReferralConnectionCache(1, 200, 10000);
+		LDAPConnection conn = connect();
+		assertTrue(cache.add(conn, null, "127.0.0.1", server.getPort(),
+				"cn=a", PW));
+		assertTrue(cache.release(conn));
+		assertEquals(1, cache.getIdleCount());
+		long end = System.currentTimeMillis() + 5000;
+		while ((cache.getIdleCount() > 0 || conn.isConnected())
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, cache.getIdleCount());
+		assertFalse(conn.isConnected());
+		assertNull(cache.get(null, "127.0.0.1", server.getPort(), "cn=a",
+				PW));
+		LDAPConnection next = connect();
+		assertTrue(cache.add(next, null, "127.0.0.1", server.getPort(),
+				"cn=a", PW));
+		cache.release(next);
+		cache.close();
+		assertFalse(next.isConnected());
+	}
+	/**
+	 * This tests checks a connection closed while idle is not reused, and
+	 * no longer counted.
+	 * 
+	 * @throws Exception
+	 */
+	public void testclosedNotReused() throws Exception {
+		LDAPReferralConnectionCache cache =
+				new LDAPReferralConnectionCache(1, 60000, 10000);
+		LDAPConnection conn = connect();
+		assertTrue(cache.add(conn, null, "127.0.0.1", server.getPort(),
+				"cn=a", PW));
+		assertTrue(cache.release(conn));
+		conn.disconnect();
+		assertNull(cache.get(null, "127.0.0.1", server.getPort(), "cn=a",
+				PW));
+		assertEquals(0, cache.getIdleCount());
+		LDAPConnection next = connect();
+		assertTrue(cache.add(next, null, "127.0.0.1", server.getPort(),
+				"cn=a", PW));
+		cache.release(next);
+		cache.close();
+	}
+	/**
+	 * This tests checks a connection made to follow a search reference is
+	 * released to the cache it was taken from, even when the constraints
+	 * name another cache by the time the search completes.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreleaseToAcquiringCache() throws Exception {
+		TestServer target = new TestServer(3);
+		final String url = "ldap://127.0.0.1:" + target.getPort() + "/";
+		TestServer referring = new TestServer(0) {
+			protected void respond(int id, ASN1Sequence request,
+					OutputStream out) throws IOException {
+				int tag = request.get(1).getIdentifier().getTag();
+				if (tag != LDAPMessage.SEARCH_REQUEST) {
+					super.respond(id, request, out);
+					return;
+				}
+				byte[] ref = url.getBytes("UTF-8");
+				byte[] op = new byte[ref.length + 4];
+				op[0] = 0x73; // SearchResultReference
+				op[1] = (byte) (ref.length + 2);
+				op[2] = 0x04;
+				op[3] = (byte) ref.length;
+				System.arraycopy(ref, 0, op, 4, ref.length);
+				writeMessage(out, id, op);
+				writeMessage(out, id, result(LDAPMessage.SEARCH_RESULT, 0));
+			}
+		};
+		LDAPReferralConnectionCache first = new LDAPReferralConnectionCache();
+		LDAPReferralConnectionCache second = new LDAPReferralConnectionCache();
+		LDAPConnection conn = new LDAPConnection();
+		try {
+			conn.connect("127.0.0.1", referring.getPort());
+			LDAPSearchConstraints cons = conn.getSearchConstraints();
+			cons.setReferralFollowing(true);
+			cons.setBatchSize(1);
+			cons.setProperty(LDAPConnection.LDAP_PROPERTY_REFERRAL_CACHE,
+					first);
+			conn.setConstraints(cons);
+			LDAPSearchResults results = conn.search("",
+					LDAPConnection.SCOPE_SUB, "(objectClass=*)", null, false);
+			results.next();
+			cons.setProperty(LDAPConnection.LDAP_PROPERTY_REFERRAL_CACHE,
+					second);
+			conn.setConstraints(cons);
+			int n = 1;
+			while (results.hasMore()) {
+				results.next();
+				n++;
+			}
+			assertEquals(3, n);
+			assertEquals(1, first.getIdleCount());
+			assertEquals(0, second.getIdleCount());
+		} finally {
+			conn.disconnect();
+			first.close();
+			second.close();
+			referring.close();
+			target.close();
+		}
+	}
+	private LDAPConnection connect() throws Exception {
+		LDAPConnection conn = new LDAPConnection();
+		conn.connect("127.0.0.1", server.getPort());
+		return conn;
+	}
+}
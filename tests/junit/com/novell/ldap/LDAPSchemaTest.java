@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for parsing schema definitions into
+ * LDAPSchema.
+ */
+public class LDAPSchemaTest extends TestCase {
+	private static LDAPSchema schema(String attrName, String[] values) {
+		LDAPAttributeSet attrs = new LDAPAttributeSet();
+		attrs.add(new LDAPAttribute(attrName, values));
+		return new LDAPSchema(new LDAPEntry("cn=schema", attrs));
+	}
+	/**
+	 * This tests checks the fields of attribute type definitions, including
+	 * qualifiers and a description holding backslashes.
+	 * 
+	 * @throws Exception
+	 */
+	public void testparseAttributeTypes() throws Exception {
+		LDAPSchema schema = schema("attributeTypes", new String[] {
+				"( 2.5.4.3 NAME ( 'cn' 'commonName' ) SUP name )",
+				"( 2.16.840.1.113719.1.1.4.1.1 NAME 'Aliased Object Name'"
+						+ " DESC 'C:\\dir\\file' EQUALITY distinguishedNameMatch"
+						+ " SYNTAX 1.3.6.1.4.1.1466.115.121.1.12{64}"
+						+ " SINGLE-VALUE NO-USER-MODIFICATION"
+						+ " USAGE directoryOperation"
+						+ " X-NDS_PUBLIC_READ '1' X-NDS_NAME ( 'a' 'b' ) )" });
+		LDAPAttributeSchema cn = schema.getAttributeSchema("commonName");
+		assertEquals("2.5.4.3", cn.getID());
+		assertEquals("name", cn.getSuperior());
+		assertSame(cn, schema.getAttributeSchema("CN"));
+		LDAPAttributeSchema alias = schema
+				.getAttributeSchema("2.16.840.1.113719.1.1.4.1.1");
+		assertEquals("Aliased Object Name", alias.getNames()[0]);
+		assertEquals("C:\\dir\\file", alias.getDescription());
+		assertEquals("distinguishedNameMatch", alias.getEqualityMatchingRule());
+		assertEquals("1.3.6.1.4.1.1466.115.121.1.12{64}", alias
+				.getSyntaxString());
+		assertTrue(alias.isSingleValued());
+		assertFalse(alias.isUserModifiable());
+		assertEquals(LDAPAttributeSchema.DIRECTORY_OPERATION, alias.getUsage());
+		assertEquals("1", alias.getQualifier("X-NDS_PUBLIC_READ")[0]);
+		assertEquals(2, alias.getQualifier("X-NDS_NAME").length);
+	}
+	/**
+	 * This tests checks the fields of object class definitions.
+	 * 
+	 * @throws Exception
+	 */
+	public void testparseObjectClasses() throws Exception {
+		LDAPSchema schema = schema("objectClasses", new String[] {
+				"( 2.5.6.6 NAME 'person' SUP top STRUCTURAL MUST ( sn $ cn )"
+						+ " MAY ( userPassword $ telephoneNumber $ seeAlso ) )",
+				"( 1.2.3 NAME 'mixin' AUXILIARY MAY description )" });
+		LDAPObjectClassSchema person = schema.getObjectClassSchema("person");
+		assertEquals("top", person.getSuperiors()[0]);
+		assertEquals(LDAPObjectClassSchema.STRUCTURAL, person.getType());
+		assertEquals(2, person.getRequiredAttributes().length);
+		assertEquals(3, person.getOptionalAttributes().length);
+		LDAPObjectClassSchema mixin = schema.getObjectClassSchema("mixin");
+		assertEquals(LDAPObjectClassSchema.AUXILIARY, mixin.getType());
+		assertEquals("description", mixin.getOptionalAttributes()[0]);
+	}
+	/**
+	 * This tests checks that a definition ending inside a list is parsed
+	 * rather than read forever.
+	 * 
+	 * @throws Exception
+	 */
+	public void testparseUnterminatedList() throws Exception {
+		LDAPSchema schema = schema("objectClasses",
+				new String[] { "( 1.2.4 NAME 'broken' MUST ( cn $ sn" });
+		LDAPObjectClassSchema broken = schema.getObjectClassSchema("broken");
+		assertEquals(2, broken.getRequiredAttributes().length);
+	}
+	/**
+	 * This tests checks that a schema marked read-only, as shared by
+	 * LDAPSchemaCache, rejects changes to its elements and hands out copies
+	 * of its attributes.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadOnly() throws Exception {
+		LDAPSchema schema = schema("attributeTypes",
+				new String[] { "( 2.5.4.3 NAME 'cn' SUP name )" });
+		schema.setReadOnly();
+		LDAPAttributeSchema cn = schema.getAttributeSchema("cn");
+		try {
+			cn.setQualifier("X-TEST", new String[] { "1" });
+			fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			cn.addValue("( 1.2.3 NAME 'other' )");
+			fail("expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+		}
+		assertNull(cn.getQualifier("X-TEST"));
+		schema.getAttribute("attributeTypes").addValue("( 1.2.3 NAME 'x' )");
+		assertEquals(1, schema.getAttribute("attributeTypes").size());
+		schema.getAttributeSet().remove("attributeTypes");
+		assertNotNull(schema.getAttribute("attributeTypes"));
+	}
+}
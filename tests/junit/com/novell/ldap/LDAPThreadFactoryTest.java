@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.util.concurrent.ThreadFactory;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the factories of the threads the
+ * library starts.
+ */
+public class LDAPThreadFactoryTest extends TestCase {
+	private static final Runnable NOTHING = new Runnable() {
+		public void run() {
+		}
+	};
+	/**
+	 * This tests checks platform threads are daemon threads named with the
+	 * prefix and a sequence number.
+	 * 
+	 * @throws Exception
+	 */
+	public void testplatformThreads() throws Exception {
+		LDAPThreadFactory factory = new LDAPThreadFactory("Test");
+		assertFalse(factory.isVirtual());
+		Thread first = factory.newThread(NOTHING);
+		Thread second = factory.newThread(NOTHING);
+		assertEquals("Test-1", first.getName());
+		assertEquals("Test-2", second.getName());
+		assertTrue(first.isDaemon());
+	}
+	/**
+	 * This tests checks virtual threads are created, and named, when the
+	 * runtime supports them, and refused otherwise.
+	 * 
+	 * @throws Exception
+	 */
+	public void testvirtualThreads() throws Exception {
+		if (!LDAPThreadFactory.isVirtualThreadSupported()) {
+			try {
+				LDAPThreadFactory.newVirtualThreadFactory("Test");
+				fail("virtual threads are not supported");
+			} catch (UnsupportedOperationException e) {
+				// expected
+			}
+			return;
+		}
+		LDAPThreadFactory factory = LDAPThreadFactory
+				.newVirtualThreadFactory("Test");
+		assertTrue(factory.isVirtual());
+		assertEquals("Test-1", factory.newThread(NOTHING).getName());
+		assertEquals("Test-2", factory.newThread(NOTHING).getName());
+	}
+	/**
+	 * This tests checks a connection starts its reader thread with the
+	 * factory set by the thread factory property.
+	 * 
+	 * @throws Exception
+	 */
+	public void testconnectionFactory() throws Exception {
+		final int[] created = new int[1];
+		ThreadFactory factory = new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				created[0]++;
+				return new Thread(r, "Counted");
+			}
+		};
+		TestServer server = new TestServer(1);
+		LDAPConnection conn = new LDAPConnection();
+		try {
+			LDAPConstraints cons = conn.getConstraints();
+			cons.setProperty(LDAPConnection.LDAP_PROPERTY_THREAD_FACTORY,
+					factory);
+			conn.setConstraints(cons);
+			assertSame(factory, conn
+					.getProperty(LDAPConnection.LDAP_PROPERTY_THREAD_FACTORY));
+			conn.connect("127.0.0.1", server.getPort());
+			conn.delete(TestServer.dn(0));
+			assertTrue(created[0] >= 1);
+		} finally {
+			conn.disconnect();
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import junit.framework.TestCase;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1Set;
+import com.novell.ldap.asn1.LBEREncoder;
+/**
+ * This Class contains testcases for the attributes of a search result
+ * entry created lazily from its encoding.
+ */
+public class LazyAttributeSetTest extends TestCase {
+	/**
+	 * Returns the content octets of a PartialAttributeList holding the
+	 * given attribute names, each with the values of the same index.
+	 */
+	private static byte[] encode(String[] names, String[][] values)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LBEREncoder encoder = new LBEREncoder();
+		for (int i = 0; i < names.length; i++) {
+			ASN1Set vals = new ASN1Set();
+			for (int j = 0; j < values[i].length; j++) {
+				vals.add(new ASN1OctetString(values[i][j]));
+			}
+			ASN1Sequence attr = new ASN1Sequence();
+			attr.add(new ASN1OctetString(names[i]));
+			attr.add(vals);
+			out.write(attr.getEncoding(encoder));
+		}
+		return out.toByteArray();
+	}
+	/**
+	 * This tests checks an attribute asked for by name is created once from
+	 * the encoding and is the one later found by iterating over the set.
+	 * 
+	 * @throws Exception
+	 */
+	public void testgetAttribute() throws Exception {
+		LazyAttributeSet set = new LazyAttributeSet(encode(new String[] {
+				"cn", "sn", "mail" }, new String[][] { { "Jim", "James" },
+				{ "Smith" }, { "jim@example.com" } }));
+		assertFalse(set.isEmpty());
+		LDAPAttribute sn = set.getAttribute("sn");
+		assertEquals("Smith", sn.getStringValue());
+		assertSame(sn, set.getAttribute("sn"));
+		assertNull(set.getAttribute("uid"));
+		LDAPAttribute cn = set.getAttribute("cn");
+		assertEquals(2, cn.size());
+		assertEquals(3, set.size());
+		int found = 0;
+		Iterator i = set.iterator();
+		while (i.hasNext()) {
+			LDAPAttribute attr = (LDAPAttribute) i.next();
+			if (attr.getName().equals("sn")) {
+				assertSame(sn, attr);
+				found++;
+			} else if (attr.getName().equals("cn")) {
+				assertSame(cn, attr);
+				found++;
+			} else {
+				assertEquals("jim@example.com", attr.getStringValue());
+			}
+		}
+		assertEquals(2, found);
+	}
+	/**
+	 * This tests checks attribute names are matched ignoring case, both
+	 * before and after every attribute has been created.
+	 * 
+	 * @throws Exception
+	 */
+	public void testcaseInsensitive() throws Exception {
+		LazyAttributeSet set = new LazyAttributeSet(encode(new String[] {
+				"objectClass", "givenName" }, new String[][] {
+				{ "top", "person" }, { "Jim" } }));
+		LDAPAttribute oc = set.getAttribute("OBJECTCLASS");
+		assertNotNull(oc);
+		assertEquals("objectClass", oc.getName());
+		assertSame(oc, set.getAttribute("objectclass"));
+		assertNull(set.getAttribute("givenNames"));
+		set.size();
+		assertEquals("Jim", set.getAttribute("GIVENNAME").getStringValue());
+	}
+	/**
+	 * This tests checks only the first occurrence of an attribute named
+	 * more than once is kept, as in the decoded form.
+	 * 
+	 * @throws Exception
+	 */
+	public void testduplicateNames() throws Exception {
+		byte[] pdu = encode(new String[] { "cn", "CN", "sn" },
+				new String[][] { { "first" }, { "second" }, { "Smith" } });
+		LazyAttributeSet set = new LazyAttributeSet(pdu);
+		assertEquals("first", set.getAttribute("cn").getStringValue());
+		assertEquals(2, set.size());
+		set = new LazyAttributeSet(pdu);
+		assertEquals(2, set.size());
+		assertEquals("first", set.getAttribute("Cn").getStringValue());
+	}
+	/**
+	 * This tests checks a truncated or inconsistent attribute list is
+	 * rejected when it is scanned, and a value running past the end of its
+	 * attribute when the attribute is created.
+	 * 
+	 * @throws Exception
+	 */
+	public void testmalformed() throws Exception {
+		byte[] pdu = encode(new String[] { "cn" }, new String[][] { { "Jim" } });
+		byte[] truncated = new byte[pdu.length - 2];
+		System.arraycopy(pdu, 0, truncated, 0, truncated.length);
+		try {
+			new LazyAttributeSet(truncated);
+			fail("expected RuntimeException");
+		} catch (RuntimeException e) {
+		}
+		byte[] indefinite = (byte[]) pdu.clone();
+		indefinite[1] = (byte) 0x80;
+		try {
+			new LazyAttributeSet(indefinite);
+			fail("expected RuntimeException");
+		} catch (RuntimeException e) {
+		}
+		// SEQUENCE { "cn", SET { OCTET STRING of 5 octets, 3 present } }
+		byte[] overrun = new byte[] { 0x30, 0x0b, 0x04, 0x02, 'c', 'n',
+				0x31, 0x05, 0x04, 0x05, 'J', 'i', 'm' };
+		LazyAttributeSet set = new LazyAttributeSet(overrun);
+		try {
+			set.getAttribute("cn");
+			fail("expected RuntimeException");
+		} catch (RuntimeException e) {
+		}
+	}
+}
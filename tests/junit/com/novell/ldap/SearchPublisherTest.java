@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for publishing search results to a
+ * Flow.Subscriber.
+ */
+public class SearchPublisherTest extends TestCase {
+	private TestServer server;
+	private LDAPConnection conn;
+	protected void setUp() throws Exception {
+		server = new TestServer(500);
+		conn = new LDAPConnection();
+		conn.connect("127.0.0.1", server.getPort());
+	}
+	protected void tearDown() throws Exception {
+		conn.disconnect();
+		server.close();
+	}
+	/**
+	 * This tests checks entries are read from the connection only as they
+	 * are requested, holding no more than one back, and are delivered in
+	 * order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testbackpressure() throws Exception {
+		Recorder recorder = new Recorder(0);
+		conn.searchAsync("dc=example,dc=com", LDAPConnection.SCOPE_SUB,
+				"(cn=*)", null, false, recorder);
+		SearchPublisher publisher = (SearchPublisher) recorder.subscription;
+		Message info = publisher.getMessage();
+		Thread.sleep(500);
+		assertEquals(0, recorder.size());
+		assertTrue(info.getCount() <= 1);
+		assertFalse(info.isSpilling());
+		publisher.request(10);
+		recorder.await(10);
+		Thread.sleep(200);
+		assertEquals(10, recorder.size());
+		assertTrue(info.getCount() <= 1);
+		publisher.request(Long.MAX_VALUE);
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertNull(recorder.error);
+		assertEquals(500, recorder.size());
+		for (int i = 0; i < 500; i++) {
+			assertEquals(TestServer.dn(i), recorder.entry(i).getEntry()
+					.getDN());
+		}
+	}
+	/**
+	 * This tests checks entries held back while another request is
+	 * outstanding are spilled, and delivered in order once requested.
+	 * 
+	 * @throws Exception
+	 */
+	public void testbackpressureSpill() throws Exception {
+		// Never answered, keeps the reader from pausing
+		conn.extendedOperation(new LDAPExtendedOperation("1.2.3", null),
+				(LDAPResponseQueue) null);
+		Recorder recorder = new Recorder(0);
+		conn.searchAsync("dc=example,dc=com", LDAPConnection.SCOPE_SUB,
+				"(cn=*)", null, false, recorder);
+		SearchPublisher publisher = (SearchPublisher) recorder.subscription;
+		Message info = publisher.getMessage();
+		long end = System.currentTimeMillis() + 5000;
+		while (info.getCount() < 500 && System.currentTimeMillis() < end) {
+			Thread.sleep(20);
+		}
+		assertTrue(info.isSpilling());
+		assertEquals(0, recorder.size());
+		publisher.request(Long.MAX_VALUE);
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertNull(recorder.error);
+		assertEquals(500, recorder.size());
+		for (int i = 0; i < 500; i++) {
+			assertEquals(TestServer.dn(i), recorder.entry(i).getEntry()
+					.getDN());
+		}
+	}
+	/**
+	 * This tests checks a request of no entries ends the subscription with
+	 * an IllegalArgumentException, as Reactive Streams rule 3.9 requires,
+	 * rather than the abandoned search's error.
+	 * 
+	 * @throws Exception
+	 */
+	public void testrequestNotPositive() throws Exception {
+		Recorder recorder = new Recorder(5);
+		conn.searchAsync("dc=example,dc=com", LDAPConnection.SCOPE_SUB,
+				"(cn=*)", null, false, recorder);
+		recorder.await(5);
+		recorder.subscription.request(0);
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertTrue(recorder.error instanceof IllegalArgumentException);
+		assertFalse(recorder.completed);
+		assertEquals(5, recorder.size());
+		// The connection is still usable
+		conn.delete(TestServer.dn(0));
+	}
+	/**
+	 * This tests checks a subscriber throwing from onComplete does not
+	 * reach the thread reading the connection.
+	 * 
+	 * @throws Exception
+	 */
+	public void testthrowingOnComplete() throws Exception {
+		Recorder recorder = new Recorder(Long.MAX_VALUE) {
+			public void onComplete() {
+				super.onComplete();
+				throw new IllegalStateException("subscriber failed");
+			}
+		};
+		conn.searchAsync("dc=example,dc=com", LDAPConnection.SCOPE_SUB,
+				"(cn=*)", null, false, recorder);
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertEquals(500, recorder.size());
+		// The connection is still read
+		LDAPConstraints cons = conn.getConstraints();
+		cons.setTimeLimit(5000);
+		conn.delete(TestServer.dn(0), cons);
+		assertTrue(conn.isConnected());
+	}
+	/*
+	 * Records the entries and the end of a subscription, requesting
+	 * initial entries when subscribed.
+	 */
+	private static class Recorder implements
+			Flow.Subscriber<LDAPSearchResult> {
+		private final long initial;
+		private final List entries = new ArrayList();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Flow.Subscription subscription;
+		private volatile Throwable error;
+		private volatile boolean completed;
+		Recorder(long initial) {
+			this.initial = initial;
+		}
+		public void onSubscribe(Flow.Subscription s) {
+			subscription = s;
+			if (initial > 0) {
+				s.request(initial);
+			}
+		}
+		public void onNext(LDAPSearchResult entry) {
+			synchronized (entries) {
+				entries.add(entry);
+				entries.notifyAll();
+			}
+		}
+		public void onError(Throwable t) {
+			error = t;
+			done.countDown();
+		}
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+		int size() {
+			synchronized (entries) {
+				return entries.size();
+			}
+		}
+		LDAPSearchResult entry(int i) {
+			synchronized (entries) {
+				return (LDAPSearchResult) entries.get(i);
+			}
+		}
+		void await(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			synchronized (entries) {
+				while (entries.size() < count
+						&& System.currentTimeMillis() < end) {
+					entries.wait(100);
+				}
+			}
+			assertTrue(size() >= count);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import com.novell.ldap.asn1.LBERFrameBuffer;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for reading replies on the shared selector
+ * threads.
+ */
+public class SelectorReaderTest extends TestCase {
+	private ServerSocket listener;
+	private List sockets = new ArrayList();
+	protected void setUp() throws Exception {
+		listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+	}
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < sockets.size(); i++) {
+			((Socket) sockets.get(i)).close();
+		}
+		listener.close();
+	}
+	/*
+	 * Opens a channel to the listener, returning the server's end in
+	 * sockets.
+	 */
+	private SocketChannel connect() throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+				listener.getInetAddress(), listener.getLocalPort()));
+		sockets.add(listener.accept());
+		return channel;
+	}
+	/*
+	 * Writes an LDAPMessage holding only a message ID from the server's
+	 * end of the last channel opened.
+	 */
+	private void sendFrame() throws IOException {
+		OutputStream out = ((Socket) sockets.get(sockets.size() - 1))
+				.getOutputStream();
+		out.write(new byte[] { 0x30, 3, 0x02, 1, 1 });
+		out.flush();
+	}
+	/**
+	 * A Handler counting the frames read and recording how reading ended.
+	 */
+	private static class Recorder implements SelectorReader.Handler {
+		private final CountDownLatch stopped = new CountDownLatch(1);
+		private volatile int frames = 0;
+		private volatile IOException ioe = null;
+		public boolean frame(InputStream frame, int length,
+				LBERFrameBuffer framer) throws IOException {
+			frames++;
+			return false;
+		}
+		public void stopped(IOException ioe) {
+			this.ioe = ioe;
+			stopped.countDown();
+		}
+	}
+	/**
+	 * This tests checks close waits for the handler to be told even if the
+	 * closing thread is interrupted, and leaves the thread interrupted.
+	 * 
+	 * @throws Exception
+	 */
+	public void testcloseInterrupted() throws Exception {
+		SocketChannel channel = connect();
+		Recorder recorder = new Recorder();
+		SelectorReader.Registration r = SelectorReader.register(channel,
+				recorder);
+		r.start();
+		Thread.currentThread().interrupt();
+		r.close();
+		assertTrue(Thread.interrupted());
+		assertEquals(0, recorder.stopped.getCount());
+		channel.close();
+	}
+	/**
+	 * This tests checks an unexpected error in a handler is reported to the
+	 * uncaught exception handler and fails that connection only, and that
+	 * every selector thread goes on reading.
+	 * 
+	 * @throws Exception
+	 */
+	public void testhandlerError() throws Exception {
+		final Error error = new Error("test error");
+		final Throwable[] reported = new Throwable[1];
+		Thread.UncaughtExceptionHandler previous = Thread
+				.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler(
+				new Thread.UncaughtExceptionHandler() {
+					public void uncaughtException(Thread t, Throwable e) {
+						reported[0] = e;
+					}
+				});
+		try {
+			Recorder failing = new Recorder() {
+				public boolean frame(InputStream frame, int length,
+						LBERFrameBuffer framer) throws IOException {
+					throw error;
+				}
+			};
+			SocketChannel channel = connect();
+			SelectorReader.register(channel, failing).start();
+			sendFrame();
+			assertTrue(failing.stopped.await(5, TimeUnit.SECONDS));
+			assertSame(error, failing.ioe.getCause());
+			assertSame(error, reported[0]);
+			channel.close();
+
+			int n = Runtime.getRuntime().availableProcessors();
+			Recorder[] others = new Recorder[n];
+			SelectorReader.Registration[] registrations =
+					new SelectorReader.Registration[n];
+			for (int i = 0; i < n; i++) {
+				others[i] = new Recorder();
+				registrations[i] = SelectorReader.register(connect(),
+						others[i]);
+				registrations[i].start();
+				sendFrame();
+			}
+			long end = System.currentTimeMillis() + 5000;
+			for (int i = 0; i < n; i++) {
+				while (others[i].frames == 0
+						&& System.currentTimeMillis() < end) {
+					Thread.sleep(10);
+				}
+				assertEquals(1, others[i].frames);
+				registrations[i].close();
+			}
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler(previous);
+		}
+	}
+	/**
+	 * This tests checks writes wait for room in a full send buffer, and
+	 * all the data reaches a reader that starts late.
+	 * 
+	 * @throws Exception
+	 */
+	public void testfullSendBuffer() throws Exception {
+		SocketChannel channel = connect();
+		channel.configureBlocking(false);
+		final InputStream in = ((Socket) sockets.get(0)).getInputStream();
+		final long[] read = new long[1];
+		Thread reader = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+					byte[] b = new byte[8192];
+					int n;
+					while ((n = in.read(b)) > 0) {
+						read[0] += n;
+					}
+				} catch (Exception e) {
+					read[0] = -1;
+				}
+			}
+		};
+		reader.start();
+		OutputStream out = new SelectorReader.ChannelOutputStream(channel);
+		byte[] data = new byte[64 * 1024];
+		for (int i = 0; i < 64; i++) {
+			out.write(data, 0, data.length);
+		}
+		out.close();
+		reader.join(10000);
+		assertEquals(64L * data.length, read[0]);
+	}
+	/**
+	 * This tests checks the subscriber of a search and the actions on its
+	 * result run on callback threads, not on the selector threads.
+	 * 
+	 * @throws Exception
+	 */
+	public void testcallbackThreads() throws Exception {
+		TestServer server = new TestServer(5);
+		LDAPConnection conn = new LDAPConnection();
+		try {
+			LDAPConstraints cons = conn.getConstraints();
+			cons.setProperty(LDAPConnection.LDAP_PROPERTY_SELECTOR_TRANSPORT,
+					Boolean.TRUE);
+			conn.setConstraints(cons);
+			assertEquals(Boolean.TRUE, conn
+					.getProperty(LDAPConnection.LDAP_PROPERTY_SELECTOR_TRANSPORT));
+			conn.connect("127.0.0.1", server.getPort());
+			final List threads = new ArrayList();
+			final CountDownLatch complete = new CountDownLatch(1);
+			Flow.Subscriber<LDAPSearchResult> subscriber =
+					new Flow.Subscriber<LDAPSearchResult>() {
+				public void onSubscribe(Flow.Subscription s) {
+					s.request(Long.MAX_VALUE);
+				}
+				public void onNext(LDAPSearchResult entry) {
+					synchronized (threads) {
+						threads.add(Thread.currentThread());
+					}
+				}
+				public void onError(Throwable t) {
+				}
+				public void onComplete() {
+					complete.countDown();
+				}
+			};
+			CompletableFuture<Thread> action = conn.searchAsync(
+					"dc=example,dc=com", LDAPConnection.SCOPE_SUB, "(cn=*)",
+					null, false, subscriber).toCompletableFuture().thenApply(
+					new Function<LDAPResponse, Thread>() {
+						public Thread apply(LDAPResponse r) {
+							return Thread.currentThread();
+						}
+					});
+			assertTrue(complete.await(5, TimeUnit.SECONDS));
+			assertEquals(5, threads.size());
+			for (int i = 0; i < threads.size(); i++) {
+				assertFalse(threads.get(i) instanceof SelectorReader);
+			}
+			assertFalse(action.get(5, TimeUnit.SECONDS)
+					instanceof SelectorReader);
+		} finally {
+			conn.disconnect();
+			server.close();
+		}
+	}
+}
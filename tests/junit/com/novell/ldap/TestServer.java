@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1Set;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+import com.novell.ldap.rfc2251.RfcSearchResultEntry;
+/**
+ * A minimal in-process LDAP server for the testcases that need a
+ * connection.
+ * 
+ * <p>
+ * Every bind and update succeeds and every search returns the same
+ * entries, cn=entry0 to cn=entryN-1 under dc=example,dc=com. Other requests
+ * get no reply. Testcases change the replies by overriding respond.
+ * </p>
+ */
+public class TestServer implements Runnable {
+	private final ServerSocket listener;
+	private final byte[][] entries;
+	private final ArrayList sockets = new ArrayList();
+	private final int[] requests = new int[32];
+	private volatile long delay = 0;
+	private volatile boolean closed = false;
+	private int accepted = 0;
+	/**
+	 * Starts a server on an ephemeral loopback port.
+	 * 
+	 * @param count
+	 *            The number of entries each search returns.
+	 * @throws IOException
+	 *             When the port cannot be opened.
+	 */
+	public TestServer(int count) throws IOException {
+		LBEREncoder encoder = new LBEREncoder();
+		entries = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			entries[i] = encoder.getEncoding(entry(i));
+		}
+		listener = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread t = new Thread(this, "TestServer");
+		t.setDaemon(true);
+		t.start();
+	}
+	/**
+	 * Returns the search result entry for entry i, without the message ID.
+	 */
+	private static RfcSearchResultEntry entry(int i) {
+		ASN1Sequence attrs = new ASN1Sequence();
+		attrs.add(attribute("cn", "entry" + i));
+		attrs.add(attribute("sn", "Entry"));
+		attrs.add(attribute("description", "Entry number " + i));
+		return new RfcSearchResultEntry(new ASN1OctetString(dn(i)), attrs);
+	}
+	private static ASN1Sequence attribute(String name, String value) {
+		ASN1Set vals = new ASN1Set();
+		vals.add(new ASN1OctetString(value));
+		ASN1Sequence attr = new ASN1Sequence(2);
+		attr.add(new ASN1OctetString(name));
+		attr.add(vals);
+		return attr;
+	}
+	/**
+	 * Returns the DN of entry i.
+	 */
+	public static String dn(int i) {
+		return "cn=entry" + i + ",dc=example,dc=com";
+	}
+	/**
+	 * Returns the port the server listens on.
+	 */
+	public int getPort() {
+		return listener.getLocalPort();
+	}
+	/**
+	 * Returns the number of connections accepted.
+	 */
+	public synchronized int getAccepted() {
+		return accepted;
+	}
+	/**
+	 * Returns the number of requests received with the specified protocolOp
+	 * tag, such as LDAPMessage.BIND_REQUEST.
+	 */
+	public synchronized int getRequests(int tag) {
+		return requests[tag];
+	}
+	/**
+	 * Sets the time, in milliseconds, each reply waits before it is sent.
+	 */
+	public void setDelay(long millis) {
+		delay = millis;
+	}
+	/**
+	 * Closes every connection accepted so far, as a server restart would.
+	 */
+	public void dropConnections() {
+		synchronized (sockets) {
+			for (int i = 0; i < sockets.size(); i++) {
+				try {
+					((Socket) sockets.get(i)).close();
+				} catch (IOException e) {
+					// already closed
+				}
+			}
+			sockets.clear();
+		}
+	}
+	/**
+	 * Stops listening and closes every connection.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			listener.close();
+		} catch (IOException e) {
+			// already closed
+		}
+		dropConnections();
+	}
+	public void run() {
+		while (!closed) {
+			try {
+				final Socket s = listener.accept();
+				synchronized (this) {
+					accepted++;
+				}
+				synchronized (sockets) {
+					sockets.add(s);
+				}
+				Thread t = new Thread("TestServer connection") {
+					public void run() {
+						serve(s);
+					}
+				};
+				t.setDaemon(true);
+				t.start();
+			} catch (IOException ioe) {
+				// Closed
+			}
+		}
+	}
+	private void serve(Socket s) {
+		try {
+			s.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			OutputStream out = new BufferedOutputStream(s.getOutputStream());
+			LBERDecoder decoder = new LBERDecoder();
+			for (;;) {
+				ASN1Sequence request = (ASN1Sequence) decoder.decode(in);
+				if (request == null) {
+					break;
+				}
+				int id = ((ASN1Integer) request.get(0)).intValue();
+				int tag = request.get(1).getIdentifier().getTag();
+				synchronized (this) {
+					requests[tag]++;
+				}
+				if (tag == LDAPMessage.UNBIND_REQUEST) {
+					break;
+				}
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+				respond(id, request, out);
+				out.flush();
+			}
+		} catch (Exception e) {
+			// Client went away
+		}
+		try {
+			s.close();
+		} catch (IOException ioe) {
+			// Ignore
+		}
+	}
+	/**
+	 * Writes the replies to a request.
+	 * 
+	 * @param id
+	 *            The message ID of the request.
+	 * @param request
+	 *            The LDAPMessage received.
+	 * @param out
+	 *            The stream the replies are written to.
+	 * @throws IOException
+	 *             When the client went away.
+	 */
+	protected void respond(int id, ASN1Sequence request, OutputStream out)
+			throws IOException {
+		int tag = request.get(1).getIdentifier().getTag();
+		switch (tag) {
+		case LDAPMessage.BIND_REQUEST:
+			writeMessage(out, id, result(LDAPMessage.BIND_RESPONSE, 0));
+			break;
+		case LDAPMessage.SEARCH_REQUEST:
+			for (int i = 0; i < entries.length; i++) {
+				writeMessage(out, id, entries[i]);
+			}
+			writeMessage(out, id, result(LDAPMessage.SEARCH_RESULT, 0));
+			break;
+		case LDAPMessage.ADD_REQUEST:
+		case LDAPMessage.DEL_REQUEST:
+		case LDAPMessage.MODIFY_REQUEST:
+		case LDAPMessage.MODIFY_RDN_REQUEST:
+			// Each response tag is one more than its request's
+			writeMessage(out, id, result(tag + 1, 0));
+			break;
+		default:
+			break;
+		}
+	}
+	/**
+	 * Returns an LDAPResult with the specified application tag and result
+	 * code.
+	 */
+	public static byte[] result(int tag, int code) {
+		return new byte[] { (byte) (0x60 | tag), 7, 0x0a, 1, (byte) code,
+				0x04, 0, // matchedDN
+				0x04, 0 }; // errorMessage
+	}
+	/**
+	 * Writes an LDAPMessage holding the encoded protocolOp op.
+	 */
+	public static void writeMessage(OutputStream out, int id, byte[] op)
+			throws IOException {
+		byte[] msgId = new byte[] { 0x02, 4, (byte) (id >> 24),
+				(byte) (id >> 16), (byte) (id >> 8), (byte) id };
+		int len = msgId.length + op.length;
+		out.write(0x30);
+		out.write(0x84);
+		out.write(len >> 24);
+		out.write(len >> 16);
+		out.write(len >> 8);
+		out.write(len);
+		out.write(msgId);
+		out.write(op);
+	}
+}
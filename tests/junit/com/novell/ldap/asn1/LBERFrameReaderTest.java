@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.asn1;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for reading whole LBER frames with
+ * LBERFrameReader.
+ */
+public class LBERFrameReaderTest extends TestCase {
+	/**
+	 * Frames delivered one octet per read must decode the same as frames
+	 * delivered in one piece, and no octets past the frame may be consumed.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testTrickledFrames() throws Exception {
+		ASN1Sequence small = new ASN1Sequence();
+		small.add(new ASN1Integer(7));
+		small.add(new ASN1OctetString("small"));
+		ASN1Sequence large = new ASN1Sequence();
+		large.add(new ASN1Integer(8));
+		large.add(new ASN1OctetString(new byte[20000]));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LBEREncoder enc = new LBEREncoder();
+		out.write(0x04); // stray octet, not a SEQUENCE
+		small.encode(enc, out);
+		large.encode(enc, out);
+		out.write(0x30); // start of a frame that is never completed
+		ByteArrayInputStream raw = new ByteArrayInputStream(out.toByteArray());
+
+		LBERFrameReader framer = new LBERFrameReader(new OneByteStream(raw));
+		LBERDecoder dec = new LBERDecoder();
+
+		InputStream frame = framer.readFrame();
+		ASN1Sequence first = new ASN1Sequence(dec, frame, framer.getLength());
+		assertEquals(7, ((ASN1Integer) first.get(0)).intValue());
+		assertEquals("small", ((ASN1OctetString) first.get(1)).stringValue());
+
+		frame = framer.readFrame();
+		ASN1Sequence second = new ASN1Sequence(dec, frame, framer.getLength());
+		assertEquals(8, ((ASN1Integer) second.get(0)).intValue());
+		assertEquals(20000,
+				((ASN1OctetString) second.get(1)).byteValue().length);
+		assertEquals(1, raw.available());
+
+		try {
+			framer.readFrame();
+			fail("truncated frame must raise EOFException");
+		} catch (EOFException e) {
+			// expected
+		}
+	}
+	/**
+	 * A frame announcing nearly 2GB must not make the reader allocate
+	 * more than the octets that actually arrive.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testHugeLengthNotAllocated() throws Exception {
+		byte[] raw = new byte[] { 0x30, (byte) 0x84, 0x7F, (byte) 0xFF,
+				(byte) 0xFF, 0x00, 0x02, 0x01, 0x01 };
+		LBERFrameReader framer = new LBERFrameReader(
+				new ByteArrayInputStream(raw));
+		try {
+			framer.readFrame();
+			fail("truncated frame must raise EOFException");
+		} catch (EOFException e) {
+			// expected, and no OutOfMemoryError
+		}
+
+		LBERFrameBuffer buffer = new LBERFrameBuffer();
+		buffer.getReadBuffer().put(raw);
+		assertNull(buffer.nextFrame());
+		for (int i = 0; i < 64; i++) {
+			ByteBuffer b = buffer.getReadBuffer();
+			assertTrue(b.capacity() <= 1024 * 1024);
+			b.put(new byte[Math.min(b.remaining(), 8192)]);
+			assertNull(buffer.nextFrame());
+		}
+	}
+	/**
+	 * Frames larger than the maximum frame size are refused before their
+	 * content is read, smaller ones are read as usual.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testMaxFrameSize() throws Exception {
+		ASN1Sequence small = new ASN1Sequence();
+		small.add(new ASN1OctetString(new byte[10]));
+		ASN1Sequence large = new ASN1Sequence();
+		large.add(new ASN1OctetString(new byte[1000]));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LBEREncoder enc = new LBEREncoder();
+		small.encode(enc, out);
+		large.encode(enc, out);
+		byte[] raw = out.toByteArray();
+
+		LBERFrameReader framer = new LBERFrameReader(
+				new ByteArrayInputStream(raw));
+		framer.setMaxFrameSize(100);
+		assertEquals(100, framer.getMaxFrameSize());
+		framer.readFrame();
+		assertEquals(12, framer.getLength());
+		try {
+			framer.readFrame();
+			fail("frame over the maximum must raise IOException");
+		} catch (IOException e) {
+			// expected
+		}
+
+		LBERFrameBuffer buffer = new LBERFrameBuffer();
+		buffer.setMaxFrameSize(100);
+		buffer.getReadBuffer().put(raw, 0, 20);
+		assertNotNull(buffer.nextFrame());
+		assertEquals(12, buffer.getLength());
+		try {
+			buffer.nextFrame();
+			fail("frame over the maximum must raise IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	/*
+	 * Returns at most one octet per read, like a slow socket.
+	 */
+	private static class OneByteStream extends FilterInputStream {
+		OneByteStream(InputStream in) {
+			super(in);
+		}
+		public int read(byte[] b, int off, int len) throws IOException {
+			return super.read(b, off, (len > 0) ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.client;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPExtendedResponse;
+import com.novell.ldap.asn1.ASN1Boolean;
+import com.novell.ldap.asn1.ASN1Enumerated;
+import com.novell.ldap.asn1.ASN1Identifier;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1Tagged;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+import com.novell.ldap.asn1.LBERFrameReader;
+import com.novell.ldap.rfc2251.RfcControl;
+import com.novell.ldap.rfc2251.RfcControls;
+import com.novell.ldap.rfc2251.RfcExtendedResponse;
+import com.novell.ldap.rfc2251.RfcLDAPDN;
+import com.novell.ldap.rfc2251.RfcLDAPMessage;
+import com.novell.ldap.rfc2251.RfcLDAPOID;
+import com.novell.ldap.rfc2251.RfcLDAPString;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the OID keyed registries of response
+ * controls and extended responses, and the factories using them.
+ */
+public class ResponseRegistryTest extends TestCase {
+	/**
+	 * This tests checks a response control class is found by OID with its
+	 * constructor, the first class registered for an OID is kept, and a
+	 * class without the constructor is found without one.
+	 * 
+	 * @throws Exception
+	 */
+	public void testcontrolRegistry() throws Exception {
+		RespControlVector registry = new RespControlVector(5, 5);
+		registry.registerResponseControl("1.2.3.1", TestControl.class);
+		registry.registerResponseControl("1.2.3.1", LDAPControl.class);
+		registry.registerResponseControl("1.2.3.2", NoConstructor.class);
+		assertSame(TestControl.class, registry.findResponseControl("1.2.3.1"));
+		assertSame(TestControl.class, registry.findResponseConstructor(
+				"1.2.3.1").getDeclaringClass());
+		assertSame(NoConstructor.class, registry
+				.findResponseControl("1.2.3.2"));
+		assertNull(registry.findResponseConstructor("1.2.3.2"));
+		assertNull(registry.findResponseControl("1.2.3.3"));
+		assertNull(registry.findResponseConstructor("1.2.3.3"));
+	}
+	/**
+	 * This tests checks an extended response class is found by OID with
+	 * its constructor, and the first class registered for an OID is kept.
+	 * 
+	 * @throws Exception
+	 */
+	public void testextensionRegistry() throws Exception {
+		RespExtensionSet registry = new RespExtensionSet();
+		registry.registerResponseExtension("1.2.4.1", TestResponse.class);
+		registry.registerResponseExtension("1.2.4.1",
+				LDAPExtendedResponse.class);
+		registry.registerResponseExtension("1.2.4.2", NoConstructor.class);
+		assertEquals(2, registry.size());
+		assertSame(TestResponse.class, registry
+				.findResponseExtension("1.2.4.1"));
+		assertSame(TestResponse.class, registry.findResponseConstructor(
+				"1.2.4.1").getDeclaringClass());
+		assertSame(NoConstructor.class, registry
+				.findResponseExtension("1.2.4.2"));
+		assertNull(registry.findResponseConstructor("1.2.4.2"));
+		assertNull(registry.findResponseExtension("1.2.4.3"));
+		assertNull(registry.findResponseConstructor("1.2.4.3"));
+	}
+	/**
+	 * This tests checks an extended response is created as the class
+	 * registered for its OID, or as LDAPExtendedResponse if none is.
+	 * 
+	 * @throws Exception
+	 */
+	public void testextendedResponseFactory() throws Exception {
+		LDAPExtendedResponse.register("1.2.5.1", TestResponse.class);
+		LDAPExtendedResponse response = ExtResponseFactory
+				.convertToExtendedResponse(extendedResponse("1.2.5.1", null));
+		assertTrue(response instanceof TestResponse);
+		assertEquals("1.2.5.1", response.getID());
+		response = ExtResponseFactory.convertToExtendedResponse(
+				extendedResponse("1.2.5.2", null));
+		assertSame(LDAPExtendedResponse.class, response.getClass());
+	}
+	/**
+	 * This tests checks the controls of a response are created as the
+	 * class registered for their OID, or as LDAPControl if none is.
+	 * 
+	 * @throws Exception
+	 */
+	public void testresponseControls() throws Exception {
+		LDAPControl.register("1.2.6.1", TestControl.class);
+		RfcControls controls = new RfcControls();
+		controls.add(new RfcControl(new RfcLDAPOID("1.2.6.1"),
+				new ASN1Boolean(false), new ASN1OctetString(new byte[] { 1 })));
+		controls.add(new RfcControl(new RfcLDAPOID("1.2.6.2"),
+				new ASN1Boolean(true), new ASN1OctetString(new byte[0])));
+		LDAPExtendedResponse response = new LDAPExtendedResponse(
+				extendedResponse("1.2.6.3", controls));
+		LDAPControl[] decoded = response.getControls();
+		assertEquals(2, decoded.length);
+		assertTrue(decoded[0] instanceof TestControl);
+		assertEquals("1.2.6.1", decoded[0].getID());
+		assertEquals(1, decoded[0].getValue().length);
+		assertSame(LDAPControl.class, decoded[1].getClass());
+		assertTrue(decoded[1].isCritical());
+	}
+	/*
+	 * Encodes an extended response named oid, with message ID 5, and
+	 * decodes it as a reply read from the connection.
+	 */
+	private static RfcLDAPMessage extendedResponse(String oid,
+			RfcControls controls) throws Exception {
+		RfcExtendedResponse op = new RfcExtendedResponse(new ASN1Enumerated(
+				0), new RfcLDAPDN(""), new RfcLDAPString(""), null, null, null);
+		op.add(new ASN1Tagged(new ASN1Identifier(ASN1Identifier.CONTEXT,
+				false, 10), new RfcLDAPOID(oid), false));
+		ASN1Sequence message = new ASN1Sequence();
+		message.add(new ASN1Integer(5));
+		message.add(op);
+		if (controls != null) {
+			message.add(new ASN1Tagged(new ASN1Identifier(
+					ASN1Identifier.CONTEXT, true, 0), controls, false));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		message.encode(new LBEREncoder(), out);
+		LBERFrameReader framer = new LBERFrameReader(new ByteArrayInputStream(
+				out.toByteArray()));
+		InputStream frame = framer.readFrame();
+		return new RfcLDAPMessage(new LBERDecoder(), frame, framer
+				.getLength());
+	}
+	public static class TestControl extends LDAPControl {
+		public TestControl(String oid, boolean critical, byte[] value) {
+			super(oid, critical, value);
+		}
+	}
+	public static class TestResponse extends LDAPExtendedResponse {
+		public TestResponse(RfcLDAPMessage message) {
+			super(message);
+		}
+	}
+	public static class NoConstructor {
+	}
+}
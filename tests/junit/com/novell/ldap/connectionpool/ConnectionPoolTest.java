@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.connectionpool;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.TestServer;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for checking connections out of and into
+ * ConnectionPool.
+ */
+public class ConnectionPoolTest extends TestCase {
+	private static final byte[] PW = new byte[] { 's', 'e', 'c', 'r', 'e',
+			't' };
+	private TestServer server;
+	private ConnectionPool pool;
+	protected void setUp() throws Exception {
+		server = new TestServer(0);
+	}
+	protected void tearDown() throws Exception {
+		if (pool != null) {
+			pool.close();
+		}
+		server.close();
+	}
+	/*
+	 * Waits up to five seconds for the pool to shrink to size connections.
+	 */
+	private ConnectionPoolStatistics waitForSize(int size)
+			throws InterruptedException {
+		ConnectionPoolStatistics stats = pool.getStatistics();
+		for (int i = 0; (i < 100) && (stats.getSize() != size); i++) {
+			Thread.sleep(50);
+			stats = pool.getStatistics();
+		}
+		return stats;
+	}
+	/**
+	 * This tests checks the minimum connections are opened up front and no
+	 * more than the maximum are checked out at once.
+	 * 
+	 * @throws Exception
+	 */
+	public void testminMax() throws Exception {
+		pool = new ConnectionPool("127.0.0.1", server.getPort(), 2, 3, 0, 0,
+				null);
+		assertEquals(2, pool.getStatistics().getSize());
+		assertEquals(2, server.getAccepted());
+
+		LDAPConnection[] conns = new LDAPConnection[3];
+		for (int i = 0; i < conns.length; i++) {
+			conns[i] = pool.getBoundConnection("cn=user" + i, PW);
+		}
+		ConnectionPoolStatistics stats = pool.getStatistics();
+		assertEquals(3, stats.getSize());
+		assertEquals(3, stats.getInUseCount());
+		assertEquals(0, stats.getIdleCount());
+		// The anonymous connections were bound as the users
+		assertEquals(3, server.getAccepted());
+		assertEquals(3, server.getRequests(LDAPMessage.BIND_REQUEST));
+
+		for (int i = 0; i < conns.length; i++) {
+			pool.makeConnectionAvailable(conns[i]);
+		}
+		pool.makeConnectionAvailable(conns[0]); // twice has no effect
+		stats = pool.getStatistics();
+		assertEquals(0, stats.getInUseCount());
+		assertEquals(3, stats.getIdleCount());
+
+		// Already bound, no bind needed
+		LDAPConnection again = pool.getBoundConnection("CN=USER1", PW);
+		assertSame(conns[1], again);
+		assertEquals(3, server.getRequests(LDAPMessage.BIND_REQUEST));
+		pool.makeConnectionAvailable(again);
+	}
+	/**
+	 * This tests checks a thread waiting for a connection gives up after
+	 * the maximum wait time, and gets one returned in time.
+	 * 
+	 * @throws Exception
+	 */
+	public void testtimeout() throws Exception {
+		pool = new ConnectionPool("127.0.0.1", server.getPort(), 0, 1, 200,
+				0, null);
+		final LDAPConnection conn = pool.getBoundConnection("cn=user", PW);
+		long start = System.currentTimeMillis();
+		try {
+			pool.getBoundConnection("cn=user", PW);
+			fail("checkout must time out");
+		} catch (LDAPException e) {
+			assertEquals(LDAPException.LDAP_TIMEOUT, e.getResultCode());
+		}
+		assertTrue(System.currentTimeMillis() - start >= 150);
+		assertEquals(1, pool.getStatistics().getTimeoutCount());
+
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					// return it now
+				}
+				pool.makeConnectionAvailable(conn);
+			}
+		};
+		t.start();
+		assertSame(conn, pool.getBoundConnection("cn=user", PW));
+		t.join();
+	}
+	/**
+	 * This tests checks idle connections are closed down to the minimum,
+	 * and the sub-pools of identities left without connections are
+	 * dropped.
+	 * 
+	 * @throws Exception
+	 */
+	public void testeviction() throws Exception {
+		pool = new ConnectionPool("127.0.0.1", server.getPort(), 1, 3, 0,
+				200, null);
+		LDAPConnection[] conns = new LDAPConnection[3];
+		for (int i = 0; i < conns.length; i++) {
+			conns[i] = pool.getBoundConnection("cn=user" + i, PW);
+		}
+		for (int i = 0; i < conns.length; i++) {
+			pool.makeConnectionAvailable(conns[i]);
+		}
+		assertTrue(pool.getStatistics().getIdentityCount() >= 3);
+
+		ConnectionPoolStatistics stats = waitForSize(1);
+		assertEquals(1, stats.getSize());
+		assertEquals(2, stats.getEvictedCount());
+		Thread.sleep(300);
+		assertEquals(1, pool.getStatistics().getIdentityCount());
+	}
+	/**
+	 * This tests checks a connection returned after its identity's
+	 * sub-pool was dropped is kept for that identity.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreturnAfterDrop() throws Exception {
+		pool = new ConnectionPool("127.0.0.1", server.getPort(), 0, 2, 0,
+				100, null);
+		LDAPConnection conn = pool.getBoundConnection("cn=user", PW);
+		Thread.sleep(400);
+		assertEquals(0, pool.getStatistics().getIdentityCount());
+
+		pool.makeConnectionAvailable(conn);
+		ConnectionPoolStatistics stats = pool.getStatistics();
+		assertEquals(1, stats.getIdentityCount());
+		assertEquals(1, stats.getIdleCount());
+		assertSame(conn, pool.getBoundConnection("cn=user", PW));
+		assertEquals(1, pool.getStatistics().getOpenedCount());
+	}
+	/**
+	 * This tests checks a connection the server has closed is discarded
+	 * and replaced when it is next checked out.
+	 * 
+	 * @throws Exception
+	 */
+	public void testhealthCheck() throws Exception {
+		pool = new ConnectionPool("127.0.0.1", server.getPort(), 0, 2, 0, 0,
+				null);
+		LDAPConnection conn = pool.getBoundConnection("cn=user", PW);
+		pool.makeConnectionAvailable(conn);
+		server.dropConnections();
+		Thread.sleep(300); // for the reader to see the connection close
+
+		LDAPConnection fresh = pool.getBoundConnection("cn=user", PW);
+		assertNotSame(conn, fresh);
+		assertTrue(fresh.isConnected());
+		fresh.delete(TestServer.dn(0));
+		ConnectionPoolStatistics stats = pool.getStatistics();
+		assertEquals(1, stats.getFailedHealthCheckCount());
+		assertEquals(2, stats.getOpenedCount());
+		assertEquals(1, stats.getSize());
+		pool.makeConnectionAvailable(fresh);
+	}
+	/**
+	 * This tests checks only a connection idle for longer than the health
+	 * check interval is checked with a request to the server.
+	 * 
+	 * @throws Exception
+	 */
+	public void testhealthCheckInterval() throws Exception {
+		pool = new ConnectionPool("127.0.0.1", server.getPort(), 0, 2, 0, 0,
+				300, null);
+		LDAPConnection conn = pool.getBoundConnection("cn=user", PW);
+		pool.makeConnectionAvailable(conn);
+		assertSame(conn, pool.getBoundConnection("cn=user", PW));
+		// Replied to after any check written before it
+		conn.delete(TestServer.dn(0));
+		assertEquals(0, server.getRequests(LDAPMessage.EXTENDED_REQUEST));
+		pool.makeConnectionAvailable(conn);
+		Thread.sleep(400);
+		assertSame(conn, pool.getBoundConnection("cn=user", PW));
+		conn.delete(TestServer.dn(0));
+		assertEquals(1, server.getRequests(LDAPMessage.EXTENDED_REQUEST));
+		pool.makeConnectionAvailable(conn);
+	}
+	/**
+	 * This tests checks a closed pool refuses checkouts and disconnects
+	 * the connections returned to it.
+	 * 
+	 * @throws Exception
+	 */
+	public void testclose() throws Exception {
+		pool = new ConnectionPool("127.0.0.1", server.getPort(), 1, 2, 0, 0,
+				null);
+		LDAPConnection conn = pool.getBoundConnection("cn=user", PW);
+		pool.close();
+		try {
+			pool.getBoundConnection("cn=user", PW);
+			fail("closed pool must refuse checkouts");
+		} catch (LDAPException e) {
+			assertEquals(LDAPException.CONNECT_ERROR, e.getResultCode());
+		}
+		pool.makeConnectionAvailable(conn);
+		assertFalse(conn.isConnected());
+		assertEquals(0, pool.getStatistics().getSize());
+	}
+}
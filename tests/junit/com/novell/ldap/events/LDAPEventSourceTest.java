@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.events;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPSearchQueue;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.TestServer;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for dispatching the events of an
+ * LDAPEventSource.
+ */
+public class LDAPEventSourceTest extends TestCase {
+	private TestServer server;
+	private LDAPConnection conn;
+	private ExecutorService pool;
+	protected void setUp() throws Exception {
+		server = new TestServer(20);
+		conn = new LDAPConnection();
+		conn.connect("127.0.0.1", server.getPort());
+		pool = Executors.newFixedThreadPool(4);
+	}
+	protected void tearDown() throws Exception {
+		pool.shutdownNow();
+		conn.disconnect();
+		server.close();
+	}
+	/**
+	 * This tests checks events are dispatched on the executor set as the
+	 * responses arrive, without waiting for the sleep time, and in order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testpushDispatch() throws Exception {
+		Source source = new Source();
+		source.setSleepTime(60000);
+		final AtomicInteger tasks = new AtomicInteger();
+		source.setEventExecutor(new Executor() {
+			public void execute(Runnable r) {
+				tasks.incrementAndGet();
+				pool.execute(r);
+			}
+		});
+		Recorder listener = new Recorder(21);
+		long start = System.currentTimeMillis();
+		source.register(listener);
+		assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertTrue(tasks.get() > 0);
+		assertEquals(0, listener.exceptions.get());
+		assertEntries(listener, 20);
+		for (int i = 0; i < listener.threads.size(); i++) {
+			assertNotSame(Thread.currentThread(), listener.threads.get(i));
+		}
+		source.unregister(listener);
+	}
+	/**
+	 * This tests checks the events of a listener registered more than
+	 * once are dispatched one at a time, even on an executor with several
+	 * threads.
+	 * 
+	 * @throws Exception
+	 */
+	public void testserialPerListener() throws Exception {
+		Source source = new Source();
+		source.setEventExecutor(pool);
+		Recorder listener = new Recorder(42);
+		listener.slow = true;
+		source.register(listener);
+		source.register(listener);
+		assertTrue(listener.done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, listener.maxActive.get());
+		assertEquals(42, listener.events.size());
+		source.unregister(listener);
+	}
+	/**
+	 * This tests checks events are still delivered by polling when no
+	 * executor is set.
+	 * 
+	 * @throws Exception
+	 */
+	public void testpolling() throws Exception {
+		Source source = new Source();
+		assertNull(source.getEventExecutor());
+		source.setSleepTime(20);
+		Recorder listener = new Recorder(21);
+		source.register(listener);
+		assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+		assertEntries(listener, 20);
+		source.unregister(listener);
+	}
+	/**
+	 * This tests checks a listener throwing from a notification is still
+	 * notified of the events that follow.
+	 * 
+	 * @throws Exception
+	 */
+	public void testthrowingListener() throws Exception {
+		Source source = new Source();
+		source.setSleepTime(60000);
+		source.setEventExecutor(pool);
+		Recorder listener = new Recorder(21) {
+			public void ldapEventNotification(LDAPEvent evt) {
+				super.ldapEventNotification(evt);
+				throw new IllegalStateException("listener failed");
+			}
+		};
+		source.register(listener);
+		assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+		assertEntries(listener, 20);
+		source.unregister(listener);
+	}
+	/**
+	 * This tests checks the shared executor is created once.
+	 * 
+	 * @throws Exception
+	 */
+	public void testsharedExecutor() throws Exception {
+		assertNotNull(LDAPEventSource.getSharedEventExecutor());
+		assertSame(LDAPEventSource.getSharedEventExecutor(), LDAPEventSource
+				.getSharedEventExecutor());
+	}
+	/*
+	 * Checks the entries were notified in order, followed by the result.
+	 */
+	private static void assertEntries(Recorder listener, int count) {
+		assertEquals(count + 1, listener.events.size());
+		for (int i = 0; i < count; i++) {
+			LDAPEvent event = (LDAPEvent) listener.events.get(i);
+			assertEquals(TestServer.dn(i), ((LDAPSearchResult) event
+					.getContainedEventInformation()).getEntry().getDN());
+		}
+		assertTrue(((LDAPEvent) listener.events.get(count))
+				.getContainedEventInformation() instanceof LDAPResponse);
+	}
+	/*
+	 * An event source for searches of the test server.
+	 */
+	private class Source extends LDAPEventSource {
+		void register(LDAPEventListener listener) throws Exception {
+			LDAPSearchQueue queue = conn.search("dc=example,dc=com",
+					LDAPConnection.SCOPE_SUB, "(cn=*)", null, false,
+					(LDAPSearchQueue) null, null);
+			pollforevents(queue, conn, listener, queue.getMessageIDs()[0],
+					this);
+		}
+		void unregister(LDAPEventListener listener) throws Exception {
+			stopeventpolling(listener);
+		}
+	}
+	/*
+	 * Records the events notified, and the threads notifying them.
+	 */
+	private static class Recorder implements LDAPEventListener {
+		private final List events = new ArrayList();
+		private final List threads = new ArrayList();
+		private final CountDownLatch done;
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicInteger maxActive = new AtomicInteger();
+		private final AtomicInteger exceptions = new AtomicInteger();
+		private volatile boolean slow = false;
+		Recorder(int count) {
+			done = new CountDownLatch(count);
+		}
+		public void ldapEventNotification(LDAPEvent evt) {
+			int now = active.incrementAndGet();
+			if (now > maxActive.get()) {
+				maxActive.set(now);
+			}
+			if (slow) {
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					// ends the sleep only
+				}
+			}
+			synchronized (events) {
+				events.add(evt);
+				threads.add(Thread.currentThread());
+			}
+			active.decrementAndGet();
+			done.countDown();
+		}
+		public void ldapExceptionNotification(LDAPExceptionEvent ldapevt) {
+			exceptions.incrementAndGet();
+			done.countDown();
+		}
+	}
+}
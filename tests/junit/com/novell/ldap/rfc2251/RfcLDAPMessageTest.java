@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.rfc2251;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.asn1.ASN1Boolean;
+import com.novell.ldap.asn1.ASN1Enumerated;
+import com.novell.ldap.asn1.ASN1Identifier;
+import com.novell.ldap.asn1.ASN1Integer;
+import com.novell.ldap.asn1.ASN1Object;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1Set;
+import com.novell.ldap.asn1.ASN1Tagged;
+import com.novell.ldap.asn1.LBERDecoder;
+import com.novell.ldap.asn1.LBEREncoder;
+import com.novell.ldap.asn1.LBERFrameReader;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for decoding the replies read from a server
+ * as RfcLDAPMessage.
+ */
+public class RfcLDAPMessageTest extends TestCase {
+	/*
+	 * Encodes an LDAPMessage with ID 5 and decodes it as a reply read from
+	 * a frame, checking all of the frame is used.
+	 */
+	private static RfcLDAPMessage decode(ASN1Object op, RfcControls controls)
+			throws Exception {
+		ASN1Sequence message = new ASN1Sequence();
+		message.add(new ASN1Integer(5));
+		message.add(op);
+		if (controls != null) {
+			message.add(new ASN1Tagged(new ASN1Identifier(
+					ASN1Identifier.CONTEXT, true, 0), controls, false));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		message.encode(new LBEREncoder(), out);
+		LBERFrameReader framer = new LBERFrameReader(new ByteArrayInputStream(
+				out.toByteArray()));
+		InputStream frame = framer.readFrame();
+		RfcLDAPMessage decoded = new RfcLDAPMessage(new LBERDecoder(), frame,
+				framer.getLength());
+		assertEquals(-1, frame.read());
+		assertEquals(5, decoded.getMessageID());
+		return decoded;
+	}
+	/*
+	 * Returns the implicitly tagged form of a context specific component.
+	 */
+	private static ASN1Tagged tagged(int tag, boolean constructed,
+			ASN1Object value) {
+		return new ASN1Tagged(new ASN1Identifier(ASN1Identifier.CONTEXT,
+				constructed, tag), value, false);
+	}
+	private static RfcControl control(String oid, byte[] value) {
+		if (value == null) {
+			return new RfcControl(new RfcLDAPOID(oid), new ASN1Boolean(true));
+		}
+		return new RfcControl(new RfcLDAPOID(oid), new ASN1Boolean(false),
+				new ASN1OctetString(value));
+	}
+	/**
+	 * A search result entry followed by controls must decode as the typed
+	 * entry and controls.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testEntryWithControls() throws Exception {
+		ASN1Sequence attrs = new ASN1Sequence();
+		for (int i = 0; i < 3; i++) {
+			ASN1Set vals = new ASN1Set();
+			vals.add(new ASN1OctetString("value" + i));
+			vals.add(new ASN1OctetString(new byte[300 * i]));
+			ASN1Sequence attr = new ASN1Sequence();
+			attr.add(new ASN1OctetString("attr" + i));
+			attr.add(vals);
+			attrs.add(attr);
+		}
+		RfcControls controls = new RfcControls();
+		controls.add(control("1.2.840.113556.1.4.319", new byte[] { 0x30, 0 }));
+		controls.add(control("2.16.840.1.113730.3.4.2", null));
+
+		RfcLDAPMessage message = decode(new RfcSearchResultEntry(
+				new ASN1OctetString("cn=test,dc=example,dc=com"), attrs),
+				controls);
+		assertEquals(LDAPMessage.SEARCH_RESPONSE, message.getType());
+		RfcSearchResultEntry entry = (RfcSearchResultEntry) message
+				.getResponse();
+		assertEquals("cn=test,dc=example,dc=com", entry.getObjectName()
+				.stringValue());
+		ASN1Sequence decoded = entry.getAttributes();
+		assertEquals(3, decoded.size());
+		for (int i = 0; i < 3; i++) {
+			ASN1Sequence attr = (ASN1Sequence) decoded.get(i);
+			assertEquals("attr" + i, ((ASN1OctetString) attr.get(0))
+					.stringValue());
+			assertEquals(2, ((ASN1Set) attr.get(1)).size());
+		}
+
+		RfcControls decodedControls = message.getControls();
+		assertEquals(2, decodedControls.size());
+		RfcControl first = (RfcControl) decodedControls.get(0);
+		assertEquals("1.2.840.113556.1.4.319", first.getControlType()
+				.stringValue());
+		assertFalse(first.getCriticality().booleanValue());
+		assertEquals(2, first.getControlValue().byteValue().length);
+		RfcControl second = (RfcControl) decodedControls.get(1);
+		assertEquals("2.16.840.1.113730.3.4.2", second.getControlType()
+				.stringValue());
+		assertTrue(second.getCriticality().booleanValue());
+		assertNull(second.getControlValue());
+	}
+	/**
+	 * A search result done holding a referral must decode with its result
+	 * code, messages and referral URLs.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testResultWithReferral() throws Exception {
+		RfcSearchResultDone op = new RfcSearchResultDone(
+				new ASN1Enumerated(10), new RfcLDAPDN("dc=example,dc=com"),
+				new RfcLDAPString("see elsewhere"), null);
+		op.add(tagged(3, true, new RfcReferral(new String[] {
+				"ldap://a.example.com/", "ldap://b.example.com/" })));
+		RfcLDAPMessage message = decode(op, null);
+		assertEquals(LDAPMessage.SEARCH_RESULT, message.getType());
+		assertNull(message.getControls());
+		RfcSearchResultDone done = (RfcSearchResultDone) message.getResponse();
+		assertEquals(10, done.getResultCode().intValue());
+		assertEquals("dc=example,dc=com", done.getMatchedDN().stringValue());
+		assertEquals("see elsewhere", done.getErrorMessage().stringValue());
+		RfcReferral referral = done.getReferral();
+		assertEquals(2, referral.size());
+		assertTrue(((ASN1OctetString) referral.get(1)).stringValue()
+				.startsWith("ldap://b.example.com"));
+	}
+	/**
+	 * An extended response must decode with its name and value, and a
+	 * search result reference with its URLs.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testExtendedResponseAndReference() throws Exception {
+		RfcExtendedResponse op = new RfcExtendedResponse(new ASN1Enumerated(
+				0), new RfcLDAPDN(""), new RfcLDAPString(""), null, null, null);
+		op.add(tagged(10, false, new RfcLDAPOID("1.3.6.1.4.1.4203.1.11.3")));
+		op.add(tagged(11, false, new ASN1OctetString("dn:cn=me")));
+		RfcLDAPMessage message = decode(op, null);
+		assertEquals(LDAPMessage.EXTENDED_RESPONSE, message.getType());
+		RfcExtendedResponse response = (RfcExtendedResponse) message
+				.getResponse();
+		assertEquals(0, response.getResultCode().intValue());
+		assertEquals("1.3.6.1.4.1.4203.1.11.3", response.getResponseName()
+				.stringValue());
+		assertEquals("dn:cn=me", response.getResponse().stringValue());
+
+		message = decode(new RfcSearchResultReference(new String[] {
+				"ldap://a.example.com/dc=a", "ldap://b.example.com/dc=b" }),
+				null);
+		assertEquals(LDAPMessage.SEARCH_RESULT_REFERENCE, message.getType());
+		assertEquals(2, ((RfcSearchResultReference) message.getResponse())
+				.size());
+	}
+	/**
+	 * A protocol op that is not a response must be rejected.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testInvalidTag() throws Exception {
+		try {
+			decode(new RfcDelRequest("cn=test"), null);
+			fail("a request must not decode as a reply");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().indexOf("Invalid tag") >= 0);
+		}
+	}
+}
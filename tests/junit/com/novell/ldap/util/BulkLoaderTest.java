@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.util;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.TestServer;
+import com.novell.ldap.asn1.ASN1OctetString;
+import com.novell.ldap.asn1.ASN1Sequence;
+import com.novell.ldap.asn1.ASN1Tagged;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for loading LDIF requests over several
+ * connections with BulkLoader.
+ */
+public class BulkLoaderTest extends TestCase {
+	private Server server;
+	private LDAPConnection[] connections;
+	protected void setUp() throws Exception {
+		server = new Server();
+		connections = new LDAPConnection[2];
+		for (int i = 0; i < connections.length; i++) {
+			connections[i] = new LDAPConnection();
+			connections[i].connect("127.0.0.1", server.getPort());
+		}
+	}
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < connections.length; i++) {
+			connections[i].disconnect();
+		}
+		server.close();
+	}
+	/**
+	 * This tests checks requests are sent over every connection with up
+	 * to the window outstanding on each, and all complete.
+	 * 
+	 * @throws Exception
+	 */
+	public void testpipelining() throws Exception {
+		StringBuffer ldif = new StringBuffer("version: 1\n\n");
+		for (int i = 0; i < 200; i++) {
+			ldif.append("dn: cn=entry" + i + ",dc=example,dc=com\n"
+					+ "changetype: add\nobjectClass: person\ncn: entry" + i
+					+ "\nsn: entry\n\n");
+		}
+		server.setDelay(2);
+		final int[] max = new int[1];
+		BulkLoader loader = new BulkLoader(connections, 4);
+		loader.setProgressListener(new BulkLoader.ProgressListener() {
+			public void progress(BulkLoader l) {
+				max[0] = Math.max(max[0], l.getOutstanding());
+			}
+		}, 1);
+		loader.load(reader(ldif.toString()));
+		assertEquals(200, loader.getRead());
+		assertEquals(200, loader.getCompleted());
+		assertEquals(0, loader.getFailed());
+		assertEquals(0, loader.getOutstanding());
+		assertEquals(200, server.getRequests(LDAPMessage.ADD_REQUEST));
+		// More than one connection's window, never more than both
+		assertTrue(max[0] > 4);
+		assertTrue(max[0] <= 8);
+	}
+	/**
+	 * This tests checks parents are added before their children and
+	 * deleted after them, and requests for an entry are applied in order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testordering() throws Exception {
+		String ldif = "version: 1\n\n"
+				+ "dn: ou=a,dc=example,dc=com\nchangetype: add\n"
+				+ "objectClass: organizationalUnit\nou: a\n\n"
+				+ "dn: cn=x,ou=a,dc=example,dc=com\nchangetype: add\n"
+				+ "objectClass: person\ncn: x\nsn: x\n\n"
+				+ "dn: cn=y,ou=a,dc=example,dc=com\nchangetype: add\n"
+				+ "objectClass: person\ncn: y\nsn: y\n\n"
+				+ "dn: cn=x,ou=a,dc=example,dc=com\nchangetype: modify\n"
+				+ "replace: sn\nsn: z\n-\n\n"
+				+ "dn: cn=x,ou=a,dc=example,dc=com\nchangetype: delete\n\n"
+				+ "dn: cn=y,ou=a,dc=example,dc=com\nchangetype: delete\n\n"
+				+ "dn: ou=a,dc=example,dc=com\nchangetype: delete\n\n";
+		server.setDelay(10);
+		BulkLoader loader = new BulkLoader(connections, 8);
+		loader.load(reader(ldif));
+		assertEquals(7, loader.getCompleted());
+		assertEquals(0, loader.getFailed());
+		List ops = server.getOperations();
+		assertEquals(7, ops.size());
+		int addParent = ops.indexOf("add ou=a,dc=example,dc=com");
+		int addX = ops.indexOf("add cn=x,ou=a,dc=example,dc=com");
+		int addY = ops.indexOf("add cn=y,ou=a,dc=example,dc=com");
+		int modX = ops.indexOf("modify cn=x,ou=a,dc=example,dc=com");
+		int delX = ops.indexOf("delete cn=x,ou=a,dc=example,dc=com");
+		int delY = ops.indexOf("delete cn=y,ou=a,dc=example,dc=com");
+		int delParent = ops.indexOf("delete ou=a,dc=example,dc=com");
+		assertTrue(addParent < addX && addParent < addY);
+		assertTrue(addX < modX && modX < delX);
+		assertTrue(addY < delY);
+		assertTrue(delX < delParent && delY < delParent);
+	}
+	/**
+	 * This tests checks failed requests are counted and written to the
+	 * reject writer with the error, without stopping the load.
+	 * 
+	 * @throws Exception
+	 */
+	public void testrejects() throws Exception {
+		StringBuffer ldif = new StringBuffer("version: 1\n\n");
+		for (int i = 0; i < 10; i++) {
+			String cn = ((i % 3) == 0) ? "bad" + i : "good" + i;
+			ldif.append("dn: cn=" + cn + ",dc=example,dc=com\n"
+					+ "changetype: add\nobjectClass: person\ncn: " + cn
+					+ "\nsn: entry\n\n");
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BulkLoader loader = new BulkLoader(connections, 4);
+		loader.setRejectWriter(new LDIFWriter(out, "1", true));
+		loader.load(reader(ldif.toString()));
+		assertEquals(10, loader.getCompleted());
+		assertEquals(4, loader.getFailed());
+		String rejects = out.toString("UTF-8");
+		for (int i = 0; i < 10; i++) {
+			if ((i % 3) == 0) {
+				assertTrue(rejects.indexOf("dn: cn=bad" + i) >= 0);
+			} else {
+				assertTrue(rejects.indexOf("cn=good" + i) < 0);
+			}
+		}
+		assertTrue(rejects.indexOf("(" + LDAPException.ENTRY_ALREADY_EXISTS
+				+ ")") >= 0);
+		// The rejects can be loaded again
+		LDIFReader again = reader(rejects);
+		int count = 0;
+		while (again.readMessage() != null) {
+			count++;
+		}
+		assertEquals(4, count);
+	}
+	/**
+	 * This tests checks input that cannot be parsed ends the load with an
+	 * LDAPException, once the requests already sent have completed.
+	 * 
+	 * @throws Exception
+	 */
+	public void testparseError() throws Exception {
+		String ldif = "version: 1\n\n"
+				+ "dn: cn=one,dc=example,dc=com\nchangetype: add\n"
+				+ "objectClass: person\ncn: one\nsn: one\n\n"
+				+ "dn: cn=two,dc=example,dc=com\nchangetype: bogus\n\n";
+		server.setDelay(50);
+		BulkLoader loader = new BulkLoader(connections, 4);
+		try {
+			loader.load(reader(ldif));
+			fail("the load must fail");
+		} catch (LDAPException e) {
+			// expected
+		}
+		assertEquals(0, loader.getOutstanding());
+		assertEquals(1, loader.getCompleted());
+		assertEquals(1, server.getRequests(LDAPMessage.ADD_REQUEST));
+	}
+	/**
+	 * This tests checks a modify DN request waits for the requests for its
+	 * new superior, and the requests for entries under its new name wait
+	 * for it.
+	 * 
+	 * @throws Exception
+	 */
+	public void testrenameOrdering() throws Exception {
+		String ldif = "version: 1\n\n"
+				+ "dn: cn=x,dc=example,dc=com\nchangetype: modrdn\n"
+				+ "newrdn: cn=y\ndeleteoldrdn: 1\n\n"
+				+ "dn: cn=z,cn=y,dc=example,dc=com\nchangetype: add\n"
+				+ "objectClass: person\ncn: z\nsn: z\n\n"
+				+ "dn: ou=b,dc=example,dc=com\nchangetype: add\n"
+				+ "objectClass: organizationalUnit\nou: b\n\n"
+				+ "dn: cn=w,dc=example,dc=com\nchangetype: modrdn\n"
+				+ "newrdn: cn=w\ndeleteoldrdn: 1\n"
+				+ "newsuperior: ou=b,dc=example,dc=com\n\n";
+		server.setDelay(100);
+		BulkLoader loader = new BulkLoader(connections, 8);
+		loader.load(reader(ldif));
+		assertEquals(4, loader.getCompleted());
+		assertEquals(0, loader.getFailed());
+		// Each waits for the other's result, not sent alongside
+		assertTrue(server.getTime("add cn=z,cn=y,dc=example,dc=com")
+				- server.getTime("modrdn cn=x,dc=example,dc=com") >= 50);
+		assertTrue(server.getTime("modrdn cn=w,dc=example,dc=com")
+				- server.getTime("add ou=b,dc=example,dc=com") >= 50);
+	}
+	/**
+	 * This tests checks an exception writing the rejects at the end of a
+	 * load does not hide the exception that ended it.
+	 * 
+	 * @throws Exception
+	 */
+	public void testsuppressed() throws Exception {
+		String ldif = "version: 1\n\n"
+				+ "dn: cn=bad,dc=example,dc=com\nchangetype: add\n"
+				+ "objectClass: person\ncn: bad\nsn: bad\n\n"
+				+ "dn: cn=two,dc=example,dc=com\nchangetype: bogus\n\n";
+		server.setDelay(50);
+		BulkLoader loader = new BulkLoader(connections, 4);
+		loader.setRejectWriter(new LDIFWriter(new OutputStream() {
+			public void write(int b) throws IOException {
+				throw new IOException("rejects not written");
+			}
+		}, "1", true));
+		try {
+			loader.load(reader(ldif));
+			fail("the load must fail");
+		} catch (LDAPException e) {
+			assertEquals(1, e.getSuppressed().length);
+			assertTrue(e.getSuppressed()[0] instanceof IOException);
+		}
+	}
+	private static LDIFReader reader(String ldif) throws Exception {
+		return new LDIFReader(new ByteArrayInputStream(ldif
+				.getBytes("UTF-8")));
+	}
+	/*
+	 * Records the update requests received, in order, and rejects adds of
+	 * entries named bad.
+	 */
+	private static class Server extends TestServer {
+		private final List operations = new ArrayList();
+		private final List times = new ArrayList();
+		Server() throws IOException {
+			super(0);
+		}
+		synchronized List getOperations() {
+			return new ArrayList(operations);
+		}
+		synchronized long getTime(String operation) {
+			return ((Long) times.get(operations.indexOf(operation)))
+					.longValue();
+		}
+		protected void respond(int id, ASN1Sequence request, OutputStream out)
+				throws IOException {
+			int tag = request.get(1).getIdentifier().getTag();
+			byte[] op = ((ASN1OctetString) ((ASN1Tagged) request.get(1))
+					.taggedValue()).byteValue();
+			String dn;
+			String name;
+			if (tag == LDAPMessage.DEL_REQUEST) {
+				dn = new String(op, "UTF-8");
+				name = "delete";
+			} else {
+				// The DN is the first component, short enough for one
+				// length octet
+				dn = new String(op, 2, op[1], "UTF-8");
+				name = (tag == LDAPMessage.ADD_REQUEST) ? "add"
+						: (tag == LDAPMessage.MODIFY_RDN_REQUEST) ? "modrdn"
+								: "modify";
+			}
+			synchronized (this) {
+				operations.add(name + " " + dn);
+				times.add(Long.valueOf(System.currentTimeMillis()));
+			}
+			int code = dn.startsWith("cn=bad") ? LDAPException.ENTRY_ALREADY_EXISTS
+					: LDAPException.SUCCESS;
+			writeMessage(out, id, result(tag + 1, code));
+		}
+	}
+}
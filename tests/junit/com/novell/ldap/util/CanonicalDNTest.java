@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.util;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for hashable DNs, the DN pool and the DN
+ * index.
+ */
+public class CanonicalDNTest extends TestCase {
+	/**
+	 * DN and RDN must be usable as hash keys.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testDNHashCode() throws Exception {
+		DN a = new DN("cn=Babs Jensen+uid=BJ,ou=People,dc=Example,dc=com");
+		DN b = new DN("UID=bj + CN=babs jensen, OU=people, DC=example,DC=COM");
+		assertTrue(a.equals((Object) b));
+		assertEquals(a.hashCode(), b.hashCode());
+		HashMap map = new HashMap();
+		map.put(a, "x");
+		assertEquals("x", map.get(b));
+		assertFalse(a.equals((Object) new DN("2.5.4.3=x,ou=People")));
+		assertFalse(a.equals((Object) "cn=x"));
+	}
+
+	/**
+	 * Canonical DNs must be equal when the DNs are, and contain each other
+	 * as the DNs do.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testCanonicalDN() throws Exception {
+		CanonicalDN a = CanonicalDN
+				.valueOf("cn=Babs Jensen+uid=BJ,ou=People,dc=Example,dc=com");
+		CanonicalDN b = CanonicalDN
+				.valueOf("UID=bj + CN=babs jensen, OU=people, DC=example,DC=COM");
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertEquals("cn=babs jensen+uid=bj,ou=people,dc=example,dc=com", a
+				.toString());
+		assertEquals(4, a.countRDNs());
+
+		CanonicalDN people = CanonicalDN.valueOf("ou=People,dc=example,dc=com");
+		assertEquals(people, a.getParent());
+		assertTrue(a.isDescendantOf(people));
+		assertTrue(a.isDescendantOf(CanonicalDN.ROOT));
+		assertFalse(a.isDescendantOf(a));
+		assertFalse(people.isDescendantOf(a));
+		assertFalse(a.isDescendantOf(CanonicalDN.valueOf("ou=Groups,dc=example,dc=com")));
+		assertEquals(CanonicalDN.ROOT, CanonicalDN.valueOf(""));
+		assertEquals(people.getChild("uid=x"), CanonicalDN
+				.valueOf("UID=X,ou=People,dc=example,dc=com"));
+
+		// Escaped special characters must not make different DNs equal
+		assertFalse(CanonicalDN.valueOf("cn=a\\,b=c").equals(
+				CanonicalDN.valueOf("cn=a,b=c")));
+		assertFalse(CanonicalDN.valueOf("cn=a\\+sn=b").equals(
+				CanonicalDN.valueOf("cn=a+sn=b")));
+	}
+
+	/**
+	 * A pool must share equal DNs and their parents.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testPool() throws Exception {
+		DNPool pool = new DNPool();
+		CanonicalDN a = pool.valueOf("uid=a,ou=People,dc=example,dc=com");
+		CanonicalDN b = pool.valueOf("uid=b,OU=People,dc=example,dc=com");
+		assertSame(a.getParent(), b.getParent());
+		assertSame(a, pool.valueOf("UID=A,ou=people,dc=example,dc=com"));
+		assertEquals(5, pool.size());
+		CanonicalDN c = CanonicalDN.valueOf("uid=c,ou=People,dc=example,dc=com");
+		CanonicalDN pooled = pool.intern(c);
+		assertEquals(c, pooled);
+		assertSame(a.getParent(), pooled.getParent());
+		assertSame(pooled, pool.intern(c));
+	}
+
+	/**
+	 * The index must count and list subtrees and levels.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testIndex() throws Exception {
+		DNIndex index = new DNIndex();
+		String[] dns = { "dc=example,dc=com", "ou=People,dc=example,dc=com",
+				"uid=a,ou=People,dc=example,dc=com",
+				"uid=b,ou=People,dc=example,dc=com",
+				"cn=staff,ou=Groups,dc=example,dc=com" };
+		for (int i = 0; i < dns.length; i++) {
+			assertNull(index.put(CanonicalDN.valueOf(dns[i]), dns[i]));
+		}
+		CanonicalDN base = CanonicalDN.valueOf("DC=Example,DC=Com");
+		CanonicalDN people = CanonicalDN.valueOf("ou=people,dc=example,dc=com");
+		CanonicalDN groups = CanonicalDN.valueOf("ou=groups,dc=example,dc=com");
+		assertEquals(5, index.size());
+		assertEquals(5, index.countSubtree(base));
+		assertEquals(3, index.countSubtree(people));
+		assertEquals(2, index.countChildren(people));
+		assertEquals(1, index.countChildren(base));
+		assertFalse(index.containsKey(groups));
+		assertEquals(1, index.countSubtree(groups));
+		assertTrue(index.hasSubordinates(people));
+		assertEquals(dns[2], index.get(people.getChild("UID=A")));
+		assertEquals(people, index.findAncestor(people.getChild("uid=a")));
+		assertEquals(base, index.findAncestor(groups.getChild("cn=x")));
+		assertNull(index.findAncestor(CanonicalDN.valueOf("dc=org")));
+
+		assertEquals(set(new String[] { dns[1], dns[2], dns[3] }),
+				list(index.subtree(people)));
+		assertEquals(set(new String[] { dns[2], dns[3] }), list(index
+				.children(people)));
+		assertEquals(set(new String[] { dns[1] }), list(index.children(base)));
+		assertEquals(5, list(index.subtree(CanonicalDN.ROOT)).size());
+
+		assertEquals(dns[4], index.remove(CanonicalDN.valueOf(dns[4])));
+		assertEquals(0, index.countSubtree(groups));
+		assertEquals(4, index.size());
+		assertEquals(dns[1], index.remove(people));
+		assertEquals(2, index.countSubtree(people));
+		assertEquals(0, index.countChildren(base));
+		assertEquals(set(new String[] { dns[0], dns[2], dns[3] }), list(index
+				.subtree(base)));
+	}
+
+	private static HashSet set(String[] dns) {
+		HashSet set = new HashSet();
+		for (int i = 0; i < dns.length; i++) {
+			set.add(CanonicalDN.valueOf(dns[i]));
+		}
+		return set;
+	}
+
+	private static HashSet list(Iterator i) {
+		HashSet set = new HashSet();
+		while (i.hasNext()) {
+			assertTrue(set.add(i.next()));
+		}
+		return set;
+	}
+}
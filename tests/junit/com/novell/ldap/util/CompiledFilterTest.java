@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.util;
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPSchema;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the client-side filter evaluator.
+ */
+public class CompiledFilterTest extends TestCase {
+	private LDAPEntry entry;
+	private LDAPSchema schema;
+
+	protected void setUp() throws Exception {
+		LDAPAttributeSet attrs = new LDAPAttributeSet();
+		attrs.add(new LDAPAttribute("objectClass",
+				new String[] { "top", "person", "inetOrgPerson" }));
+		attrs.add(new LDAPAttribute("cn", new String[] { "Babs  Jensen",
+				"Barbara Jensen" }));
+		attrs.add(new LDAPAttribute("sn", "Jensen"));
+		attrs.add(new LDAPAttribute("uid", "bjensen"));
+		attrs.add(new LDAPAttribute("uidNumber", "1042"));
+		attrs.add(new LDAPAttribute("telephoneNumber", "+1 408 555 1862"));
+		attrs.add(new LDAPAttribute("description;lang-en", "A manager"));
+		entry = new LDAPEntry("uid=bjensen,ou=People,dc=example,dc=com",
+				attrs);
+
+		LDAPAttributeSet defs = new LDAPAttributeSet();
+		defs.add(new LDAPAttribute("attributeTypes", new String[] {
+				"( 2.5.4.41 NAME 'name' EQUALITY caseIgnoreMatch"
+						+ " SUBSTR caseIgnoreSubstringsMatch )",
+				"( 2.5.4.3 NAME ( 'cn' 'commonName' ) SUP name )",
+				"( 2.5.4.4 NAME ( 'sn' 'surname' ) SUP name )",
+				"( 0.9.2342.19200300.100.1.1 NAME ( 'uid' 'userid' )"
+						+ " EQUALITY caseIgnoreMatch )",
+				"( 1.3.6.1.1.1.1.0 NAME 'uidNumber' EQUALITY integerMatch"
+						+ " ORDERING integerOrderingMatch )",
+				"( 2.5.4.20 NAME 'telephoneNumber'"
+						+ " EQUALITY telephoneNumberMatch"
+						+ " SUBSTR telephoneNumberSubstringsMatch )",
+				"( 2.5.4.0 NAME 'objectClass'"
+						+ " EQUALITY objectIdentifierMatch )",
+				"( 2.5.4.13 NAME 'description' EQUALITY caseIgnoreMatch )" }));
+		schema = new LDAPSchema(new LDAPEntry("cn=schema", defs));
+	}
+
+	private boolean matches(String filter) throws Exception {
+		return new CompiledFilter(filter).matches(entry);
+	}
+
+	private boolean matchesWithSchema(String filter) throws Exception {
+		return new CompiledFilter(filter, schema).matches(entry);
+	}
+
+	/**
+	 * Simple items and the boolean operators, without a schema.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testWithoutSchema() throws Exception {
+		assertTrue(matches("(objectClass=*)"));
+		assertFalse(matches("(mail=*)"));
+		assertTrue(matches("(OBJECTCLASS=Person)"));
+		assertTrue(matches("(cn=babs jensen)"));
+		assertTrue(matches("(cn= Barbara   JENSEN )"));
+		assertFalse(matches("(cn=Babs)"));
+		assertTrue(matches("(&(sn=jensen)(uid=bjensen))"));
+		assertFalse(matches("(&(sn=jensen)(uid=other))"));
+		assertTrue(matches("(|(uid=other)(sn=jensen))"));
+		assertTrue(matches("(!(uid=other))"));
+		assertTrue(matches("(sn>=J)"));
+		assertTrue(matches("(sn<=K)"));
+		assertFalse(matches("(sn>=K)"));
+		assertTrue(matches("(cn=b*)"));
+		assertTrue(matches("(cn=*bar*jen*)"));
+		assertTrue(matches("(cn=barb*sen)"));
+		assertFalse(matches("(cn=*smith*)"));
+		assertTrue(matches("(cn~=babsjensen)"));
+		assertTrue(matches("(description;lang-en=a manager)"));
+		assertFalse(matches("(description=a manager)"));
+	}
+
+	/**
+	 * Matching rules, aliases and Undefined items with a schema.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testWithSchema() throws Exception {
+		assertTrue(matchesWithSchema("(surname=JENSEN)"));
+		assertTrue(matchesWithSchema("(commonName=barb*)"));
+		assertTrue(matchesWithSchema("(userid=BJensen)"));
+		assertTrue(matchesWithSchema("(uidNumber=01042)"));
+		assertTrue(matchesWithSchema("(uidNumber>=999)"));
+		assertFalse(matchesWithSchema("(uidNumber<=999)"));
+		assertTrue(matchesWithSchema("(telephoneNumber=+14085551862)"));
+		assertTrue(matchesWithSchema("(telephoneNumber=*5551862)"));
+
+		// Undefined: no ordering rule, unknown attribute, invalid integer
+		assertFalse(matchesWithSchema("(sn>=A)"));
+		assertFalse(matchesWithSchema("(!(sn>=A))"));
+		assertFalse(matchesWithSchema("(!(unknown=x))"));
+		assertFalse(matchesWithSchema("(!(uidNumber=abc))"));
+		assertTrue(matchesWithSchema("(|(uidNumber=abc)(sn=jensen))"));
+		assertFalse(matchesWithSchema("(&(uidNumber=abc)(sn=jensen))"));
+		assertFalse(matchesWithSchema("(!(&(uidNumber=abc)(sn=jensen)))"));
+		assertTrue(matchesWithSchema("(!(&(uidNumber=abc)(sn=smith)))"));
+	}
+
+	/**
+	 * Extensible match items.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testExtensible() throws Exception {
+		assertTrue(matches("(sn:caseExactMatch:=Jensen)"));
+		assertFalse(matches("(sn:caseExactMatch:=jensen)"));
+		assertTrue(matches("(sn:2.5.13.5:=Jensen)"));
+		assertTrue(matches("(:caseIgnoreMatch:=BJENSEN)"));
+		assertFalse(matches("(ou:=people)"));
+		assertTrue(matches("(ou:dn:=people)"));
+		assertTrue(matches("(:dn:caseIgnoreMatch:=example)"));
+		assertFalse(matches("(sn:unknownMatch:=Jensen)"));
+		assertFalse(matches("(!(sn:unknownMatch:=Jensen))"));
+		assertTrue(matchesWithSchema("(uidNumber:=1042)"));
+	}
+}
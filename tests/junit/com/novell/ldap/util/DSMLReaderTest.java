@@ -15,8 +15,13 @@
  */
 package com.novell.ldap.util;
 import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Iterator;
 import com.novell.ldap.LDAPExtendedResponse;
+import com.novell.ldap.LDAPLocalException;
 import com.novell.ldap.LDAPSearchRequest;
+import com.novell.ldap.LDAPSearchResult;
 import junit.framework.TestCase;
 /**
  * This Class contains some testcases for DSMLReader primarily based on patches
@@ -92,4 +97,141 @@ public class DSMLReaderTest extends TestCase {
 		for (int i = 0; i < arr1.length; i++)
 			assertEquals(arr1[i], arr2[i]);
 	}
-}
\ No newline at end of file
+	private static final String BATCH_RESPONSE = "<batchResponse"
+			+ " xmlns=\"urn:oasis:names:tc:DSML:2:0:core\" requestID=\"7\">"
+			+ "<searchResponse requestID=\"1\">";
+	private static String entry(int i) {
+		return "<searchResultEntry dn=\"uid=user" + i
+				+ ",dc=example,dc=com\"><attr name=\"uid\"><value>user" + i
+				+ "</value></attr></searchResultEntry>";
+	}
+	/**
+	 * This tests checks that messages are returned before the rest of the
+	 * document has been written.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadStreaming() throws Exception {
+		PipedOutputStream out = new PipedOutputStream();
+		PipedInputStream in = new PipedInputStream(out);
+		out.write((BATCH_RESPONSE + entry(0)).getBytes("UTF-8"));
+		out.flush();
+		reader = new DSMLReader(in);
+		assertEquals(reader.getBatchRequestID(), "7");
+		LDAPSearchResult result = (LDAPSearchResult) reader.readMessage();
+		assertEquals(result.getEntry().getDN(), "uid=user0,dc=example,dc=com");
+		out.write((entry(1) + "</searchResponse></batchResponse>")
+				.getBytes("UTF-8"));
+		out.close();
+		result = (LDAPSearchResult) reader.readMessage();
+		assertEquals(result.getEntry().getDN(), "uid=user1,dc=example,dc=com");
+		assertNull(reader.readMessage());
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * This tests checks that documents with more messages than are held
+	 * waiting are read completely and in order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadManyMessages() throws Exception {
+		StringBuffer xml = new StringBuffer(BATCH_RESPONSE);
+		for (int i = 0; i < 1000; i++)
+			xml.append(entry(i));
+		xml.append("</searchResponse></batchResponse>");
+		reader = new DSMLReader(new ByteArrayInputStream(xml.toString()
+				.getBytes("UTF-8")));
+		for (int i = 0; i < 1000; i++) {
+			LDAPSearchResult result = (LDAPSearchResult) reader.readMessage();
+			assertEquals(result.getEntry().getAttribute("uid")
+					.getStringValue(), "user" + i);
+		}
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * This tests checks that an error after the first messages is thrown by
+	 * readMessage once those messages have been read, and that a reader can
+	 * be closed before the end.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadInvalidAndClose() throws Exception {
+		String xml = BATCH_RESPONSE + entry(0) + "<bogus/>";
+		reader = new DSMLReader(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		assertNotNull(reader.readMessage());
+		try {
+			reader.readMessage();
+			fail("Invalid DSML was read");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof LDAPLocalException);
+		}
+		assertNull(reader.readMessage());
+
+		StringBuffer many = new StringBuffer(BATCH_RESPONSE);
+		for (int i = 0; i < 500; i++)
+			many.append(entry(i));
+		reader = new DSMLReader(new ByteArrayInputStream(many.toString()
+				.getBytes("UTF-8")));
+		assertNotNull(reader.readMessage());
+		reader.close();
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * This tests checks that the parser of a reader dropped before the end
+	 * is stopped once the reader is garbage collected.
+	 * 
+	 * @throws Exception
+	 */
+	public void testabandoned() throws Exception {
+		StringBuffer many = new StringBuffer(BATCH_RESPONSE);
+		for (int i = 0; i < 500; i++)
+			many.append(entry(i));
+		DSMLReader dropped = new DSMLReader(new ByteArrayInputStream(many
+				.toString().getBytes("UTF-8")));
+		assertNotNull(dropped.readMessage());
+		dropped = null;
+		long end = System.currentTimeMillis() + 10000;
+		while (parsing() && System.currentTimeMillis() < end) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertFalse(parsing());
+	}
+	/**
+	 * This tests checks that the constructor keeps the interrupt status of
+	 * a thread interrupted while waiting for the batch attributes.
+	 * 
+	 * @throws Exception
+	 */
+	public void testinterruptedConstructor() throws Exception {
+		String xml = BATCH_RESPONSE + entry(0)
+				+ "</searchResponse></batchResponse>";
+		Thread.currentThread().interrupt();
+		try {
+			reader = new DSMLReader(new ByteArrayInputStream(xml
+					.getBytes("UTF-8")));
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+		assertNotNull(reader.readMessage());
+		assertNull(reader.readMessage());
+		reader.close();
+	}
+	/*
+	 * Returns true if a DSMLReader parser thread is parsing a document.
+	 */
+	private static boolean parsing() {
+		Iterator i = Thread.getAllStackTraces().values().iterator();
+		while (i.hasNext()) {
+			StackTraceElement[] stack = (StackTraceElement[]) i.next();
+			for (int j = 0; j < stack.length; j++) {
+				if (stack[j].getClassName().startsWith(
+						DSMLReader.class.getName())
+						&& stack[j].getMethodName().equals("parse")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
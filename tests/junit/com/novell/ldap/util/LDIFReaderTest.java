@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.util;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for LDIFReader, comparing the messages read
+ * by parallel readers with those read by a sequential one.
+ */
+public class LDIFReaderTest extends TestCase {
+	private static String content(int count, String eol) {
+		StringBuffer buf = new StringBuffer("version: 1" + eol + eol);
+		for (int i = 0; i < count; i++) {
+			buf.append("# entry " + i + eol);
+			buf.append("dn: uid=user" + i + ",ou=people,dc=example,dc=com"
+					+ eol);
+			buf.append("objectClass: inetOrgPerson" + eol);
+			buf.append("cn: User Number " + i + " with a name long enough"
+					+ eol + "  to be folded" + eol);
+			buf.append("sn: Number" + eol);
+			buf.append("description:: VGhpcyBpcyBhIGJhc2U2NCB2YWx1ZQ==" + eol);
+			buf.append(eol);
+			if (i % 1000 == 0) {
+				buf.append(eol);
+			}
+		}
+		return buf.toString();
+	}
+	private static String changes(int count) {
+		StringBuffer buf = new StringBuffer("version: 1\n\n");
+		for (int i = 0; i < count; i++) {
+			String dn = "dn: uid=user" + i + ",dc=example,dc=com\n";
+			switch (i % 4) {
+			case 0:
+				buf.append(dn + "changetype: add\nobjectClass: person\n"
+						+ "cn: user" + i + "\nsn: user\n\n");
+				break;
+			case 1:
+				buf.append(dn + "changetype: modify\nreplace: sn\nsn: other\n"
+						+ "-\nadd: description\ndescription: " + i + "\n-\n\n");
+				break;
+			case 2:
+				buf.append(dn + "changetype: modrdn\nnewrdn: uid=renamed" + i
+						+ "\ndeleteoldrdn: 1\n\n");
+				break;
+			default:
+				buf.append(dn + "changetype: delete\n\n");
+			}
+		}
+		return buf.toString();
+	}
+	private static String write(LDAPReader reader, boolean request)
+			throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LDIFWriter writer = new LDIFWriter(out, "1", request);
+		LDAPMessage message;
+		int count = 0;
+		while ((message = reader.readMessage()) != null) {
+			writer.writeMessage(message);
+			count++;
+		}
+		assertNull(reader.readMessage());
+		writer.finish();
+		return count + "\n" + out.toString("UTF-8");
+	}
+	private static void check(String ldif, boolean request) throws Exception {
+		byte[] bytes = ldif.getBytes("US-ASCII");
+		String expected = write(new LDIFReader(new ByteArrayInputStream(
+				bytes)), request);
+		assertEquals(expected, write(LDIFReader.newParallelReader(
+				new ByteArrayInputStream(bytes), 4), request));
+		File file = File.createTempFile("ldif", ".ldif");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(bytes);
+			out.close();
+			assertEquals(expected, write(LDIFReader.newParallelReader(file, 3),
+					request));
+		} finally {
+			file.delete();
+		}
+	}
+	/**
+	 * This tests checks that content records, spanning several batches and
+	 * stream chunks, are read in order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadContentParallel() throws Exception {
+		check(content(12000, "\n"), false);
+	}
+	/**
+	 * This tests checks that lines may end with CR LF.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadCRLFParallel() throws Exception {
+		check(content(2000, "\r\n"), false);
+	}
+	/**
+	 * This tests checks that lines may end with CR alone.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadCRParallel() throws Exception {
+		check(content(2000, "\r"), false);
+	}
+	/**
+	 * This tests checks that change records are read in order.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadChangesParallel() throws Exception {
+		check(changes(4000), true);
+	}
+	/**
+	 * This tests checks that an invalid record is reported with its line in
+	 * the file, after the messages before it, and ends the messages.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadInvalidParallel() throws Exception {
+		String ldif = content(3000, "\n");
+		int at = ldif.indexOf("dn: uid=user2500,");
+		int line = 1;
+		for (int i = 0; i < at; i++) {
+			if (ldif.charAt(i) == '\n') {
+				line++;
+			}
+		}
+		ldif = ldif.substring(0, at) + "x" + ldif.substring(at);
+		LDIFReader reader = LDIFReader.newParallelReader(
+				new ByteArrayInputStream(ldif.getBytes("US-ASCII")), 4);
+		for (int i = 0; i < 2500; i++) {
+			assertNotNull(reader.readMessage());
+		}
+		try {
+			reader.readMessage();
+			fail("Invalid record read");
+		} catch (LDAPException ex) {
+			assertTrue(ex.toString(), ex.toString().indexOf(
+					"(on line " + line + " of the file)") >= 0);
+		}
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * This tests checks that a reader closed before its end returns no more
+	 * messages.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadClose() throws Exception {
+		LDIFReader reader = LDIFReader.newParallelReader(
+				new ByteArrayInputStream(content(5000, "\n")
+						.getBytes("US-ASCII")), 2);
+		assertNotNull(reader.readMessage());
+		reader.close();
+		assertNull(reader.readMessage());
+	}
+	/**
+	 * This tests checks that the threads of a parallel reader stop once
+	 * its last message has been read.
+	 * 
+	 * @throws Exception
+	 */
+	public void testreadEndStops() throws Exception {
+		LDIFReader reader = LDIFReader.newParallelReader(
+				new ByteArrayInputStream(content(5000, "\n")
+						.getBytes("US-ASCII")), 2);
+		while (reader.readMessage() != null) {
+			// read to the end
+		}
+		assertTrue(stopped(false));
+	}
+	/**
+	 * This tests checks that the threads of a parallel reader dropped
+	 * before its end stop once the reader is garbage collected.
+	 * 
+	 * @throws Exception
+	 */
+	public void testabandoned() throws Exception {
+		LDIFReader reader = LDIFReader.newParallelReader(
+				new ByteArrayInputStream(content(20000, "\n")
+						.getBytes("US-ASCII")), 2);
+		assertNotNull(reader.readMessage());
+		reader = null;
+		assertTrue(stopped(true));
+	}
+	/*
+	 * Waits for the threads splitting and parsing LDIF to stop, collecting
+	 * garbage meanwhile if gc is true.  Returns false if they did not.
+	 */
+	private static boolean stopped(boolean gc) throws Exception {
+		long end = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < end) {
+			if (gc) {
+				System.gc();
+			}
+			boolean running = false;
+			Iterator i = Thread.getAllStackTraces().entrySet().iterator();
+			while (i.hasNext()) {
+				Map.Entry e = (Map.Entry) i.next();
+				String name = ((Thread) e.getKey()).getName();
+				StackTraceElement[] stack = (StackTraceElement[]) e
+						.getValue();
+				if (name.startsWith("LDIFReader-") && !cleaner(stack)) {
+					running = true;
+				}
+			}
+			if (!running) {
+				return true;
+			}
+			Thread.sleep(50);
+		}
+		return false;
+	}
+	private static boolean cleaner(StackTraceElement[] stack) {
+		for (int i = 0; i < stack.length; i++) {
+			if (stack[i].getClassName().indexOf("Cleaner") >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * $OpenLDAP$
+ * 
+ * Copyright (C) 2002 - 2003 Novell, Inc. All Rights Reserved.
+ * 
+ * THIS WORK IS SUBJECT TO U.S. AND INTERNATIONAL COPYRIGHT LAWS AND TREATIES.
+ * USE, MODIFICATION, AND REDISTRIBUTION OF THIS WORK IS SUBJECT TO VERSION
+ * 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, A COPY OF WHICH IS AVAILABLE AT
+ * HTTP://WWW.OPENLDAP.ORG/LICENSE.HTML OR IN THE FILE "LICENSE" IN THE
+ * TOP-LEVEL DIRECTORY OF THE DISTRIBUTION. ANY USE OR EXPLOITATION OF THIS WORK
+ * OTHER THAN AS AUTHORIZED IN VERSION 2.0.1 OF THE OPENLDAP PUBLIC LICENSE, OR
+ * OTHER PRIOR WRITTEN CONSENT FROM NOVELL, COULD SUBJECT THE PERPETRATOR TO
+ * CRIMINAL AND CIVIL LIABILITY.
+ */
+package com.novell.ldap.util;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Random;
+import com.novell.ldap.LDAPAttribute;
+import junit.framework.TestCase;
+/**
+ * This Class contains testcases for the hash indexed attribute values.
+ */
+public class ValueListTest extends TestCase {
+	/**
+	 * A large attribute must keep insertion order and answer lookups
+	 * correctly after adds, removes and changes made through an iterator.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testLargeAttribute() throws Exception {
+		int n = ValueList.INDEX_THRESHOLD * 4;
+		LDAPAttribute attr = new LDAPAttribute("member");
+		for (int i = 0; i < n; i++) {
+			attr.addValue("cn=user" + i);
+		}
+		attr.addValue("cn=user0"); // duplicate
+		assertEquals(n + 1, attr.size());
+		assertTrue(attr.hasValue("cn=user" + (n - 1)));
+		assertFalse(attr.hasValue("cn=nobody"));
+
+		attr.removeValue("cn=user0");
+		assertTrue(attr.hasValue("cn=user0"));
+		attr.removeValue("cn=user0");
+		assertFalse(attr.hasValue("cn=user0"));
+		attr.removeValue("cn=nobody");
+		assertEquals(n - 1, attr.size());
+
+		String[] values = attr.getStringValueArray();
+		for (int i = 1; i < n; i++) {
+			assertEquals("cn=user" + i, values[i - 1]);
+		}
+
+		// Changes behind the index must be seen
+		Iterator<ByteArray> it = attr.getAllValues().iterator();
+		it.next();
+		it.remove();
+		assertFalse(attr.hasValue("cn=user1"));
+		attr.getAllValues().addFirst(new ByteArray("cn=first"));
+		assertTrue(attr.hasValue("cn=first"));
+
+		LDAPAttribute copy = (LDAPAttribute) attr.clone();
+		copy.removeValue("cn=first");
+		assertTrue(attr.hasValue("cn=first"));
+		assertFalse(copy.hasValue("cn=first"));
+	}
+
+	/**
+	 * Removing values of a large list, duplicates included, must remove
+	 * the first occurrence and keep the other values in order.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testRemoveDuplicates() throws Exception {
+		int n = ValueList.INDEX_THRESHOLD * 2;
+		ValueList list = new ValueList();
+		LinkedList<ByteArray> expected = new LinkedList<ByteArray>();
+		for (int i = 0; i < n; i++) {
+			ByteArray value = new ByteArray("cn=user" + (i % 8));
+			list.add(value);
+			expected.add(value);
+		}
+		for (int i = 0; i < n / 2; i++) {
+			ByteArray value = new ByteArray("cn=user" + (i % 3));
+			assertEquals(expected.remove(value), list.remove(value));
+			assertEquals(expected, list);
+		}
+		assertTrue(list.removeLastOccurrence(new ByteArray("cn=user7")));
+		expected.removeLastOccurrence(new ByteArray("cn=user7"));
+		assertEquals(expected, list);
+		while (list.remove(new ByteArray("cn=user5"))) {
+			assertTrue(expected.remove(new ByteArray("cn=user5")));
+		}
+		assertFalse(list.contains(new ByteArray("cn=user5")));
+		assertEquals(expected, list);
+	}
+	/**
+	 * Random changes through every kind of operation must leave the list
+	 * and its lookups the same as a LinkedList's.
+	 * 
+	 * @throws Exception
+	 *             When error occurs.
+	 */
+	public void testRandomChanges() throws Exception {
+		Random random = new Random(8);
+		ValueList list = new ValueList();
+		LinkedList<ByteArray> expected = new LinkedList<ByteArray>();
+		for (int i = 0; i < 20000; i++) {
+			ByteArray value = new ByteArray("cn=user" + random.nextInt(50));
+			switch (random.nextInt(8)) {
+			case 0:
+			case 1:
+				list.add(value);
+				expected.add(value);
+				break;
+			case 2:
+				list.addFirst(value);
+				expected.addFirst(value);
+				break;
+			case 3:
+				int pos = random.nextInt(expected.size() + 1);
+				list.add(pos, value);
+				expected.add(pos, value);
+				break;
+			case 4:
+				assertEquals(expected.remove(value), list.remove(value));
+				break;
+			case 5:
+				assertEquals(expected.removeLastOccurrence(value), list
+						.removeLastOccurrence(value));
+				break;
+			case 6:
+				ListIterator<ByteArray> it = list.listIterator();
+				ListIterator<ByteArray> eit = expected.listIterator();
+				while (it.hasNext()) {
+					if (!it.next().equals(eit.next())) {
+						fail("values out of order");
+					}
+					if (random.nextInt(20) == 0) {
+						it.remove();
+						eit.remove();
+					}
+				}
+				break;
+			default:
+				assertEquals(expected.contains(value), list.contains(value));
+				break;
+			}
+		}
+		assertEquals(expected, list);
+		assertEquals(expected, list.clone());
+	}
+	/**
+	 * Equal values must have equal hash codes.
+	 */
+	public void testHashCode() {
+		ByteArray a = new ByteArray("cn=x");
+		ByteArray b = new ByteArray(new byte[] { 'c', 'n', '=', 'x' });
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(new ByteArray("cn=y")));
+	}
+}